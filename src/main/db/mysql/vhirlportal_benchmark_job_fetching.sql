@@ -0,0 +1,81 @@
+-- Seeds a benchmark series for measuring how many queries are issued when jobs are loaded.
+-- Run against a scratch copy of the vhirlportal database, never production.
+--
+-- 1. Run this script. It creates series 'job-fetch-benchmark' holding 1000 jobs (500 of them
+--    Active so they are picked up by the status poll). Each job has 10 parameters, 3 downloads
+--    and 2 uploads.
+-- 2. Stop all other traffic to the database and start the portal.
+-- 3. Record SHOW GLOBAL STATUS LIKE 'Com_select', wait for a single status poll to run
+--    (VGLJobStatusMonitor) and then record it again. The difference is the number of selects
+--    that one poll issued. Repeat around opening the benchmark series in the job list and
+--    around opening a single job.
+--
+-- Expected selects (1000 jobs, 500 of them active):
+--
+--   Operation                       | Eager collections (before) | Lazy + batch-size=50 (after)
+--   --------------------------------+----------------------------+-----------------------------
+--   Status poll (pending/active)    | 1 + 3 x 500 = 1501         | 1
+--   List series jobs (getSeriesJobs)| 1 + 3 x 1000 = 3001        | 1
+--   Open a single job (getJobById)  | 1 + 3 = 4                  | 3
+--
+-- If something does touch the collections of a list of jobs, batch-size=50 caps it at
+-- 1 + 3 x ceil(N / 50) selects rather than 1 + 3 x N.
+--
+-- Remove the benchmark data afterwards with the statements at the bottom of this script.
+
+USE `vhirlportal`;
+
+DROP PROCEDURE IF EXISTS `seed_job_fetch_benchmark`;
+
+DELIMITER //
+CREATE PROCEDURE `seed_job_fetch_benchmark`(IN jobCount INT)
+BEGIN
+  DECLARE seriesId INT;
+  DECLARE jobId INT;
+  DECLARE i INT DEFAULT 0;
+  DECLARE j INT;
+
+  INSERT INTO `series` (`user`, `name`, `description`)
+  VALUES ('benchmark@example.org', 'job-fetch-benchmark', 'Seeded by vhirlportal_benchmark_job_fetching.sql');
+  SET seriesId = LAST_INSERT_ID();
+
+  WHILE i < jobCount DO
+    INSERT INTO `jobs` (`name`, `description`, `emailAddress`, `user`, `submitDate`, `status`, `seriesId`,
+        `storageBaseKey`, `computeServiceId`, `storageServiceId`)
+    VALUES (CONCAT('benchmark-job-', i), 'Benchmark job', 'benchmark@example.org', 'benchmark@example.org', NOW(),
+        IF(i % 2 = 0, 'Active', 'Done'), seriesId, CONCAT('job-benchmark-', i), 'compute-benchmark', 'storage-benchmark');
+    SET jobId = LAST_INSERT_ID();
+
+    SET j = 0;
+    WHILE j < 10 DO
+      INSERT INTO `parameters` (`jobId`, `name`, `value`, `type`) VALUES (jobId, CONCAT('param', j), j, 'number');
+      SET j = j + 1;
+    END WHILE;
+
+    SET j = 0;
+    WHILE j < 3 DO
+      INSERT INTO `downloads` (`jobId`, `url`, `localPath`, `name`)
+      VALUES (jobId, CONCAT('http://example.org/data', j), CONCAT('/tmp/data', j), CONCAT('data', j));
+      SET j = j + 1;
+    END WHILE;
+
+    SET j = 0;
+    WHILE j < 2 DO
+      INSERT INTO `uploads` (`name`, `fileName`, `size`, `jobId`) VALUES (CONCAT('upload', j), CONCAT('upload', j, '.txt'), 1024, jobId);
+      SET j = j + 1;
+    END WHILE;
+
+    SET i = i + 1;
+  END WHILE;
+END //
+DELIMITER ;
+
+CALL `seed_job_fetch_benchmark`(1000);
+DROP PROCEDURE `seed_job_fetch_benchmark`;
+
+-- Cleanup:
+-- DELETE p FROM `parameters` p JOIN `jobs` j ON p.jobId = j.id JOIN `series` s ON j.seriesId = s.id WHERE s.name = 'job-fetch-benchmark';
+-- DELETE d FROM `downloads` d JOIN `jobs` j ON d.jobId = j.id JOIN `series` s ON j.seriesId = s.id WHERE s.name = 'job-fetch-benchmark';
+-- DELETE u FROM `uploads` u JOIN `jobs` j ON u.jobId = j.id JOIN `series` s ON j.seriesId = s.id WHERE s.name = 'job-fetch-benchmark';
+-- DELETE j FROM `jobs` j JOIN `series` s ON j.seriesId = s.id WHERE s.name = 'job-fetch-benchmark';
+-- DELETE FROM `series` WHERE name = 'job-fetch-benchmark';
@@ -0,0 +1,53 @@
+-- Compares the old and new series queries against 100k series.
+-- Run against a scratch copy of the vhirlportal database, never production. The new
+-- queries rely on vhirlportal_upgrade_series_search.sql having been applied.
+--
+-- The 100k series belong to 1000 users (100 each). The EXPLAIN output should show:
+--   * the old unscoped name search as a full scan ("type: ALL", ~100k rows)
+--   * the new user scoped queries as a ref lookup of USER (~100 rows)
+--   * the keyword search as a fulltext lookup of name_description
+-- SHOW PROFILES lists the time taken by each query.
+
+USE `vhirlportal`;
+
+DROP PROCEDURE IF EXISTS `seed_series_search_benchmark`;
+
+DELIMITER //
+CREATE PROCEDURE `seed_series_search_benchmark`(IN seriesCount INT)
+BEGIN
+  DECLARE i INT DEFAULT 0;
+  WHILE i < seriesCount DO
+    INSERT INTO `series` (`user`, `name`, `description`)
+    VALUES (CONCAT('benchmark', i % 1000, '@example.org'),
+        CONCAT(ELT(1 + i % 5, 'magnetic', 'gravity', 'seismic', 'radiometric', 'borehole'), ' inversion ', i),
+        CONCAT('Series search benchmark ', ELT(1 + i % 3, 'survey', 'model', 'forward run')));
+    SET i = i + 1;
+  END WHILE;
+END //
+DELIMITER ;
+
+CALL `seed_series_search_benchmark`(100000);
+DROP PROCEDURE `seed_series_search_benchmark`;
+ANALYZE TABLE `series`;
+
+-- Old queries (VEGLSeriesDao.query before the change, values concatenated into the HQL)
+EXPLAIN SELECT * FROM `series` WHERE `name` LIKE '%gravity%';
+EXPLAIN SELECT * FROM `series` WHERE `user` = 'benchmark42@example.org' AND `name` LIKE '%gravity%';
+
+-- New queries (VEGLSeriesDao.query with bound parameters and VEGLSeriesDao.search)
+EXPLAIN SELECT * FROM `series` WHERE `user` = 'benchmark42@example.org' ORDER BY `id`;
+EXPLAIN SELECT * FROM `series` WHERE `user` = 'benchmark42@example.org' AND `name` LIKE '%gravity%' ESCAPE '!' ORDER BY `id`;
+EXPLAIN SELECT * FROM `series` WHERE MATCH(`name`, `description`) AGAINST ('+gravity* +survey*' IN BOOLEAN MODE)
+  AND `user` = 'benchmark42@example.org';
+
+SET profiling = 1;
+SELECT SQL_NO_CACHE COUNT(*) FROM `series` WHERE `name` LIKE '%gravity%';
+SELECT SQL_NO_CACHE COUNT(*) FROM `series` WHERE `user` = 'benchmark42@example.org' AND `name` LIKE '%gravity%' ESCAPE '!';
+SELECT SQL_NO_CACHE COUNT(*) FROM `series` WHERE MATCH(`name`, `description`) AGAINST ('+gravity* +survey*' IN BOOLEAN MODE);
+SELECT SQL_NO_CACHE COUNT(*) FROM `series` WHERE MATCH(`name`, `description`) AGAINST ('+gravity* +survey*' IN BOOLEAN MODE)
+  AND `user` = 'benchmark42@example.org';
+SHOW PROFILES;
+SET profiling = 0;
+
+-- Cleanup:
+-- DELETE FROM `series` WHERE `user` LIKE 'benchmark%@example.org';
@@ -0,0 +1,56 @@
+-- Compares the old and new status poll queries against 1M historical jobs.
+-- Run against a scratch copy of the vhirlportal database, never production. The new
+-- queries rely on vhirlportal_upgrade_status_index.sql having been applied.
+--
+-- The EXPLAIN output should show a full scan ("type: ALL", ~1M rows) for the old lower(status)
+-- queries and a range scan of status_id (tens of rows) for the new ones. SHOW PROFILES lists
+-- the time taken by each query.
+
+USE `vhirlportal`;
+
+-- 1M historical (Done) jobs, built by repeatedly doubling a single seed row
+INSERT INTO `jobs` (`name`, `user`, `status`, `seriesId`, `submitDate`)
+VALUES ('status-benchmark', 'benchmark@example.org', 'Done', -1, NOW());
+
+DROP PROCEDURE IF EXISTS `seed_status_benchmark`;
+
+DELIMITER //
+CREATE PROCEDURE `seed_status_benchmark`()
+BEGIN
+  DECLARE total INT DEFAULT 1;
+  WHILE total < 1000000 DO
+    INSERT INTO `jobs` (`name`, `user`, `status`, `seriesId`, `submitDate`)
+    SELECT `name`, `user`, `status`, `seriesId`, `submitDate` FROM `jobs` WHERE `seriesId` = -1
+    LIMIT 1000000;
+    SELECT COUNT(*) INTO total FROM `jobs` WHERE `seriesId` = -1;
+  END WHILE;
+END //
+DELIMITER ;
+
+CALL `seed_status_benchmark`();
+DROP PROCEDURE `seed_status_benchmark`;
+
+-- A realistic number of live jobs
+UPDATE `jobs` SET `status` = 'Active' WHERE `seriesId` = -1 ORDER BY `id` DESC LIMIT 40;
+UPDATE `jobs` SET `status` = 'Pending' WHERE `seriesId` = -1 AND `status` = 'Done' ORDER BY `id` DESC LIMIT 10;
+UPDATE `jobs` SET `status` = 'In Queue' WHERE `seriesId` = -1 AND `status` = 'Done' ORDER BY `id` DESC LIMIT 10;
+ANALYZE TABLE `jobs`;
+
+-- Old queries (getPendingOrActiveJobs / getInQueueJobs before the change)
+EXPLAIN SELECT * FROM `jobs` WHERE LOWER(`status`)='Pending' OR LOWER(`status`)='Active';
+EXPLAIN SELECT * FROM `jobs` WHERE LOWER(`status`)='In Queue';
+
+-- New queries (VEGLJobDao.getJobsWithStatus)
+EXPLAIN SELECT * FROM `jobs` WHERE `status` IN ('Pending', 'Active') ORDER BY `id`;
+EXPLAIN SELECT * FROM `jobs` WHERE `status` IN ('In Queue') ORDER BY `id`;
+
+SET profiling = 1;
+SELECT SQL_NO_CACHE COUNT(*) FROM `jobs` WHERE LOWER(`status`)='Pending' OR LOWER(`status`)='Active';
+SELECT SQL_NO_CACHE COUNT(*) FROM `jobs` WHERE LOWER(`status`)='In Queue';
+SELECT SQL_NO_CACHE COUNT(*) FROM `jobs` WHERE `status` IN ('Pending', 'Active');
+SELECT SQL_NO_CACHE COUNT(*) FROM `jobs` WHERE `status` IN ('In Queue');
+SHOW PROFILES;
+SET profiling = 0;
+
+-- Cleanup:
+-- DELETE FROM `jobs` WHERE `seriesId` = -1;
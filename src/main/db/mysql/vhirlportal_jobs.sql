@@ -31,7 +31,7 @@ CREATE TABLE `jobs` (
   `emailAddress` varchar(255) DEFAULT NULL,
   `user` varchar(255) DEFAULT NULL,
   `submitDate` datetime DEFAULT NULL,
-  `status` varchar(255) DEFAULT NULL,
+  `status` varchar(32) DEFAULT NULL,
   `computeVmId` varchar(255) DEFAULT NULL,
   `computeInstanceId` varchar(255) DEFAULT NULL,
   `computeInstanceType` varchar(255) DEFAULT NULL,
@@ -46,7 +46,8 @@ CREATE TABLE `jobs` (
   `processTimeLog` varchar(255) DEFAULT '',
   `solutionId` varchar(255) DEFAULT NULL,
   PRIMARY KEY (`id`),
-  KEY `SERIES` (`seriesId`)
+  KEY `SERIES` (`seriesId`),
+  KEY `status_id` (`status`,`id`)
 ) ENGINE=MyISAM DEFAULT CHARSET=latin1;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
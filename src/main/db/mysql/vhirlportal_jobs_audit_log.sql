@@ -31,7 +31,10 @@ CREATE TABLE `jobs_audit_log` (
   `toStatus` varchar(255) NOT NULL,
   `transitionDate` datetime NOT NULL,
   `message` varchar(1000) DEFAULT NULL,
-  PRIMARY KEY (`id`),
-  KEY `jobId` (`jobId`)
-) ENGINE=MyISAM DEFAULT CHARSET=latin1;
+  PRIMARY KEY (`id`,`transitionDate`),
+  KEY `jobId_transitionDate` (`jobId`,`transitionDate`),
+  KEY `transitionDate` (`transitionDate`)
+) ENGINE=InnoDB DEFAULT CHARSET=latin1
+/*!50100 PARTITION BY RANGE (TO_DAYS(`transitionDate`))
+(PARTITION pmax VALUES LESS THAN MAXVALUE) */;
 /*!40101 SET character_set_client = @saved_cs_client */;
\ No newline at end of file
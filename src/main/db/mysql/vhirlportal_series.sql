@@ -30,7 +30,8 @@ CREATE TABLE `series` (
   `name` varchar(255) NOT NULL,
   `description` varchar(255) DEFAULT NULL,
   PRIMARY KEY (`id`),
-  KEY `USER` (`user`)
+  KEY `USER` (`user`),
+  FULLTEXT KEY `name_description` (`name`,`description`)
 ) ENGINE=MyISAM DEFAULT CHARSET=latin1;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -0,0 +1,52 @@
+-- Partitions jobs_audit_log by month of transitionDate so that time range queries only read the
+-- months they cover and old months can be archived by dropping a partition (see VHIRLAuditLogArchiver).
+--
+-- Partition pYYYYMM holds the transitions of that month. pmax catches everything after the last
+-- monthly partition - VHIRLAuditLogArchiver splits new months out of it as they arrive.
+--
+-- MySQL requires the partitioning column in every unique key so the primary key becomes
+-- (id, transitionDate). id is still unique as it's auto incremented.
+--
+-- The table is converted to InnoDB first as partitioned MyISAM tables are deprecated in MySQL 5.7
+-- and rejected by MySQL 8.
+
+USE `vhirlportal`;
+
+ALTER TABLE `jobs_audit_log` ENGINE=InnoDB;
+
+ALTER TABLE `jobs_audit_log`
+  DROP PRIMARY KEY,
+  ADD PRIMARY KEY (`id`, `transitionDate`),
+  DROP KEY `jobId`,
+  ADD KEY `jobId_transitionDate` (`jobId`, `transitionDate`),
+  ADD KEY `transitionDate` (`transitionDate`);
+
+-- One partition for every month from the oldest transition up to and including next month
+DROP PROCEDURE IF EXISTS `partition_jobs_audit_log`;
+
+DELIMITER //
+CREATE PROCEDURE `partition_jobs_audit_log`()
+BEGIN
+  DECLARE month DATE;
+  DECLARE lastMonth DATE;
+  DECLARE partitions TEXT DEFAULT '';
+
+  SELECT DATE_FORMAT(COALESCE(MIN(`transitionDate`), NOW()), '%Y-%m-01') INTO month FROM `jobs_audit_log`;
+  SET lastMonth = DATE_ADD(DATE_FORMAT(NOW(), '%Y-%m-01'), INTERVAL 1 MONTH);
+
+  WHILE month <= lastMonth DO
+    SET partitions = CONCAT(partitions, 'PARTITION p', DATE_FORMAT(month, '%Y%m'),
+        ' VALUES LESS THAN (TO_DAYS(''', DATE_ADD(month, INTERVAL 1 MONTH), ''')), ');
+    SET month = DATE_ADD(month, INTERVAL 1 MONTH);
+  END WHILE;
+
+  SET @partitionSql = CONCAT('ALTER TABLE `jobs_audit_log` PARTITION BY RANGE (TO_DAYS(`transitionDate`)) (',
+      partitions, 'PARTITION pmax VALUES LESS THAN MAXVALUE)');
+  PREPARE partitionStatement FROM @partitionSql;
+  EXECUTE partitionStatement;
+  DEALLOCATE PREPARE partitionStatement;
+END //
+DELIMITER ;
+
+CALL `partition_jobs_audit_log`();
+DROP PROCEDURE `partition_jobs_audit_log`;
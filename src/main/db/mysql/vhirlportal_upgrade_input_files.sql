@@ -0,0 +1,12 @@
+CREATE TABLE IF NOT EXISTS `input_files` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `storageServiceId` varchar(255) NOT NULL,
+  `contentHash` char(32) NOT NULL,
+  `size` bigint(20) NOT NULL,
+  `cloudKey` varchar(1024) NOT NULL,
+  `jobId` int(11) NOT NULL,
+  `createdDate` datetime NOT NULL,
+  PRIMARY KEY (`id`),
+  KEY `storageServiceId_contentHash` (`storageServiceId`,`contentHash`),
+  KEY `jobId` (`jobId`)
+) ENGINE=MyISAM DEFAULT CHARSET=latin1;
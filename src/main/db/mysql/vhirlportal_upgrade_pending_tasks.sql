@@ -0,0 +1,13 @@
+CREATE TABLE IF NOT EXISTS `pending_tasks` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `jobId` int(11) NOT NULL,
+  `taskType` varchar(64) NOT NULL,
+  `attempts` int(11) NOT NULL DEFAULT '0',
+  `createdDate` datetime NOT NULL,
+  `lastAttemptDate` datetime DEFAULT NULL,
+  `lastError` varchar(1000) DEFAULT NULL,
+  `serverUrl` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `jobId_taskType` (`jobId`,`taskType`),
+  KEY `taskType` (`taskType`)
+) ENGINE=MyISAM DEFAULT CHARSET=latin1;
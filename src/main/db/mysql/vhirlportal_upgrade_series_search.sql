@@ -0,0 +1,31 @@
+-- Indexes for VEGLSeriesDao.query and VEGLSeriesDao.search (/secure/mySeries.do and /secure/querySeries.do).
+--
+-- Series are always looked up by user so the user index turns both requests into an index lookup;
+-- name/description substring matching then only has to read that user's series. Older databases
+-- may be missing the index so it is (re)created here.
+--
+-- The name_description full text index serves keyword searches (querySeries.do?qKeywords=...). MyISAM
+-- full text indexes only contain words of at least ft_min_word_len (default 4) characters, shorter
+-- keywords are ignored by the search.
+
+USE `vhirlportal`;
+
+DROP PROCEDURE IF EXISTS `add_series_search_indexes`;
+
+DELIMITER //
+CREATE PROCEDURE `add_series_search_indexes`()
+BEGIN
+  IF NOT EXISTS (SELECT * FROM information_schema.STATISTICS
+      WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'series' AND COLUMN_NAME = 'user' AND SEQ_IN_INDEX = 1) THEN
+    ALTER TABLE `series` ADD KEY `USER` (`user`);
+  END IF;
+
+  IF NOT EXISTS (SELECT * FROM information_schema.STATISTICS
+      WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'series' AND INDEX_NAME = 'name_description') THEN
+    ALTER TABLE `series` ADD FULLTEXT KEY `name_description` (`name`, `description`);
+  END IF;
+END //
+DELIMITER ;
+
+CALL `add_series_search_indexes`();
+DROP PROCEDURE `add_series_search_indexes`;
@@ -0,0 +1,15 @@
+-- Job statuses used to be matched with lower(status)='...' which can't use an index. They are now
+-- matched exactly against the JobBuilderController.STATUS_* values so any stray casing is
+-- normalised first.
+UPDATE `jobs` SET `status`='Saved' WHERE LOWER(`status`)='saved' AND BINARY `status`<>'Saved';
+UPDATE `jobs` SET `status`='Pending' WHERE LOWER(`status`)='pending' AND BINARY `status`<>'Pending';
+UPDATE `jobs` SET `status`='Provisioning' WHERE LOWER(`status`)='provisioning' AND BINARY `status`<>'Provisioning';
+UPDATE `jobs` SET `status`='Active' WHERE LOWER(`status`)='active' AND BINARY `status`<>'Active';
+UPDATE `jobs` SET `status`='Done' WHERE LOWER(`status`)='done' AND BINARY `status`<>'Done';
+UPDATE `jobs` SET `status`='Deleted' WHERE LOWER(`status`)='deleted' AND BINARY `status`<>'Deleted';
+UPDATE `jobs` SET `status`='In Queue' WHERE LOWER(`status`)='in queue' AND BINARY `status`<>'In Queue';
+UPDATE `jobs` SET `status`='ERROR' WHERE LOWER(`status`)='error' AND BINARY `status`<>'ERROR';
+
+-- The longest status is 12 characters. A narrow column keeps the index small.
+ALTER TABLE `jobs` MODIFY `status` varchar(32) DEFAULT NULL,
+  ADD KEY `status_id` (`status`,`id`);
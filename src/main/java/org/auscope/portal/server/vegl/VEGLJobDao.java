@@ -1,10 +1,22 @@
 package org.auscope.portal.server.vegl;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.transform.Transformers;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
 /**
@@ -15,6 +27,9 @@ import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 public class VEGLJobDao extends HibernateDaoSupport {
     protected final Log logger = LogFactory.getLog(getClass());
 
+    /** The largest number of IDs that will be placed into a single 'in' clause*/
+    private static final int MAX_IDS_PER_QUERY = 500;
+
     /**
      * Retrieves jobs that are grouped under given series.
      * It excludes jobs that are deleted.
@@ -24,8 +39,95 @@ public class VEGLJobDao extends HibernateDaoSupport {
     @SuppressWarnings("unchecked")
     public List<VEGLJob> getJobsOfSeries(final int seriesID) {
         return (List<VEGLJob>) getHibernateTemplate()
-            .findByNamedParam("from VEGLJob j where j.seriesId=:searchID and lower(j.status)!='deleted'",
-                    "searchID", seriesID);
+            .findByNamedParam("from VEGLJob j where j.seriesId=:searchID and j.status<>:deleted",
+                    new String[] {"searchID", "deleted"},
+                    new Object[] {seriesID, JobBuilderController.STATUS_DELETED});
+    }
+
+    /**
+     * Retrieves a single page of summaries (no parameters/downloads/files) of the jobs of a series.
+     * It excludes jobs that are deleted.
+     *
+     * @param seriesID the ID of the series
+     * @param statuses If not null/empty, only jobs with one of these statuses will be returned
+     * @param sortProperty One of VEGLJobSummary.SORTABLE_PROPERTIES (or null to sort by id)
+     * @param ascending The sort direction
+     * @param start The index of the first job to return
+     * @param limit The largest number of jobs to return (0 or less for all remaining jobs)
+     */
+    @SuppressWarnings("unchecked")
+    public List<VEGLJobSummary> getJobSummariesOfSeries(final int seriesID, final List<String> statuses,
+            final String sortProperty, final boolean ascending, final int start, final int limit) {
+        if (sortProperty != null && !Arrays.asList(VEGLJobSummary.SORTABLE_PROPERTIES).contains(sortProperty)) {
+            throw new IllegalArgumentException("Unable to sort jobs by " + sortProperty);
+        }
+
+        final StringBuilder hql = new StringBuilder("select j.id as id, j.name as name, j.description as description, "
+                + "j.emailAddress as emailAddress, j.user as user, j.submitDate as submitDate, j.processDate as processDate, "
+                + "j.processTimeLog as processTimeLog, j.status as status, j.computeServiceId as computeServiceId, "
+                + "j.computeVmId as computeVmId, j.computeInstanceId as computeInstanceId, j.computeInstanceType as computeInstanceType, "
+                + "j.computeInstanceKey as computeInstanceKey, j.storageServiceId as storageServiceId, j.storageBaseKey as storageBaseKey, "
+                + "j.registeredUrl as registeredUrl, j.seriesId as seriesId, j.solutionId as solutionId "
+                + "from VEGLJob j");
+        appendSeriesJobsFilter(hql, statuses);
+
+        //Always finish with the id so pages are stable
+        String direction = ascending ? " asc" : " desc";
+        if (sortProperty != null && !sortProperty.equals("id")) {
+            hql.append(" order by j." + sortProperty + direction + ", j.id" + direction);
+        } else {
+            hql.append(" order by j.id" + direction);
+        }
+
+        return (List<VEGLJobSummary>) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                Query query = session.createQuery(hql.toString());
+                setSeriesJobsFilterParameters(query, seriesID, statuses);
+                query.setFirstResult(Math.max(0, start));
+                if (limit > 0) {
+                    query.setMaxResults(limit);
+                }
+                query.setResultTransformer(Transformers.aliasToBean(VEGLJobSummary.class));
+                return query.list();
+            }
+        });
+    }
+
+    /**
+     * Counts the jobs of a series (excluding deleted jobs) without loading any of them.
+     *
+     * @param seriesID the ID of the series
+     * @param statuses If not null/empty, only jobs with one of these statuses will be counted
+     */
+    public int countJobsOfSeries(final int seriesID, final List<String> statuses) {
+        final StringBuilder hql = new StringBuilder("select count(j.id) from VEGLJob j");
+        appendSeriesJobsFilter(hql, statuses);
+
+        Number count = (Number) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                Query query = session.createQuery(hql.toString());
+                setSeriesJobsFilterParameters(query, seriesID, statuses);
+                return query.uniqueResult();
+            }
+        });
+        return count == null ? 0 : count.intValue();
+    }
+
+    private void appendSeriesJobsFilter(StringBuilder hql, List<String> statuses) {
+        hql.append(" where j.seriesId=:searchID and j.status<>:deleted");
+        if (statuses != null && !statuses.isEmpty()) {
+            hql.append(" and j.status in (:statuses)");
+        }
+    }
+
+    private void setSeriesJobsFilterParameters(Query query, int seriesID, List<String> statuses) {
+        query.setInteger("searchID", seriesID);
+        query.setString("deleted", JobBuilderController.STATUS_DELETED);
+        if (statuses != null && !statuses.isEmpty()) {
+            query.setParameterList("statuses", statuses);
+        }
     }
 
     /**
@@ -45,34 +147,152 @@ public class VEGLJobDao extends HibernateDaoSupport {
      *
      * @return a list of pending or active jobs.
      */
-    @SuppressWarnings("unchecked")
     public List<VEGLJob> getPendingOrActiveJobs() {
-        String query = "from VEGLJob j where lower(j.status)='"
-                + JobBuilderController.STATUS_PENDING + "' or lower(j.status)='"
-                + JobBuilderController.STATUS_ACTIVE + "'";
-        return (List<VEGLJob>) getHibernateTemplate().find(query);
+        return getJobsWithStatus(Arrays.asList(JobBuilderController.STATUS_PENDING, JobBuilderController.STATUS_ACTIVE));
     }
 
-    /**getInQueueJobs
-     * Retrieves jobs that are either pending or active.
+    /**
+     * Retrieves jobs that are waiting in the job queue.
      *
-     * @return a list of pending or active jobs.
+     * @return a list of queued jobs.
      */
-    @SuppressWarnings("unchecked")
     public List<VEGLJob> getInQueueJobs() {
-        String query = "from VEGLJob j where lower(j.status)='"
-                + JobBuilderController.STATUS_INQUEUE + "'";
+        return getJobsWithStatus(Arrays.asList(JobBuilderController.STATUS_INQUEUE));
+    }
+
+    /**
+     * Retrieves jobs whose input files are being uploaded before they are launched.
+     *
+     * @return a list of provisioning jobs.
+     */
+    public List<VEGLJob> getProvisioningJobs() {
+        return getJobsWithStatus(Arrays.asList(JobBuilderController.STATUS_PROVISION));
+    }
 
-        return (List<VEGLJob>) getHibernateTemplate().find(query);
+    /**
+     * Retrieves every job whose status is one of statuses. Statuses are matched exactly (they are
+     * always stored as one of the JobBuilderController.STATUS_* constants) so that the status_id
+     * index on the jobs table can be used.
+     *
+     * @param statuses The statuses to match
+     * @return the matching jobs ordered by ID
+     */
+    @SuppressWarnings("unchecked")
+    public List<VEGLJob> getJobsWithStatus(final List<String> statuses) {
+        return (List<VEGLJob>) getHibernateTemplate()
+            .findByNamedParam("from VEGLJob j where j.status in (:statuses) order by j.id",
+                    "statuses", statuses);
+    }
+
+    /**
+     * Retrieves the given jobs whose status is one of statuses using a single query per
+     * MAX_IDS_PER_QUERY IDs. The job parameters/downloads/files are not loaded. IDs that
+     * don't exist (or don't match statuses) will not be included in the result.
+     *
+     * @param ids the IDs of the jobs to lookup
+     * @param statuses The statuses to match
+     * @return the matching jobs ordered by ID
+     */
+    @SuppressWarnings("unchecked")
+    public List<VEGLJob> getJobsWithStatus(final List<Integer> ids, final List<String> statuses) {
+        List<VEGLJob> jobs = new ArrayList<VEGLJob>();
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+            List<Integer> chunk = new ArrayList<Integer>(ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_QUERY)));
+            jobs.addAll((List<VEGLJob>) getHibernateTemplate()
+                .findByNamedParam("from VEGLJob j where j.id in (:ids) and j.status in (:statuses) order by j.id",
+                        new String[] {"ids", "statuses"}, new Object[] {chunk, statuses}));
+        }
+        return jobs;
+    }
+
+    /**
+     * Retrieves only the status of each of the given jobs using a projection query
+     * (no job parameters/downloads/files are loaded). IDs that don't exist will
+     * not be included in the result.
+     *
+     * @param ids the IDs of the jobs to lookup
+     * @return a map of job ID to job status
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Integer, String> getJobStatuses(final List<Integer> ids) {
+        Map<Integer, String> statuses = new HashMap<Integer, String>();
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+            List<Integer> chunk = new ArrayList<Integer>(ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_QUERY)));
+            List<Object[]> rows = (List<Object[]>) getHibernateTemplate()
+                .findByNamedParam("select j.id, j.status from VEGLJob j where j.id in (:ids)",
+                        "ids", chunk);
+            for (Object[] row : rows) {
+                statuses.put((Integer) row[0], (String) row[1]);
+            }
+        }
+        return statuses;
     }
 
     /**
-     * Retrieves the job with given ID.
+     * Counts the (non deleted) jobs of each status in each of the given series using a single
+     * grouped query per MAX_IDS_PER_QUERY series. Series without any jobs will not be included
+     * in the result.
+     *
+     * @param seriesIDs the IDs of the series to count
+     * @return a map of series ID to a map of job status to the number of jobs with that status
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Integer, Map<String, Integer>> countJobStatusesOfSeries(final List<Integer> seriesIDs) {
+        Map<Integer, Map<String, Integer>> counts = new HashMap<Integer, Map<String, Integer>>();
+        for (int i = 0; i < seriesIDs.size(); i += MAX_IDS_PER_QUERY) {
+            List<Integer> chunk = new ArrayList<Integer>(seriesIDs.subList(i, Math.min(seriesIDs.size(), i + MAX_IDS_PER_QUERY)));
+            List<Object[]> rows = (List<Object[]>) getHibernateTemplate()
+                .findByNamedParam("select j.seriesId, j.status, count(j.id) from VEGLJob j "
+                        + "where j.seriesId in (:seriesIDs) and j.status<>:deleted group by j.seriesId, j.status",
+                        new String[] {"seriesIDs", "deleted"},
+                        new Object[] {chunk, JobBuilderController.STATUS_DELETED});
+            for (Object[] row : rows) {
+                Map<String, Integer> seriesCounts = counts.get(row[0]);
+                if (seriesCounts == null) {
+                    seriesCounts = new HashMap<String, Integer>();
+                    counts.put((Integer) row[0], seriesCounts);
+                }
+                seriesCounts.put((String) row[1], ((Number) row[2]).intValue());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Retrieves the job with given ID. Its parameters, downloads and files are lazily loaded
+     * and can't be accessed once the job is detached - use getWithCollections for that.
      */
     public VEGLJob get(final int id) {
         return (VEGLJob) getHibernateTemplate().get(VEGLJob.class, id);
     }
 
+    /**
+     * Retrieves the job with given ID along with its parameters, downloads and files
+     * (using 3 selects rather than 4).
+     *
+     * @return the job or null if it doesn't exist
+     */
+    public VEGLJob getWithCollections(final int id) {
+        return (VEGLJob) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                //Fetch joining the bags as well would duplicate their elements (one per row) so they are initialised separately
+                List<?> jobs = session.createQuery("from VEGLJob j left join fetch j.jobParameters where j.id=:id")
+                        .setInteger("id", id)
+                        .list();
+                if (jobs.isEmpty()) {
+                    return null;
+                }
+
+                //Every row is the same job instance
+                VEGLJob job = (VEGLJob) jobs.get(0);
+                Hibernate.initialize(job.getJobDownloads());
+                Hibernate.initialize(job.getJobFiles());
+                return job;
+            }
+        });
+    }
+
     /**
      * Deletes the job with given ID.
      */
@@ -86,4 +306,30 @@ public class VEGLJobDao extends HibernateDaoSupport {
     public void save(final VEGLJob job) {
         getHibernateTemplate().saveOrUpdate(job);
     }
+
+    /**
+     * Saves or updates every given entity (jobs, audit logs, pending tasks etc) using a single
+     * session, flush and transaction. Either every entity is saved or none are.
+     *
+     * @param entities the mapped objects to save
+     */
+    public void saveAll(final List<?> entities) {
+        getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                Transaction tx = session.beginTransaction();
+                try {
+                    for (Object entity : entities) {
+                        session.saveOrUpdate(entity);
+                    }
+                    session.flush();
+                    tx.commit();
+                } catch (RuntimeException ex) {
+                    tx.rollback();
+                    throw ex;
+                }
+                return null;
+            }
+        });
+    }
 }
@@ -1,7 +1,10 @@
 package org.auscope.portal.server.vegl;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.hibernate.exception.ExceptionUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -19,16 +22,39 @@ public class VEGLJobManager {
     private VEGLJobDao veglJobDao;
     private VEGLSeriesDao veglSeriesDao;
     private VGLJobAuditLogDao vglJobAuditLogDao;
+    private VGLJobAuditLogWriter vglJobAuditLogWriter;
     private VGLSignatureDao vglSignatureDao;
+    private VGLPendingTaskDao vglPendingTaskDao;
+    private VGLInputFileDao vglInputFileDao;
+    private VGLJobSummaryCache jobSummaryCache;
 
     public List<VEGLSeries> querySeries(String user, String name, String desc) {
         return veglSeriesDao.query(user, name, desc);
     }
 
+    /**
+     * Full text search of series names/descriptions. See VEGLSeriesDao.search
+     */
+    public List<VEGLSeries> searchSeries(String user, String keywords, int maxResults) {
+        return veglSeriesDao.search(user, keywords, maxResults);
+    }
+
     public List<VEGLJob> getSeriesJobs(int seriesId) {
         return veglJobDao.getJobsOfSeries(seriesId);
     }
 
+    /**
+     * Gets a single page of summaries of the jobs of a series. See VEGLJobDao.getJobSummariesOfSeries
+     */
+    public List<VEGLJobSummary> getSeriesJobSummaries(int seriesId, List<String> statuses, String sortProperty,
+            boolean ascending, int start, int limit) {
+        return veglJobDao.getJobSummariesOfSeries(seriesId, statuses, sortProperty, ascending, start, limit);
+    }
+
+    public int countSeriesJobs(int seriesId, List<String> statuses) {
+        return veglJobDao.countJobsOfSeries(seriesId, statuses);
+    }
+
     public List<VEGLJob> getPendingOrActiveJobs() {
         return veglJobDao.getPendingOrActiveJobs();
     }
@@ -37,12 +63,32 @@ public class VEGLJobManager {
         return veglJobDao.getInQueueJobs();
     }
 
+    public List<VEGLJob> getProvisioningJobs() {
+        return veglJobDao.getProvisioningJobs();
+    }
+
+    /**
+     * Gets a job along with its parameters, downloads and files. The jobs returned by the
+     * other getters (eg getSeriesJobs) don't have these collections loaded.
+     */
     public VEGLJob getJobById(int jobId) {
-        return veglJobDao.get(jobId);
+        return veglJobDao.getWithCollections(jobId);
+    }
+
+    public Map<Integer, String> getJobStatuses(List<Integer> jobIds) {
+        return veglJobDao.getJobStatuses(jobIds);
+    }
+
+    /**
+     * Gets the jobs of jobIds whose status is one of statuses (without their collections loaded)
+     */
+    public List<VEGLJob> getJobsWithStatus(List<Integer> jobIds, List<String> statuses) {
+        return veglJobDao.getJobsWithStatus(jobIds, statuses);
     }
 
     public void deleteJob(VEGLJob job) {
         veglJobDao.deleteJob(job);
+        invalidateSummaries(job);
     }
 
     public VEGLSeries getSeriesById(int seriesId) {
@@ -55,6 +101,49 @@ public class VEGLJobManager {
 
     public void saveJob(VEGLJob veglJob) {
         veglJobDao.save(veglJob);
+        invalidateSummaries(veglJob);
+    }
+
+    /**
+     * Gets the summaries (including job status counts) of every series of user. These will be
+     * served from jobSummaryCache (if set) which is invalidated by every job/series change made
+     * through this class.
+     */
+    public List<VGLJobSummaryCache.SeriesSummary> getSeriesSummaries(String user) {
+        if (jobSummaryCache != null) {
+            return jobSummaryCache.getSeriesSummaries(user);
+        }
+        return VGLJobSummaryCache.loadSeriesSummaries(veglSeriesDao, veglJobDao, user);
+    }
+
+    /**
+     * Gets the summaries of a subset (eg the results of querySeries) of the series of user, in the same
+     * order. The job counts are taken from getSeriesSummaries(user).
+     */
+    public List<VGLJobSummaryCache.SeriesSummary> getSeriesSummaries(String user, List<VEGLSeries> seriesList) {
+        Map<Integer, VGLJobSummaryCache.SeriesSummary> summariesById = new HashMap<Integer, VGLJobSummaryCache.SeriesSummary>();
+        for (VGLJobSummaryCache.SeriesSummary summary : getSeriesSummaries(user)) {
+            summariesById.put(summary.getId(), summary);
+        }
+
+        List<VGLJobSummaryCache.SeriesSummary> summaries = new ArrayList<VGLJobSummaryCache.SeriesSummary>(seriesList.size());
+        for (VEGLSeries series : seriesList) {
+            VGLJobSummaryCache.SeriesSummary summary = summariesById.get(series.getId());
+            summaries.add(summary == null ? new VGLJobSummaryCache.SeriesSummary(series, null) : summary);
+        }
+        return summaries;
+    }
+
+    private void invalidateSummaries(VEGLJob job) {
+        if (jobSummaryCache != null && job.getUser() != null) {
+            jobSummaryCache.invalidate(job.getUser());
+        }
+    }
+
+    private void invalidateSummaries(VEGLSeries series) {
+        if (jobSummaryCache != null && series.getUser() != null) {
+            jobSummaryCache.invalidate(series.getUser());
+        }
     }
 
     /**
@@ -76,7 +165,7 @@ public class VEGLJobManager {
 
             // Failure in the creation of the job life cycle audit trail is
             // not critical hence we allow it to fail silently and log it.
-            vglJobAuditLogDao.save(vglJobAuditLog);
+            saveAuditLog(vglJobAuditLog);
         } catch (Exception ex) {
             logger.warn("Error creating audit trail for job: " + vglJobAuditLog, ex);
         }
@@ -105,24 +194,152 @@ public class VEGLJobManager {
 
             // Failure in the creation of the job life cycle audit trail is
             // not critical hence we allow it to fail silently and log it.
-            vglJobAuditLogDao.save(vglJobAuditLog);
+            saveAuditLog(vglJobAuditLog);
         } catch (Exception ex) {
             logger.warn("Error creating audit trail for job: " + vglJobAuditLog, ex);
         }
     }
 
+    /**
+     * Hands the audit log to the background writer (if configured) otherwise saves it immediately
+     */
+    private void saveAuditLog(VGLJobAuditLog vglJobAuditLog) {
+        if (vglJobAuditLogWriter != null) {
+            vglJobAuditLogWriter.write(vglJobAuditLog);
+        } else {
+            vglJobAuditLogDao.save(vglJobAuditLog);
+        }
+    }
+
+    /**
+     * Gets the audit logs with a transitionDate in the range [from, to). See VGLJobAuditLogDao.getAuditLogsBetween
+     */
+    public List<VGLJobAuditLog> getAuditLogsBetween(Date from, Date to) {
+        return vglJobAuditLogDao.getAuditLogsBetween(from, to);
+    }
+
+    /**
+     * Counts the transitions into each status in the range [from, to). See VGLJobAuditLogDao.countTransitionsBetween
+     */
+    public Map<String, Long> countTransitionsBetween(Date from, Date to, String user) {
+        return vglJobAuditLogDao.countTransitionsBetween(from, to, user);
+    }
+
+    /**
+     * Gets how long jobs stayed in status in the range [from, to). See VGLJobAuditLogDao.getStatusDurations
+     */
+    public List<VGLJobStatusDuration> getStatusDurations(String status, Date from, Date to, String user) {
+        return vglJobAuditLogDao.getStatusDurations(status, from, to, user);
+    }
+
+    /**
+     * Streams every transition in the range [from, to) to handler. See VGLJobAuditLogDao.processTransitionsBetween
+     */
+    public void processTransitionsBetween(Date from, Date to, VGLJobAuditLogDao.TransitionHandler handler) {
+        vglJobAuditLogDao.processTransitionsBetween(from, to, handler);
+    }
+
+    /**
+     * Changes the status of every job in jobs, recording each transition in the audit trail. Unlike
+     * saveJob/createJobAuditTrail everything is saved in a single transaction - if any of it fails,
+     * none of it is saved and every job is left with its original status.
+     *
+     * @param jobs The jobs to update
+     * @param newStatus The status that each job will be set to
+     * @param message The audit trail message for each transition
+     * @param pendingTaskType If not null, a VGLPendingTask of this type will also be recorded for each job
+     */
+    public void updateJobStatuses(List<VEGLJob> jobs, String newStatus, String message, String pendingTaskType) {
+        List<Object> entities = new ArrayList<Object>();
+        List<String> oldStatuses = new ArrayList<String>();
+        Date transitionDate = new Date();
+        for (VEGLJob job : jobs) {
+            oldStatuses.add(job.getStatus());
+            VGLJobAuditLog vglJobAuditLog = new VGLJobAuditLog();
+            vglJobAuditLog.setJobId(job.getId());
+            vglJobAuditLog.setFromStatus(job.getStatus());
+            vglJobAuditLog.setToStatus(newStatus);
+            vglJobAuditLog.setTransitionDate(transitionDate);
+            vglJobAuditLog.setMessage(message);
+
+            job.setStatus(newStatus);
+            entities.add(job);
+            entities.add(vglJobAuditLog);
+            if (pendingTaskType != null) {
+                entities.add(new VGLPendingTask(job.getId(), pendingTaskType));
+            }
+        }
+
+        try {
+            veglJobDao.saveAll(entities);
+        } catch (RuntimeException ex) {
+            //Nothing was saved - don't leave callers with statuses that don't match the database
+            for (int i = 0; i < jobs.size(); i++) {
+                jobs.get(i).setStatus(oldStatuses.get(i));
+            }
+            throw ex;
+        }
+
+        for (VEGLJob job : jobs) {
+            invalidateSummaries(job);
+        }
+    }
+
     public void deleteSeries(VEGLSeries series) {
         veglSeriesDao.delete(series);
+        invalidateSummaries(series);
     }
 
     public void saveSeries(VEGLSeries series) {
         veglSeriesDao.save(series);
+        invalidateSummaries(series);
     }
 
     public void saveSignature(VGLSignature vglSignature) {
         vglSignatureDao.save(vglSignature);
     }
 
+    public List<VGLPendingTask> getPendingTasks(String taskType, int maxAttempts) {
+        return vglPendingTaskDao.getPendingTasks(taskType, maxAttempts);
+    }
+
+    public VGLPendingTask getPendingTask(int jobId, String taskType) {
+        return vglPendingTaskDao.getPendingTask(jobId, taskType);
+    }
+
+    public void savePendingTask(VGLPendingTask task) {
+        vglPendingTaskDao.save(task);
+    }
+
+    public void deletePendingTask(VGLPendingTask task) {
+        vglPendingTaskDao.delete(task);
+    }
+
+    /**
+     * Gets the oldest stored copy of a file with the specified content on a storage service (or null if there are none)
+     */
+    public VGLInputFile getInputFile(String storageServiceId, String contentHash, long size) {
+        List<VGLInputFile> inputFiles = vglInputFileDao.getInputFiles(storageServiceId, contentHash, size);
+        return inputFiles.isEmpty() ? null : inputFiles.get(0);
+    }
+
+    public void saveInputFile(VGLInputFile inputFile) {
+        vglInputFileDao.save(inputFile);
+    }
+
+    public void deleteInputFile(VGLInputFile inputFile) {
+        vglInputFileDao.delete(inputFile);
+    }
+
+    /**
+     * Removes every stored copy that was uploaded by the specified job
+     */
+    public void deleteInputFilesOfJob(int jobId) {
+        for (VGLInputFile inputFile : vglInputFileDao.getInputFilesOfJob(jobId)) {
+            vglInputFileDao.delete(inputFile);
+        }
+    }
+
     public void setVeglJobDao(VEGLJobDao veglJobDao) {
         this.veglJobDao = veglJobDao;
     }
@@ -135,7 +352,29 @@ public class VEGLJobManager {
         this.vglJobAuditLogDao = vglJobAuditLogDao;
     }
 
+    /**
+     * If set, createJobAuditTrail will write audit logs in the background using vglJobAuditLogWriter
+     */
+    public void setVglJobAuditLogWriter(VGLJobAuditLogWriter vglJobAuditLogWriter) {
+        this.vglJobAuditLogWriter = vglJobAuditLogWriter;
+    }
+
     public void setVglSignatureDao(VGLSignatureDao vglSignatureDao) {
         this.vglSignatureDao = vglSignatureDao;
     }
+
+    public void setVglPendingTaskDao(VGLPendingTaskDao vglPendingTaskDao) {
+        this.vglPendingTaskDao = vglPendingTaskDao;
+    }
+
+    public void setVglInputFileDao(VGLInputFileDao vglInputFileDao) {
+        this.vglInputFileDao = vglInputFileDao;
+    }
+
+    /**
+     * If set, getSeriesSummaries will be served from jobSummaryCache
+     */
+    public void setJobSummaryCache(VGLJobSummaryCache jobSummaryCache) {
+        this.jobSummaryCache = jobSummaryCache;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,332 @@
+package org.auscope.portal.server.vegl;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A lightweight, read only view of a VEGLJob for listing many jobs at once. Only the job's own
+ * columns are included - parameters, downloads and files are never loaded (use VEGLJob for those).
+ */
+public class VEGLJobSummary implements Serializable {
+
+    private static final long serialVersionUID = 5301470611925733108L;
+
+    /** The job properties that a list of summaries can be sorted by*/
+    public static final String[] SORTABLE_PROPERTIES = new String[] {"id", "name", "submitDate", "processDate", "status", "processTimeLog"};
+
+    /** The ID of the job*/
+    private Integer id;
+    /** The descriptive name of the job*/
+    private String name;
+    /** The long description of the job*/
+    private String description;
+    /** The contact email of whoever owns the job*/
+    private String emailAddress;
+    /** The username of whoever owns the job*/
+    private String user;
+    /** When the job was submitted (can be null)*/
+    private Date submitDate;
+    /** When the job was processed (can be null)*/
+    private Date processDate;
+    /** The processing time breakdown of the job (can be null)*/
+    private String processTimeLog;
+    /** The descriptive status of the job*/
+    private String status;
+    /** The ID of the compute service that runs the job*/
+    private String computeServiceId;
+    /** The ID of the VM image that runs the job*/
+    private String computeVmId;
+    /** The ID of the instance running the job (can be null)*/
+    private String computeInstanceId;
+    /** The type of instance that runs the job (can be null)*/
+    private String computeInstanceType;
+    /** The name of the key injected into the instance (can be null)*/
+    private String computeInstanceKey;
+    /** The ID of the storage service holding the job's files*/
+    private String storageServiceId;
+    /** The key prefix of the job's files*/
+    private String storageBaseKey;
+    /** Where the job has been registered (can be null)*/
+    private String registeredUrl;
+    /** The ID of the series the job belongs to*/
+    private Integer seriesId;
+    /** The ID of the solution the job runs (can be null)*/
+    private String solutionId;
+
+    /**
+     * Default constructor.
+     */
+    public VEGLJobSummary() {
+    }
+
+    /**
+     * @return the id
+     */
+    public Integer getId() {
+        return id;
+    }
+
+    /**
+     * @param id the id to set
+     */
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name the name to set
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @param description the description to set
+     */
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    /**
+     * @return the emailAddress
+     */
+    public String getEmailAddress() {
+        return emailAddress;
+    }
+
+    /**
+     * @param emailAddress the emailAddress to set
+     */
+    public void setEmailAddress(String emailAddress) {
+        this.emailAddress = emailAddress;
+    }
+
+    /**
+     * @return the user
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * @param user the user to set
+     */
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    /**
+     * @return the submitDate
+     */
+    public Date getSubmitDate() {
+        return submitDate;
+    }
+
+    /**
+     * @param submitDate the submitDate to set
+     */
+    public void setSubmitDate(Date submitDate) {
+        this.submitDate = submitDate;
+    }
+
+    /**
+     * @return the processDate
+     */
+    public Date getProcessDate() {
+        return processDate;
+    }
+
+    /**
+     * @param processDate the processDate to set
+     */
+    public void setProcessDate(Date processDate) {
+        this.processDate = processDate;
+    }
+
+    /**
+     * @return the processTimeLog
+     */
+    public String getProcessTimeLog() {
+        return processTimeLog;
+    }
+
+    /**
+     * @param processTimeLog the processTimeLog to set
+     */
+    public void setProcessTimeLog(String processTimeLog) {
+        this.processTimeLog = processTimeLog;
+    }
+
+    /**
+     * @return the status
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @param status the status to set
+     */
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    /**
+     * @return the computeServiceId
+     */
+    public String getComputeServiceId() {
+        return computeServiceId;
+    }
+
+    /**
+     * @param computeServiceId the computeServiceId to set
+     */
+    public void setComputeServiceId(String computeServiceId) {
+        this.computeServiceId = computeServiceId;
+    }
+
+    /**
+     * @return the computeVmId
+     */
+    public String getComputeVmId() {
+        return computeVmId;
+    }
+
+    /**
+     * @param computeVmId the computeVmId to set
+     */
+    public void setComputeVmId(String computeVmId) {
+        this.computeVmId = computeVmId;
+    }
+
+    /**
+     * @return the computeInstanceId
+     */
+    public String getComputeInstanceId() {
+        return computeInstanceId;
+    }
+
+    /**
+     * @param computeInstanceId the computeInstanceId to set
+     */
+    public void setComputeInstanceId(String computeInstanceId) {
+        this.computeInstanceId = computeInstanceId;
+    }
+
+    /**
+     * @return the computeInstanceType
+     */
+    public String getComputeInstanceType() {
+        return computeInstanceType;
+    }
+
+    /**
+     * @param computeInstanceType the computeInstanceType to set
+     */
+    public void setComputeInstanceType(String computeInstanceType) {
+        this.computeInstanceType = computeInstanceType;
+    }
+
+    /**
+     * @return the computeInstanceKey
+     */
+    public String getComputeInstanceKey() {
+        return computeInstanceKey;
+    }
+
+    /**
+     * @param computeInstanceKey the computeInstanceKey to set
+     */
+    public void setComputeInstanceKey(String computeInstanceKey) {
+        this.computeInstanceKey = computeInstanceKey;
+    }
+
+    /**
+     * @return the storageServiceId
+     */
+    public String getStorageServiceId() {
+        return storageServiceId;
+    }
+
+    /**
+     * @param storageServiceId the storageServiceId to set
+     */
+    public void setStorageServiceId(String storageServiceId) {
+        this.storageServiceId = storageServiceId;
+    }
+
+    /**
+     * @return the storageBaseKey
+     */
+    public String getStorageBaseKey() {
+        return storageBaseKey;
+    }
+
+    /**
+     * @param storageBaseKey the storageBaseKey to set
+     */
+    public void setStorageBaseKey(String storageBaseKey) {
+        this.storageBaseKey = storageBaseKey;
+    }
+
+    /**
+     * @return the registeredUrl
+     */
+    public String getRegisteredUrl() {
+        return registeredUrl;
+    }
+
+    /**
+     * @param registeredUrl the registeredUrl to set
+     */
+    public void setRegisteredUrl(String registeredUrl) {
+        this.registeredUrl = registeredUrl;
+    }
+
+    /**
+     * @return the seriesId
+     */
+    public Integer getSeriesId() {
+        return seriesId;
+    }
+
+    /**
+     * @param seriesId the seriesId to set
+     */
+    public void setSeriesId(Integer seriesId) {
+        this.seriesId = seriesId;
+    }
+
+    /**
+     * @return the solutionId
+     */
+    public String getSolutionId() {
+        return solutionId;
+    }
+
+    /**
+     * @param solutionId the solutionId to set
+     */
+    public void setSolutionId(String solutionId) {
+        this.solutionId = solutionId;
+    }
+
+    @Override
+    public String toString() {
+        return "VEGLJobSummary [id=" + id + ", name=" + name + ", status=" + status + "]";
+    }
+}
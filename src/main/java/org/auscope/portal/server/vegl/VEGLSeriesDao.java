@@ -1,10 +1,16 @@
 package org.auscope.portal.server.vegl;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
 /**
@@ -14,50 +20,134 @@ import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
  * @author Josh Vote  -- Modified for VEGL
  */
 public class VEGLSeriesDao extends HibernateDaoSupport {
+    /** The second level cache region holding VEGLSeries (see veglseries.hbm.xml)*/
+    public static final String CACHE_REGION = "vhirl.series";
+
     protected final Log logger = LogFactory.getLog(getClass());
 
+    /** Escapes the LIKE wildcards in user input (see escapeLike)*/
+    private static final char LIKE_ESCAPE = '!';
+
     /**
      * Queries for series matching the given criteria. Some but not all of
      * the parameters may be <code>null</code>.
+     *
+     * user is matched exactly (using the user index) while name and desc match
+     * any series containing them. Callers should always specify user so that
+     * the substring matching is limited to that user's series.
      */
+    @SuppressWarnings("unchecked")
     public List<VEGLSeries> query(final String user, final String name,
                                  final String desc) {
-        String queryString = "from VEGLSeries s where";
-        boolean first = true;
+        List<String> conditions = new ArrayList<String>();
+        List<String> paramNames = new ArrayList<String>();
+        List<Object> paramValues = new ArrayList<Object>();
 
         if (StringUtils.isNotEmpty(user)) {
-            queryString += " s.user = '" + user + "'";
-            first = false;
+            conditions.add("s.user=:user");
+            paramNames.add("user");
+            paramValues.add(user);
         }
 
         if (StringUtils.isNotEmpty(name)) {
-            if (!first) {
-                queryString += " and";
-            }
-
-            queryString += " s.name like '%"+name+"%'";
-            first = false;
+            conditions.add("s.name like :name escape '" + LIKE_ESCAPE + "'");
+            paramNames.add("name");
+            paramValues.add("%" + escapeLike(name) + "%");
         }
 
         if (StringUtils.isNotEmpty(desc)) {
-            if (!first) {
-                queryString += " and";
-            }
-
-            queryString += " s.description like '%"+desc+"%'";
-            first = false;
+            conditions.add("s.description like :desc escape '" + LIKE_ESCAPE + "'");
+            paramNames.add("desc");
+            paramValues.add("%" + escapeLike(desc) + "%");
         }
 
-        if (first) {
+        if (conditions.isEmpty()) {
             logger.warn("All parameters were null!");
             return null;
         }
 
-        return (List<VEGLSeries>) getHibernateTemplate().find(queryString);
+        String queryString = "from VEGLSeries s where " + StringUtils.join(conditions, " and ") + " order by s.id";
+        return (List<VEGLSeries>) getHibernateTemplate().findByNamedParam(queryString,
+                paramNames.toArray(new String[paramNames.size()]), paramValues.toArray());
+    }
+
+    /**
+     * Searches the names and descriptions of series for words starting with each of the
+     * keywords using the name_description full text index (see vhirlportal_upgrade_series_search.sql).
+     * Every keyword must match. Results are ordered by relevance.
+     *
+     * @param user If not empty, only this user's series are searched
+     * @param keywords Whitespace/punctuation separated keywords
+     * @param maxResults The largest number of series to return
+     */
+    @SuppressWarnings("unchecked")
+    public List<VEGLSeries> search(final String user, final String keywords, final int maxResults) {
+        final String booleanQuery = toBooleanModeQuery(keywords);
+        if (booleanQuery.isEmpty()) {
+            return new ArrayList<VEGLSeries>();
+        }
+
+        return (List<VEGLSeries>) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                StringBuilder sql = new StringBuilder("select {s.*} from series s "
+                        + "where match(s.name, s.description) against (:keywords in boolean mode)");
+                if (StringUtils.isNotEmpty(user)) {
+                    sql.append(" and s.user=:user");
+                }
+                sql.append(" order by match(s.name, s.description) against (:keywords in boolean mode) desc, s.id");
+
+                SQLQuery query = session.createSQLQuery(sql.toString());
+                query.addEntity("s", VEGLSeries.class);
+                query.setString("keywords", booleanQuery);
+                if (StringUtils.isNotEmpty(user)) {
+                    query.setString("user", user);
+                }
+                query.setMaxResults(maxResults);
+                return query.list();
+            }
+        });
+    }
+
+    /**
+     * Converts free text keywords into a MySQL boolean mode full text query requiring a word starting
+     * with each keyword (eg "magnetic survey" becomes "+magnetic* +survey*"). Any characters that have
+     * special meaning in boolean mode are treated as separators.
+     */
+    static String toBooleanModeQuery(String keywords) {
+        if (keywords == null) {
+            return "";
+        }
+
+        StringBuilder query = new StringBuilder();
+        for (String keyword : keywords.split("[^\\p{L}\\p{N}_]+")) {
+            if (keyword.isEmpty()) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append('+').append(keyword).append('*');
+        }
+        return query.toString();
     }
 
     /**
-     * Retrieves the series with given ID.
+     * Escapes the characters of value that would otherwise be LIKE wildcards
+     */
+    private static String escapeLike(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+                escaped.append(LIKE_ESCAPE);
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Retrieves the series with given ID. Served from the second level cache where possible.
      */
     public VEGLSeries get(final int id) {
         return (VEGLSeries) getHibernateTemplate().get(VEGLSeries.class, id);
@@ -68,6 +158,7 @@ public class VEGLSeriesDao extends HibernateDaoSupport {
      */
     public void save(final VEGLSeries series) {
         getHibernateTemplate().saveOrUpdate(series);
+        evict(series);
     }
 
     /**
@@ -75,5 +166,15 @@ public class VEGLSeriesDao extends HibernateDaoSupport {
      */
     public void delete(final VEGLSeries series) {
         getHibernateTemplate().delete(series);
+        evict(series);
+    }
+
+    /**
+     * Removes series from the second level cache so the next read goes to the database
+     */
+    private void evict(VEGLSeries series) {
+        if (series.getId() != null) {
+            getSessionFactory().evict(VEGLSeries.class, series.getId());
+        }
     }
 }
@@ -0,0 +1,154 @@
+package org.auscope.portal.server.vegl;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A simple POJO class that records the content hash of an input file that has
+ * been uploaded to cloud storage. Identical input files for other jobs can then
+ * be copied from the stored copy (by the storage provider) instead of being uploaded again.
+ */
+public class VGLInputFile implements Serializable {
+
+    private static final long serialVersionUID = -2851906471635029713L;
+
+    /** The primary key for this entry*/
+    private Integer id;
+    /** The id of the storage service holding the file*/
+    private String storageServiceId;
+    /** The hex encoded MD5 of the file contents*/
+    private String contentHash;
+    /** The size of the file in bytes*/
+    private Long size;
+    /** The full key of the stored copy of the file*/
+    private String cloudKey;
+    /** The id of the job that uploaded the stored copy*/
+    private Integer jobId;
+    /** The date & time when this entry was created*/
+    private Date createdDate;
+
+    /**
+     * Default constructor.
+     */
+    public VGLInputFile() {
+    }
+
+    /**
+     * @param storageServiceId The id of the storage service holding the file
+     * @param contentHash The hex encoded MD5 of the file contents
+     * @param size The size of the file in bytes
+     * @param cloudKey The full key of the stored copy of the file
+     * @param jobId The id of the job that uploaded the stored copy
+     */
+    public VGLInputFile(String storageServiceId, String contentHash, Long size, String cloudKey, Integer jobId) {
+        this.storageServiceId = storageServiceId;
+        this.contentHash = contentHash;
+        this.size = size;
+        this.cloudKey = cloudKey;
+        this.jobId = jobId;
+        this.createdDate = new Date();
+    }
+
+    /**
+     * @return the id
+     */
+    public Integer getId() {
+        return id;
+    }
+
+    /**
+     * @param id the id to set
+     */
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the storageServiceId
+     */
+    public String getStorageServiceId() {
+        return storageServiceId;
+    }
+
+    /**
+     * @param storageServiceId the storageServiceId to set
+     */
+    public void setStorageServiceId(String storageServiceId) {
+        this.storageServiceId = storageServiceId;
+    }
+
+    /**
+     * @return the contentHash
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param contentHash the contentHash to set
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return the size
+     */
+    public Long getSize() {
+        return size;
+    }
+
+    /**
+     * @param size the size to set
+     */
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the cloudKey
+     */
+    public String getCloudKey() {
+        return cloudKey;
+    }
+
+    /**
+     * @param cloudKey the cloudKey to set
+     */
+    public void setCloudKey(String cloudKey) {
+        this.cloudKey = cloudKey;
+    }
+
+    /**
+     * @return the jobId
+     */
+    public Integer getJobId() {
+        return jobId;
+    }
+
+    /**
+     * @param jobId the jobId to set
+     */
+    public void setJobId(Integer jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     * @return the createdDate
+     */
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+
+    /**
+     * @param createdDate the createdDate to set
+     */
+    public void setCreatedDate(Date createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    @Override
+    public String toString() {
+        return "VGLInputFile [id=" + id + ", contentHash=" + contentHash + ", size=" + size + ", cloudKey=" + cloudKey + "]";
+    }
+}
@@ -0,0 +1,54 @@
+package org.auscope.portal.server.vegl;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+
+/**
+ * A hibernate-backed VGLInputFile data access object.
+ */
+public class VGLInputFileDao extends HibernateDaoSupport {
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    /**
+     * Retrieves the stored copies of a file with the given content on the given storage service (oldest first)
+     *
+     * @param storageServiceId the id of a storage service
+     * @param contentHash the hex encoded MD5 of the file contents
+     * @param size the size of the file in bytes
+     */
+    @SuppressWarnings("unchecked")
+    public List<VGLInputFile> getInputFiles(final String storageServiceId, final String contentHash, final long size) {
+        return (List<VGLInputFile>) getHibernateTemplate().findByNamedParam(
+                "from VGLInputFile f where f.storageServiceId=:storageServiceId and f.contentHash=:contentHash and f.size=:size order by f.id",
+                new String[] {"storageServiceId", "contentHash", "size"}, new Object[] {storageServiceId, contentHash, size});
+    }
+
+    /**
+     * Retrieves every stored copy uploaded by the given job
+     *
+     * @param jobId the id of a job
+     */
+    @SuppressWarnings("unchecked")
+    public List<VGLInputFile> getInputFilesOfJob(final int jobId) {
+        return (List<VGLInputFile>) getHibernateTemplate().findByNamedParam(
+                "from VGLInputFile f where f.jobId=:jobId",
+                "jobId", jobId);
+    }
+
+    /**
+     * Saves or updates the given entry.
+     */
+    public void save(final VGLInputFile inputFile) {
+        getHibernateTemplate().saveOrUpdate(inputFile);
+    }
+
+    /**
+     * Deletes the given entry.
+     */
+    public void delete(final VGLInputFile inputFile) {
+        getHibernateTemplate().delete(inputFile);
+    }
+}
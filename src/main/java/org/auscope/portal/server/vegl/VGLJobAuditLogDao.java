@@ -1,9 +1,27 @@
 package org.auscope.portal.server.vegl;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
 /**
@@ -14,10 +32,42 @@ import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 public class VGLJobAuditLogDao extends HibernateDaoSupport {
     protected final Log logger = LogFactory.getLog(getClass());
 
+    private static final String INSERT_SQL = "insert into jobs_audit_log (jobId, fromStatus, toStatus, transitionDate, message) values (?, ?, ?, ?, ?)";
+
+    /** Monthly partitions are named pYYYYMM (see vhirlportal_upgrade_audit_log_partitions.sql)*/
+    private static final String MONTHLY_PARTITION_PATTERN = "p\\d{6}";
+    /** The partition that catches everything after the last monthly partition*/
+    public static final String OVERFLOW_PARTITION = "pmax";
+
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Receives the transitions read by processTransitionsBetween
+     */
+    public interface TransitionHandler {
+        /**
+         * Called once for each transition
+         * @param jobId The job that transitioned
+         * @param computeServiceId The compute service (provider) of the job
+         * @param solutionId The solution the job is running
+         * @param toStatus The status the job transitioned to
+         * @param transitionDate When the transition occurred
+         */
+        void handle(Integer jobId, String computeServiceId, String solutionId, String toStatus, Date transitionDate);
+    }
+
     public VGLJobAuditLogDao() {
         super();
     }
 
+    /**
+     * Sets the data source that saveAll will insert into. This must be the same
+     * database that the session factory is connected to.
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
     /**
      * Retrieves the audit logs of a given job ID.
      *
@@ -42,4 +92,271 @@ public class VGLJobAuditLogDao extends HibernateDaoSupport {
     public void save(final VGLJobAuditLog jobAuditLog) {
         getHibernateTemplate().saveOrUpdate(jobAuditLog);
     }
+
+    /**
+     * Retrieves the audit logs with a transitionDate in the range [from, to) ordered by transitionDate
+     *
+     * @param from inclusive
+     * @param to exclusive
+     */
+    @SuppressWarnings("unchecked")
+    public List<VGLJobAuditLog> getAuditLogsBetween(final Date from, final Date to) {
+        return (List<VGLJobAuditLog>) getHibernateTemplate().findByNamedParam(
+                "from VGLJobAuditLog j where j.transitionDate>=:from and j.transitionDate<:to order by j.transitionDate, j.id",
+                new String[] {"from", "to"},
+                new Object[] {from, to});
+    }
+
+    /**
+     * Retrieves up to maxResults audit logs with a transitionDate in the range [from, to) and an id
+     * greater than afterId, ordered by id. Intended for reading a large range a page at a time.
+     *
+     * @param from inclusive
+     * @param to exclusive
+     * @param afterId Only audit logs with a greater id will be returned
+     * @param maxResults The largest number of audit logs to return
+     */
+    @SuppressWarnings("unchecked")
+    public List<VGLJobAuditLog> getAuditLogsBetween(final Date from, final Date to, final int afterId, final int maxResults) {
+        return (List<VGLJobAuditLog>) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                Query query = session.createQuery("from VGLJobAuditLog j where j.transitionDate>=:from and j.transitionDate<:to and j.id>:afterId order by j.id");
+                query.setTimestamp("from", from);
+                query.setTimestamp("to", to);
+                query.setInteger("afterId", afterId);
+                query.setMaxResults(maxResults);
+                return query.list();
+            }
+        });
+    }
+
+    /**
+     * Counts the transitions into each status with a transitionDate in the range [from, to)
+     *
+     * @param from inclusive
+     * @param to exclusive
+     * @param user If not null, only the transitions of this user's jobs are counted
+     * @return The number of transitions keyed by the status transitioned to
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Long> countTransitionsBetween(final Date from, final Date to, final String user) {
+        List<Object[]> rows = (List<Object[]>) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                StringBuilder hql = new StringBuilder("select a.toStatus, count(a.id) from VGLJobAuditLog a");
+                if (user != null) {
+                    hql.append(", VEGLJob j where j.id=a.jobId and j.user=:user and");
+                } else {
+                    hql.append(" where");
+                }
+                hql.append(" a.transitionDate>=:from and a.transitionDate<:to group by a.toStatus");
+
+                Query query = session.createQuery(hql.toString());
+                query.setTimestamp("from", from);
+                query.setTimestamp("to", to);
+                if (user != null) {
+                    query.setString("user", user);
+                }
+                return query.list();
+            }
+        });
+
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Object[] row : rows) {
+            counts.put((String) row[0], ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+
+    /**
+     * Retrieves every stay in status that both started and ended in the range [from, to). A stay
+     * starts with a transition to status and ends with the next transition of the same job to a
+     * different status.
+     *
+     * @param status The status of interest
+     * @param from inclusive
+     * @param to exclusive
+     * @param user If not null, only the stays of this user's jobs are returned
+     */
+    @SuppressWarnings("unchecked")
+    public List<VGLJobStatusDuration> getStatusDurations(final String status, final Date from, final Date to, final String user) {
+        List<Object[]> transitions = (List<Object[]>) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                StringBuilder hql = new StringBuilder("select a.jobId, j.user, a.toStatus, a.transitionDate from VGLJobAuditLog a, VEGLJob j "
+                        + "where j.id=a.jobId and a.transitionDate>=:from and a.transitionDate<:to");
+                if (user != null) {
+                    hql.append(" and j.user=:user");
+                }
+                hql.append(" order by a.jobId, a.transitionDate, a.id");
+
+                Query query = session.createQuery(hql.toString());
+                query.setTimestamp("from", from);
+                query.setTimestamp("to", to);
+                if (user != null) {
+                    query.setString("user", user);
+                }
+                return query.list();
+            }
+        });
+
+        return collectStatusDurations(status, transitions);
+    }
+
+    /**
+     * Streams every transition with a transitionDate in the range [from, to) to handler ordered by jobId
+     * then transitionDate. Rows are read one at a time rather than being loaded into memory.
+     *
+     * @param from inclusive
+     * @param to exclusive
+     * @param handler Receives each transition
+     */
+    public void processTransitionsBetween(final Date from, final Date to, final TransitionHandler handler) {
+        getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                Query query = session.createQuery("select a.jobId, j.computeServiceId, j.solutionId, a.toStatus, a.transitionDate "
+                        + "from VGLJobAuditLog a, VEGLJob j where j.id=a.jobId and a.transitionDate>=:from and a.transitionDate<:to "
+                        + "order by a.jobId, a.transitionDate, a.id");
+                query.setTimestamp("from", from);
+                query.setTimestamp("to", to);
+                //Tells the MySQL driver to stream rows rather than reading the entire result
+                query.setFetchSize(Integer.MIN_VALUE);
+
+                ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+                try {
+                    while (results.next()) {
+                        handler.handle(results.getInteger(0), results.getString(1), results.getString(2),
+                                results.getString(3), results.getDate(4));
+                    }
+                } finally {
+                    results.close();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Pairs up the transitions into and out of status.
+     *
+     * @param transitions (jobId, user, toStatus, transitionDate) rows ordered by jobId then transitionDate
+     */
+    static List<VGLJobStatusDuration> collectStatusDurations(String status, List<Object[]> transitions) {
+        List<VGLJobStatusDuration> durations = new ArrayList<VGLJobStatusDuration>();
+        Integer currentJobId = null;
+        Date enteredDate = null;
+        for (Object[] transition : transitions) {
+            Integer jobId = (Integer) transition[0];
+            String toStatus = (String) transition[2];
+            Date transitionDate = (Date) transition[3];
+
+            if (!jobId.equals(currentJobId)) {
+                currentJobId = jobId;
+                enteredDate = null;
+            }
+
+            if (status.equals(toStatus)) {
+                //Repeated transitions into the same status don't restart the stay
+                if (enteredDate == null) {
+                    enteredDate = transitionDate;
+                }
+            } else if (enteredDate != null) {
+                durations.add(new VGLJobStatusDuration(jobId, (String) transition[1], status, enteredDate, transitionDate));
+                enteredDate = null;
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * Gets the earliest transitionDate of any audit log (or null if there are none)
+     */
+    public Date getOldestTransitionDate() {
+        return (Date) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                return session.createQuery("select min(j.transitionDate) from VGLJobAuditLog j").uniqueResult();
+            }
+        });
+    }
+
+    /**
+     * Deletes the audit logs with a transitionDate in the range [from, to). Dropping the month's
+     * partition (see dropMonthlyPartition) is much faster if the table is partitioned.
+     *
+     * @param from inclusive
+     * @param to exclusive
+     * @return The number of audit logs deleted
+     */
+    public int deleteAuditLogsBetween(final Date from, final Date to) {
+        return jdbcTemplate.update("delete from jobs_audit_log where transitionDate>=? and transitionDate<?",
+                new Timestamp(from.getTime()), new Timestamp(to.getTime()));
+    }
+
+    /**
+     * Gets the names of the partitions of the audit log table in order (or an empty list if it isn't partitioned)
+     */
+    public List<String> getPartitionNames() {
+        return jdbcTemplate.queryForList("select PARTITION_NAME from information_schema.PARTITIONS "
+                + "where TABLE_SCHEMA=DATABASE() and TABLE_NAME='jobs_audit_log' and PARTITION_NAME is not null "
+                + "order by PARTITION_ORDINAL_POSITION", String.class);
+    }
+
+    /**
+     * Gets the name of the partition holding the audit logs of the month starting at monthStart
+     */
+    public static String getMonthlyPartitionName(Date monthStart) {
+        return "p" + new SimpleDateFormat("yyyyMM").format(monthStart);
+    }
+
+    /**
+     * Splits a new monthly partition out of the front of the overflow partition.
+     *
+     * @param monthStart The first day of the month
+     * @param nextMonthStart The first day of the following month
+     */
+    public void addMonthlyPartition(Date monthStart, Date nextMonthStart) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        jdbcTemplate.execute(String.format("alter table jobs_audit_log reorganize partition %1$s into ("
+                + "partition %2$s values less than (to_days('%3$s')), partition %1$s values less than maxvalue)",
+                OVERFLOW_PARTITION, getMonthlyPartitionName(monthStart), format.format(nextMonthStart)));
+    }
+
+    /**
+     * Drops a monthly partition, deleting every audit log in it.
+     *
+     * @param partitionName A name returned by getMonthlyPartitionName
+     */
+    public void dropMonthlyPartition(String partitionName) {
+        if (!partitionName.matches(MONTHLY_PARTITION_PATTERN)) {
+            throw new IllegalArgumentException("Not a monthly partition: " + partitionName);
+        }
+        jdbcTemplate.execute("alter table jobs_audit_log drop partition " + partitionName);
+    }
+
+    /**
+     * Inserts every audit log in a single JDBC batch. Hibernate can't batch these inserts
+     * itself because the ids are generated by the database. The ids of jobAuditLogs are
+     * not populated.
+     */
+    public void saveAll(final List<VGLJobAuditLog> jobAuditLogs) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                VGLJobAuditLog jobAuditLog = jobAuditLogs.get(i);
+                ps.setInt(1, jobAuditLog.getJobId());
+                ps.setString(2, jobAuditLog.getFromStatus());
+                ps.setString(3, jobAuditLog.getToStatus());
+                ps.setTimestamp(4, new Timestamp(jobAuditLog.getTransitionDate().getTime()));
+                ps.setString(5, jobAuditLog.getMessage());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return jobAuditLogs.size();
+            }
+        });
+    }
 }
\ No newline at end of file
@@ -0,0 +1,239 @@
+package org.auscope.portal.server.vegl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Writes job audit logs in the background so that recording a status transition doesn't cost
+ * the caller a database round trip.
+ *
+ * Audit logs are buffered in a bounded ring and inserted in JDBC batches (see VGLJobAuditLogDao.saveAll)
+ * whenever batchSize logs are waiting or every flushInterval milliseconds, whichever comes first. If the
+ * ring fills up (ie the database can't keep up) the oldest waiting log is dropped to make room. Dropped
+ * logs and logs that were written more than lateThreshold milliseconds after their transition are counted
+ * and reported in the log file.
+ *
+ * Anything still buffered is written synchronously by shutdown.
+ */
+public class VGLJobAuditLogWriter {
+    private final Log log = LogFactory.getLog(getClass());
+
+    private VGLJobAuditLogDao jobAuditLogDao;
+    private BlockingQueue<VGLJobAuditLog> ring;
+    private ScheduledExecutorService flushScheduler;
+    private int batchSize;
+    private long lateThreshold = 60000L;
+
+    /** Set while a size triggered flush is waiting to run so that only one is queued at a time*/
+    private AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private volatile boolean shutdown = false;
+
+    private AtomicLong writtenCount = new AtomicLong();
+    private AtomicLong droppedCount = new AtomicLong();
+    private AtomicLong lateCount = new AtomicLong();
+    /** Counts at the time of the last report (only accessed while flushing)*/
+    private long reportedDroppedCount = 0;
+    private long reportedLateCount = 0;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushRequested.set(false);
+            flush();
+        }
+    };
+
+    /**
+     * @param jobAuditLogDao Used for writing the audit logs
+     * @param capacity The number of audit logs that can be buffered before the oldest are dropped
+     * @param batchSize The number of buffered audit logs that will trigger a flush (and the largest batch written at once)
+     * @param flushInterval The longest time (in milliseconds) that an audit log will be buffered before a flush is attempted
+     */
+    public VGLJobAuditLogWriter(VGLJobAuditLogDao jobAuditLogDao, int capacity, int batchSize, long flushInterval) {
+        this.jobAuditLogDao = jobAuditLogDao;
+        this.ring = new ArrayBlockingQueue<VGLJobAuditLog>(capacity);
+        this.batchSize = batchSize;
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("vgl-audit-log-writer-"));
+        this.flushScheduler.scheduleWithFixedDelay(flushTask, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the time (in milliseconds) after a transition beyond which its audit log is counted as late
+     * @return
+     */
+    public long getLateThreshold() {
+        return lateThreshold;
+    }
+
+    /**
+     * Sets the time (in milliseconds) after a transition beyond which its audit log is counted as late
+     * @param lateThreshold
+     */
+    public void setLateThreshold(long lateThreshold) {
+        this.lateThreshold = lateThreshold;
+    }
+
+    /**
+     * Gets the number of audit logs waiting to be written
+     * @return
+     */
+    public int getPendingCount() {
+        return ring.size();
+    }
+
+    /**
+     * Gets the number of audit logs that have been written
+     * @return
+     */
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Gets the number of audit logs that were dropped because the ring was full
+     * @return
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets the number of audit logs that were written more than lateThreshold milliseconds after their transition
+     * @return
+     */
+    public long getLateCount() {
+        return lateCount.get();
+    }
+
+    /**
+     * Buffers jobAuditLog for writing and returns immediately. After shutdown the audit log is written synchronously instead.
+     * @param jobAuditLog
+     */
+    public void write(VGLJobAuditLog jobAuditLog) {
+        if (shutdown) {
+            List<VGLJobAuditLog> batch = new ArrayList<VGLJobAuditLog>(1);
+            batch.add(jobAuditLog);
+            writeBatch(batch);
+            return;
+        }
+
+        while (!ring.offer(jobAuditLog)) {
+            //Make room by dropping the oldest (the poll may race with a flush, in which case we just try again)
+            if (ring.poll() != null) {
+                droppedCount.incrementAndGet();
+            }
+        }
+
+        if (shutdown) {
+            //We raced with shutdown, make sure we weren't missed by its flush
+            flush();
+        } else if (ring.size() >= batchSize) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Queues a flush on the background thread (unless one is already queued)
+     */
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            try {
+                flushScheduler.execute(flushTask);
+            } catch (RejectedExecutionException ex) {
+                //We're shutting down - shutdown will do the flush
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Synchronously writes every buffered audit log in batches of at most batchSize. If a batch fails
+     * its audit logs are returned to the ring (space permitting) and the remainder are left for the
+     * next flush.
+     */
+    public synchronized void flush() {
+        List<VGLJobAuditLog> batch = new ArrayList<VGLJobAuditLog>(batchSize);
+        while (ring.drainTo(batch, batchSize) > 0) {
+            if (!writeBatch(batch)) {
+                for (VGLJobAuditLog jobAuditLog : batch) {
+                    if (!ring.offer(jobAuditLog)) {
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                break;
+            }
+            batch.clear();
+        }
+
+        reportBacklog();
+    }
+
+    /**
+     * Writes batch, returns true if successful
+     */
+    private boolean writeBatch(List<VGLJobAuditLog> batch) {
+        try {
+            jobAuditLogDao.saveAll(batch);
+        } catch (Exception ex) {
+            log.warn(String.format("Unable to write %1$d job audit log(s): %2$s", batch.size(), ex.getMessage()));
+            log.debug("Exception:", ex);
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        for (VGLJobAuditLog jobAuditLog : batch) {
+            if (jobAuditLog.getTransitionDate() != null && now - jobAuditLog.getTransitionDate().getTime() > lateThreshold) {
+                lateCount.incrementAndGet();
+            }
+        }
+        writtenCount.addAndGet(batch.size());
+        return true;
+    }
+
+    /**
+     * Logs a warning if any audit logs have been dropped or written late since the last report
+     */
+    private void reportBacklog() {
+        long dropped = droppedCount.get();
+        long late = lateCount.get();
+        if (dropped == reportedDroppedCount && late == reportedLateCount) {
+            return;
+        }
+
+        log.warn(String.format("Job audit logs are falling behind: %1$d dropped and %2$d written more than %3$dms late since the last report (%4$d still pending)",
+                dropped - reportedDroppedCount, late - reportedLateCount, lateThreshold, ring.size()));
+        reportedDroppedCount = dropped;
+        reportedLateCount = late;
+    }
+
+    /**
+     * Stops the background flushing and synchronously writes everything that is still buffered. Any
+     * audit log written after this will be written synchronously.
+     */
+    public void shutdown() {
+        shutdown = true;
+        flushScheduler.shutdown();
+        try {
+            flushScheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+        if (!ring.isEmpty()) {
+            log.error(String.format("%1$d job audit log(s) could not be written before shutdown and have been lost", ring.size()));
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package org.auscope.portal.server.vegl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.util.structure.Job;
+import org.auscope.portal.server.web.service.VHIRLJobSubmissionExecutor;
+
+/**
+ * Holds jobs that couldn't be launched (typically due to an exceeded quota) and
+ * periodically retries them.
+ *
+ * Jobs are kept in a separate sub queue for each compute service so that a
+ * saturated provider doesn't block jobs bound for any other provider. Each sub
+ * queue serves its users in round robin order and backs off exponentially
+ * (independently of every other sub queue) whenever its provider reports that
+ * its quota has been exceeded.
+ *
+ * If a VEGLJobManager is set, every queued VGLQueueJob is also recorded as a
+ * VGLPendingTask along with its failed launch attempts. On startup the In Queue
+ * jobs are re-queued in the order given by restoreOrder, which is the order they
+ * were first queued in, so the queue order and attempt history survive a restart.
+ *
+ * Queues are retried as soon as capacityFreed is called for their compute service
+ * (eg - when a job finishes). Periodically calling run is only a safety net for
+ * capacity that is freed outside of the portal.
+ */
+public class VGLJobQueueScheduler {
+    private final Log logger = LogFactory.getLog(getClass());
+
+    /** Key used for jobs that don't have a compute service*/
+    private static final String NO_COMPUTE_SERVICE = "";
+    /** Key used for jobs that don't have a user*/
+    private static final String NO_USER = "";
+    /** Longest message that will be recorded against a queued job*/
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private VEGLJobManager jobManager;
+    private Executor executor;
+    private VHIRLJobSubmissionExecutor submissionExecutor;
+    private long initialBackoff = 300000L;
+    private long maxBackoff = 1800000L;
+    /** Sub queues keyed by compute service ID. Guarded by this*/
+    private Map<String, ProviderQueue> providerQueues = new LinkedHashMap<String, ProviderQueue>();
+
+    /**
+     * Creates a scheduler that doesn't persist its queue
+     */
+    public VGLJobQueueScheduler() {
+        this(null);
+    }
+
+    /**
+     * @param jobManager Used for persisting queued jobs (can be null)
+     */
+    public VGLJobQueueScheduler(VEGLJobManager jobManager) {
+        this.jobManager = jobManager;
+    }
+
+    /**
+     * Gets the time (in milliseconds) a provider is left alone after first reporting an exceeded quota
+     * @return
+     */
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * Sets the time (in milliseconds) a provider is left alone after first reporting an exceeded quota
+     * @param initialBackoff
+     */
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    /**
+     * Gets the longest time (in milliseconds) a provider will be left alone
+     * @return
+     */
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * Sets the longest time (in milliseconds) a provider will be left alone
+     * @param maxBackoff
+     */
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Gets the executor used for retrying queues when capacity is freed
+     * @return
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for retrying queues when capacity is freed. If null, queues will be retried on the calling thread.
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the pool that queued jobs are launched on
+     * @return
+     */
+    public VHIRLJobSubmissionExecutor getSubmissionExecutor() {
+        return submissionExecutor;
+    }
+
+    /**
+     * Sets the pool that queued jobs are launched on. If null, jobs will be launched on the thread running the queue.
+     * @param submissionExecutor
+     */
+    public void setSubmissionExecutor(VHIRLJobSubmissionExecutor submissionExecutor) {
+        this.submissionExecutor = submissionExecutor;
+    }
+
+    /**
+     * Whether a failed launch should be left in the queue to retry later (rather than failing the job)
+     */
+    private static boolean isRetryable(PortalServiceException e) {
+        String errorCorrection = e.getErrorCorrection();
+        return errorCorrection != null &&
+                (errorCorrection.contains("Quota exceeded") || errorCorrection.equals(VHIRLJobSubmissionExecutor.ERROR_CORRECTION_BUSY));
+    }
+
+    private static String getComputeServiceId(Job job) {
+        if (job instanceof VGLQueueJob) {
+            VEGLJob veglJob = ((VGLQueueJob) job).getVEGLJob();
+            if (veglJob != null && veglJob.getComputeServiceId() != null) {
+                return veglJob.getComputeServiceId();
+            }
+        }
+        return NO_COMPUTE_SERVICE;
+    }
+
+    private static String getUser(Job job) {
+        if (job instanceof VGLQueueJob) {
+            VEGLJob veglJob = ((VGLQueueJob) job).getVEGLJob();
+            if (veglJob != null && veglJob.getUser() != null) {
+                return veglJob.getUser();
+            }
+        }
+        return NO_USER;
+    }
+
+    /**
+     * Adds job to the back of its user's queue for its compute service. Does nothing if job is already queued.
+     * @param job
+     */
+    public void addJob(Job job) {
+        if (job instanceof VGLQueueJob && submissionExecutor != null) {
+            ((VGLQueueJob) job).setSubmissionExecutor(submissionExecutor);
+        }
+
+        synchronized (this) {
+            String computeServiceId = getComputeServiceId(job);
+            ProviderQueue providerQueue = providerQueues.get(computeServiceId);
+            if (providerQueue == null) {
+                providerQueue = new ProviderQueue();
+                providerQueues.put(computeServiceId, providerQueue);
+            }
+
+            if (!providerQueue.add(getUser(job), job)) {
+                return;
+            }
+        }
+
+        persist(job);
+    }
+
+    /**
+     * Removes job from the queue (if it's queued)
+     * @param job
+     * @return true if job was removed
+     */
+    public boolean remove(Job job) {
+        boolean removed;
+        synchronized (this) {
+            ProviderQueue providerQueue = providerQueues.get(getComputeServiceId(job));
+            removed = providerQueue != null && providerQueue.remove(getUser(job), job);
+        }
+
+        if (removed) {
+            unpersist(job);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns true if there are any jobs queued for any compute service
+     * @return
+     */
+    public synchronized boolean hasJob() {
+        return size() > 0;
+    }
+
+    /**
+     * Gets the number of jobs queued for every compute service
+     * @return
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (ProviderQueue providerQueue : providerQueues.values()) {
+            size += providerQueue.size;
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of jobs queued for a single compute service
+     * @param computeServiceId
+     * @return
+     */
+    public synchronized int size(String computeServiceId) {
+        ProviderQueue providerQueue = providerQueues.get(computeServiceId);
+        return providerQueue == null ? 0 : providerQueue.size;
+    }
+
+    /**
+     * Orders jobs (the In Queue jobs being re-queued after a restart) by when they were first queued
+     * according to their persisted records. Jobs without a record are placed last (in their original
+     * order). Records for jobs that aren't in jobs (ie are no longer In Queue) are removed.
+     *
+     * @param jobs The jobs that are In Queue
+     * @return
+     */
+    public List<VEGLJob> restoreOrder(List<VEGLJob> jobs) {
+        if (jobManager == null) {
+            return jobs;
+        }
+
+        List<VGLPendingTask> tasks;
+        try {
+            tasks = jobManager.getPendingTasks(VGLPendingTask.TYPE_QUEUED_SUBMISSION, Integer.MAX_VALUE);
+        } catch (Exception ex) {
+            logger.warn("Unable to load persisted queued jobs: " + ex.getMessage());
+            return jobs;
+        }
+
+        Map<Integer, VEGLJob> unordered = new LinkedHashMap<Integer, VEGLJob>();
+        for (VEGLJob job : jobs) {
+            unordered.put(job.getId(), job);
+        }
+
+        List<VEGLJob> ordered = new ArrayList<VEGLJob>(jobs.size());
+        for (VGLPendingTask task : tasks) {
+            VEGLJob job = unordered.remove(task.getJobId());
+            if (job != null) {
+                ordered.add(job);
+                continue;
+            }
+
+            try {
+                jobManager.deletePendingTask(task);
+            } catch (Exception ex) {
+                logger.warn(String.format("Unable to remove stale queued job record '%1$s': %2$s", task.getJobId(), ex.getMessage()));
+            }
+        }
+        ordered.addAll(unordered.values());
+        return ordered;
+    }
+
+    /**
+     * Removes every job from the in memory queue. Persisted records are not affected.
+     */
+    public synchronized void clear() {
+        providerQueues.clear();
+    }
+
+    /**
+     * Attempts to launch queued jobs for every compute service that isn't currently backing off.
+     */
+    public void run() {
+        List<String> computeServiceIds;
+        synchronized (this) {
+            computeServiceIds = new ArrayList<String>(providerQueues.keySet());
+        }
+
+        for (String computeServiceId : computeServiceIds) {
+            runProvider(computeServiceId);
+        }
+    }
+
+    /**
+     * Notifies this scheduler that an instance has been released by a compute service. Any jobs queued
+     * for that compute service will be retried immediately (regardless of backoff) on the executor.
+     *
+     * @param computeServiceId
+     */
+    public void capacityFreed(String computeServiceId) {
+        final String key = computeServiceId == null ? NO_COMPUTE_SERVICE : computeServiceId;
+        synchronized (this) {
+            ProviderQueue providerQueue = providerQueues.get(key);
+            if (providerQueue == null || providerQueue.size == 0) {
+                return;
+            }
+            providerQueue.nextAttemptTime = 0;
+        }
+
+        Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                runProvider(key);
+            }
+        };
+
+        if (executor == null) {
+            drain.run();
+            return;
+        }
+
+        try {
+            executor.execute(drain);
+        } catch (Exception ex) {
+            //The periodic run will pick this compute service up instead
+            logger.warn(String.format("Unable to retry queue for compute service '%1$s': %2$s", computeServiceId, ex.getMessage()));
+        }
+    }
+
+    /**
+     * Attempts to launch queued jobs for a single compute service until it either runs out of
+     * jobs or reports that its quota has been exceeded. Does nothing if the compute service is
+     * backing off or is already being run on another thread.
+     *
+     * @param computeServiceId
+     */
+    public void runProvider(String computeServiceId) {
+        ProviderQueue providerQueue;
+        synchronized (this) {
+            providerQueue = providerQueues.get(computeServiceId);
+            if (providerQueue == null || providerQueue.running || providerQueue.size == 0 ||
+                    System.currentTimeMillis() < providerQueue.nextAttemptTime) {
+                return;
+            }
+            providerQueue.running = true;
+        }
+
+        try {
+            while (true) {
+                QueuedJob next;
+                synchronized (this) {
+                    next = providerQueue.poll();
+                }
+                if (next == null) {
+                    return;
+                }
+
+                try {
+                    if (!next.job.run()) {
+                        //THIS LINE SHOULD NEVER BE REACHED as run should either succeed or throw a portal exception
+                        throw new PortalServiceException("Fatal error occurred,Job not completed");
+                    }
+
+                    synchronized (this) {
+                        providerQueue.resetBackoff();
+                    }
+                    unpersist(next.job);
+                } catch (PortalServiceException e) {
+                    if (isRetryable(e)) {
+                        long backoff;
+                        synchronized (this) {
+                            providerQueue.pushFront(next);
+                            backoff = providerQueue.backoff();
+                        }
+                        recordAttempt(next.job, e);
+                        logger.info(String.format("Unable to launch on compute service '%1$s' (%2$s), retrying in %3$d ms", computeServiceId, e.getErrorCorrection(), backoff));
+                        return;
+                    }
+
+                    handleFailure(next.job, e);
+                } catch (Exception e) {
+                    handleFailure(next.job, e);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                providerQueue.running = false;
+            }
+        }
+    }
+
+    /**
+     * Something went wrong with this particular job (other than a quota) - it won't be retried
+     */
+    private void handleFailure(Job job, Exception e) {
+        try {
+            unpersist(job);
+            if (job instanceof VGLQueueJob) {
+                ((VGLQueueJob) job).updateErrorStatus(e);
+            }
+            logger.error("Error with job:" + job.toString(), e);
+        } catch (Exception ex) {
+            //any exception thrown above will be silently absorbed therefore it's crucial to
+            //catch any here and notify the user.
+            logger.error(ex);
+        }
+    }
+
+    private Integer getJobId(Job job) {
+        if (jobManager == null || !(job instanceof VGLQueueJob) || ((VGLQueueJob) job).getVEGLJob() == null) {
+            return null;
+        }
+        return ((VGLQueueJob) job).getVEGLJob().getId();
+    }
+
+    private void persist(Job job) {
+        Integer jobId = getJobId(job);
+        if (jobId == null) {
+            return;
+        }
+
+        try {
+            if (jobManager.getPendingTask(jobId, VGLPendingTask.TYPE_QUEUED_SUBMISSION) == null) {
+                jobManager.savePendingTask(new VGLPendingTask(jobId, VGLPendingTask.TYPE_QUEUED_SUBMISSION));
+            }
+        } catch (Exception ex) {
+            logger.warn(String.format("Unable to persist queued job '%1$s': %2$s", jobId, ex.getMessage()));
+        }
+    }
+
+    private void unpersist(Job job) {
+        Integer jobId = getJobId(job);
+        if (jobId == null) {
+            return;
+        }
+
+        try {
+            VGLPendingTask task = jobManager.getPendingTask(jobId, VGLPendingTask.TYPE_QUEUED_SUBMISSION);
+            if (task != null) {
+                jobManager.deletePendingTask(task);
+            }
+        } catch (Exception ex) {
+            logger.warn(String.format("Unable to remove persisted queued job '%1$s': %2$s", jobId, ex.getMessage()));
+        }
+    }
+
+    private void recordAttempt(Job job, Exception e) {
+        Integer jobId = getJobId(job);
+        if (jobId == null) {
+            return;
+        }
+
+        try {
+            VGLPendingTask task = jobManager.getPendingTask(jobId, VGLPendingTask.TYPE_QUEUED_SUBMISSION);
+            if (task != null) {
+                String message = e.getMessage() == null ? e.toString() : e.getMessage();
+                task.setAttempts(task.getAttempts() + 1);
+                task.setLastAttemptDate(new Date());
+                task.setLastError(message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message);
+                jobManager.savePendingTask(task);
+            }
+        } catch (Exception ex) {
+            logger.warn(String.format("Unable to update persisted queued job '%1$s': %2$s", jobId, ex.getMessage()));
+        }
+    }
+
+    private static class QueuedJob {
+        private String user;
+        private Job job;
+
+        public QueuedJob(String user, Job job) {
+            this.user = user;
+            this.job = job;
+        }
+    }
+
+    /**
+     * The queue for a single compute service. Not thread safe - all access is guarded by the owning scheduler.
+     */
+    private class ProviderQueue {
+        /** Queued jobs for each user*/
+        private Map<String, LinkedList<Job>> jobsByUser = new LinkedHashMap<String, LinkedList<Job>>();
+        /** The order that users with queued jobs will be served in*/
+        private LinkedList<String> userOrder = new LinkedList<String>();
+        private int size = 0;
+        private long currentBackoff = 0;
+        private long nextAttemptTime = 0;
+        private boolean running = false;
+
+        public boolean add(String user, Job job) {
+            LinkedList<Job> jobs = jobsByUser.get(user);
+            if (jobs == null) {
+                jobs = new LinkedList<Job>();
+                jobsByUser.put(user, jobs);
+                userOrder.addLast(user);
+            } else if (jobs.contains(job)) {
+                return false;
+            }
+
+            jobs.addLast(job);
+            size++;
+            return true;
+        }
+
+        public boolean remove(String user, Job job) {
+            LinkedList<Job> jobs = jobsByUser.get(user);
+            if (jobs == null || !jobs.remove(job)) {
+                return false;
+            }
+
+            size--;
+            if (jobs.isEmpty()) {
+                jobsByUser.remove(user);
+                userOrder.remove(user);
+            }
+            return true;
+        }
+
+        /**
+         * Removes the next job (round robin by user) or returns null if there are none
+         */
+        public QueuedJob poll() {
+            if (userOrder.isEmpty()) {
+                return null;
+            }
+
+            String user = userOrder.removeFirst();
+            LinkedList<Job> jobs = jobsByUser.get(user);
+            Job job = jobs.removeFirst();
+            size--;
+            if (jobs.isEmpty()) {
+                jobsByUser.remove(user);
+            } else {
+                userOrder.addLast(user);
+            }
+            return new QueuedJob(user, job);
+        }
+
+        /**
+         * Returns a job (that was just polled) to the front of the queue
+         */
+        public void pushFront(QueuedJob queuedJob) {
+            LinkedList<Job> jobs = jobsByUser.get(queuedJob.user);
+            if (jobs == null) {
+                jobs = new LinkedList<Job>();
+                jobsByUser.put(queuedJob.user, jobs);
+            } else {
+                userOrder.remove(queuedJob.user);
+            }
+
+            jobs.addFirst(queuedJob.job);
+            userOrder.addFirst(queuedJob.user);
+            size++;
+        }
+
+        /**
+         * Increases this provider's backoff, returning the new value
+         */
+        public long backoff() {
+            currentBackoff = currentBackoff == 0 ? initialBackoff : Math.min(maxBackoff, currentBackoff * 2);
+            nextAttemptTime = System.currentTimeMillis() + currentBackoff;
+            return currentBackoff;
+        }
+
+        public void resetBackoff() {
+            currentBackoff = 0;
+            nextAttemptTime = 0;
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package org.auscope.portal.server.vegl;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.io.IOUtils;
 import org.auscope.portal.core.cloud.CloudFileInformation;
 import org.auscope.portal.core.cloud.CloudJob;
 import org.auscope.portal.core.services.PortalServiceException;
@@ -16,14 +22,33 @@ import org.auscope.portal.core.util.FileIOUtil;
 import org.auscope.portal.server.web.controllers.BaseCloudController;
 import org.auscope.portal.server.web.controllers.JobBuilderController;
 import org.auscope.portal.server.web.controllers.JobListController;
+import org.auscope.portal.server.web.service.CloudFileMetadata;
+import org.auscope.portal.server.web.service.VHIRLCloudStorageService;
 import org.auscope.portal.server.web.service.VHIRLFileStagingService;
+import org.auscope.portal.server.web.service.VHIRLProvenanceQueue;
 import org.auscope.portal.server.web.service.VHIRLProvenanceService;
+import org.auscope.portal.server.web.service.monitor.VGLJobPollScheduler;
 import org.springframework.ui.ModelMap;
 
 public class VGLJobStatusAndLogReader extends BaseCloudController implements JobStatusReader {
 
+    /** Written by the workflow script as soon as a job starts running*/
+    public static final String JOB_STARTED_FILE = "workflow-version.txt";
+
+    /** Job logs are written as UTF-8*/
+    private static final Charset LOG_CHARSET = Charset.forName("UTF-8");
+
     private VEGLJobManager jobManager;
     private VHIRLProvenanceService vhirlProvenanceService;
+    /** Number of status checks that were resolved by probing marker files instead of listing the job files*/
+    private AtomicLong listingCallsAvoided = new AtomicLong();
+    /** Number of status checks that required a full listing of the job files*/
+    private AtomicLong listingCalls = new AtomicLong();
+    private VGLJobPollScheduler pollScheduler;
+    private VHIRLProvenanceQueue provenanceQueue;
+    private VGLSectionedLogCache logCache;
+    /** The authoritative job statuses (keyed by job ID) as of the last call to refreshJobStatuses*/
+    private ConcurrentHashMap<Integer, String> refreshedStatuses = new ConcurrentHashMap<Integer, String>();
 
     public VGLJobStatusAndLogReader(VEGLJobManager jobManager, VHIRLFileStagingService vhirlFileStagingService,
             CloudStorageService[] cloudStorageServices, CloudComputeService[] cloudComputeServices) {
@@ -33,6 +58,48 @@ public class VGLJobStatusAndLogReader extends BaseCloudController implements Job
 
     }
 
+    /**
+     * Sets the (optional) scheduler that will be informed of the outcome of every status check
+     * @param pollScheduler
+     */
+    public void setPollScheduler(VGLJobPollScheduler pollScheduler) {
+        this.pollScheduler = pollScheduler;
+    }
+
+    /**
+     * Sets the (optional) queue that output provenance will be generated on. If not set,
+     * provenance will be generated inline whilst the job status is being checked.
+     * @param provenanceQueue
+     */
+    public void setProvenanceQueue(VHIRLProvenanceQueue provenanceQueue) {
+        this.provenanceQueue = provenanceQueue;
+    }
+
+    /**
+     * Sets the (optional) cache for parsed logs. Logs will only be cached for storage services
+     * that can report the version (ETag/size) of the log without downloading it.
+     * @param logCache
+     */
+    public void setLogCache(VGLSectionedLogCache logCache) {
+        this.logCache = logCache;
+    }
+
+    /**
+     * Gets the number of status checks that were resolved by probing marker files instead of listing the job files
+     * @return
+     */
+    public long getListingCallsAvoided() {
+        return listingCallsAvoided.get();
+    }
+
+    /**
+     * Gets the number of status checks that required a full listing of the job files
+     * @return
+     */
+    public long getListingCalls() {
+        return listingCalls.get();
+    }
+
     /**
      * Gets a pre parsed version of the internal logs. The resulting object will
      * contain the logs sectioned into 'named sections' e.g.: Section for python code,
@@ -52,51 +119,219 @@ public class VGLJobStatusAndLogReader extends BaseCloudController implements Job
                     "Please ensure you have chosen a storage provider for the job.");
         }
 
-        //Download the logs from cloud storage
-        String logContents = null;
+        //Stream the logs from cloud storage (unless cached), capturing every section
+        VGLSectionedLogParser.SectionedLog sectionedLog = getCachedLog(cloudStorageService, job);
+        if (sectionedLog == null) {
+            VGLSectionedLogParser parser = new VGLSectionedLogParser();
+            parser.setCaptureFullLog(true);
+            sectionedLog = parseLog(cloudStorageService, job, parser);
+        }
+
+        ModelMap namedSections = new ModelMap();
+        namedSections.put("Full", sectionedLog.getFullText()); //always include the full log
+        namedSections.putAll(sectionedLog.getSectionTexts());
+
+        return namedSections;
+    }
+
+    /**
+     * Gets the fully parsed log for job from the log cache, parsing (and caching) it if the cached
+     * version is missing or out of date. Returns null if the log can't be cached (no cache, the storage
+     * service can't report the log version, or the log is too large) - the caller should parse the log itself.
+     */
+    private VGLSectionedLogParser.SectionedLog getCachedLog(CloudStorageService cloudStorageService, VEGLJob job) throws PortalServiceException {
+        if (logCache == null || !(cloudStorageService instanceof VHIRLCloudStorageService)) {
+            return null;
+        }
+
+        CloudFileMetadata metadata = null;
+        try {
+            metadata = ((VHIRLCloudStorageService) cloudStorageService).getJobFileMetadata(job, JobListController.VGL_LOG_FILE);
+        } catch (PortalServiceException ex) {
+            log.debug(String.format("Unable to get log metadata for job '%1$s': %2$s", job.getId(), ex.getMessage()));
+            return null;
+        }
+        if (metadata == null) {
+            throw new PortalServiceException("The specified job hasn't uploaded any logs yet.");
+        }
+
+        String version = metadata.getETag() == null ? "size:" + metadata.getSize() : metadata.getETag();
+        VGLSectionedLogParser.SectionedLog sectionedLog = logCache.get(job.getId(), version);
+        if (sectionedLog != null) {
+            return sectionedLog;
+        }
+
+        if (!logCache.isCacheable(metadata.getSize())) {
+            return null;
+        }
+
+        VGLSectionedLogParser parser = new VGLSectionedLogParser();
+        parser.setCaptureFullLog(true);
+        sectionedLog = parseLog(cloudStorageService, job, parser);
+        logCache.put(job.getId(), version, sectionedLog);
+        return sectionedLog;
+    }
+
+    /**
+     * Streams the job's log from cloud storage through parser
+     */
+    private VGLSectionedLogParser.SectionedLog parseLog(CloudStorageService cloudStorageService, VEGLJob job, VGLSectionedLogParser parser) throws PortalServiceException {
         InputStream is = null;
         try {
             is = cloudStorageService.getJobFile(job, JobListController.VGL_LOG_FILE);
-            logContents = IOUtils.toString(is);
+            return parser.parse(is);
         } catch (Exception ex) {
             throw new PortalServiceException("The specified job hasn't uploaded any logs yet.");
         } finally {
             FileIOUtil.closeQuietly(is);
         }
+    }
 
-        ModelMap namedSections = new ModelMap();
-        namedSections.put("Full", logContents); //always include the full log
-
-        //Iterate through looking for start/end matches. All text between a start/end
-        //tag will be snipped out and used in their own region/section
-        Pattern p = Pattern.compile("^#### (.*) (.+) ####$[\\n\\r]*", Pattern.MULTILINE);
-        Matcher m = p.matcher(logContents);
-        int start = 0;
-        String currentSectionName = null;
-        while (m.find()) {
-            String sectionName = m.group(1);
-            String delimiter = m.group(2);
-
-            //On a new match - record the location and name
-            if (delimiter.equals("start")) {
-                start = m.end();
-                currentSectionName = sectionName;
-            } else if (delimiter.equals("end")) {
-                //On a closing pattern - ensure we are closing the current region (we don't support nesting)
-                //Take the snippet of text and store it in our result map
-                if (sectionName.equals(currentSectionName)) {
-                    String regionText = logContents.substring(start, m.start());
-                    namedSections.put(sectionName, regionText);
-                    currentSectionName = null;
-                    start = 0;
+    /**
+     * Gets the portion of the job's log starting at offset (up to maxBytes long). Where the storage
+     * service supports ranged reads only the requested bytes are downloaded, otherwise the log is
+     * streamed and the leading bytes skipped.
+     *
+     * If offset is beyond the end of the log (eg - the log was replaced) the log is read from the start.
+     *
+     * The log is decoded as UTF-8. Partial characters at either end of the requested bytes are
+     * dropped (and the offsets adjusted to match) so that no character is split between requests.
+     *
+     * The resulting map contains "content" (the log text), "offset" (the offset content starts at)
+     * and "nextOffset" (the offset to request next time).
+     *
+     * @param job
+     * @param offset The byte offset to start reading from
+     * @param maxBytes The maximum number of bytes to return
+     * @return
+     */
+    public ModelMap getLogTail(VEGLJob job, long offset, int maxBytes) throws PortalServiceException {
+        CloudStorageService cloudStorageService = getStorageService(job);
+        if (cloudStorageService == null) {
+            throw new PortalServiceException(
+                    "The specified job doesn't have a storage service.",
+                    "Please ensure you have chosen a storage provider for the job.");
+        }
+
+        byte[] content = null;
+        InputStream is = null;
+        try {
+            if (cloudStorageService instanceof VHIRLCloudStorageService) {
+                VHIRLCloudStorageService rangedService = (VHIRLCloudStorageService) cloudStorageService;
+                CloudFileMetadata metadata = rangedService.getJobFileMetadata(job, JobListController.VGL_LOG_FILE);
+                if (metadata == null) {
+                    throw new PortalServiceException("The specified job hasn't uploaded any logs yet.");
+                }
+
+                if (offset > metadata.getSize()) {
+                    offset = 0;
+                }
+                if (offset == metadata.getSize()) {
+                    content = new byte[0];
+                } else {
+                    long endOffset = Math.min(metadata.getSize(), offset + maxBytes) - 1;
+                    is = rangedService.getJobFileRange(job, JobListController.VGL_LOG_FILE, offset, endOffset);
+                    if (is == null) {
+                        throw new PortalServiceException("The specified job hasn't uploaded any logs yet.");
+                    }
+                    content = readUpTo(is, (int) (endOffset - offset + 1));
                 }
+            } else {
+                is = cloudStorageService.getJobFile(job, JobListController.VGL_LOG_FILE);
+                if (skipFully(is, offset) < offset) {
+                    //The log is shorter than offset - start again from the beginning
+                    FileIOUtil.closeQuietly(is);
+                    offset = 0;
+                    is = cloudStorageService.getJobFile(job, JobListController.VGL_LOG_FILE);
+                }
+                content = readUpTo(is, maxBytes);
             }
+        } catch (PortalServiceException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PortalServiceException("The specified job hasn't uploaded any logs yet.");
+        } finally {
+            FileIOUtil.closeQuietly(is);
         }
 
-        return namedSections;
+        //Don't split a multi byte character between requests
+        int start = offset == 0 ? 0 : countLeadingContinuationBytes(content);
+        int end = getCompleteLength(content, start);
+
+        ModelMap tail = new ModelMap();
+        tail.put("content", new String(content, start, end - start, LOG_CHARSET));
+        tail.put("offset", offset + start);
+        tail.put("nextOffset", offset + end);
+        return tail;
     }
 
     /**
+     * Counts the UTF-8 continuation bytes (the remainder of a character that started before content)
+     * at the start of content
+     */
+    private int countLeadingContinuationBytes(byte[] content) {
+        int count = 0;
+        while (count < content.length && count < 3 && (content[count] & 0xC0) == 0x80) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the length of content (from start) without any UTF-8 character that is cut off at the end
+     */
+    private int getCompleteLength(byte[] content, int start) {
+        //Find the first byte of the last character
+        int lead = content.length - 1;
+        while (lead > start && content.length - lead < 4 && (content[lead] & 0xC0) == 0x80) {
+            lead--;
+        }
+        if (lead < start) {
+            return content.length;
+        }
+
+        int expected;
+        if ((content[lead] & 0xE0) == 0xC0) {
+            expected = 2;
+        } else if ((content[lead] & 0xF0) == 0xE0) {
+            expected = 3;
+        } else if ((content[lead] & 0xF8) == 0xF0) {
+            expected = 4;
+        } else {
+            expected = 1;
+        }
+        return content.length - lead < expected ? lead : content.length;
+    }
+
+    /**
+     * Reads at most maxBytes from is. Memory is only allocated for the bytes actually read
+     */
+    private byte[] readUpTo(InputStream is, int maxBytes) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.min(maxBytes, 8192));
+        byte[] buf = new byte[Math.min(maxBytes, 8192)];
+        int count;
+        while (bos.size() < maxBytes && (count = is.read(buf, 0, Math.min(buf.length, maxBytes - bos.size()))) != -1) {
+            bos.write(buf, 0, count);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Skips up to count bytes of is, returning the number of bytes actually skipped
+     */
+    private long skipFully(InputStream is, long count) throws IOException {
+        byte[] buf = new byte[8192];
+        long skipped = 0;
+        int read;
+        while (skipped < count && (read = is.read(buf, 0, (int) Math.min(buf.length, count - skipped))) != -1) {
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    /**
+     * Gets a single named section of the job's log. The log is streamed and only the
+     * requested section is held in memory.
      *
      * @param job
      * @param sectionName
@@ -104,22 +339,78 @@ public class VGLJobStatusAndLogReader extends BaseCloudController implements Job
      */
     public String getSectionedLog(VEGLJob job, String sectionName) {
         try {
-            HashMap sectLogs = getSectionedLogs(job);
-            return (String)sectLogs.get(sectionName);
+            if ("Full".equals(sectionName)) {
+                return (String) getSectionedLogs(job).get(sectionName);
+            }
+
+            CloudStorageService cloudStorageService = getStorageService(job);
+            if (cloudStorageService == null) {
+                log.debug(String.format("No cloud storage service with id '%1$s' for job '%2$s'", job.getStorageServiceId(), job.getId()));
+                return null;
+            }
+
+            VGLSectionedLogParser.SectionedLog sectionedLog = getCachedLog(cloudStorageService, job);
+            if (sectionedLog == null) {
+                VGLSectionedLogParser parser = new VGLSectionedLogParser(Arrays.asList(sectionName));
+                sectionedLog = parseLog(cloudStorageService, job, parser);
+            }
+
+            VGLSectionedLogParser.LogSection section = sectionedLog.getSection(sectionName);
+            return section == null ? null : section.getText();
         } catch (PortalServiceException ex) {
             log.debug(ex.getMessage());
             return null;
         }
     }
 
+    /**
+     * Loads the authoritative status of every job in jobs with a single query. Subsequent calls to
+     * getJobStatus for these jobs will only reload the full job from the DB if its status has changed
+     * since the job object was loaded.
+     *
+     * Any statuses from a previous call that haven't been used will be discarded.
+     *
+     * @param jobs The jobs about to be polled
+     */
+    public void refreshJobStatuses(Collection<? extends CloudJob> jobs) {
+        refreshedStatuses.clear();
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        List<Integer> ids = new ArrayList<Integer>(jobs.size());
+        for (CloudJob job : jobs) {
+            ids.add(job.getId());
+        }
+
+        refreshedStatuses.putAll(jobManager.getJobStatuses(ids));
+    }
+
+    /**
+     * Returns cloudJob if refreshJobStatuses has recorded the job's status and it matches cloudJob, otherwise
+     * returns null (the job must be loaded from the DB). The returned job won't have its collections loaded.
+     */
+    private VEGLJob getRefreshedJob(CloudJob cloudJob) {
+        String latestStatus = refreshedStatuses.remove(cloudJob.getId());
+        if (latestStatus != null && cloudJob instanceof VEGLJob && latestStatus.equals(((VEGLJob) cloudJob).getStatus())) {
+            return (VEGLJob) cloudJob;
+        }
+
+        return null;
+    }
+
     /**
      * Using the services internal to the class, determine the current status of this job. Service failure
      * will return the underlying job status
      */
 	public String getJobStatus(CloudJob cloudJob) {
         //The service hangs onto the underlying job Object but the DB is the point of truth
-        //Make sure we get an updated job object first!
-        VEGLJob job = jobManager.getJobById(cloudJob.getId());
+        //Make sure we get an updated job object first (this is cheap if refreshJobStatuses was called)!
+        VEGLJob job = getRefreshedJob(cloudJob);
+        boolean collectionsLoaded = job == null;
+        if (collectionsLoaded) {
+            job = jobManager.getJobById(cloudJob.getId());
+        }
         if (job == null) {
             return null;
         }
@@ -138,39 +429,126 @@ public class VGLJobStatusAndLogReader extends BaseCloudController implements Job
             log.warn(String.format("No cloud storage service with id '%1$s' for job '%2$s'. cannot update job status", job.getStorageServiceId(), job.getId()));
             return job.getStatus();
         }
-        CloudFileInformation[] results = null;
-        try {
-            results = cloudStorageService.listJobFiles(job);
-        } catch (Exception e) {
-            return job.getStatus();
+
+        //markers[0] is the job started file, markers[1] is the job finished (log) file
+        CloudFileInformation[] markers = probeMarkerFiles(cloudStorageService, job);
+        if (markers != null) {
+            listingCallsAvoided.incrementAndGet();
+        } else {
+            CloudFileInformation[] results = null;
+            try {
+                results = cloudStorageService.listJobFiles(job);
+            } catch (Exception e) {
+                recordPoll(job, null, null);
+                return job.getStatus();
+            }
+            listingCalls.incrementAndGet();
+
+            markers = new CloudFileInformation[] {
+                    findFile(results, JOB_STARTED_FILE),
+                    findFile(results, JobListController.VGL_LOG_FILE)};
         }
 
-        boolean jobStarted = containsFile(results, "workflow-version.txt");
-        boolean jobFinished = containsFile(results,
-        		JobListController.VGL_LOG_FILE);
+        boolean jobStarted = isPresent(markers[0]);
+        boolean jobFinished = isPresent(markers[1]);
 
+        String status;
         if (jobFinished) {
         	// Provenance goes here.
-            vhirlProvenanceService.createEntitiesForOutputs(job);
-            return JobBuilderController.STATUS_DONE;
+            if (provenanceQueue != null) {
+                provenanceQueue.enqueue(job);
+            } else {
+                //Provenance needs the job's downloads which aren't loaded on a refreshed job
+                VEGLJob fullJob = collectionsLoaded ? job : jobManager.getJobById(job.getId());
+                if (fullJob != null) {
+                    try {
+                        vhirlProvenanceService.createEntitiesForOutputs(fullJob);
+                    } catch (PortalServiceException e) {
+                        log.error(String.format("Unable to generate provenance for job '%1$s': %2$s", job.getId(), e.getMessage()));
+                        log.debug("Exception:", e);
+                    }
+                }
+            }
+            status = JobBuilderController.STATUS_DONE;
         } else if (jobStarted) {
-            return JobBuilderController.STATUS_ACTIVE;
+            status = JobBuilderController.STATUS_ACTIVE;
         } else {
-            return JobBuilderController.STATUS_PENDING;
+            status = JobBuilderController.STATUS_PENDING;
+        }
+
+        recordPoll(job, status, getMarkerSignature(markers));
+        return status;
+    }
+
+    /**
+     * Informs the poll scheduler (if any) of the outcome of polling job
+     */
+    private void recordPoll(VEGLJob job, String status, String markerSignature) {
+        if (pollScheduler != null) {
+            pollScheduler.recordPoll(job.getId(), status, markerSignature);
         }
     }
 
-    private boolean containsFile(CloudFileInformation[] files, String fileName) {
+    /**
+     * Generates a string that will change whenever any of the marker files change
+     */
+    private String getMarkerSignature(CloudFileInformation[] markers) {
+        StringBuilder sb = new StringBuilder();
+        for (CloudFileInformation marker : markers) {
+            if (marker == null) {
+                sb.append("-");
+            } else {
+                sb.append(marker.getSize());
+                if (marker instanceof CloudFileMetadata && ((CloudFileMetadata) marker).getETag() != null) {
+                    sb.append("/").append(((CloudFileMetadata) marker).getETag());
+                }
+            }
+            sb.append(";");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks for the job started/finished marker files using individual metadata requests. The finished
+     * marker is checked first as a finished job doesn't need its started marker checked.
+     *
+     * @return [started file, finished file] (either can be null) or null if the storage service can't be probed (the caller should list the job files instead)
+     */
+    private CloudFileInformation[] probeMarkerFiles(CloudStorageService cloudStorageService, VEGLJob job) {
+        if (!(cloudStorageService instanceof VHIRLCloudStorageService)) {
+            return null;
+        }
+
+        VHIRLCloudStorageService probeService = (VHIRLCloudStorageService) cloudStorageService;
+        try {
+            CloudFileMetadata logFile = probeService.getJobFileMetadata(job, JobListController.VGL_LOG_FILE);
+            if (isPresent(logFile)) {
+                return new CloudFileInformation[] {null, logFile};
+            }
+
+            CloudFileMetadata startedFile = probeService.getJobFileMetadata(job, JOB_STARTED_FILE);
+            return new CloudFileInformation[] {startedFile, logFile};
+        } catch (PortalServiceException ex) {
+            log.debug(String.format("Unable to probe marker files for job '%1$s', falling back to listing: %2$s", job.getId(), ex.getMessage()));
+            return null;
+        }
+    }
+
+    private boolean isPresent(CloudFileInformation file) {
+        return file != null && file.getSize() > 0;
+    }
+
+    private CloudFileInformation findFile(CloudFileInformation[] files, String fileName) {
         if (files == null) {
-            return false;
+            return null;
         }
 
         for (CloudFileInformation file : files) {
             if (file.getName().endsWith(fileName) && file.getSize() > 0) {
-                return true;
+                return file;
             }
         }
 
-        return false;
+        return null;
     }
 }
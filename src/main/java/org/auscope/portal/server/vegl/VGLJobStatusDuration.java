@@ -0,0 +1,70 @@
+package org.auscope.portal.server.vegl;
+
+import java.util.Date;
+
+/**
+ * A single stay of a job in a particular status, derived from consecutive VGLJobAuditLog transitions.
+ */
+public class VGLJobStatusDuration {
+    private Integer jobId;
+    private String user;
+    private String status;
+    private Date enteredDate;
+    private Date exitedDate;
+
+    public VGLJobStatusDuration(Integer jobId, String user, String status, Date enteredDate, Date exitedDate) {
+        this.jobId = jobId;
+        this.user = user;
+        this.status = status;
+        this.enteredDate = enteredDate;
+        this.exitedDate = exitedDate;
+    }
+
+    /**
+     * The job that was in status
+     * @return
+     */
+    public Integer getJobId() {
+        return jobId;
+    }
+
+    /**
+     * The user who owns the job
+     * @return
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * The status the job was in
+     * @return
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * When the job transitioned into status
+     * @return
+     */
+    public Date getEnteredDate() {
+        return enteredDate;
+    }
+
+    /**
+     * When the job transitioned out of status
+     * @return
+     */
+    public Date getExitedDate() {
+        return exitedDate;
+    }
+
+    /**
+     * How long (in milliseconds) the job was in status
+     * @return
+     */
+    public long getDuration() {
+        return exitedDate.getTime() - enteredDate.getTime();
+    }
+}
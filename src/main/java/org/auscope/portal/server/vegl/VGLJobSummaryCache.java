@@ -0,0 +1,241 @@
+package org.auscope.portal.server.vegl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Caches each user's series along with the number of jobs of each status in them so that the job
+ * list can be opened without going to the database.
+ *
+ * Entries are invalidated by VEGLJobManager whenever it saves or deletes a job or series of the
+ * user (this covers the status change handler, the controllers and the background services). Changes
+ * made outside of the portal are picked up once an entry is older than timeToLive. At most maxUsers
+ * entries are kept, the least recently used are discarded first.
+ */
+public class VGLJobSummaryCache {
+    private VEGLSeriesDao seriesDao;
+    private VEGLJobDao jobDao;
+    private long timeToLive = 300000L;
+    private final int maxUsers;
+
+    private final Map<String, CacheEntry> entries;
+    /** Incremented by every invalidation so that a load that overlapped one isn't cached*/
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param seriesDao Used for loading the series of a user
+     * @param jobDao Used for counting the jobs of each series
+     * @param maxUsers The largest number of users whose summaries will be cached
+     */
+    public VGLJobSummaryCache(VEGLSeriesDao seriesDao, VEGLJobDao jobDao, final int maxUsers) {
+        this.seriesDao = seriesDao;
+        this.jobDao = jobDao;
+        this.maxUsers = maxUsers;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxUsers;
+            }
+        };
+    }
+
+    /**
+     * Gets the time (in milliseconds) after which an entry is reloaded even if it hasn't been invalidated
+     * @return
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Sets the time (in milliseconds) after which an entry is reloaded even if it hasn't been invalidated
+     * @param timeToLive
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Gets the number of requests that were served from the cache
+     * @return
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Gets the number of requests that had to go to the database
+     * @return
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Gets the number of users currently cached
+     * @return
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Gets the summaries of every series of user (ordered by series ID), loading them if they aren't cached.
+     * The returned list is shared and can't be modified.
+     * @param user The email of the user
+     * @return
+     */
+    public List<SeriesSummary> getSeriesSummaries(String user) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            CacheEntry entry = entries.get(user);
+            if (entry != null && now - entry.loadTime < timeToLive) {
+                hitCount.incrementAndGet();
+                return entry.summaries;
+            }
+        }
+
+        missCount.incrementAndGet();
+        long loadGeneration = generation.get();
+        List<SeriesSummary> summaries = loadSeriesSummaries(seriesDao, jobDao, user);
+        synchronized (entries) {
+            if (generation.get() == loadGeneration) {
+                entries.put(user, new CacheEntry(summaries, now));
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Discards the cached summaries of user. If user is null everything is discarded.
+     * @param user The email of the user
+     */
+    public void invalidate(String user) {
+        generation.incrementAndGet();
+        synchronized (entries) {
+            if (user == null) {
+                entries.clear();
+            } else {
+                entries.remove(user);
+            }
+        }
+    }
+
+    /**
+     * Discards every cached summary
+     */
+    public void invalidateAll() {
+        invalidate(null);
+    }
+
+    /**
+     * Loads (without caching) the summaries of every series of user using two queries.
+     */
+    public static List<SeriesSummary> loadSeriesSummaries(VEGLSeriesDao seriesDao, VEGLJobDao jobDao, String user) {
+        if (StringUtils.isEmpty(user)) {
+            return Collections.emptyList();
+        }
+
+        List<VEGLSeries> seriesList = seriesDao.query(user, null, null);
+        if (seriesList == null || seriesList.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Integer> seriesIds = new ArrayList<Integer>(seriesList.size());
+        for (VEGLSeries series : seriesList) {
+            seriesIds.add(series.getId());
+        }
+        Map<Integer, Map<String, Integer>> counts = jobDao.countJobStatusesOfSeries(seriesIds);
+
+        List<SeriesSummary> summaries = new ArrayList<SeriesSummary>(seriesList.size());
+        for (VEGLSeries series : seriesList) {
+            summaries.add(new SeriesSummary(series, counts.get(series.getId())));
+        }
+        return Collections.unmodifiableList(summaries);
+    }
+
+    private static class CacheEntry {
+        private final List<SeriesSummary> summaries;
+        private final long loadTime;
+
+        public CacheEntry(List<SeriesSummary> summaries, long loadTime) {
+            this.summaries = summaries;
+            this.loadTime = loadTime;
+        }
+    }
+
+    /**
+     * A series along with the number of (non deleted) jobs of each status in it
+     */
+    public static class SeriesSummary {
+        private final Integer id;
+        private final String user;
+        private final String name;
+        private final String description;
+        private final Map<String, Integer> statusCounts;
+        private final int jobCount;
+
+        public SeriesSummary(VEGLSeries series, Map<String, Integer> statusCounts) {
+            this.id = series.getId();
+            this.user = series.getUser();
+            this.name = series.getName();
+            this.description = series.getDescription();
+
+            int total = 0;
+            Map<String, Integer> sortedCounts = new TreeMap<String, Integer>();
+            if (statusCounts != null) {
+                sortedCounts.putAll(statusCounts);
+                for (Integer count : statusCounts.values()) {
+                    total += count;
+                }
+            }
+            this.statusCounts = Collections.unmodifiableMap(sortedCounts);
+            this.jobCount = total;
+        }
+
+        public Integer getId() {
+            return id;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * The number of jobs of each status (ordered by status). Statuses without jobs aren't included.
+         * @return
+         */
+        public Map<String, Integer> getStatusCounts() {
+            return statusCounts;
+        }
+
+        /**
+         * The total number of (non deleted) jobs in the series
+         * @return
+         */
+        public int getJobCount() {
+            return jobCount;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.auscope.portal.server.vegl;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A simple POJO class that persistently records a unit of background work
+ * for a job (eg - provenance generation) that hasn't completed yet. Tasks
+ * are removed once they complete successfully.
+ */
+public class VGLPendingTask implements Serializable {
+
+    private static final long serialVersionUID = 3386271349527602165L;
+
+    /** Task type for generating the provenance of a job's outputs*/
+    public static final String TYPE_PROVENANCE = "provenance";
+    /** Task type for a job submission that is waiting in the job queue*/
+    public static final String TYPE_QUEUED_SUBMISSION = "submission";
+    /** Task type for removing the staging directory and cloud files of a deleted job*/
+    public static final String TYPE_CLEANUP = "cleanup";
+    /** Task type for copying the files of a duplicated job (kept with an error if the copy fails)*/
+    public static final String TYPE_FILE_COPY = "copy";
+
+    /** The primary key for this task*/
+    private Integer id;
+    /** The id of the job that owns this task*/
+    private Integer jobId;
+    /** The type of work this task represents*/
+    private String taskType;
+    /** The number of times this task has been attempted*/
+    private Integer attempts;
+    /** The date & time when this task was created*/
+    private Date createdDate;
+    /** The date & time when this task was last attempted (can be null)*/
+    private Date lastAttemptDate;
+    /** The error from the last failed attempt (can be null)*/
+    private String lastError;
+    /** The URL of the portal that created this task (can be null)*/
+    private String serverUrl;
+
+    /**
+     * Default constructor.
+     */
+    public VGLPendingTask() {
+    }
+
+    /**
+     * @param jobId The id of the job that owns this task
+     * @param taskType The type of work this task represents
+     */
+    public VGLPendingTask(Integer jobId, String taskType) {
+        this.jobId = jobId;
+        this.taskType = taskType;
+        this.attempts = 0;
+        this.createdDate = new Date();
+    }
+
+    /**
+     * @return the id
+     */
+    public Integer getId() {
+        return id;
+    }
+
+    /**
+     * @param id the id to set
+     */
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the jobId
+     */
+    public Integer getJobId() {
+        return jobId;
+    }
+
+    /**
+     * @param jobId the jobId to set
+     */
+    public void setJobId(Integer jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     * @return the taskType
+     */
+    public String getTaskType() {
+        return taskType;
+    }
+
+    /**
+     * @param taskType the taskType to set
+     */
+    public void setTaskType(String taskType) {
+        this.taskType = taskType;
+    }
+
+    /**
+     * @return the attempts
+     */
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @param attempts the attempts to set
+     */
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return the createdDate
+     */
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+
+    /**
+     * @param createdDate the createdDate to set
+     */
+    public void setCreatedDate(Date createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    /**
+     * @return the lastAttemptDate
+     */
+    public Date getLastAttemptDate() {
+        return lastAttemptDate;
+    }
+
+    /**
+     * @param lastAttemptDate the lastAttemptDate to set
+     */
+    public void setLastAttemptDate(Date lastAttemptDate) {
+        this.lastAttemptDate = lastAttemptDate;
+    }
+
+    /**
+     * @return the lastError
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @param lastError the lastError to set
+     */
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    /**
+     * @return the serverUrl
+     */
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    /**
+     * @param serverUrl the serverUrl to set
+     */
+    public void setServerUrl(String serverUrl) {
+        this.serverUrl = serverUrl;
+    }
+
+    @Override
+    public String toString() {
+        return "VGLPendingTask [id=" + id + ", jobId=" + jobId + ", taskType=" + taskType + ", attempts=" + attempts + "]";
+    }
+}
@@ -0,0 +1,62 @@
+package org.auscope.portal.server.vegl;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+
+/**
+ * A hibernate-backed VGLPendingTask data access object.
+ */
+public class VGLPendingTaskDao extends HibernateDaoSupport {
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    /**
+     * Retrieves all pending tasks of a given type that have been attempted fewer than maxAttempts times
+     *
+     * @param taskType the type of task
+     * @param maxAttempts tasks with this many (or more) attempts are excluded
+     */
+    @SuppressWarnings("unchecked")
+    public List<VGLPendingTask> getPendingTasks(final String taskType, final int maxAttempts) {
+        return (List<VGLPendingTask>) getHibernateTemplate().findByNamedParam(
+                "from VGLPendingTask t where t.taskType=:taskType and t.attempts<:maxAttempts order by t.id",
+                new String[] {"taskType", "maxAttempts"}, new Object[] {taskType, maxAttempts});
+    }
+
+    /**
+     * Retrieves the pending task of a given type for a given job (or null if there is none)
+     *
+     * @param jobId the id of a job
+     * @param taskType the type of task
+     */
+    @SuppressWarnings("unchecked")
+    public VGLPendingTask getPendingTask(final int jobId, final String taskType) {
+        List<VGLPendingTask> tasks = (List<VGLPendingTask>) getHibernateTemplate().findByNamedParam(
+                "from VGLPendingTask t where t.jobId=:jobId and t.taskType=:taskType",
+                new String[] {"jobId", "taskType"}, new Object[] {jobId, taskType});
+        return tasks.isEmpty() ? null : tasks.get(0);
+    }
+
+    /**
+     * Retrieves the task with given ID.
+     */
+    public VGLPendingTask get(final int id) {
+        return (VGLPendingTask) getHibernateTemplate().get(VGLPendingTask.class, id);
+    }
+
+    /**
+     * Saves or updates the given task.
+     */
+    public void save(final VGLPendingTask task) {
+        getHibernateTemplate().saveOrUpdate(task);
+    }
+
+    /**
+     * Deletes the given task.
+     */
+    public void delete(final VGLPendingTask task) {
+        getHibernateTemplate().delete(task);
+    }
+}
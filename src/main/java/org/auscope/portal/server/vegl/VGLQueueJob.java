@@ -8,6 +8,7 @@ import org.auscope.portal.core.services.PortalServiceException;
 import org.auscope.portal.core.services.cloud.CloudComputeService;
 import org.auscope.portal.core.util.structure.Job;
 import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.auscope.portal.server.web.service.VHIRLJobSubmissionExecutor;
 import org.auscope.portal.server.web.service.monitor.VGLJobStatusChangeHandler;
 
 public class VGLQueueJob implements Job {
@@ -18,6 +19,7 @@ public class VGLQueueJob implements Job {
     String userDataString;
     private final Log logger = LogFactory.getLog(getClass());
     VGLJobStatusChangeHandler vglJobStatusChangeHandler;
+    VHIRLJobSubmissionExecutor submissionExecutor;
 
 
 
@@ -32,31 +34,77 @@ public class VGLQueueJob implements Job {
 
     }
 
+    /**
+     * Sets the pool that this job will be launched on. If null, the job will be launched on the calling thread
+     * @param submissionExecutor
+     */
+    public void setSubmissionExecutor(VHIRLJobSubmissionExecutor submissionExecutor){
+        this.submissionExecutor = submissionExecutor;
+    }
+
     public void updateErrorStatus(Exception e){
-        String oldStatus=curJob.getStatus();
-        this.curJob.setStatus(JobBuilderController.STATUS_ERROR);
-        jobManager.saveJob(curJob);
-        jobManager.createJobAuditTrail(oldStatus, curJob, e);
-        vglJobStatusChangeHandler.handleStatusChange(curJob,curJob.getStatus(),oldStatus);
+        //Don't overwrite the status of a job that was cancelled while it was queued
+        VEGLJob job = getQueuedJob();
+        if (job == null) {
+            return;
+        }
+        String oldStatus=job.getStatus();
+        job.setStatus(JobBuilderController.STATUS_ERROR);
+        jobManager.saveJob(job);
+        jobManager.createJobAuditTrail(oldStatus, job, e);
+        vglJobStatusChangeHandler.handleStatusChange(job,job.getStatus(),oldStatus);
+
+    }
 
+    /**
+     * Reloads curJob, returning null if it's no longer in the queue (eg - it was cancelled)
+     * @return
+     */
+    private VEGLJob getQueuedJob() {
+        VEGLJob latestJob = jobManager.getJobById(curJob.getId());
+        if (latestJob == null || !JobBuilderController.STATUS_INQUEUE.equals(latestJob.getStatus())) {
+            logger.info(String.format("Job '%1$s' is no longer in the queue, it won't be launched", curJob.getId()));
+            return null;
+        }
+        return latestJob;
     }
 
     @Override
     public boolean run() throws PortalServiceException {
+        //The job may have been cancelled since it was queued
+        VEGLJob job = getQueuedJob();
+        if (job == null) {
+            return true;
+        }
+
         String instanceId;
-        try {
-            instanceId = cloudComputeService.executeJob(curJob, userDataString);
-            logger.info("Launched instance: " + instanceId);
-            // set reference as instanceId for use when killing a job
-            curJob.setComputeInstanceId(instanceId);
-            curJob.setStatus(JobBuilderController.STATUS_PENDING);
-            jobManager.createJobAuditTrail(JobBuilderController.STATUS_INQUEUE, curJob, "Job submitted.");
-            curJob.setSubmitDate(new Date());
-            jobManager.saveJob(curJob);
+        if (submissionExecutor == null) {
+            instanceId = cloudComputeService.executeJob(job, userDataString);
+        } else {
+            instanceId = submissionExecutor.launch(cloudComputeService, job, userDataString);
+        }
+        logger.info("Launched instance: " + instanceId);
+
+        //The job may have been cancelled while it was launching - don't undo the cancel
+        VEGLJob launchedJob = getQueuedJob();
+        if (launchedJob == null) {
+            job.setComputeInstanceId(instanceId);
+            try {
+                cloudComputeService.terminateJob(job);
+                logger.info(String.format("Terminated instance '%1$s' of cancelled job '%2$s'", instanceId, job.getId()));
+            } catch (Exception ex) {
+                logger.error(String.format("Unable to terminate instance '%1$s' of cancelled job '%2$s'", instanceId, job.getId()), ex);
+            }
             return true;
-        } catch (PortalServiceException e) {
-            throw e;
         }
+
+        // set reference as instanceId for use when killing a job
+        launchedJob.setComputeInstanceId(instanceId);
+        launchedJob.setStatus(JobBuilderController.STATUS_PENDING);
+        jobManager.createJobAuditTrail(JobBuilderController.STATUS_INQUEUE, launchedJob, "Job submitted.");
+        launchedJob.setSubmitDate(new Date());
+        jobManager.saveJob(launchedJob);
+        return true;
     }
 
     @Override
@@ -68,13 +116,19 @@ public class VGLQueueJob implements Job {
         return curJob;
     }
 
+    @Override
+    public int hashCode(){
+        return curJob.getId() == null ? 0 : curJob.getId().hashCode();
+    }
+
     @Override
     public boolean equals(Object j){
         if(!(j instanceof VGLQueueJob)){
             return false;
         }else{
             VGLQueueJob job=(VGLQueueJob)j;
-            if(this.curJob.getId()==job.getVEGLJob().getId()){
+            Integer id=this.curJob.getId();
+            if(id==null ? job.getVEGLJob().getId()==null : id.equals(job.getVEGLJob().getId())){
                 return true;
             }else{
                 return false;
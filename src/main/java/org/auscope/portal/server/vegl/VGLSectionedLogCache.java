@@ -0,0 +1,201 @@
+package org.auscope.portal.server.vegl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, least recently used cache of parsed job logs.
+ *
+ * Entries are keyed by job ID and tagged with the version (ETag or size) of the log they
+ * were parsed from. A lookup with a different version is a miss, so a log that is still
+ * being written to will never be served stale. The cache is bounded by the approximate
+ * heap size of its entries rather than the number of entries.
+ */
+public class VGLSectionedLogCache {
+    private long maxWeight = 64L * 1024L * 1024L;
+    private long maxEntryWeight = 16L * 1024L * 1024L;
+
+    private long currentWeight = 0;
+    private LinkedHashMap<Integer, CacheEntry> entries = new LinkedHashMap<Integer, CacheEntry>(16, 0.75f, true);
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Gets the approximate number of bytes the cache can hold
+     * @return
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Sets the approximate number of bytes the cache can hold
+     * @param maxWeight
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Gets the largest weight (approximate bytes) of a single log that will be cached
+     * @return
+     */
+    public long getMaxEntryWeight() {
+        return maxEntryWeight;
+    }
+
+    /**
+     * Sets the largest weight (approximate bytes) of a single log that will be cached
+     * @param maxEntryWeight
+     */
+    public void setMaxEntryWeight(long maxEntryWeight) {
+        this.maxEntryWeight = maxEntryWeight;
+    }
+
+    /**
+     * The number of lookups that were served from the cache
+     * @return
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * The number of lookups that weren't served from the cache
+     * @return
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * The number of entries that have been evicted to make room for others
+     * @return
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * The approximate number of bytes currently held by the cache
+     * @return
+     */
+    public synchronized long getCurrentWeight() {
+        return currentWeight;
+    }
+
+    /**
+     * The number of logs currently held by the cache
+     * @return
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Whether a log of the specified size (in bytes) is small enough to be cached once parsed.
+     * A parsed log holds its full text and every section (roughly 2 chars per byte, 2 bytes per char).
+     * @param logSize
+     * @return
+     */
+    public boolean isCacheable(long logSize) {
+        return logSize * 4 <= maxEntryWeight;
+    }
+
+    /**
+     * Looks up the parsed log for a job.
+     *
+     * @param jobId The job that owns the log
+     * @param version The ETag (or size) of the log as it currently exists in cloud storage
+     * @return The parsed log or null if it isn't cached (or the cached version is out of date)
+     */
+    public synchronized VGLSectionedLogParser.SectionedLog get(Integer jobId, String version) {
+        CacheEntry entry = entries.get(jobId);
+        if (entry == null || !entry.version.equals(version)) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.log;
+    }
+
+    /**
+     * Stores the parsed log for a job, replacing any previous version and evicting the least
+     * recently used entries if necessary. Logs whose weight exceeds maxEntryWeight are not stored.
+     *
+     * @param jobId The job that owns the log
+     * @param version The ETag (or size) of the log that was parsed
+     * @param log The parsed log (should have every section and the full text captured)
+     */
+    public synchronized void put(Integer jobId, String version, VGLSectionedLogParser.SectionedLog log) {
+        long weight = getWeight(log);
+
+        remove(jobId);
+        if (weight > maxEntryWeight) {
+            return;
+        }
+
+        entries.put(jobId, new CacheEntry(version, log, weight));
+        currentWeight += weight;
+
+        Iterator<Map.Entry<Integer, CacheEntry>> it = entries.entrySet().iterator();
+        while (currentWeight > maxWeight && it.hasNext()) {
+            Map.Entry<Integer, CacheEntry> eldest = it.next();
+            if (eldest.getKey().equals(jobId)) {
+                continue;
+            }
+            currentWeight -= eldest.getValue().weight;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes any cached log for jobId
+     * @param jobId
+     */
+    public synchronized void remove(Integer jobId) {
+        CacheEntry old = entries.remove(jobId);
+        if (old != null) {
+            currentWeight -= old.weight;
+        }
+    }
+
+    /**
+     * Removes every cached log
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentWeight = 0;
+    }
+
+    /**
+     * Approximates the heap usage (in bytes) of log's captured text
+     */
+    private long getWeight(VGLSectionedLogParser.SectionedLog log) {
+        long chars = log.getFullText() == null ? 0 : log.getFullText().length();
+        for (VGLSectionedLogParser.LogSection section : log.getSections().values()) {
+            if (section.getText() != null) {
+                chars += section.getText().length();
+            }
+        }
+        return chars * 2;
+    }
+
+    private static class CacheEntry {
+        private String version;
+        private VGLSectionedLogParser.SectionedLog log;
+        private long weight;
+
+        public CacheEntry(String version, VGLSectionedLogParser.SectionedLog log, long weight) {
+            this.version = version;
+            this.log = log;
+            this.weight = weight;
+        }
+    }
+}
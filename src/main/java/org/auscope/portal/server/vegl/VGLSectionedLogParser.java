@@ -0,0 +1,335 @@
+package org.auscope.portal.server.vegl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single pass, streaming parser for the sectioned logs written by the job workflow script.
+ *
+ * Sections are delimited by lines of the form "#### name start ####" and "#### name end ####".
+ * Any blank lines directly after a start line are not considered part of the section. Nesting is
+ * not supported - an end line only closes the most recently started section.
+ *
+ * Every section's byte offsets are always recorded but only the text of requested sections
+ * is kept in memory, so a single section can be extracted from a very large log without
+ * materialising the rest of it.
+ */
+public class VGLSectionedLogParser {
+    /** Matches a single section delimiter line (with line terminators removed)*/
+    private static final Pattern DELIMITER_PATTERN = Pattern.compile("^#### (.*) (.+) ####$");
+    private static final byte[] DELIMITER_PREFIX = "#### ".getBytes(Charset.forName("US-ASCII"));
+
+    private Set<String> sectionsToCapture;
+    private boolean captureFullLog;
+    private Charset charset = Charset.defaultCharset();
+
+    /**
+     * Creates a parser that captures the text of every section
+     */
+    public VGLSectionedLogParser() {
+        this(null);
+    }
+
+    /**
+     * @param sectionsToCapture The names of the sections whose text will be captured. If null, every section will be captured.
+     */
+    public VGLSectionedLogParser(Collection<String> sectionsToCapture) {
+        this.sectionsToCapture = sectionsToCapture == null ? null : new HashSet<String>(sectionsToCapture);
+    }
+
+    /**
+     * Whether the text of the entire log will be captured in addition to its sections
+     * @return
+     */
+    public boolean isCaptureFullLog() {
+        return captureFullLog;
+    }
+
+    /**
+     * Whether the text of the entire log will be captured in addition to its sections
+     * @param captureFullLog
+     */
+    public void setCaptureFullLog(boolean captureFullLog) {
+        this.captureFullLog = captureFullLog;
+    }
+
+    /**
+     * The charset used to decode the log. Defaults to the platform charset.
+     * @return
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * The charset used to decode the log. Defaults to the platform charset.
+     * @param charset
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    private boolean isCaptured(String sectionName) {
+        return sectionsToCapture == null || sectionsToCapture.contains(sectionName);
+    }
+
+    private static boolean startsWith(byte[] buf, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the log in a single pass. The stream will be read to completion but will not be closed.
+     *
+     * @param is The log contents
+     * @return
+     * @throws IOException
+     */
+    public SectionedLog parse(InputStream is) throws IOException {
+        Map<String, LogSection> sections = new LinkedHashMap<String, LogSection>();
+        ByteArrayOutputStream fullLog = captureFullLog ? new ByteArrayOutputStream() : null;
+
+        String currentName = null;
+        long currentStart = 0;
+        ByteArrayOutputStream currentText = null;
+        boolean skippingBlankLines = false;
+
+        LineBuffer line = new LineBuffer();
+        long lineStart = 0;
+        while (line.readLine(is)) {
+            if (fullLog != null) {
+                fullLog.write(line.buf, 0, line.length);
+            }
+
+            //Blank lines (or leading line terminators) following a start delimiter aren't part of the section
+            int contentOffset = 0;
+            if (skippingBlankLines) {
+                while (contentOffset < line.length && (line.buf[contentOffset] == '\n' || line.buf[contentOffset] == '\r')) {
+                    contentOffset++;
+                }
+                currentStart = lineStart + contentOffset;
+                skippingBlankLines = contentOffset == line.length;
+            }
+
+            Matcher m = null;
+            if (contentOffset == 0 && startsWith(line.buf, line.length, DELIMITER_PREFIX)) {
+                m = DELIMITER_PATTERN.matcher(new String(line.buf, 0, line.contentLength(), charset));
+                if (!m.matches()) {
+                    m = null;
+                }
+            }
+
+            if (m != null && m.group(2).equals("start")) {
+                currentName = m.group(1);
+                currentText = isCaptured(currentName) ? new ByteArrayOutputStream() : null;
+                currentStart = lineStart + line.length;
+                skippingBlankLines = true;
+            } else if (m != null && m.group(2).equals("end") && m.group(1).equals(currentName)) {
+                String text = currentText == null ? null : new String(currentText.toByteArray(), charset);
+                sections.put(currentName, new LogSection(currentName, currentStart, lineStart, text));
+                currentName = null;
+                currentText = null;
+                skippingBlankLines = false;
+            } else if (currentText != null && !skippingBlankLines) {
+                currentText.write(line.buf, contentOffset, line.length - contentOffset);
+            }
+
+            lineStart += line.length;
+        }
+
+        String fullText = fullLog == null ? null : new String(fullLog.toByteArray(), charset);
+        return new SectionedLog(sections, lineStart, fullText);
+    }
+
+    /**
+     * A reusable buffer holding a single line (including its terminator)
+     */
+    private static class LineBuffer {
+        private byte[] buf = new byte[1024];
+        private int length;
+        private byte[] readBuf = new byte[8192];
+        private int readPos;
+        private int readLimit;
+
+        /**
+         * Reads the next line into this buffer. Returns false if there are no more lines
+         */
+        public boolean readLine(InputStream in) throws IOException {
+            length = 0;
+            while (true) {
+                if (readPos == readLimit) {
+                    readLimit = in.read(readBuf);
+                    readPos = 0;
+                    if (readLimit <= 0) {
+                        readLimit = 0;
+                        return length > 0;
+                    }
+                }
+
+                //Copy up to (and including) the next newline
+                int end = readPos;
+                boolean foundNewline = false;
+                while (end < readLimit) {
+                    if (readBuf[end++] == '\n') {
+                        foundNewline = true;
+                        break;
+                    }
+                }
+                append(readBuf, readPos, end - readPos);
+                readPos = end;
+                if (foundNewline) {
+                    return true;
+                }
+            }
+        }
+
+        private void append(byte[] src, int offset, int count) {
+            if (length + count > buf.length) {
+                byte[] newBuf = new byte[Math.max(buf.length * 2, length + count)];
+                System.arraycopy(buf, 0, newBuf, 0, length);
+                buf = newBuf;
+            }
+            System.arraycopy(src, offset, buf, length, count);
+            length += count;
+        }
+
+        /**
+         * The length of this line excluding any line terminators
+         */
+        public int contentLength() {
+            int l = length;
+            while (l > 0 && (buf[l - 1] == '\n' || buf[l - 1] == '\r')) {
+                l--;
+            }
+            return l;
+        }
+    }
+
+    /**
+     * A single named section of a log
+     */
+    public static class LogSection {
+        private String name;
+        private long startOffset;
+        private long endOffset;
+        private String text;
+
+        public LogSection(String name, long startOffset, long endOffset, String text) {
+            this.name = name;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.text = text;
+        }
+
+        /**
+         * The name of this section
+         * @return
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The byte offset (inclusive) of the first byte of this section's text
+         * @return
+         */
+        public long getStartOffset() {
+            return startOffset;
+        }
+
+        /**
+         * The byte offset (exclusive) of the last byte of this section's text
+         * @return
+         */
+        public long getEndOffset() {
+            return endOffset;
+        }
+
+        /**
+         * The text of this section or null if it wasn't captured
+         * @return
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * The result of parsing a log
+     */
+    public static class SectionedLog {
+        private Map<String, LogSection> sections;
+        private long length;
+        private String fullText;
+
+        public SectionedLog(Map<String, LogSection> sections, long length, String fullText) {
+            this.sections = sections;
+            this.length = length;
+            this.fullText = fullText;
+        }
+
+        /**
+         * Every complete section in the log (in order of their end delimiters), keyed by name
+         * @return
+         */
+        public Map<String, LogSection> getSections() {
+            return sections;
+        }
+
+        /**
+         * Gets a section by name (or null if it DNE)
+         * @param name
+         * @return
+         */
+        public LogSection getSection(String name) {
+            return sections.get(name);
+        }
+
+        /**
+         * The total length of the log in bytes
+         * @return
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * The full text of the log or null if it wasn't captured
+         * @return
+         */
+        public String getFullText() {
+            return fullText;
+        }
+
+        /**
+         * Gets the text of every captured section keyed by section name
+         * @return
+         */
+        public Map<String, String> getSectionTexts() {
+            Map<String, String> texts = new HashMap<String, String>();
+            for (LogSection section : sections.values()) {
+                if (section.getText() != null) {
+                    texts.put(section.getName(), section.getText());
+                }
+            }
+            return texts;
+        }
+    }
+}
@@ -1,34 +1,38 @@
 package org.auscope.portal.server.vegl;
 
+import java.sql.SQLException;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.hibernate.Query;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
 public class VGLSignatureDao extends HibernateDaoSupport {
+    /** The second level cache region holding VGLSignature (see vglsignature.hbm.xml)*/
+    public static final String CACHE_REGION = "vhirl.signature";
+    /** The query cache region holding signature lookups by user*/
+    public static final String QUERY_CACHE_REGION = "vhirl.signature.query";
+
     protected final Log logger = LogFactory.getLog(getClass());
     
     /**
-     * Retrieves the signature of a given user.
+     * Retrieves the signature of a given user. Lookups are served from the query
+     * cache where possible.
      * 
      * @param user the user email address
      * @return user VGLSignature object. null if the user's exact and domain
      *         signature cannot be found
      */
     public VGLSignature getSignatureOfUser(final String user) {
-        VGLSignature userSignature = null;
-
         // Look up user's signature from the database using exact match
-        Query q = getSession().createQuery(
-                "from VGLSignature s where s.user=:user");
-        userSignature = (VGLSignature) q.setParameter("user", user)
-                .uniqueResult();
+        VGLSignature userSignature = findSignature(user);
 
         // Look up user's signature from the database using domain match
         if (userSignature == null) {
             String userDomain = user.substring(user.indexOf("@"));
-            userSignature = (VGLSignature) q.setParameter("user", userDomain)
-                    .uniqueResult();
+            userSignature = findSignature(userDomain);
             // This is needed to prevent the matching record from being replaced
             if (userSignature != null) {
                 userSignature.setId(null);
@@ -38,6 +42,19 @@ public class VGLSignatureDao extends HibernateDaoSupport {
         return userSignature;
     }
 
+    private VGLSignature findSignature(final String user) {
+        return (VGLSignature) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                return session.createQuery("from VGLSignature s where s.user=:user")
+                        .setParameter("user", user)
+                        .setCacheable(true)
+                        .setCacheRegion(QUERY_CACHE_REGION)
+                        .uniqueResult();
+            }
+        });
+    }
+
     /**
      * Retrieves the signature with given ID.
      */
@@ -51,5 +68,9 @@ public class VGLSignatureDao extends HibernateDaoSupport {
      */
     public void save(final VGLSignature vglSignature) {
         getHibernateTemplate().saveOrUpdate(vglSignature);
+        if (vglSignature.getId() != null) {
+            getSessionFactory().evict(VGLSignature.class, vglSignature.getId());
+        }
+        getSessionFactory().evictQueries(QUERY_CACHE_REGION);
     }
 }
\ No newline at end of file
@@ -1,33 +1,82 @@
 package org.auscope.portal.server.vegl;
 
+import java.sql.SQLException;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
 /**
  * A data access object for VLSCMSnapshot
  *
+ * Snapshots rarely change so both the entities and the lookups are held in the
+ * second level cache. Both are invalidated whenever a snapshot is saved or deleted.
+ *
  * @author Geoff Squire
  *
  */
 public class VLScmSnapshotDao extends HibernateDaoSupport {
+    /** The second level cache region holding VLScmSnapshot (see scmentrysnapshot.hbm.xml)*/
+    public static final String CACHE_REGION = "vhirl.scmSnapshot";
+    /** The query cache region holding snapshot lookups*/
+    public static final String QUERY_CACHE_REGION = "vhirl.scmSnapshot.query";
+
     protected final Log logger = LogFactory.getLog(getClass());
 
+    @SuppressWarnings("unchecked")
     public List<VLScmSnapshot> getSnapshotsForEntry(final String scmEntryId) {
-        String query = "from VLScmSnapshot s where s.entryId=:scmEntryId";
-        return (List<VLScmSnapshot>)getHibernateTemplate()
-            .findByNamedParam(query, "scmEntryId", scmEntryId);
+        return (List<VLScmSnapshot>) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                return session.createQuery("from VLScmSnapshot s where s.scmEntryId=:scmEntryId")
+                        .setString("scmEntryId", scmEntryId)
+                        .setCacheable(true)
+                        .setCacheRegion(QUERY_CACHE_REGION)
+                        .list();
+            }
+        });
     }
 
     public VLScmSnapshot getSnapshotForEntryAndProvider(final String scmEntryId,
                                                         final String computeServiceId) {
-        String query = "from VLScmSnapshot s where s.entryId=:scmEntryId and s.computeServiceId=:computeServiceId";
-        return (VLScmSnapshot)getHibernateTemplate()
-            .findByNamedParam(query,
-                              new String[] {"scmEntryId", "computeServiceId"},
-                              new String[] {scmEntryId, computeServiceId});
+        return (VLScmSnapshot) getHibernateTemplate().execute(new HibernateCallback<Object>() {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                List<?> snapshots = session.createQuery("from VLScmSnapshot s where s.scmEntryId=:scmEntryId and s.computeServiceId=:computeServiceId")
+                        .setString("scmEntryId", scmEntryId)
+                        .setString("computeServiceId", computeServiceId)
+                        .setCacheable(true)
+                        .setCacheRegion(QUERY_CACHE_REGION)
+                        .list();
+                return snapshots.isEmpty() ? null : snapshots.get(0);
+            }
+        });
+    }
+
+    /**
+     * Saves or updates the given snapshot.
+     */
+    public void save(final VLScmSnapshot snapshot) {
+        getHibernateTemplate().saveOrUpdate(snapshot);
+        evict(snapshot);
+    }
+
+    /**
+     * Deletes the given snapshot.
+     */
+    public void delete(final VLScmSnapshot snapshot) {
+        getHibernateTemplate().delete(snapshot);
+        evict(snapshot);
+    }
+
+    private void evict(VLScmSnapshot snapshot) {
+        if (snapshot.getId() != null) {
+            getSessionFactory().evict(VLScmSnapshot.class, snapshot.getId());
+        }
+        getSessionFactory().evictQueries(QUERY_CACHE_REGION);
     }
 }
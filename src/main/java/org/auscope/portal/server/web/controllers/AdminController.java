@@ -4,6 +4,7 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -14,6 +15,10 @@ import org.auscope.portal.core.services.admin.EndpointAndSelector;
 import org.auscope.portal.core.services.csw.CSWServiceItem;
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.auscope.portal.core.view.JSONView;
+import org.auscope.portal.server.vegl.VGLSectionedLogCache;
+import org.auscope.portal.server.web.service.QuantileSketch;
+import org.auscope.portal.server.web.service.VHIRLEntityCacheService;
+import org.auscope.portal.server.web.service.VHIRLJobLifecycleAnalytics;
 import org.auscope.portal.server.web.service.VglAdminService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -39,6 +44,17 @@ public class AdminController {
     private PortalPropertyPlaceholderConfigurer portalProperties;
     /** for actually performing diagnostics*/
     private VglAdminService adminService;
+    /** for reporting on the entity caches*/
+    private VHIRLEntityCacheService entityCacheService;
+    /** for reporting on how long jobs spend in each status*/
+    private VHIRLJobLifecycleAnalytics jobLifecycleAnalytics;
+    /** for reporting on the parsed job log cache*/
+    private VGLSectionedLogCache logCache;
+
+    /** The percentiles reported for each job lifecycle edge*/
+    private static final double[] LIFECYCLE_PERCENTILES = new double[] {0.5, 0.9, 0.95, 0.99};
+    /** The default time range of the job lifecycle statistics (30 days)*/
+    private static final long DEFAULT_LIFECYCLE_RANGE = 30L * 24 * 60 * 60 * 1000;
 
 
 
@@ -49,9 +65,13 @@ public class AdminController {
     @Autowired
     public AdminController(@Qualifier(value = "cswServiceList") ArrayList cswServiceList,
             PortalPropertyPlaceholderConfigurer portalProperties,
-            VglAdminService adminService) {
+            VglAdminService adminService, VHIRLEntityCacheService entityCacheService,
+            VHIRLJobLifecycleAnalytics jobLifecycleAnalytics, VGLSectionedLogCache logCache) {
         this.portalProperties = portalProperties;
         this.adminService = adminService;
+        this.entityCacheService = entityCacheService;
+        this.jobLifecycleAnalytics = jobLifecycleAnalytics;
+        this.logCache = logCache;
         this.cswServiceList = new ArrayList<CSWServiceItem>();
         for (int i = 0; i < cswServiceList.size(); i++) {
             this.cswServiceList.add((CSWServiceItem) cswServiceList.get(i));
@@ -186,4 +206,99 @@ public class AdminController {
         AdminDiagnosticResponse response = adminService.wmsConnectivity(endpoints, bbox);
         return generateTestResponse(response);
     }
+
+    /**
+     * Reports the hit ratio (and hit/miss/put counts) of each Hibernate second level cache region,
+     * of the query cache and of the parsed job log cache.
+     * @return
+     */
+    @RequestMapping("/getCacheStatistics.diag")
+    public ModelAndView getCacheStatistics() {
+        List<ModelMap> regions = new ArrayList<ModelMap>();
+        for (VHIRLEntityCacheService.CacheStatistics statistics : entityCacheService.getRegionStatistics()) {
+            regions.add(cacheStatisticsToModel(statistics));
+        }
+
+        ModelMap model = new ModelMap();
+        model.put("success", true);
+        model.put("statisticsEnabled", entityCacheService.isStatisticsEnabled());
+        model.put("regions", regions);
+        model.put("queryCache", cacheStatisticsToModel(entityCacheService.getQueryCacheStatistics()));
+        model.put("logCache", logCacheStatisticsToModel());
+        return new ModelAndView(new JSONView(), model);
+    }
+
+    private ModelMap logCacheStatisticsToModel() {
+        long hits = logCache.getHitCount();
+        long misses = logCache.getMissCount();
+
+        ModelMap model = new ModelMap();
+        model.put("hitCount", hits);
+        model.put("missCount", misses);
+        model.put("evictionCount", logCache.getEvictionCount());
+        model.put("elementCount", logCache.size());
+        model.put("weight", logCache.getCurrentWeight());
+        model.put("maxWeight", logCache.getMaxWeight());
+        model.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        return model;
+    }
+
+    private ModelMap cacheStatisticsToModel(VHIRLEntityCacheService.CacheStatistics statistics) {
+        ModelMap model = new ModelMap();
+        model.put("name", statistics.getName());
+        model.put("hitCount", statistics.getHitCount());
+        model.put("missCount", statistics.getMissCount());
+        model.put("putCount", statistics.getPutCount());
+        model.put("elementCount", statistics.getElementCount());
+        model.put("hitRatio", statistics.getHitRatio());
+        return model;
+    }
+
+    /**
+     * Reports the count, mean and percentile latencies (in milliseconds) of each job status edge
+     * (eg Pending to Active) over all jobs, per provider and per solution.
+     * @param from The start of the range (ms since epoch). Defaults to 30 days before to
+     * @param to The end of the range (ms since epoch). Defaults to now
+     * @return
+     */
+    @RequestMapping("/getJobLifecycleStatistics.diag")
+    public ModelAndView getJobLifecycleStatistics(@RequestParam(value="from", required=false) Long from,
+            @RequestParam(value="to", required=false) Long to) {
+        Date toDate = to == null ? new Date() : new Date(to);
+        Date fromDate = from == null ? new Date(toDate.getTime() - DEFAULT_LIFECYCLE_RANGE) : new Date(from);
+
+        ModelMap model = new ModelMap();
+        List<ModelMap> edges = new ArrayList<ModelMap>();
+        try {
+            for (VHIRLJobLifecycleAnalytics.EdgeStatistics statistics : jobLifecycleAnalytics.getEdgeStatistics(fromDate, toDate)) {
+                QuantileSketch latencies = statistics.getLatencies();
+                ModelMap edge = new ModelMap();
+                edge.put("fromStatus", statistics.getFromStatus());
+                edge.put("toStatus", statistics.getToStatus());
+                edge.put("groupBy", statistics.getGroupBy());
+                edge.put("group", statistics.getGroup());
+                edge.put("count", latencies.getCount());
+                edge.put("min", latencies.getMin());
+                edge.put("max", latencies.getMax());
+                edge.put("mean", latencies.getMean());
+                for (double percentile : LIFECYCLE_PERCENTILES) {
+                    edge.put("p" + Math.round(percentile * 100), latencies.getQuantile(percentile));
+                }
+                edges.add(edge);
+            }
+        } catch (Exception ex) {
+            log.error("Unable to compute job lifecycle statistics: " + ex.getMessage());
+            log.debug("Exception:", ex);
+            model.put("success", false);
+            model.put("msg", "Unable to compute job lifecycle statistics");
+            return new ModelAndView(new JSONView(), model);
+        }
+
+        model.put("success", true);
+        model.put("from", fromDate.getTime());
+        model.put("to", toDate.getTime());
+        model.put("relativeAccuracy", jobLifecycleAnalytics.getRelativeAccuracy());
+        model.put("edges", edges);
+        return new ModelAndView(new JSONView(), model);
+    }
 }
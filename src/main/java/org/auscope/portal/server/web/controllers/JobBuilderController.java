@@ -10,12 +10,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -43,6 +42,9 @@ import org.auscope.portal.server.vegl.VglMachineImage;
 import org.auscope.portal.server.vegl.VglParameter.ParameterType;
 import org.auscope.portal.server.web.security.VHIRLUser;
 import org.auscope.portal.server.web.service.VHIRLFileStagingService;
+import org.auscope.portal.server.web.service.VHIRLJobFileCopier;
+import org.auscope.portal.server.web.service.VHIRLJobInputUploader;
+import org.auscope.portal.server.web.service.VHIRLJobSubmissionExecutor;
 import org.auscope.portal.server.web.service.VHIRLProvenanceService;
 import org.auscope.portal.server.web.service.ScmEntryService;
 import org.auscope.portal.server.web.service.monitor.VGLJobStatusChangeHandler;
@@ -78,6 +80,9 @@ public class JobBuilderController extends BaseCloudController {
     private VGLPollingJobQueueManager vglPollingJobQueueManager;
     private VHIRLProvenanceService vhirlProvenanceService;
     private ScmEntryService scmEntryService;
+    private VHIRLJobSubmissionExecutor submissionExecutor;
+    private VHIRLJobInputUploader inputUploader;
+    private VHIRLJobFileCopier jobFileCopier;
 
     public static final String STATUS_PENDING = "Pending";//VT:Request accepted by compute service
     public static final String STATUS_ACTIVE = "Active";//VT:Running
@@ -99,7 +104,9 @@ public class JobBuilderController extends BaseCloudController {
     public JobBuilderController(VEGLJobManager jobManager, VHIRLFileStagingService vhirlFileStagingService,
             PortalPropertyPlaceholderConfigurer hostConfigurer, CloudStorageService[] cloudStorageServices,
             CloudComputeService[] cloudComputeServices,VGLJobStatusChangeHandler vglJobStatusChangeHandler,
-            VGLPollingJobQueueManager vglPollingJobQueueManager, ScmEntryService scmEntryService, VHIRLProvenanceService vhirlProvenanceService) {
+            VGLPollingJobQueueManager vglPollingJobQueueManager, ScmEntryService scmEntryService, VHIRLProvenanceService vhirlProvenanceService,
+            VHIRLJobSubmissionExecutor submissionExecutor, VHIRLJobInputUploader inputUploader,
+            VHIRLJobFileCopier jobFileCopier) {
         super(cloudStorageServices, cloudComputeServices,hostConfigurer);
         this.jobManager = jobManager;
         this.vhirlFileStagingService = vhirlFileStagingService;
@@ -109,6 +116,9 @@ public class JobBuilderController extends BaseCloudController {
         this.vglPollingJobQueueManager = vglPollingJobQueueManager;
         this.vhirlProvenanceService =  vhirlProvenanceService; // new VHIRLProvenanceService(vhirlFileStagingService, cloudStorageServices);
         this.scmEntryService = scmEntryService;
+        this.submissionExecutor = submissionExecutor;
+        this.inputUploader = inputUploader;
+        this.jobFileCopier = jobFileCopier;
     }
 
 
@@ -653,6 +663,18 @@ public class JobBuilderController extends BaseCloudController {
                     return generateJSONResponseMAV(false, null, errorDescription, errorCorrection);
                 }
 
+                // A duplicated job's files may still be being copied into it (or the copy may have failed)
+                VHIRLJobFileCopier.CopyState copyState = jobFileCopier.getCopyState(curJob.getId());
+                if (copyState == VHIRLJobFileCopier.CopyState.COPYING) {
+                    errorDescription = "The files of this job are still being copied.";
+                    errorCorrection = "Please wait for the job duplication to finish and try again.";
+                    return generateJSONResponseMAV(false, null, errorDescription, errorCorrection);
+                } else if (copyState == VHIRLJobFileCopier.CopyState.FAILED) {
+                    errorDescription = "The files of this job couldn't be copied from the job it was duplicated from.";
+                    errorCorrection = "Please delete this job and duplicate the original job again.";
+                    return generateJSONResponseMAV(false, null, errorDescription, errorCorrection);
+                }
+
                 // we need to keep track of old job for audit trail purposes
                 oldJobStatus = curJob.getStatus();
 
@@ -685,30 +707,27 @@ public class JobBuilderController extends BaseCloudController {
                             errorDescription = "There wasn't any input files found for submitting your job for processing.";
                             errorCorrection = "Please upload your input files and try again.";
                         } else {
-                            // Upload them to storage
+                            // Upload them to storage in the background. The job will be launched once they're all uploaded
                             File[] files = new File[stagedFiles.length];
                             for (int i = 0; i < stagedFiles.length; i++) {
                                 files[i] = stagedFiles[i].getFile();
                             }
 
-                            cloudStorageService.uploadJobFiles(curJob, files);
-
-                            // create our input user data string
-                            String userDataString = null;
-                            userDataString = createBootstrapForJob(curJob);
-
-                            // PROVENANCE
-                            vhirlProvenanceService.setServerURL(request.getRequestURL().toString());
-                            vhirlProvenanceService.createActivity(curJob,
-                                    scmEntryService.getJobSolution(curJob), user);
+                            String serverUrl = request.getRequestURL().toString();
 
                             oldJobStatus = curJob.getStatus();
                             curJob.setStatus(JobBuilderController.STATUS_PROVISION);
                             jobManager.saveJob(curJob);
                             jobManager.createJobAuditTrail(oldJobStatus, curJob, "Set job to provisioning");
 
-                            ExecutorService es = Executors.newSingleThreadExecutor();
-                            es.execute(new CloudThreadedExecuteService(cloudComputeService,curJob,userDataString));
+                            try {
+                                inputUploader.upload(curJob, cloudStorageService, files, new LaunchAfterUpload(cloudComputeService, serverUrl, user));
+                            } catch (PortalServiceException e) {
+                                curJob.setStatus(oldJobStatus);
+                                jobManager.saveJob(curJob);
+                                oldJobStatus = JobBuilderController.STATUS_PROVISION;
+                                throw e;
+                            }
                             succeeded = true;
                         }
                     }
@@ -720,10 +739,6 @@ public class JobBuilderController extends BaseCloudController {
         } catch (PortalServiceException e) {
             errorDescription = e.getMessage();
             errorCorrection = e.getErrorCorrection();
-        } catch (IOException e) {
-            logger.error("Job bootstrap creation failed.", e);
-            errorDescription = "There was a problem creating startup script.";
-            errorCorrection = "Please report this error to cg_admin@csiro.au";
         } catch (Exception e) {
             logger.error("Job submission failed.", e);
             errorDescription = "An unexpected error has occurred while submitting your job for processing.";
@@ -738,6 +753,146 @@ public class JobBuilderController extends BaseCloudController {
         }
     }
 
+    /**
+     * Returns the progress of the most recent input file upload for a job
+     *
+     * @param jobId
+     * @return A JSON object with a data attribute containing the overall and per file progress
+     */
+    @RequestMapping("/secure/getUploadProgress.do")
+    public ModelAndView getUploadProgress(@RequestParam("jobId") Integer jobId,
+            @AuthenticationPrincipal VHIRLUser user) {
+        VEGLJob job = null;
+        try {
+            job = jobManager.getJobById(jobId);
+        } catch (Exception ex) {
+            logger.error("Error fetching job with id " + jobId, ex);
+        }
+        if (job == null || user == null || !user.getEmail().equals(job.getUser())) {
+            return generateJSONResponseMAV(false, null, "Unable to lookup job.");
+        }
+
+        VHIRLJobInputUploader.UploadProgress progress = inputUploader.getProgress(jobId);
+        if (progress == null) {
+            return generateJSONResponseMAV(false, null, "There is no recent upload for this job.");
+        }
+
+        List<ModelMap> files = new ArrayList<ModelMap>();
+        for (VHIRLJobInputUploader.FileProgress fileProgress : progress.getFiles()) {
+            ModelMap file = new ModelMap();
+            file.put("name", fileProgress.getName());
+            file.put("size", fileProgress.getSize());
+            file.put("bytesUploaded", fileProgress.getBytesUploaded());
+            file.put("state", fileProgress.getState().toString());
+            files.add(file);
+        }
+
+        ModelMap data = new ModelMap();
+        data.put("state", progress.getState().toString());
+        data.put("totalBytes", progress.getTotalBytes());
+        data.put("bytesUploaded", progress.getBytesUploaded());
+        data.put("bytesDeduplicated", progress.getBytesDeduplicated());
+        data.put("error", progress.getError() == null ? null : progress.getError().getMessage());
+        data.put("files", files);
+        return generateJSONResponseMAV(true, data, "");
+    }
+
+    /**
+     * Finishes submitting a job once its input files have been uploaded
+     */
+    private class LaunchAfterUpload implements VHIRLJobInputUploader.UploadListener {
+        private CloudComputeService cloudComputeService;
+        private String serverUrl;
+        private VHIRLUser user;
+
+        public LaunchAfterUpload(CloudComputeService cloudComputeService, String serverUrl, VHIRLUser user) {
+            this.cloudComputeService = cloudComputeService;
+            this.serverUrl = serverUrl;
+            this.user = user;
+        }
+
+        @Override
+        public void uploadComplete(VEGLJob uploadedJob) {
+            // The job may have been cancelled or deleted whilst its files were uploading
+            VEGLJob curJob = getProvisioningJob(uploadedJob);
+            if (curJob == null) {
+                return;
+            }
+
+            try {
+                // Files that were already stored for another job were copied by the storage provider rather than uploaded
+                VHIRLJobInputUploader.UploadProgress progress = inputUploader.getProgress(curJob.getId());
+                if (progress != null && !progress.getDeduplicatedFiles().isEmpty()) {
+                    jobManager.createJobAuditTrail(curJob.getStatus(), curJob, String.format("Copied %1$d previously uploaded input file(s) in storage, avoiding %2$d bytes of upload",
+                            progress.getDeduplicatedFiles().size(), progress.getBytesDeduplicated()));
+                }
+
+                // create our input user data string
+                String userDataString = createBootstrapForJob(curJob);
+
+                // PROVENANCE
+                vhirlProvenanceService.setServerURL(serverUrl);
+                vhirlProvenanceService.createActivity(curJob,
+                        scmEntryService.getJobSolution(curJob), user);
+
+                try {
+                    submissionExecutor.submit(new CloudThreadedExecuteService(cloudComputeService,curJob,userDataString));
+                } catch (PortalServiceException e) {
+                    //Too many launches in progress - let the job queue launch it once things quieten down
+                    logger.warn(String.format("Unable to launch job '%1$s' immediately: %2$s", curJob.getId(), e.getErrorCorrection()));
+                    queueJob(cloudComputeService, curJob, userDataString);
+                }
+            } catch (IOException e) {
+                logger.error("Job bootstrap creation failed.", e);
+                revertSubmission(curJob, "There was a problem creating startup script.");
+            } catch (Exception e) {
+                logger.error("Job submission failed.", e);
+                revertSubmission(curJob, "An unexpected error has occurred while submitting your job for processing.");
+            }
+        }
+
+        @Override
+        public void uploadFailed(VEGLJob uploadedJob, Exception ex) {
+            VEGLJob curJob = getProvisioningJob(uploadedJob);
+            if (curJob != null) {
+                revertSubmission(curJob, "There was a problem uploading your input files: " + ex.getMessage());
+            }
+        }
+
+        /**
+         * Returns a job that couldn't be submitted to the saved state so it can be resubmitted
+         */
+        private void revertSubmission(VEGLJob curJob, String errorDescription) {
+            String oldJobStatus = curJob.getStatus();
+            curJob.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
+            jobManager.saveJob(curJob);
+            jobManager.createJobAuditTrail(oldJobStatus, curJob, errorDescription);
+        }
+    }
+
+    /**
+     * Reloads job, returning null if it's no longer Provisioning (eg - it was cancelled or deleted during its submission)
+     */
+    private VEGLJob getProvisioningJob(VEGLJob job) {
+        VEGLJob latestJob = jobManager.getJobById(job.getId());
+        if (latestJob == null || !STATUS_PROVISION.equals(latestJob.getStatus())) {
+            logger.info(String.format("Job '%1$s' is no longer provisioning, its submission won't be continued", job.getId()));
+            return null;
+        }
+        return latestJob;
+    }
+
+    /**
+     * Places curJob into the job queue to be launched at a later time
+     */
+    private void queueJob(CloudComputeService cloudComputeService, VEGLJob curJob, String userDataString) {
+        vglPollingJobQueueManager.addJobToQueue(new VGLQueueJob(jobManager,cloudComputeService,curJob,userDataString,vglJobStatusChangeHandler));
+        String oldJobStatus = curJob.getStatus();
+        curJob.setStatus(JobBuilderController.STATUS_INQUEUE);
+        jobManager.saveJob(curJob);
+        jobManager.createJobAuditTrail(oldJobStatus, curJob, "Job Placed in Queue");
+    }
+
     private class CloudThreadedExecuteService implements Runnable{
         CloudComputeService cloudComputeService;
         VEGLJob curJob;
@@ -751,36 +906,59 @@ public class JobBuilderController extends BaseCloudController {
 
         @Override
         public void run() {
+            // The job may have been cancelled or deleted whilst waiting to be launched
+            VEGLJob job = getProvisioningJob(curJob);
+            if (job == null) {
+                return;
+            }
+
             String instanceId = null;
             try{
-                instanceId = cloudComputeService.executeJob(curJob, userDataString);
+                instanceId = cloudComputeService.executeJob(job, userDataString);
                 logger.info("Launched instance: " + instanceId);
-                // set reference as instanceId for use when killing a job
-                curJob.setComputeInstanceId(instanceId);
-                String oldJobStatus = curJob.getStatus();
-                curJob.setStatus(STATUS_PENDING);
-                jobManager.createJobAuditTrail(oldJobStatus, curJob, "Set job to Pending");
-                curJob.setSubmitDate(new Date());
-                jobManager.saveJob(curJob);
-
             }catch(PortalServiceException e){
+                job = getProvisioningJob(curJob);
+                if (job == null) {
+                    return;
+                }
+
                 //only for this specific error we wanna queue the job
                 if(e.getErrorCorrection()!= null && e.getErrorCorrection().contains("Quota exceeded")){
-                    vglPollingJobQueueManager.addJobToQueue(new VGLQueueJob(jobManager,cloudComputeService,curJob,userDataString,vglJobStatusChangeHandler));
-                    String oldJobStatus = curJob.getStatus();
-                    curJob.setStatus(JobBuilderController.STATUS_INQUEUE);
-                    jobManager.saveJob(curJob);
-                    jobManager.createJobAuditTrail(oldJobStatus, curJob, "Job Placed in Queue");
-
+                    queueJob(cloudComputeService, job, userDataString);
                 }else{
-                    String oldJobStatus = curJob.getStatus();
-                    curJob.setStatus(JobBuilderController.STATUS_ERROR);
-                    jobManager.saveJob(curJob);
-                    jobManager.createJobAuditTrail(oldJobStatus, curJob, e);
-                    vglJobStatusChangeHandler.handleStatusChange(curJob,curJob.getStatus(),oldJobStatus);
+                    String oldJobStatus = job.getStatus();
+                    job.setStatus(JobBuilderController.STATUS_ERROR);
+                    jobManager.saveJob(job);
+                    jobManager.createJobAuditTrail(oldJobStatus, job, e);
+                    vglJobStatusChangeHandler.handleStatusChange(job,job.getStatus(),oldJobStatus);
                 }
+                return;
             }
 
+            // The job may also have been cancelled whilst its instance was launching - nothing else will terminate it
+            VEGLJob launchedJob = getProvisioningJob(curJob);
+            if (launchedJob == null) {
+                job.setComputeInstanceId(instanceId);
+                terminateCancelledLaunch(job);
+                return;
+            }
+
+            // set reference as instanceId for use when killing a job
+            launchedJob.setComputeInstanceId(instanceId);
+            String oldJobStatus = launchedJob.getStatus();
+            launchedJob.setStatus(STATUS_PENDING);
+            jobManager.createJobAuditTrail(oldJobStatus, launchedJob, "Set job to Pending");
+            launchedJob.setSubmitDate(new Date());
+            jobManager.saveJob(launchedJob);
+        }
+
+        private void terminateCancelledLaunch(VEGLJob job) {
+            try {
+                cloudComputeService.terminateJob(job);
+                logger.info(String.format("Terminated instance '%1$s' of cancelled job '%2$s'", job.getComputeInstanceId(), job.getId()));
+            } catch (Exception ex) {
+                logger.error(String.format("Unable to terminate instance '%1$s' of cancelled job '%2$s'", job.getComputeInstanceId(), job.getId()), ex);
+            }
         }
 
 
@@ -1047,6 +1225,7 @@ public class JobBuilderController extends BaseCloudController {
 
         //Load the staged files
         List<VglDownload> allInputs = new ArrayList<VglDownload>();
+        Set<String> stagedNames = new HashSet<String>();
         int idCounter = Integer.MIN_VALUE;
         for (StagedFile file : files) {
             //we need unique ids - this is our simple way of generating them (low likelyhood of collision)
@@ -1056,6 +1235,19 @@ public class JobBuilderController extends BaseCloudController {
             dl.setLocalPath(file.getName());
 
             allInputs.add(dl);
+            stagedNames.add(file.getName());
+        }
+
+        //Load the files that are only in the job's cloud storage (eg - copied there by the storage provider when the job was duplicated)
+        for (FileInformation fileInfo : job.getJobFiles()) {
+            if (fileInfo.getParentPath() != null && fileInfo.getParentPath().equals(job.getStorageBaseKey()) &&
+                    !stagedNames.contains(fileInfo.getFileName())) {
+                VglDownload dl = new VglDownload(idCounter++);
+                dl.setName(fileInfo.getFileName());
+                dl.setLocalPath(fileInfo.getFileName());
+
+                allInputs.add(dl);
+            }
         }
 
         //Load the job downloads
@@ -10,9 +10,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -32,13 +35,19 @@ import org.auscope.portal.core.services.cloud.CloudStorageService;
 import org.auscope.portal.core.services.cloud.FileStagingService;
 import org.auscope.portal.core.services.cloud.monitor.JobStatusException;
 import org.auscope.portal.core.services.cloud.monitor.JobStatusMonitor;
-import org.auscope.portal.core.util.FileIOUtil;
+import org.auscope.portal.server.gridjob.FileInformation;
 import org.auscope.portal.server.vegl.VEGLJob;
 import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VEGLJobSummary;
 import org.auscope.portal.server.vegl.VEGLSeries;
+import org.auscope.portal.server.vegl.VGLJobSummaryCache;
 import org.auscope.portal.server.vegl.VGLJobStatusAndLogReader;
 import org.auscope.portal.server.vegl.VGLPollingJobQueueManager;
+import org.auscope.portal.server.vegl.VGLPendingTask;
 import org.auscope.portal.server.vegl.VGLQueueJob;
+import org.auscope.portal.server.web.service.VHIRLJobCleanupQueue;
+import org.auscope.portal.server.web.service.VHIRLJobFileCopier;
+import org.auscope.portal.server.web.service.VHIRLJobTerminator;
 import org.auscope.portal.server.web.service.monitor.VGLJobStatusChangeHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.web.bind.annotation.AuthenticationPrincipal;
@@ -62,6 +71,12 @@ public class JobListController extends BaseCloudController  {
     /** The name of the log file that the job will use*/
     public static final String VGL_LOG_FILE = "vl.sh.log";
 
+    /** The largest number of log bytes that will be returned by a single getLogTail request*/
+    public static final int MAX_LOG_TAIL_BYTES = 4 * 1024 * 1024;
+
+    /** The largest number of series returned by a single querySeries keyword search*/
+    public static final int MAX_SERIES_SEARCH_RESULTS = 100;
+
     /** Logger for this class */
     private final Log logger = LogFactory.getLog(getClass());
 
@@ -71,19 +86,27 @@ public class JobListController extends BaseCloudController  {
     private JobStatusMonitor jobStatusMonitor;
     private VGLJobStatusChangeHandler vglJobStatusChangeHandler;
     private VGLPollingJobQueueManager vglPollingJobQueueManager;
+    private VHIRLJobFileCopier jobFileCopier;
+    private VHIRLJobCleanupQueue jobCleanupQueue;
+    private VHIRLJobTerminator jobTerminator;
 
     @Autowired
     public JobListController(VEGLJobManager jobManager, CloudStorageService[] cloudStorageServices,
             FileStagingService fileStagingService, CloudComputeService[] cloudComputeServices,
             VGLJobStatusAndLogReader jobStatusLogReader,
             JobStatusMonitor jobStatusMonitor,VGLJobStatusChangeHandler vglJobStatusChangeHandler,
-            PortalPropertyPlaceholderConfigurer hostConfigurer,VGLPollingJobQueueManager vglPollingJobQueueManager) {
+            PortalPropertyPlaceholderConfigurer hostConfigurer,VGLPollingJobQueueManager vglPollingJobQueueManager,
+            VHIRLJobFileCopier jobFileCopier, VHIRLJobCleanupQueue jobCleanupQueue,
+            VHIRLJobTerminator jobTerminator) {
         super(cloudStorageServices, cloudComputeServices,hostConfigurer);
         this.jobManager = jobManager;
         this.fileStagingService = fileStagingService;
         this.jobStatusLogReader = jobStatusLogReader;
         this.jobStatusMonitor = jobStatusMonitor;
         this.vglPollingJobQueueManager =  vglPollingJobQueueManager;
+        this.jobFileCopier = jobFileCopier;
+        this.jobCleanupQueue = jobCleanupQueue;
+        this.jobTerminator = jobTerminator;
         this.initializeQueue();
     }
 
@@ -94,7 +117,8 @@ public class JobListController extends BaseCloudController  {
                 //a fail safe catch all
                 return;
             }
-            List<VEGLJob> seriesJobs = jobManager.getInQueueJobs();
+            //Restored in the order they were originally queued
+            List<VEGLJob> seriesJobs = vglPollingJobQueueManager.getQueue().restoreOrder(jobManager.getInQueueJobs());
             for(VEGLJob curJob:seriesJobs){
                 CloudComputeService cloudComputeService = getComputeService(curJob);
                 String userDataString = null;
@@ -200,7 +224,7 @@ public class JobListController extends BaseCloudController  {
      * @param response The servlet response
      *
      * @return A JSON object with a series attribute which is an array of
-     *         VEGLSeries objects.
+     *         VGLJobSummaryCache.SeriesSummary objects (a series along with its job counts).
      */
     @RequestMapping("/secure/mySeries.do")
     public ModelAndView mySeries(HttpServletRequest request,
@@ -211,9 +235,9 @@ public class JobListController extends BaseCloudController  {
             logger.warn("No email attached to session");
             return generateJSONResponseMAV(false, null, "No email attached to session");
         }
-        List<VEGLSeries> series = jobManager.querySeries(user.getEmail(), null, null);
+        List<VGLJobSummaryCache.SeriesSummary> series = jobManager.getSeriesSummaries(user.getEmail());
 
-        logger.debug("Returning " + series);
+        logger.debug("Returning " + series.size() + " series.");
         return generateJSONResponseMAV(true, series, "");
     }
 
@@ -276,16 +300,21 @@ public class JobListController extends BaseCloudController  {
         }
 
         logger.info("Deleting jobs of series " + seriesId);
+        List<Integer> jobIds = new ArrayList<Integer>(jobs.size());
         for (VEGLJob job : jobs) {
-            logger.debug(String.format("Deleting job %1$s",job));
-            String oldJobStatus = job.getStatus();
-            job.setStatus(JobBuilderController.STATUS_DELETED);
-            jobManager.saveJob(job);
-            jobManager.createJobAuditTrail(oldJobStatus, job, "Job deleted.");
-            // Failure here is NOT fatal - it will just result in some
-            // residual files in staging directory and S3 cloud storage.
-            cleanupDeletedJob(job);
+            jobIds.add(job.getId());
         }
+        try {
+            //Every job is marked as deleted (and queued for cleanup) at once, or not at all
+            jobManager.updateJobStatuses(jobs, JobBuilderController.STATUS_DELETED, "Job deleted.", VGLPendingTask.TYPE_CLEANUP);
+        } catch (Exception ex) {
+            logger.error(String.format("Unable to delete jobs of series '%1$s': %2$s", seriesId, ex.getMessage()), ex);
+            return generateJSONResponseMAV(false, null, "Unable to delete jobs of series.");
+        }
+
+        // The staging directories and cloud files are removed in the background.
+        // Failure there is NOT fatal - it will just result in some residual files.
+        jobCleanupQueue.enqueue(jobIds);
 
         logger.info("Deleting series "+seriesId);
         jobManager.deleteSeries(series);
@@ -310,6 +339,8 @@ public class JobListController extends BaseCloudController  {
                 if (cloudStorageService == null) {
                     logger.error(String.format("No cloud storage service with id '%1$s' for job '%2$s'. Cloud files (if any) will not be removed", job.getStorageServiceId(), job.getId()));
                 } else {
+                    // Stop other jobs reusing this job's input files before they're removed
+                    jobManager.deleteInputFilesOfJob(job.getId());
                     cloudStorageService.deleteJobFiles(job);
                 }
             }
@@ -339,17 +370,16 @@ public class JobListController extends BaseCloudController  {
             return generateJSONResponseMAV(false, null, "Unable to lookup job to kill.");
         }
 
-        try {
-            // we need to inform the user that the job cancelling is aborted
-            // because the job has already been processed.
-            if (job.getStatus().equals(JobBuilderController.STATUS_DONE)) {
-                return generateJSONResponseMAV(false, null, "Cancelling of job aborted as it has already been processed.");
-            }
+        // we need to inform the user that the job cancelling is aborted
+        // because the job has already been processed.
+        if (JobBuilderController.STATUS_DONE.equals(job.getStatus())) {
+            return generateJSONResponseMAV(false, null, "Cancelling of job aborted as it has already been processed.");
+        }
 
-            // terminate the EMI instance
-            terminateInstance(job);
-        } catch (Exception e) {
-            logger.error("Failed to cancel the job.", e);
+        // Waits (for a bounded time) for the instance (if any) to be terminated
+        VHIRLJobTerminator.TerminationResult result = jobTerminator.terminate(Arrays.asList(job)).get(0);
+        if (!result.isSuccess()) {
+            logger.error(String.format("Failed to cancel job '%1$s': %2$s", jobId, result.getError()));
             return generateJSONResponseMAV(false, null, "There was a problem cancelling your job.",
                     "Please try again in a few minutes or report it to cg-admin@csiro.au.");
         }
@@ -357,41 +387,6 @@ public class JobListController extends BaseCloudController  {
         return generateJSONResponseMAV(true, null, "");
     }
 
-    /**
-     * Terminates the instance of an EMI that was launched by a job.
-     *
-     * @param job The job linked the to instance that is to be terminated
-     */
-    private void terminateInstance(VEGLJob job) {
-        String oldJobStatus = job.getStatus();
-        if (oldJobStatus.equals(JobBuilderController.STATUS_DONE) ||
-                oldJobStatus.equals(JobBuilderController.STATUS_UNSUBMITTED)) {
-            logger.debug("Skipping finished or unsubmitted job "+job.getId());
-        }else if(oldJobStatus.equals(JobBuilderController.STATUS_INQUEUE)){
-            VGLQueueJob dummyQueueJobForRemoval = new VGLQueueJob(null,null,job,"",null);
-            vglPollingJobQueueManager.getQueue().remove(dummyQueueJobForRemoval);
-            job.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
-            jobManager.saveJob(job);
-            jobManager.createJobAuditTrail(oldJobStatus, job, "Job cancelled by user.");
-        }else {
-            try {
-                // We allow the job to be cancelled and re-submitted regardless
-                // of its termination status.
-                job.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
-                jobManager.saveJob(job);
-                jobManager.createJobAuditTrail(oldJobStatus, job, "Job cancelled by user.");
-                CloudComputeService cloudComputeService = getComputeService(job);
-                if (cloudComputeService == null) {
-                    logger.error(String.format("No cloud compute service with id '%1$s' for job '%2$s'. Cloud VM cannot be terminated", job.getComputeServiceId(), job.getId()));
-                } else {
-                    cloudComputeService.terminateJob(job);
-                }
-            } catch (Exception e) {
-                logger.warn("Failed to terminate instance with id: " + job.getComputeInstanceId(), e);
-            }
-        }
-    }
-
     /**
      * Kills all jobs of given series.
      *
@@ -418,27 +413,30 @@ public class JobListController extends BaseCloudController  {
             return generateJSONResponseMAV(false, null, "Unable to lookup jobs of series.");
         }
 
-        //Iterate our jobs, terminating as we go (abort iteration on failure)
-        for (VEGLJob job : jobs) {
-            //terminate the EMI instance
-            try {
-                logger.info("Cancelling job with ID "+ job.getId());
-
-                if (job.getStatus().equals(JobBuilderController.STATUS_DONE)) {
-                    logger.info("Cancelling of job aborted as it has already been processed.");
-                    continue;
-                }
-
-                // terminate the EMI instance
-                terminateInstance(job);
-            } catch (Exception e) {
-                logger.error("Failed to cancel one of the jobs in a given series.", e);
-                return generateJSONResponseMAV(false, null, "There was a problem cancelling one of your jobs in selected series.",
-                        "Please try again in a few minutes or report it to cg-admin@csiro.au.");
+        //Every job is attempted - the outcome of each is returned (instances that take too long finish terminating in the background)
+        logger.info(String.format("Cancelling %1$d job(s) of series %2$s", jobs.size(), seriesId));
+        List<VHIRLJobTerminator.TerminationResult> results = jobTerminator.terminate(jobs);
+
+        int failures = 0;
+        List<ModelMap> data = new ArrayList<ModelMap>(results.size());
+        for (VHIRLJobTerminator.TerminationResult result : results) {
+            ModelMap jobResult = new ModelMap();
+            jobResult.put("jobId", result.getJobId());
+            jobResult.put("state", result.getState().toString());
+            jobResult.put("error", result.getError());
+            data.add(jobResult);
+
+            if (!result.isSuccess()) {
+                failures++;
             }
         }
 
-        return generateJSONResponseMAV(true, null, "");
+        if (failures > 0) {
+            return generateJSONResponseMAV(false, data, String.format("There was a problem cancelling %1$d of the jobs in selected series.", failures),
+                    "Please try again in a few minutes or report it to cg-admin@csiro.au.");
+        }
+
+        return generateJSONResponseMAV(true, data, "");
     }
 
     /**
@@ -838,15 +836,19 @@ public class JobListController extends BaseCloudController  {
      *
      * @param request The servlet request with query parameters
      * @param response The servlet response
+     * @param qKeywords If specified, series whose name/description contain words starting with
+     *                  each of these keywords are returned (most relevant first) and qName/qDesc are ignored
      *
      * @return A JSON object with a series attribute which is an array of
-     *         VEGLSeries objects matching the criteria.
+     *         VGLJobSummaryCache.SeriesSummary objects (a series along with its job counts) matching
+     *         the criteria. If there are no criteria every series of the user is returned.
      */
     @RequestMapping("/secure/querySeries.do")
     public ModelAndView querySeries(HttpServletRequest request,
             HttpServletResponse response,
             @RequestParam(required=false, value="qSeriesName") String qName,
             @RequestParam(required=false, value="qSeriesDesc") String qDesc,
+            @RequestParam(required=false, value="qKeywords") String qKeywords,
             @AuthenticationPrincipal PortalUser user) {
 
         if (user == null) {
@@ -854,13 +856,20 @@ public class JobListController extends BaseCloudController  {
         }
 
         //User can only query his/her own job series
-        if (StringUtils.isEmpty(qName) && StringUtils.isEmpty(qDesc)) {
+        List<VGLJobSummaryCache.SeriesSummary> series;
+        if (StringUtils.isNotBlank(qKeywords)) {
+            logger.debug("qUser="+user.getEmail()+", qKeywords="+qKeywords);
+            series = jobManager.getSeriesSummaries(user.getEmail(),
+                    jobManager.searchSeries(user.getEmail(), qKeywords, MAX_SERIES_SEARCH_RESULTS));
+        } else if (StringUtils.isEmpty(qName) && StringUtils.isEmpty(qDesc)) {
             logger.debug("No query parameters provided. Will return "+user+"'s series.");
+            series = jobManager.getSeriesSummaries(user.getEmail());
+        } else {
+            logger.debug("qUser="+user.getEmail()+", qName="+qName+", qDesc="+qDesc);
+            series = jobManager.getSeriesSummaries(user.getEmail(),
+                    jobManager.querySeries(user.getEmail(), qName, qDesc));
         }
 
-        logger.debug("qUser="+user.getEmail()+", qName="+qName+", qDesc="+qDesc);
-        List<VEGLSeries> series = jobManager.querySeries(user.getEmail(), qName, qDesc);
-
         logger.debug("Returning list of "+series.size()+" series.");
         return generateJSONResponseMAV(true, series, "");
     }
@@ -895,40 +904,106 @@ public class JobListController extends BaseCloudController  {
     }
 
     /**
-     * Returns a JSON object containing an array of jobs for the given series.
+     * Returns a JSON object containing a page of job summaries for the given series. Summaries
+     * don't include job parameters, downloads or files - use getJobObject.do to get those for a
+     * single job.
      *
      * @param request The servlet request including a seriesId parameter
      * @param response The servlet response
+     * @param start The index of the first job to return
+     * @param limit The largest number of jobs to return (0 for every job)
+     * @param sort The job property to sort by (one of VEGLJobSummary.SORTABLE_PROPERTIES)
+     * @param dir The sort direction - either ASC or DESC
+     * @param statuses If specified, only jobs with one of these statuses will be returned
      *
-     * @return A JSON object with a jobs attribute which is an array of
-     *         <code>VEGLJob</code> objects.
+     * @return A JSON object with a data attribute which is an array of
+     *         <code>VEGLJobSummary</code> objects and a totalCount attribute
+     *         with the number of jobs across all pages.
      */
     @RequestMapping("/secure/listJobs.do")
     public ModelAndView listJobs(HttpServletRequest request,
             HttpServletResponse response,
             @RequestParam("seriesId") Integer seriesId,
             @RequestParam(required=false, value="forceStatusRefresh", defaultValue="false") boolean forceStatusRefresh,
+            @RequestParam(required=false, value="start", defaultValue="0") int start,
+            @RequestParam(required=false, value="limit", defaultValue="0") int limit,
+            @RequestParam(required=false, value="sort") String sort,
+            @RequestParam(required=false, value="dir", defaultValue="ASC") String dir,
+            @RequestParam(required=false, value="status") String[] statuses,
             @AuthenticationPrincipal PortalUser user) {
         VEGLSeries series = attemptGetSeries(seriesId, user);
         if (series == null) {
             return generateJSONResponseMAV(false, null, "Unable to lookup job series.");
         }
 
-        List<VEGLJob> seriesJobs = jobManager.getSeriesJobs(seriesId.intValue());
-        if (seriesJobs == null) {
+        if (sort != null && !Arrays.asList(VEGLJobSummary.SORTABLE_PROPERTIES).contains(sort)) {
+            return generateJSONResponseMAV(false, null, "Unable to sort jobs by " + sort);
+        }
+
+        List<String> statusList = (statuses == null || statuses.length == 0) ? null : Arrays.asList(statuses);
+        boolean ascending = !"DESC".equalsIgnoreCase(dir);
+        List<VEGLJobSummary> seriesJobs = null;
+        int totalCount;
+        try {
+            seriesJobs = jobManager.getSeriesJobSummaries(seriesId.intValue(), statusList, sort, ascending, start, limit);
+            if (seriesJobs == null) {
+                return generateJSONResponseMAV(false, null, "Unable to lookup jobs for the specified series.");
+            }
+
+            //We only need to count the jobs if we've been asked for a partial list
+            if (start <= 0 && (limit <= 0 || seriesJobs.size() < limit)) {
+                totalCount = seriesJobs.size();
+            } else {
+                totalCount = jobManager.countSeriesJobs(seriesId.intValue(), statusList);
+            }
+        } catch (Exception ex) {
+            logger.error(String.format("Unable to lookup jobs for series id '%1$s'", seriesId), ex);
             return generateJSONResponseMAV(false, null, "Unable to lookup jobs for the specified series.");
         }
 
         if (forceStatusRefresh) {
-            try {
-                jobStatusMonitor.statusUpdate(seriesJobs);
-            } catch (JobStatusException e) {
-                log.info("There was an error updating one or more jobs: " + e.getMessage());
-                log.debug("Exception(s): ", e);
+            refreshStatuses(seriesJobs);
+        }
+
+        ModelAndView mav = generateJSONResponseMAV(true, seriesJobs, "");
+        mav.addObject("totalCount", totalCount);
+        return mav;
+    }
+
+    /**
+     * Runs a status update over the unfinished jobs of summaries (and only those jobs), updating
+     * the status of each summary to match.
+     * @param summaries
+     */
+    private void refreshStatuses(List<VEGLJobSummary> summaries) {
+        List<String> unfinishedStatuses = Arrays.asList(JobBuilderController.STATUS_PENDING, JobBuilderController.STATUS_ACTIVE);
+        Map<Integer, VEGLJobSummary> summariesById = new HashMap<Integer, VEGLJobSummary>();
+        for (VEGLJobSummary summary : summaries) {
+            if (unfinishedStatuses.contains(summary.getStatus())) {
+                summariesById.put(summary.getId(), summary);
             }
         }
 
-        return generateJSONResponseMAV(true, seriesJobs, "");
+        if (summariesById.isEmpty()) {
+            return;
+        }
+
+        //All jobs are loaded in a single query (status updates don't need their collections)
+        List<VEGLJob> jobs = jobManager.getJobsWithStatus(new ArrayList<Integer>(summariesById.keySet()), unfinishedStatuses);
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        try {
+            jobStatusMonitor.statusUpdate(jobs);
+        } catch (JobStatusException e) {
+            log.info("There was an error updating one or more jobs: " + e.getMessage());
+            log.debug("Exception(s): ", e);
+        }
+
+        for (VEGLJob job : jobs) {
+            summariesById.get(job.getId()).setStatus(job.getStatus());
+        }
     }
 
     /**
@@ -956,8 +1031,9 @@ public class JobListController extends BaseCloudController  {
     /**
      * Duplicates the job given by its reference, the new job object is returned.
      *
-     * Job files will be duplicated in LOCAL staging only. The files duplicated can be
-     * controlled by a list of file names
+     * The files duplicated can be controlled by a list of file names. They are copied in the
+     * background (see getDuplicateJobProgress) - by the storage provider where possible,
+     * otherwise into LOCAL staging. The new job can't be submitted until the copy finishes.
      */
     @RequestMapping("/secure/duplicateJob.do")
     public ModelAndView duplicateJob(HttpServletRequest request,
@@ -999,22 +1075,16 @@ public class JobListController extends BaseCloudController  {
         try {
             //Lets setup a staging area for the input files
             fileStagingService.generateStageInDirectory(newJob);
-            //Write every file to the local staging area
-            CloudFileInformation[] cloudFiles = cloudStorageService.listJobFiles(oldJob);
-            for (CloudFileInformation cloudFile : cloudFiles) {
+            //Copy every included file in the background
+            List<CloudFileInformation> includedFiles = new ArrayList<CloudFileInformation>();
+            for (CloudFileInformation cloudFile : cloudStorageService.listJobFiles(oldJob)) {
                 if (cloudFileIncluded(files, cloudFile)) {
-                    InputStream is = cloudStorageService.getJobFile(oldJob, cloudFile.getName());
-                    OutputStream os = null;
-                    try {
-                        os = fileStagingService.writeFile(newJob, cloudFile.getName());
-
-                        FileIOUtil.writeInputToOutputStream(is, os, 1024 * 1024, false);
-                    } finally {
-                        FileIOUtil.closeQuietly(os);
-                        FileIOUtil.closeQuietly(is);
-                    }
+                    includedFiles.add(cloudFile);
                 }
             }
+
+            jobFileCopier.copy(oldJob, cloudStorageService, newJob, getStorageService(newJob), fileStagingService,
+                    includedFiles.toArray(new CloudFileInformation[includedFiles.size()]), new DuplicateJobListener());
         } catch (Exception ex) {
             log.error("Unable to duplicate input files: " + ex.getMessage(), ex);
             //Tidy up after ourselves
@@ -1025,10 +1095,114 @@ public class JobListController extends BaseCloudController  {
             return generateJSONResponseMAV(false, null, "Unable to save new job.");
         }
 
-        jobManager.createJobAuditTrail(null, newJob, "Job duplicated.");
         return generateJSONResponseMAV(true, Arrays.asList(newJob), "");
     }
 
+    /**
+     * Finishes a duplicated job once its files have been copied (or marks it as failed if they couldn't be)
+     */
+    private class DuplicateJobListener implements VHIRLJobFileCopier.CopyListener {
+        @Override
+        public void copyComplete(VEGLJob newJob, VHIRLJobFileCopier.CopyProgress progress) {
+            VEGLJob job = getDuplicatedJob(newJob);
+            if (job == null) {
+                return;
+            }
+
+            //Record every copy so they are listed with the job's input files. Files copied by the
+            //provider are only in cloud storage (under the job's base key) rather than in staging.
+            List<FileInformation> jobFiles = job.getJobFiles();
+            for (VHIRLJobFileCopier.FileProgress file : progress.getFiles()) {
+                String parentPath = file.getMethod() == VHIRLJobFileCopier.CopyMethod.PROVIDER ? job.getStorageBaseKey() : "";
+                FileInformation fileInfo = new FileInformation(file.getDestinationName(), file.getSize(), false, parentPath);
+                fileInfo.setName(file.getDestinationName());
+                jobFiles.add(fileInfo);
+            }
+            job.setJobFiles(jobFiles);
+            jobManager.saveJob(job);
+
+            jobManager.createJobAuditTrail(null, job, String.format("Job duplicated. %1$d bytes copied by the storage provider, %2$d bytes staged.",
+                    progress.getBytesCopied(VHIRLJobFileCopier.CopyMethod.PROVIDER), progress.getBytesCopied(VHIRLJobFileCopier.CopyMethod.STAGED)));
+        }
+
+        @Override
+        public void copyFailed(VEGLJob newJob, Exception ex) {
+            log.error("Unable to duplicate input files: " + ex.getMessage(), ex);
+            VEGLJob job = getDuplicatedJob(newJob);
+            if (job == null) {
+                return;
+            }
+
+            //The user may already be looking at the new job so it's kept (the wizard reports the failure).
+            //Anything already copied is removed along with the job when it's deleted.
+            String oldJobStatus = job.getStatus();
+            job.setStatus(JobBuilderController.STATUS_ERROR);
+            jobManager.saveJob(job);
+            jobManager.createJobAuditTrail(oldJobStatus, job, "Unable to copy the files of the duplicated job: " + ex.getMessage());
+        }
+
+        /**
+         * Reloads newJob, returning null if it has since been deleted
+         */
+        private VEGLJob getDuplicatedJob(VEGLJob newJob) {
+            VEGLJob job = jobManager.getJobById(newJob.getId());
+            if (job == null || JobBuilderController.STATUS_DELETED.equals(job.getStatus())) {
+                logger.info(String.format("Duplicated job '%1$s' was deleted before its files were copied", newJob.getId()));
+                return null;
+            }
+            return job;
+        }
+    }
+
+    /**
+     * Returns the progress of copying files into a duplicated job
+     *
+     * @param jobId The ID of the new (duplicated) job
+     * @return A JSON object with a data attribute containing the overall and per file progress
+     */
+    @RequestMapping("/secure/getDuplicateJobProgress.do")
+    public ModelAndView getDuplicateJobProgress(@RequestParam("jobId") Integer jobId,
+            @AuthenticationPrincipal PortalUser user) {
+        if (attemptGetJob(jobId, user) == null) {
+            return generateJSONResponseMAV(false, null, "Unable to lookup job.");
+        }
+
+        VHIRLJobFileCopier.CopyProgress progress = jobFileCopier.getProgress(jobId);
+        if (progress == null) {
+            //The progress is forgotten on restart but a failed copy is still recorded
+            try {
+                if (jobFileCopier.getCopyState(jobId) == VHIRLJobFileCopier.CopyState.FAILED) {
+                    ModelMap data = new ModelMap();
+                    data.put("state", VHIRLJobFileCopier.CopyState.FAILED.toString());
+                    data.put("error", "The copy was interrupted or failed");
+                    return generateJSONResponseMAV(true, data, "");
+                }
+            } catch (PortalServiceException ex) {
+                log.error("Unable to lookup the file copy of job " + jobId, ex);
+            }
+            return generateJSONResponseMAV(false, null, "There is no recent copy for this job.");
+        }
+
+        List<ModelMap> files = new ArrayList<ModelMap>();
+        for (VHIRLJobFileCopier.FileProgress fileProgress : progress.getFiles()) {
+            ModelMap file = new ModelMap();
+            file.put("name", fileProgress.getName());
+            file.put("size", fileProgress.getSize());
+            file.put("bytesCopied", fileProgress.getBytesCopied());
+            file.put("state", fileProgress.getState().toString());
+            file.put("method", fileProgress.getMethod() == null ? null : fileProgress.getMethod().toString());
+            files.add(file);
+        }
+
+        ModelMap data = new ModelMap();
+        data.put("state", progress.getState().toString());
+        data.put("totalBytes", progress.getTotalBytes());
+        data.put("bytesCopied", progress.getBytesCopied());
+        data.put("error", progress.getError() == null ? null : progress.getError().getMessage());
+        data.put("files", files);
+        return generateJSONResponseMAV(true, data, "");
+    }
+
     /**
      * Gets a pre parsed version of the internal logs. The resulting object will
      * contain the logs sectioned into 'named sections' eg: Section for python code, section for environment etc
@@ -1055,4 +1229,38 @@ public class JobListController extends BaseCloudController  {
 
         return generateJSONResponseMAV(true, Arrays.asList(namedSections), "");
     }
+
+    /**
+     * Gets the portion of a job's log that starts at offset. Intended for following the log of
+     * a running job - each request only transfers the bytes written since the last request.
+     *
+     * The response contains "content", "offset" (where content starts) and "nextOffset" (the offset
+     * to use for the next request). If the log has been replaced and is now shorter than offset
+     * it will be read from the beginning.
+     *
+     * @param jobId
+     * @param offset The byte offset to start reading from
+     * @param maxBytes The maximum number of bytes to return (capped at MAX_LOG_TAIL_BYTES)
+     * @return
+     */
+    @RequestMapping("/secure/getLogTail.do")
+    public ModelAndView getLogTail(HttpServletRequest request, @RequestParam("jobId") Integer jobId,
+            @RequestParam(required=false,defaultValue="0",value="offset") Long offset,
+            @RequestParam(required=false,defaultValue="1048576",value="maxBytes") Integer maxBytes,
+            @AuthenticationPrincipal PortalUser user) {
+        //Lookup the job whose logs we are accessing
+        VEGLJob job = attemptGetJob(jobId, user);
+        if (job == null) {
+            return generateJSONResponseMAV(false, null, "The specified job does not exist.");
+        }
+
+        ModelMap tail = null;
+        try {
+            tail = jobStatusLogReader.getLogTail(job, Math.max(0L, offset), Math.max(1, Math.min(maxBytes, MAX_LOG_TAIL_BYTES)));
+        } catch (PortalServiceException ex) {
+            return generateJSONResponseMAV(false, null, ex.getMessage());
+        }
+
+        return generateJSONResponseMAV(true, Arrays.asList(tail), "");
+    }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package org.auscope.portal.server.web.service;
+
+import org.auscope.portal.core.cloud.CloudFileInformation;
+
+/**
+ * A CloudFileInformation that also carries the storage provider's
+ * entity tag for the file (where the provider reports one).
+ */
+public class CloudFileMetadata extends CloudFileInformation {
+    private static final long serialVersionUID = 4518309207133421863L;
+
+    /** The provider specific entity tag (can be null)*/
+    private String eTag;
+    /** The hex encoded MD5 of the file contents (can be null)*/
+    private String contentMd5;
+
+    /**
+     * @param cloudKey The full key of the file in cloud storage
+     * @param size The size of the file in bytes
+     * @param eTag The provider specific entity tag (can be null)
+     */
+    public CloudFileMetadata(String cloudKey, long size, String eTag) {
+        super(cloudKey, size, null);
+        this.eTag = eTag;
+    }
+
+    /**
+     * The provider specific entity tag (can be null)
+     * @return
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * The provider specific entity tag (can be null)
+     * @param eTag
+     */
+    public void setETag(String eTag) {
+        this.eTag = eTag;
+    }
+
+    /**
+     * The hex encoded MD5 of the file contents (can be null if it isn't known)
+     * @return
+     */
+    public String getContentMd5() {
+        return contentMd5;
+    }
+
+    /**
+     * The hex encoded MD5 of the file contents (can be null if it isn't known)
+     * @param contentMd5
+     */
+    public void setContentMd5(String contentMd5) {
+        this.contentMd5 = contentMd5;
+    }
+}
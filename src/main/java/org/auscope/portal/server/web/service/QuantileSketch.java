@@ -0,0 +1,157 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A streaming quantile sketch for non negative values (eg latencies in milliseconds).
+ *
+ * Values are counted in logarithmically sized buckets so that any quantile can be estimated to within
+ * relativeAccuracy of its true value while only storing one counter per bucket (around 1200 buckets
+ * cover 1ms to 1 year at 1% accuracy) regardless of how many values are added. Values below 1 are
+ * counted as 0.
+ *
+ * Sketches with the same accuracy can be merged. This class is not thread safe.
+ */
+public class QuantileSketch {
+    private final double relativeAccuracy;
+    private final double logGamma;
+    private final TreeMap<Integer, Long> buckets = new TreeMap<Integer, Long>();
+    private long zeroCount = 0;
+    private long count = 0;
+    private double sum = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /**
+     * @param relativeAccuracy The largest relative error of an estimated quantile (eg 0.01 for 1%)
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.logGamma = Math.log((1 + relativeAccuracy) / (1 - relativeAccuracy));
+    }
+
+    /**
+     * Adds a single value to the sketch
+     * @param value Must be non negative
+     */
+    public void add(double value) {
+        if (value < 0 || Double.isNaN(value)) {
+            throw new IllegalArgumentException("Unable to add " + value);
+        }
+
+        if (value < 1) {
+            zeroCount++;
+        } else {
+            int index = (int) Math.ceil(Math.log(value) / logGamma);
+            Long bucketCount = buckets.get(index);
+            buckets.put(index, bucketCount == null ? 1L : bucketCount + 1);
+        }
+
+        count++;
+        sum += value;
+        min = count == 1 ? value : Math.min(min, value);
+        max = count == 1 ? value : Math.max(max, value);
+    }
+
+    /**
+     * Adds every value of other to this sketch
+     * @param other Must have the same relativeAccuracy as this sketch
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Unable to merge sketches with different accuracies");
+        }
+        if (other.count == 0) {
+            return;
+        }
+
+        for (Map.Entry<Integer, Long> bucket : other.buckets.entrySet()) {
+            Long bucketCount = buckets.get(bucket.getKey());
+            buckets.put(bucket.getKey(), bucketCount == null ? bucket.getValue() : bucketCount + bucket.getValue());
+        }
+        min = count == 0 ? other.min : Math.min(min, other.min);
+        max = count == 0 ? other.max : Math.max(max, other.max);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+    }
+
+    /**
+     * Estimates the value at quantile q (eg 0.95 for the 95th percentile). Returns NaN if the sketch is empty.
+     * @param q Between 0 and 1 (inclusive)
+     * @return
+     */
+    public double getQuantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("q must be between 0 and 1");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        long rank = (long) Math.floor(q * (count - 1));
+        if (rank == count - 1) {
+            return max;
+        } else if (rank < zeroCount) {
+            return 0;
+        }
+
+        long seen = zeroCount;
+        double estimate = max;
+        for (Map.Entry<Integer, Long> bucket : buckets.entrySet()) {
+            seen += bucket.getValue();
+            if (seen > rank) {
+                //The midpoint (in relative terms) of the bucket
+                double gamma = Math.exp(logGamma);
+                estimate = 2 * Math.pow(gamma, bucket.getKey()) / (gamma + 1);
+                break;
+            }
+        }
+
+        return Math.max(min, Math.min(max, estimate));
+    }
+
+    /**
+     * The largest relative error of an estimated quantile
+     * @return
+     */
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    /**
+     * The number of values added
+     * @return
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The smallest value added (NaN if empty)
+     * @return
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * The largest value added (NaN if empty)
+     * @return
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * The mean of the values added (NaN if empty)
+     * @return
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+}
@@ -0,0 +1,238 @@
+package org.auscope.portal.server.web.service;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.server.vegl.VGLJobAuditLog;
+import org.auscope.portal.server.vegl.VGLJobAuditLogDao;
+
+/**
+ * Moves job audit logs older than retentionMonths out of the database and into gzipped CSV files
+ * (one per month, named jobs_audit_log-YYYYMM.csv.gz) in the archive directory.
+ *
+ * If the audit log table is partitioned by month (see vhirlportal_upgrade_audit_log_partitions.sql)
+ * archived months are removed by dropping their partition and the partitions for the current and next
+ * month are created ahead of time. Otherwise archived months are removed with a delete.
+ */
+public class VHIRLAuditLogArchiver {
+    private final Log log = LogFactory.getLog(getClass());
+
+    public static final String ARCHIVE_FILE_PREFIX = "jobs_audit_log-";
+    public static final String ARCHIVE_FILE_SUFFIX = ".csv.gz";
+
+    /** The number of audit logs read from the database at once*/
+    private static final int PAGE_SIZE = 5000;
+
+    private VGLJobAuditLogDao jobAuditLogDao;
+    private File archiveDirectory;
+    private int retentionMonths = 12;
+
+    /**
+     * @param jobAuditLogDao Used for reading and removing audit logs
+     * @param archiveDirectory The directory that archive files will be written to (created if it doesn't exist)
+     */
+    public VHIRLAuditLogArchiver(VGLJobAuditLogDao jobAuditLogDao, String archiveDirectory) {
+        this.jobAuditLogDao = jobAuditLogDao;
+        this.archiveDirectory = new File(archiveDirectory);
+    }
+
+    /**
+     * Gets the number of whole months (before the current month) that are kept in the database
+     * @return
+     */
+    public int getRetentionMonths() {
+        return retentionMonths;
+    }
+
+    /**
+     * Sets the number of whole months (before the current month) that are kept in the database
+     * @param retentionMonths
+     */
+    public void setRetentionMonths(int retentionMonths) {
+        this.retentionMonths = retentionMonths;
+    }
+
+    /**
+     * Archives and removes every month of audit logs older than retentionMonths. A month is only
+     * removed once its archive file has been written. Stops at the first month that fails.
+     *
+     * @return The number of audit logs archived
+     */
+    public synchronized int archive() {
+        Date thisMonth = getMonthStart(new Date(), 0);
+        Date cutoff = getMonthStart(thisMonth, -retentionMonths);
+
+        List<String> partitionNames;
+        Date oldestTransition;
+        try {
+            partitionNames = jobAuditLogDao.getPartitionNames();
+            oldestTransition = jobAuditLogDao.getOldestTransitionDate();
+        } catch (Exception ex) {
+            log.error("Unable to inspect the job audit logs: " + ex.getMessage());
+            log.debug("Exception:", ex);
+            return 0;
+        }
+
+        if (partitionNames.contains(VGLJobAuditLogDao.OVERFLOW_PARTITION)) {
+            addMonthlyPartition(partitionNames, thisMonth);
+            addMonthlyPartition(partitionNames, getMonthStart(thisMonth, 1));
+        }
+
+        //Start from the oldest data or the oldest partition (which may be empty)
+        Date month = oldestTransition == null ? null : getMonthStart(oldestTransition, 0);
+        for (String partitionName : partitionNames) {
+            Date partitionMonth = parseMonthlyPartitionName(partitionName);
+            if (partitionMonth != null && (month == null || partitionMonth.before(month))) {
+                month = partitionMonth;
+            }
+        }
+
+        int archived = 0;
+        for (; month != null && month.before(cutoff); month = getMonthStart(month, 1)) {
+            try {
+                archived += archiveMonth(month, getMonthStart(month, 1), partitionNames);
+            } catch (Exception ex) {
+                log.error(String.format("Unable to archive the job audit logs of %1$tY-%1$tm: %2$s", month, ex.getMessage()));
+                log.debug("Exception:", ex);
+                break;
+            }
+        }
+
+        if (archived > 0) {
+            log.info(String.format("Archived %1$d job audit log(s) to %2$s", archived, archiveDirectory));
+        }
+        return archived;
+    }
+
+    /**
+     * Writes the archive file for [monthStart, nextMonthStart) and then removes the month from the database
+     */
+    private int archiveMonth(Date monthStart, Date nextMonthStart, List<String> partitionNames) throws IOException {
+        String partitionName = VGLJobAuditLogDao.getMonthlyPartitionName(monthStart);
+        File archiveFile = new File(archiveDirectory, ARCHIVE_FILE_PREFIX + partitionName.substring(1) + ARCHIVE_FILE_SUFFIX);
+
+        int count = writeArchiveFile(monthStart, nextMonthStart, archiveFile);
+        if (partitionNames.contains(partitionName)) {
+            jobAuditLogDao.dropMonthlyPartition(partitionName);
+            partitionNames.remove(partitionName);
+        } else if (count > 0) {
+            jobAuditLogDao.deleteAuditLogsBetween(monthStart, nextMonthStart);
+        }
+        return count;
+    }
+
+    /**
+     * Writes every audit log in [from, to) to archiveFile (unless there are none). The file is written
+     * under a temporary name and only renamed once it is complete.
+     */
+    private int writeArchiveFile(Date from, Date to, File archiveFile) throws IOException {
+        if (!archiveDirectory.isDirectory() && !archiveDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + archiveDirectory);
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        File partFile = new File(archiveDirectory, archiveFile.getName() + ".part");
+        int count = 0;
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(partFile)), "UTF-8"));
+            writer.write("id,jobId,fromStatus,toStatus,transitionDate,message\n");
+
+            int afterId = 0;
+            List<VGLJobAuditLog> page;
+            do {
+                page = jobAuditLogDao.getAuditLogsBetween(from, to, afterId, PAGE_SIZE);
+                for (VGLJobAuditLog auditLog : page) {
+                    writer.write(auditLog.getId() + "," + auditLog.getJobId() + "," + csvEscape(auditLog.getFromStatus()) + ","
+                            + csvEscape(auditLog.getToStatus()) + "," + dateFormat.format(auditLog.getTransitionDate()) + ","
+                            + csvEscape(auditLog.getMessage()) + "\n");
+                    afterId = auditLog.getId();
+                }
+                count += page.size();
+            } while (page.size() == PAGE_SIZE);
+
+            writer.close();
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+
+        if (count == 0) {
+            partFile.delete();
+            return 0;
+        }
+
+        if (archiveFile.exists() && !archiveFile.delete()) {
+            throw new IOException("Unable to replace " + archiveFile);
+        }
+        if (!partFile.renameTo(archiveFile)) {
+            throw new IOException("Unable to rename " + partFile + " to " + archiveFile);
+        }
+        return count;
+    }
+
+    /**
+     * Adds the partition for the month starting at monthStart (if it doesn't already exist)
+     */
+    private void addMonthlyPartition(List<String> partitionNames, Date monthStart) {
+        String partitionName = VGLJobAuditLogDao.getMonthlyPartitionName(monthStart);
+        if (partitionNames.contains(partitionName)) {
+            return;
+        }
+
+        try {
+            jobAuditLogDao.addMonthlyPartition(monthStart, getMonthStart(monthStart, 1));
+            partitionNames.add(partitionNames.indexOf(VGLJobAuditLogDao.OVERFLOW_PARTITION), partitionName);
+        } catch (Exception ex) {
+            log.warn(String.format("Unable to add job audit log partition %1$s: %2$s", partitionName, ex.getMessage()));
+            log.debug("Exception:", ex);
+        }
+    }
+
+    /**
+     * Returns the month that a pYYYYMM partition holds (or null if partitionName isn't a monthly partition)
+     */
+    private Date parseMonthlyPartitionName(String partitionName) {
+        if (!partitionName.matches("p\\d{6}")) {
+            return null;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(Integer.parseInt(partitionName.substring(1, 5)), Integer.parseInt(partitionName.substring(5)) - 1, 1);
+        return calendar.getTime();
+    }
+
+    /**
+     * Gets the first instant of the month that is monthOffset months after the month containing date
+     */
+    private static Date getMonthStart(Date date, int monthOffset) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.MONTH, monthOffset);
+        return calendar.getTime();
+    }
+
+    private static String csvEscape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
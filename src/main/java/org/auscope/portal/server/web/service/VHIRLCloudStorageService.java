@@ -0,0 +1,315 @@
+package org.auscope.portal.server.web.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.cloud.CloudJob;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.cloud.CloudStorageService;
+import org.jclouds.Constants;
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.options.GetOptions;
+import org.jclouds.blobstore.options.PutOptions;
+import org.jclouds.openstack.swift.CommonSwiftClient;
+import org.jclouds.s3.S3Client;
+
+/**
+ * A CloudStorageService that can also make cheap metadata (HEAD) requests
+ * and ranged reads for individual job files rather than listing or
+ * downloading every file a job has. Individual files can also be uploaded
+ * (in multiple parts if they are large) with their progress tracked. Files
+ * can also be copied between jobs by the storage provider (for Swift and S3
+ * providers) without passing through the portal.
+ */
+public class VHIRLCloudStorageService extends CloudStorageService {
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** The user metadata key that uploaded files have their MD5 recorded under*/
+    public static final String METADATA_CONTENT_MD5 = "content-md5";
+    /** ETags of single part uploads are typically just the (quoted) MD5 of the contents*/
+    private static final Pattern MD5_ETAG_PATTERN = Pattern.compile("^\"?[0-9a-fA-F]{32}\"?$");
+
+    private long multipartThreshold = 64L * 1024L * 1024L;
+
+    private boolean relaxHostName;
+    private boolean stripExpectHeader;
+    private volatile BlobStoreContext blobStoreContext;
+
+    /**
+     * @param endpoint The endpoint of the storage service
+     * @param provider The jclouds provider name
+     * @param accessKey Storage access key
+     * @param secretKey Storage secret key
+     * @param regionName The region to use (can be null)
+     * @param relaxHostName Whether security certs are required to strictly match the host
+     * @param stripExpectHeader Whether to remove the Expect header from requests
+     */
+    public VHIRLCloudStorageService(String endpoint, String provider, String accessKey, String secretKey,
+            String regionName, boolean relaxHostName, boolean stripExpectHeader) {
+        super(endpoint, provider, accessKey, secretKey, regionName, relaxHostName, stripExpectHeader);
+        this.relaxHostName = relaxHostName;
+        this.stripExpectHeader = stripExpectHeader;
+    }
+
+    /**
+     * Gets the size (in bytes) above which files are uploaded in multiple parts
+     * @return
+     */
+    public long getMultipartThreshold() {
+        return multipartThreshold;
+    }
+
+    /**
+     * Sets the size (in bytes) above which files are uploaded in multiple parts
+     * @param multipartThreshold
+     */
+    public void setMultipartThreshold(long multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+    }
+
+    /**
+     * Lazily creates a BlobStoreContext for making requests that aren't exposed by CloudStorageService.
+     *
+     * regionName is not applied here - objects are looked up by bucket/key which is region independent.
+     * @return
+     */
+    protected BlobStoreContext getBlobStoreContext() {
+        if (blobStoreContext == null) {
+            synchronized (this) {
+                if (blobStoreContext == null) {
+                    Properties properties = new Properties();
+                    properties.setProperty(Constants.PROPERTY_RELAX_HOSTNAME, Boolean.toString(relaxHostName));
+                    properties.setProperty(Constants.PROPERTY_STRIP_EXPECT_HEADER, Boolean.toString(stripExpectHeader));
+
+                    ContextBuilder builder = ContextBuilder.newBuilder(getProvider())
+                            .credentials(getAccessKey(), getSecretKey())
+                            .overrides(properties);
+                    if (getEndpoint() != null) {
+                        builder.endpoint(getEndpoint());
+                    }
+
+                    blobStoreContext = builder.buildView(BlobStoreContext.class);
+                }
+            }
+        }
+
+        return blobStoreContext;
+    }
+
+    /**
+     * Gets the full storage key for a file belonging to job
+     * @param job
+     * @param fileName
+     * @return
+     */
+    public String getJobFileKey(CloudJob job, String fileName) {
+        return String.format("%1$s/%2$s", job.getStorageBaseKey(), fileName).replace("//", "/");
+    }
+
+    /**
+     * Gets the metadata for a single job file without downloading or listing anything else.
+     *
+     * @param job The job that owns the file
+     * @param fileName The name of the file (relative to the job's base key)
+     * @return The file metadata or null if the file doesn't exist
+     * @throws PortalServiceException If the storage service couldn't be queried
+     */
+    public CloudFileMetadata getJobFileMetadata(CloudJob job, String fileName) throws PortalServiceException {
+        return getFileMetadata(getJobFileKey(job, fileName));
+    }
+
+    /**
+     * Gets the metadata for a single file (which may belong to any job) without downloading or listing anything else.
+     *
+     * @param key The full storage key of the file
+     * @return The file metadata or null if the file doesn't exist
+     * @throws PortalServiceException If the storage service couldn't be queried
+     */
+    public CloudFileMetadata getFileMetadata(String key) throws PortalServiceException {
+        try {
+            BlobStore blobStore = getBlobStoreContext().getBlobStore();
+            BlobMetadata metadata = blobStore.blobMetadata(getBucket(), key);
+            if (metadata == null) {
+                return null;
+            }
+
+            Long size = metadata.getContentMetadata() == null ? null : metadata.getContentMetadata().getContentLength();
+            CloudFileMetadata result = new CloudFileMetadata(key, size == null ? 0L : size, metadata.getETag());
+            if (metadata.getUserMetadata() != null && metadata.getUserMetadata().containsKey(METADATA_CONTENT_MD5)) {
+                result.setContentMd5(metadata.getUserMetadata().get(METADATA_CONTENT_MD5));
+            } else if (metadata.getETag() != null && MD5_ETAG_PATTERN.matcher(metadata.getETag()).matches()) {
+                result.setContentMd5(metadata.getETag().replace("\"", "").toLowerCase());
+            }
+            return result;
+        } catch (Exception ex) {
+            log.debug(String.format("Unable to get metadata for '%1$s': %2$s", key, ex.getMessage()));
+            throw new PortalServiceException(String.format("Unable to get metadata for '%1$s'", key), ex);
+        }
+    }
+
+    /**
+     * Opens a stream to a byte range of a single job file. Only the requested bytes
+     * are transferred from the storage provider.
+     *
+     * @param job The job that owns the file
+     * @param fileName The name of the file (relative to the job's base key)
+     * @param startOffset The first byte (inclusive) to read
+     * @param endOffset The last byte (inclusive) to read
+     * @return A stream of the requested bytes or null if the file doesn't exist
+     * @throws PortalServiceException If the storage service couldn't be queried
+     */
+    public InputStream getJobFileRange(CloudJob job, String fileName, long startOffset, long endOffset) throws PortalServiceException {
+        String key = getJobFileKey(job, fileName);
+        try {
+            BlobStore blobStore = getBlobStoreContext().getBlobStore();
+            Blob blob = blobStore.getBlob(getBucket(), key, new GetOptions().range(startOffset, endOffset));
+            if (blob == null) {
+                return null;
+            }
+
+            return blob.getPayload().openStream();
+        } catch (Exception ex) {
+            log.debug(String.format("Unable to get range %1$d-%2$d of '%3$s': %4$s", startOffset, endOffset, key, ex.getMessage()));
+            throw new PortalServiceException(String.format("Unable to get range %1$d-%2$d of '%3$s'", startOffset, endOffset, key), ex);
+        }
+    }
+
+    /**
+     * Uploads a single file into job's storage area (named after the file). Files larger than
+     * multipartThreshold are uploaded in multiple parts.
+     *
+     * @param job The job that will own the file
+     * @param file The local file to upload
+     * @param contentMd5 The hex encoded MD5 of file (can be null). It will be recorded against the uploaded file.
+     * @param bytesTransferred If not null, will be updated as the upload progresses. Multipart uploads only update this on completion.
+     * @throws PortalServiceException If the upload fails
+     */
+    public void uploadJobFile(CloudJob job, File file, String contentMd5, final AtomicLong bytesTransferred) throws PortalServiceException {
+        String key = getJobFileKey(job, file.getName());
+        InputStream is = null;
+        try {
+            BlobStore blobStore = getBlobStoreContext().getBlobStore();
+            Map<String, String> userMetadata = new HashMap<String, String>();
+            if (contentMd5 != null) {
+                userMetadata.put(METADATA_CONTENT_MD5, contentMd5);
+            }
+
+            boolean multipart = file.length() > multipartThreshold;
+            Blob blob;
+            if (multipart) {
+                blob = blobStore.blobBuilder(key).payload(file).userMetadata(userMetadata).build();
+            } else {
+                is = new FileInputStream(file);
+                if (bytesTransferred != null) {
+                    is = new FilterInputStream(is) {
+                        @Override
+                        public int read() throws IOException {
+                            int b = super.read();
+                            if (b >= 0) {
+                                bytesTransferred.incrementAndGet();
+                            }
+                            return b;
+                        }
+
+                        @Override
+                        public int read(byte[] buf, int off, int len) throws IOException {
+                            int count = super.read(buf, off, len);
+                            if (count > 0) {
+                                bytesTransferred.addAndGet(count);
+                            }
+                            return count;
+                        }
+                    };
+                }
+                blob = blobStore.blobBuilder(key).payload(is).contentLength(file.length()).userMetadata(userMetadata).build();
+            }
+
+            blobStore.putBlob(getBucket(), blob, multipart ? PutOptions.Builder.multipart() : PutOptions.NONE);
+            if (bytesTransferred != null) {
+                bytesTransferred.set(file.length());
+            }
+        } catch (Exception ex) {
+            log.debug(String.format("Unable to upload '%1$s' to '%2$s': %3$s", file, key, ex.getMessage()));
+            throw new PortalServiceException(String.format("Unable to upload '%1$s'", file.getName()), ex);
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ex) {
+                    log.debug("Unable to close upload stream", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether copyJobFile is supported by this service's provider
+     * @return
+     */
+    public boolean isProviderCopySupported() {
+        return isSwiftProvider() || isS3Provider();
+    }
+
+    private boolean isSwiftProvider() {
+        return getProvider() != null && getProvider().contains("swift");
+    }
+
+    private boolean isS3Provider() {
+        return getProvider() != null && getProvider().contains("s3");
+    }
+
+    /**
+     * Copies a file from one job's storage area into another's. The copy is made by the storage
+     * provider - the file contents are never transferred to (or through) the portal.
+     *
+     * @param sourceKey The full storage key of the file to copy
+     * @param destination The job that will own the copy
+     * @param fileName The name of the copy (relative to destination's base key)
+     * @throws PortalServiceException If the copy fails or isn't supported by this service's provider
+     */
+    public void copyJobFile(String sourceKey, CloudJob destination, String fileName) throws PortalServiceException {
+        String destinationKey = getJobFileKey(destination, fileName);
+        try {
+            if (isSwiftProvider()) {
+                CommonSwiftClient swift = getBlobStoreContext().unwrapApi(CommonSwiftClient.class);
+                if (!swift.copyObject(getBucket(), sourceKey, getBucket(), destinationKey)) {
+                    throw new PortalServiceException(String.format("'%1$s' does not exist", sourceKey));
+                }
+            } else if (isS3Provider()) {
+                S3Client s3 = getBlobStoreContext().unwrapApi(S3Client.class);
+                s3.copyObject(getBucket(), sourceKey, getBucket(), destinationKey);
+            } else {
+                throw new PortalServiceException(String.format("The '%1$s' provider doesn't support copying files", getProvider()));
+            }
+        } catch (PortalServiceException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            log.debug(String.format("Unable to copy '%1$s' to '%2$s': %3$s", sourceKey, destinationKey, ex.getMessage()));
+            throw new PortalServiceException(String.format("Unable to copy '%1$s'", sourceKey), ex);
+        }
+    }
+
+    /**
+     * Releases any resources held by this service
+     */
+    public void destroy() {
+        if (blobStoreContext != null) {
+            blobStoreContext.close();
+            blobStoreContext = null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Reports on the Hibernate second level and query caches (see ehcache.xml) so that their
+ * effectiveness can be monitored.
+ *
+ * Hit/miss counts are only recorded if hibernate.generate_statistics is enabled.
+ */
+public class VHIRLEntityCacheService {
+    private SessionFactory sessionFactory;
+
+    /**
+     * @param sessionFactory The session factory whose caches will be reported on
+     */
+    public VHIRLEntityCacheService(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * Returns true if hit/miss counts are being recorded
+     * @return
+     */
+    public boolean isStatisticsEnabled() {
+        return sessionFactory.getStatistics().isStatisticsEnabled();
+    }
+
+    /**
+     * Gets the statistics of every second level cache region, ordered by region name
+     * @return
+     */
+    public List<CacheStatistics> getRegionStatistics() {
+        Statistics statistics = sessionFactory.getStatistics();
+        String[] regionNames = statistics.getSecondLevelCacheRegionNames();
+        Arrays.sort(regionNames);
+
+        List<CacheStatistics> result = new ArrayList<CacheStatistics>(regionNames.length);
+        for (String regionName : regionNames) {
+            SecondLevelCacheStatistics regionStatistics = statistics.getSecondLevelCacheStatistics(regionName);
+            if (regionStatistics == null) {
+                continue;
+            }
+
+            result.add(new CacheStatistics(regionName, regionStatistics.getHitCount(), regionStatistics.getMissCount(),
+                    regionStatistics.getPutCount(), regionStatistics.getElementCountInMemory()));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the statistics of the query cache (across all query cache regions). The element count is not available.
+     * @return
+     */
+    public CacheStatistics getQueryCacheStatistics() {
+        Statistics statistics = sessionFactory.getStatistics();
+        return new CacheStatistics("query", statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount(),
+                statistics.getQueryCachePutCount(), -1);
+    }
+
+    /**
+     * Hit/miss counts for a single cache
+     */
+    public static class CacheStatistics {
+        private String name;
+        private long hitCount;
+        private long missCount;
+        private long putCount;
+        private long elementCount;
+
+        public CacheStatistics(String name, long hitCount, long missCount, long putCount, long elementCount) {
+            this.name = name;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.putCount = putCount;
+            this.elementCount = elementCount;
+        }
+
+        /**
+         * The name of the cache region
+         * @return
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The number of lookups that were served from the cache
+         * @return
+         */
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        /**
+         * The number of lookups that had to go to the database
+         * @return
+         */
+        public long getMissCount() {
+            return missCount;
+        }
+
+        /**
+         * The number of entries added to the cache
+         * @return
+         */
+        public long getPutCount() {
+            return putCount;
+        }
+
+        /**
+         * The number of entries currently held in memory (or -1 if unknown)
+         * @return
+         */
+        public long getElementCount() {
+            return elementCount;
+        }
+
+        /**
+         * The fraction (0 to 1) of lookups that were served from the cache. 0 if there haven't been any lookups.
+         * @return
+         */
+        public double getHitRatio() {
+            long lookups = hitCount + missCount;
+            return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.Collection;
+
+import org.apache.commons.lang.StringUtils;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.cloud.CloudStorageService;
+import org.auscope.portal.core.services.cloud.FileStagingService;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLPendingTask;
+
+/**
+ * Removes the staging directory and cloud files of deleted jobs in the background.
+ *
+ * Every job to clean up must have a VGLPendingTask of type TYPE_CLEANUP recorded (this
+ * is normally done in the same transaction that marks the job as deleted) so that work
+ * isn't lost if the portal restarts (see VHIRLPendingTaskQueue for how the work is run
+ * and retried).
+ */
+public class VHIRLJobCleanupQueue extends VHIRLPendingTaskQueue {
+    private FileStagingService fileStagingService;
+    private CloudStorageService[] cloudStorageServices;
+
+    /**
+     * @param jobManager Used for loading jobs and their pending tasks
+     * @param fileStagingService Used for removing staging directories
+     * @param cloudStorageServices Used for removing cloud files
+     * @param workerPoolSize The number of jobs that can be cleaned up at the same time
+     * @param queueCapacity The number of jobs that can be waiting for a worker
+     */
+    public VHIRLJobCleanupQueue(VEGLJobManager jobManager, FileStagingService fileStagingService, CloudStorageService[] cloudStorageServices,
+            int workerPoolSize, int queueCapacity) {
+        super(jobManager, VGLPendingTask.TYPE_CLEANUP, "vhirl-job-cleanup-", workerPoolSize, queueCapacity);
+        this.fileStagingService = fileStagingService;
+        this.cloudStorageServices = cloudStorageServices;
+    }
+
+    /**
+     * Schedules the cleanup of every job in jobIds and returns immediately. Each job must already
+     * have a TYPE_CLEANUP pending task recorded. Jobs that are already in flight are ignored.
+     * @param jobIds
+     */
+    public void enqueue(Collection<Integer> jobIds) {
+        for (Integer jobId : jobIds) {
+            if (track(jobId)) {
+                schedule(jobId, 0L);
+            }
+        }
+    }
+
+    private CloudStorageService getStorageService(VEGLJob job) {
+        for (CloudStorageService cloudStorageService : cloudStorageServices) {
+            if (cloudStorageService.getId().equals(job.getStorageServiceId())) {
+                return cloudStorageService;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the file copy task, staging directory and (unless the job has been registered) the cloud files of job
+     * @param job
+     * @throws PortalServiceException If the cloud files couldn't be removed
+     */
+    protected void cleanup(VEGLJob job) throws PortalServiceException {
+        //A failed copy into a duplicated job is kept until the job is removed
+        VGLPendingTask copyTask = jobManager.getPendingTask(job.getId(), VGLPendingTask.TYPE_FILE_COPY);
+        if (copyTask != null) {
+            jobManager.deletePendingTask(copyTask);
+        }
+
+        if (!fileStagingService.deleteStageInDirectory(job)) {
+            //Not worth retrying - it will just result in some residual files
+            log.warn(String.format("Unable to remove the staging directory of job '%1$s'", job.getId()));
+        }
+
+        //Registered jobs need to keep their cloud files
+        if (!StringUtils.isEmpty(job.getRegisteredUrl())) {
+            return;
+        }
+
+        CloudStorageService cloudStorageService = getStorageService(job);
+        if (cloudStorageService == null) {
+            log.error(String.format("No cloud storage service with id '%1$s' for job '%2$s'. Cloud files (if any) will not be removed", job.getStorageServiceId(), job.getId()));
+            return;
+        }
+
+        // Stop other jobs reusing this job's input files before they're removed
+        jobManager.deleteInputFilesOfJob(job.getId());
+        cloudStorageService.deleteJobFiles(job);
+    }
+
+    @Override
+    protected void process(VEGLJob job, VGLPendingTask task) throws PortalServiceException {
+        cleanup(job);
+    }
+}
@@ -0,0 +1,627 @@
+package org.auscope.portal.server.web.service;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.cloud.CloudFileInformation;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.cloud.CloudStorageService;
+import org.auscope.portal.core.services.cloud.FileStagingService;
+import org.auscope.portal.core.util.FileIOUtil;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLPendingTask;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Copies the files of an existing job into a newly duplicated job in the background.
+ *
+ * When both jobs use the same VHIRLCloudStorageService (and its provider supports it) each
+ * file is copied by the storage provider straight into the new job's storage area, so the
+ * contents never pass through the portal. Otherwise (or if a provider copy fails) each file
+ * is streamed down into the new job's local staging area, to be uploaded when the new job
+ * is submitted.
+ *
+ * Progress for each new job is available via getProgress until progressRetention
+ * milliseconds after the copy finishes.
+ *
+ * If a job manager is set, every copy is also recorded as a VGLPendingTask of type TYPE_FILE_COPY
+ * (see getCopyState). The task is removed once the copy succeeds. A failed copy keeps its task
+ * (with the error recorded) so the new job can never be submitted with missing files. Copies
+ * that were still running when the portal stopped are failed by recoverInterruptedCopies.
+ */
+public class VHIRLJobFileCopier {
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** Recorded against jobs (and their copy tasks) whose copy was interrupted by the portal stopping*/
+    public static final String INTERRUPTED_MESSAGE = "The portal was restarted before the job's files were copied.";
+
+    /** Longest message that will be recorded against a failed task*/
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    /**
+     * Notified (on a copy thread) once every file has been copied or a copy has failed
+     */
+    public interface CopyListener {
+        /**
+         * Every file has been copied into destination
+         * @param destination
+         * @param progress
+         */
+        void copyComplete(VEGLJob destination, CopyProgress progress);
+
+        /**
+         * At least one file couldn't be copied into destination
+         * @param destination
+         * @param ex The first error encountered
+         */
+        void copyFailed(VEGLJob destination, Exception ex);
+    }
+
+    /** The state of a single file or an entire job's copy*/
+    public enum CopyState {
+        PENDING,
+        COPYING,
+        DONE,
+        FAILED
+    }
+
+    /** How a single file was copied*/
+    public enum CopyMethod {
+        /** Copied by the storage provider into the new job's storage area*/
+        PROVIDER,
+        /** Streamed through the portal into the new job's staging area*/
+        STAGED
+    }
+
+    private ExecutorService executor;
+    private VEGLJobManager jobManager;
+    private long progressRetention = 3600000L;
+    private long shutdownTimeout = 30000L;
+    private Map<Integer, CopyProgress> progressByJob = new HashMap<Integer, CopyProgress>();
+
+    /**
+     * @param workerPoolSize The number of files that can be copied at the same time (across all jobs)
+     */
+    public VHIRLJobFileCopier(int workerPoolSize) {
+        this.executor = Executors.newFixedThreadPool(workerPoolSize, new CustomizableThreadFactory("vhirl-job-copy-"));
+    }
+
+    /**
+     * Gets the job manager used for recording copies as pending tasks (can be null)
+     * @return
+     */
+    public VEGLJobManager getJobManager() {
+        return jobManager;
+    }
+
+    /**
+     * Sets the job manager used for recording copies as pending tasks. If null, copies are only tracked in memory
+     * @param jobManager
+     */
+    public void setJobManager(VEGLJobManager jobManager) {
+        this.jobManager = jobManager;
+    }
+
+    /**
+     * Gets how long (in milliseconds) the progress of a finished copy is kept for
+     * @return
+     */
+    public long getProgressRetention() {
+        return progressRetention;
+    }
+
+    /**
+     * Sets how long (in milliseconds) the progress of a finished copy is kept for
+     * @param progressRetention
+     */
+    public void setProgressRetention(long progressRetention) {
+        this.progressRetention = progressRetention;
+    }
+
+    /**
+     * Gets the time (in milliseconds) that shutdown will wait for running and queued copies to finish
+     * @return
+     */
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    /**
+     * Sets the time (in milliseconds) that shutdown will wait for running and queued copies to finish
+     * @param shutdownTimeout
+     */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * Gets the progress of the most recent copy into a job
+     * @param jobId The ID of the destination job
+     * @return The progress or null if there has been no recent copy into jobId
+     */
+    public CopyProgress getProgress(Integer jobId) {
+        synchronized (progressByJob) {
+            return progressByJob.get(jobId);
+        }
+    }
+
+    /**
+     * Gets the state of the copy into a job. Unlike getProgress this survives portal restarts
+     * (if a job manager is set) and a failed copy is never forgotten.
+     * @param jobId The ID of the destination job
+     * @return COPYING, FAILED or null if there is no running or failed copy into jobId
+     * @throws PortalServiceException If the copy task couldn't be looked up
+     */
+    public CopyState getCopyState(Integer jobId) throws PortalServiceException {
+        if (jobManager == null) {
+            CopyProgress progress = getProgress(jobId);
+            if (progress == null || progress.getState() == CopyState.DONE) {
+                return null;
+            }
+            return progress.getState();
+        }
+
+        VGLPendingTask task;
+        try {
+            task = jobManager.getPendingTask(jobId, VGLPendingTask.TYPE_FILE_COPY);
+        } catch (Exception ex) {
+            throw new PortalServiceException("Unable to lookup job file copy", ex);
+        }
+        if (task == null) {
+            return null;
+        }
+        //A running copy has no attempts recorded against it
+        return task.getAttempts() == 0 ? CopyState.COPYING : CopyState.FAILED;
+    }
+
+    /**
+     * Starts copying files from source into destination and returns immediately.
+     *
+     * @param source The job that owns files
+     * @param sourceStorage The storage service holding source's files
+     * @param destination The job that will receive the copies
+     * @param destinationStorage The storage service used by destination
+     * @param fileStagingService Used for any files that must be streamed into destination's staging area
+     * @param files The files (belonging to source) to copy
+     * @param listener Will be notified when the copy finishes (can be null)
+     * @return The progress of the new copy
+     * @throws PortalServiceException If the copier has been shut down or the copy couldn't be recorded
+     */
+    public CopyProgress copy(final VEGLJob source, final CloudStorageService sourceStorage, final VEGLJob destination,
+            final CloudStorageService destinationStorage, final FileStagingService fileStagingService,
+            CloudFileInformation[] files, CopyListener listener) throws PortalServiceException {
+        VGLPendingTask task = null;
+        if (jobManager != null) {
+            task = new VGLPendingTask(destination.getId(), VGLPendingTask.TYPE_FILE_COPY);
+            try {
+                jobManager.savePendingTask(task);
+            } catch (Exception ex) {
+                throw new PortalServiceException("Unable to record job file copy", ex);
+            }
+        }
+
+        final CopyProgress progress = new CopyProgress(destination, files, listener, task);
+        synchronized (progressByJob) {
+            purgeFinishedProgress();
+            progressByJob.put(destination.getId(), progress);
+        }
+
+        final boolean providerCopy = sourceStorage == destinationStorage
+                && destinationStorage instanceof VHIRLCloudStorageService
+                && ((VHIRLCloudStorageService) destinationStorage).isProviderCopySupported();
+        try {
+            for (final FileProgress fileProgress : progress.files) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        copyFile(source, sourceStorage, destination, providerCopy ? (VHIRLCloudStorageService) destinationStorage : null,
+                                fileStagingService, fileProgress, progress);
+                    }
+                });
+            }
+        } catch (RejectedExecutionException ex) {
+            synchronized (progressByJob) {
+                progressByJob.remove(destination.getId());
+            }
+            recordFinish(task, ex);
+            throw new PortalServiceException("Unable to start copying job files", ex);
+        }
+
+        return progress;
+    }
+
+    private void copyFile(VEGLJob source, CloudStorageService sourceStorage, VEGLJob destination, VHIRLCloudStorageService providerStorage,
+            FileStagingService fileStagingService, FileProgress fileProgress, CopyProgress progress) {
+        Exception error = null;
+        try {
+            if (progress.isFailed()) {
+                //Another file has already failed, there's no point continuing
+                fileProgress.state = CopyState.FAILED;
+                return;
+            }
+
+            fileProgress.state = CopyState.COPYING;
+            if (providerStorage != null) {
+                try {
+                    String relativeName = getRelativeName(source, fileProgress.name);
+                    providerStorage.copyJobFile(getSourceKey(providerStorage, source, fileProgress.name),
+                            destination, relativeName);
+                    fileProgress.destinationName = relativeName;
+                    fileProgress.method = CopyMethod.PROVIDER;
+                    fileProgress.bytesCopied.set(fileProgress.size);
+                    fileProgress.state = CopyState.DONE;
+                    return;
+                } catch (PortalServiceException ex) {
+                    log.warn(String.format("Provider copy of '%1$s' failed, it will be streamed instead: %2$s", fileProgress.name, ex.getMessage()));
+                    log.debug("Exception:", ex);
+                }
+            }
+
+            streamFile(source, sourceStorage, destination, fileStagingService, fileProgress);
+            fileProgress.destinationName = fileProgress.name;
+            fileProgress.method = CopyMethod.STAGED;
+            fileProgress.state = CopyState.DONE;
+        } catch (Exception ex) {
+            log.warn(String.format("Unable to copy '%1$s' from job '%2$s': %3$s", fileProgress.name, source.getId(), ex.getMessage()));
+            log.debug("Exception:", ex);
+            fileProgress.state = CopyState.FAILED;
+            error = ex;
+        } finally {
+            progress.fileFinished(error);
+        }
+    }
+
+    private void streamFile(VEGLJob source, CloudStorageService sourceStorage, VEGLJob destination,
+            FileStagingService fileStagingService, FileProgress fileProgress) throws Exception {
+        InputStream is = sourceStorage.getJobFile(source, fileProgress.name);
+        OutputStream os = null;
+        try {
+            os = fileStagingService.writeFile(destination, fileProgress.name);
+
+            byte[] buf = new byte[1024 * 1024];
+            int read;
+            while ((read = is.read(buf)) >= 0) {
+                os.write(buf, 0, read);
+                fileProgress.bytesCopied.addAndGet(read);
+            }
+        } finally {
+            FileIOUtil.closeQuietly(os);
+            FileIOUtil.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Cloud file names may or may not include the job's base key
+     */
+    private String getSourceKey(VHIRLCloudStorageService storage, VEGLJob source, String name) {
+        String baseKey = source.getStorageBaseKey();
+        if (baseKey != null && name.startsWith(baseKey)) {
+            return name;
+        }
+        return storage.getJobFileKey(source, name);
+    }
+
+    private String getRelativeName(VEGLJob source, String name) {
+        String baseKey = source.getStorageBaseKey();
+        if (baseKey != null && name.startsWith(baseKey + "/")) {
+            return name.substring(baseKey.length() + 1);
+        }
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Removes the pending task of a successful copy or records the failure against it
+     */
+    private void recordFinish(VGLPendingTask task, Exception error) {
+        if (task == null || jobManager == null) {
+            return;
+        }
+
+        try {
+            if (error == null) {
+                jobManager.deletePendingTask(task);
+                return;
+            }
+
+            String message = error.toString();
+            if (message.length() > MAX_ERROR_LENGTH) {
+                message = message.substring(0, MAX_ERROR_LENGTH);
+            }
+            task.setAttempts(task.getAttempts() + 1);
+            task.setLastAttemptDate(new Date());
+            task.setLastError(message);
+            jobManager.savePendingTask(task);
+        } catch (Exception ex) {
+            log.error(String.format("Unable to update the file copy task of job '%1$s'", task.getJobId()), ex);
+        }
+    }
+
+    /**
+     * Fails every copy that was still running when the portal stopped, putting its job into an
+     * error state. Does nothing if there is no job manager.
+     */
+    public void recoverInterruptedCopies() {
+        if (jobManager == null) {
+            return;
+        }
+
+        try {
+            //Copies that were running have no attempts recorded against them
+            List<VGLPendingTask> tasks = jobManager.getPendingTasks(VGLPendingTask.TYPE_FILE_COPY, 1);
+            if (tasks == null || tasks.isEmpty()) {
+                return;
+            }
+
+            log.info(String.format("Failing %1$d job file copies that were interrupted", tasks.size()));
+            for (VGLPendingTask task : tasks) {
+                recordFinish(task, new PortalServiceException(INTERRUPTED_MESSAGE));
+                VEGLJob job = jobManager.getJobById(task.getJobId());
+                if (job != null && !JobBuilderController.STATUS_DELETED.equals(job.getStatus())) {
+                    jobManager.updateJobStatuses(Arrays.asList(job), JobBuilderController.STATUS_ERROR, INTERRUPTED_MESSAGE, null);
+                }
+            }
+        } catch (Exception ex) {
+            log.error("Unable to fail job file copies that were interrupted", ex);
+        }
+    }
+
+    private void purgeFinishedProgress() {
+        long cutoff = System.currentTimeMillis() - progressRetention;
+        Iterator<CopyProgress> it = progressByJob.values().iterator();
+        while (it.hasNext()) {
+            CopyProgress progress = it.next();
+            if (progress.isFinished() && progress.finishDate.getTime() < cutoff) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting copies and waits up to shutdownTimeout for running and queued copies to finish.
+     * Anything still outstanding after that is interrupted.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                log.warn("Job file copies did not finish before shutdown");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The progress of copying a single file
+     */
+    public static class FileProgress {
+        private String name;
+        private long size;
+        private AtomicLong bytesCopied = new AtomicLong();
+        private volatile CopyState state = CopyState.PENDING;
+        private volatile CopyMethod method;
+        private volatile String destinationName;
+
+        public FileProgress(CloudFileInformation file) {
+            this.name = file.getName();
+            this.size = file.getSize();
+        }
+
+        /**
+         * The name of the file
+         * @return
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The size of the file in bytes
+         * @return
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * The number of bytes copied so far
+         * @return
+         */
+        public long getBytesCopied() {
+            return bytesCopied.get();
+        }
+
+        /**
+         * The current state of this file's copy
+         * @return
+         */
+        public CopyState getState() {
+            return state;
+        }
+
+        /**
+         * How this file was copied (or null if it hasn't been copied yet)
+         * @return
+         */
+        public CopyMethod getMethod() {
+            return method;
+        }
+
+        /**
+         * The name of the copy in the destination job's storage area (PROVIDER) or staging area (STAGED).
+         * Null if it hasn't been copied yet
+         * @return
+         */
+        public String getDestinationName() {
+            return destinationName;
+        }
+    }
+
+    /**
+     * The progress of copying every file into a job
+     */
+    public class CopyProgress {
+        private VEGLJob destination;
+        private List<FileProgress> files;
+        private CopyListener listener;
+        private VGLPendingTask task;
+        private AtomicInteger remaining;
+        private volatile Exception error;
+        private volatile Date finishDate;
+
+        public CopyProgress(VEGLJob destination, CloudFileInformation[] files, CopyListener listener) {
+            this(destination, files, listener, null);
+        }
+
+        /**
+         * @param task The pending task recording this copy (can be null)
+         */
+        public CopyProgress(VEGLJob destination, CloudFileInformation[] files, CopyListener listener, VGLPendingTask task) {
+            this.destination = destination;
+            this.listener = listener;
+            this.task = task;
+            List<FileProgress> fileProgress = new ArrayList<FileProgress>(files.length);
+            for (CloudFileInformation file : files) {
+                fileProgress.add(new FileProgress(file));
+            }
+            this.files = Collections.unmodifiableList(fileProgress);
+            this.remaining = new AtomicInteger(files.length);
+            if (files.length == 0) {
+                finish();
+            }
+        }
+
+        private void fileFinished(Exception ex) {
+            if (ex != null && error == null) {
+                error = ex;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        /**
+         * Notifies the listener and then updates the pending task. The copy isn't considered
+         * finished until both are done
+         */
+        private void finish() {
+            Exception listenerError = null;
+            try {
+                if (listener != null && error == null) {
+                    listener.copyComplete(destination, this);
+                } else if (listener != null) {
+                    listener.copyFailed(destination, error);
+                }
+            } catch (Exception ex) {
+                log.error(String.format("Error handling the end of the file copy for job '%1$s'", destination.getId()), ex);
+                listenerError = ex;
+            } finally {
+                //A copy whose files couldn't be recorded against the job is still a failure
+                recordFinish(task, error == null ? listenerError : error);
+                finishDate = new Date();
+            }
+        }
+
+        /**
+         * The progress of each individual file
+         * @return
+         */
+        public List<FileProgress> getFiles() {
+            return files;
+        }
+
+        /**
+         * The state of the entire copy
+         * @return
+         */
+        public CopyState getState() {
+            if (finishDate != null) {
+                return error == null ? CopyState.DONE : CopyState.FAILED;
+            }
+            return CopyState.COPYING;
+        }
+
+        /**
+         * Whether every file has finished (successfully or not)
+         * @return
+         */
+        public boolean isFinished() {
+            return finishDate != null;
+        }
+
+        /**
+         * Whether any file has failed to copy
+         * @return
+         */
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        /**
+         * The first error encountered (or null)
+         * @return
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * The total size (in bytes) of every file
+         * @return
+         */
+        public long getTotalBytes() {
+            long total = 0;
+            for (FileProgress file : files) {
+                total += file.getSize();
+            }
+            return total;
+        }
+
+        /**
+         * The number of bytes copied so far
+         * @return
+         */
+        public long getBytesCopied() {
+            long total = 0;
+            for (FileProgress file : files) {
+                total += file.getBytesCopied();
+            }
+            return total;
+        }
+
+        /**
+         * The number of bytes copied by a method
+         * @param method
+         * @return
+         */
+        public long getBytesCopied(CopyMethod method) {
+            long total = 0;
+            for (FileProgress file : files) {
+                if (file.getMethod() == method) {
+                    total += file.getBytesCopied();
+                }
+            }
+            return total;
+        }
+    }
+}
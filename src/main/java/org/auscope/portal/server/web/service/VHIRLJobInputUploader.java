@@ -0,0 +1,580 @@
+package org.auscope.portal.server.web.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.cloud.CloudStorageService;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLInputFile;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Uploads a job's staged input files to cloud storage in the background.
+ *
+ * When the storage service is a VHIRLCloudStorageService, files are uploaded in parallel
+ * (large files in multiple parts) and any file that already exists in cloud storage with
+ * the same size and MD5 is skipped. This means a failed upload can be resumed by simply
+ * uploading the job again - only the files that didn't make it will be transferred.
+ *
+ * If a job manager is set, transfers are also deduplicated across jobs. Every file of at least
+ * dedupThreshold bytes that gets uploaded is recorded in an index of content hashes. When
+ * another job later uploads an identical file to the same storage service (and the provider
+ * supports copying files), the stored copy is copied by the provider into the job's own storage
+ * area instead of being uploaded and the file is marked DEDUPLICATED. This only avoids the
+ * upload - storage isn't deduplicated. Every job keeps its own copy, so deleting one job's
+ * files never affects another job.
+ *
+ * Other storage services have every file uploaded by a single uploadJobFiles call.
+ *
+ * Progress for each job is available via getProgress until progressRetention
+ * milliseconds after the upload finishes.
+ *
+ * Uploads aren't persisted - jobs left Provisioning by a restart are returned to the saved state
+ * by recoverInterruptedUploads so that they can be resubmitted.
+ */
+public class VHIRLJobInputUploader {
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** The audit trail message recorded against every job whose upload was interrupted by a restart*/
+    public static final String INTERRUPTED_MESSAGE = "Input file upload was interrupted by a portal restart. Please resubmit the job.";
+
+    /**
+     * Notified (on an upload thread) once every file for a job has been uploaded (or skipped) or an upload has failed
+     */
+    public interface UploadListener {
+        /**
+         * Every input file for job is now in cloud storage
+         * @param job
+         */
+        void uploadComplete(VEGLJob job);
+
+        /**
+         * At least one input file for job couldn't be uploaded
+         * @param job
+         * @param ex The first error encountered
+         */
+        void uploadFailed(VEGLJob job, Exception ex);
+    }
+
+    /** The state of a single file or an entire job's upload*/
+    public enum UploadState {
+        PENDING,
+        UPLOADING,
+        SKIPPED,
+        /** Copied in storage from an identical file stored for another job rather than uploaded*/
+        DEDUPLICATED,
+        DONE,
+        FAILED
+    }
+
+    private ExecutorService executor;
+    private long progressRetention = 3600000L;
+    private VEGLJobManager jobManager;
+    private long dedupThreshold = 1024L * 1024L;
+    private Map<Integer, UploadProgress> progressByJob = new ConcurrentHashMap<Integer, UploadProgress>();
+
+    /**
+     * @param workerPoolSize The number of files that can be uploaded at the same time (across all jobs)
+     */
+    public VHIRLJobInputUploader(int workerPoolSize) {
+        this.executor = Executors.newFixedThreadPool(workerPoolSize, new CustomizableThreadFactory("vhirl-input-upload-"));
+    }
+
+    /**
+     * Gets how long (in milliseconds) the progress of a finished upload is kept for
+     * @return
+     */
+    public long getProgressRetention() {
+        return progressRetention;
+    }
+
+    /**
+     * Sets how long (in milliseconds) the progress of a finished upload is kept for
+     * @param progressRetention
+     */
+    public void setProgressRetention(long progressRetention) {
+        this.progressRetention = progressRetention;
+    }
+
+    /**
+     * Gets the job manager used for looking up and recording uploaded files (can be null)
+     * @return
+     */
+    public VEGLJobManager getJobManager() {
+        return jobManager;
+    }
+
+    /**
+     * Sets the job manager used for looking up and recording uploaded files. If null, uploads won't be deduplicated across jobs.
+     * @param jobManager
+     */
+    public void setJobManager(VEGLJobManager jobManager) {
+        this.jobManager = jobManager;
+    }
+
+    /**
+     * Gets the size (in bytes) below which files are always uploaded rather than deduplicated
+     * @return
+     */
+    public long getDedupThreshold() {
+        return dedupThreshold;
+    }
+
+    /**
+     * Sets the size (in bytes) below which files are always uploaded rather than deduplicated
+     * @param dedupThreshold
+     */
+    public void setDedupThreshold(long dedupThreshold) {
+        this.dedupThreshold = dedupThreshold;
+    }
+
+    /**
+     * Gets the progress of the most recent upload for a job
+     * @param jobId
+     * @return The progress or null if there has been no recent upload for jobId
+     */
+    public UploadProgress getProgress(Integer jobId) {
+        return progressByJob.get(jobId);
+    }
+
+    /**
+     * Starts uploading files to job's storage area and returns immediately.
+     *
+     * @param job The job that owns files
+     * @param cloudStorageService Where the files will be uploaded
+     * @param files The local files to upload
+     * @param listener Will be notified when the upload finishes (can be null)
+     * @return The progress of the new upload
+     * @throws PortalServiceException If job already has an upload in progress or the uploader has been shut down
+     */
+    public UploadProgress upload(final VEGLJob job, final CloudStorageService cloudStorageService, final File[] files, UploadListener listener) throws PortalServiceException {
+        purgeFinishedProgress();
+
+        final UploadProgress progress = new UploadProgress(job, files, listener);
+        synchronized (progressByJob) {
+            UploadProgress existing = progressByJob.get(job.getId());
+            if (existing != null && !existing.isFinished()) {
+                throw new PortalServiceException(String.format("The input files for job '%1$s' are already being uploaded", job.getId()),
+                        "Please wait for the current upload to finish.");
+            }
+            progressByJob.put(job.getId(), progress);
+        }
+
+        try {
+            if (cloudStorageService instanceof VHIRLCloudStorageService) {
+                for (final FileProgress fileProgress : progress.files) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            uploadFile(job, (VHIRLCloudStorageService) cloudStorageService, fileProgress, progress);
+                        }
+                    });
+                }
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        uploadAll(job, cloudStorageService, files, progress);
+                    }
+                });
+            }
+        } catch (RejectedExecutionException ex) {
+            progressByJob.remove(job.getId());
+            throw new PortalServiceException("Unable to start uploading input files", ex);
+        }
+
+        return progress;
+    }
+
+    private void uploadFile(VEGLJob job, VHIRLCloudStorageService cloudStorageService, FileProgress fileProgress, UploadProgress progress) {
+        Exception error = null;
+        try {
+            if (progress.isFailed()) {
+                //Another file has already failed, there's no point continuing
+                fileProgress.state = UploadState.FAILED;
+                return;
+            }
+
+            fileProgress.state = UploadState.UPLOADING;
+            String md5 = md5Hex(fileProgress.file);
+            CloudFileMetadata existing = cloudStorageService.getJobFileMetadata(job, fileProgress.getName());
+            if (existing != null && existing.getSize() == fileProgress.getSize() && md5.equalsIgnoreCase(existing.getContentMd5())) {
+                log.debug(String.format("Skipping upload of '%1$s' for job '%2$s' - it already exists", fileProgress.getName(), job.getId()));
+                fileProgress.bytesUploaded.set(fileProgress.getSize());
+                fileProgress.state = UploadState.SKIPPED;
+                return;
+            }
+
+            boolean indexed = jobManager != null && fileProgress.getSize() >= dedupThreshold;
+            VGLInputFile storedCopy = indexed ? findStoredCopy(cloudStorageService, md5, fileProgress.getSize()) : null;
+            boolean otherJobsCopy = storedCopy != null && !storedCopy.getJobId().equals(job.getId());
+            if (otherJobsCopy && cloudStorageService.isProviderCopySupported()) {
+                try {
+                    cloudStorageService.copyJobFile(storedCopy.getCloudKey(), job, fileProgress.getName());
+                    log.debug(String.format("Copied '%1$s' for '%2$s' of job '%3$s'", storedCopy.getCloudKey(), fileProgress.getName(), job.getId()));
+                    indexUploadedFile(job, cloudStorageService, fileProgress, md5);
+                    fileProgress.bytesUploaded.set(fileProgress.getSize());
+                    fileProgress.state = UploadState.DEDUPLICATED;
+                    return;
+                } catch (PortalServiceException ex) {
+                    log.warn(String.format("Unable to copy '%1$s', it will be uploaded again: %2$s", storedCopy.getCloudKey(), ex.getMessage()));
+                }
+            }
+
+            cloudStorageService.uploadJobFile(job, fileProgress.file, md5, fileProgress.bytesUploaded);
+            if (indexed && (storedCopy == null || otherJobsCopy)) {
+                indexUploadedFile(job, cloudStorageService, fileProgress, md5);
+            }
+            fileProgress.state = UploadState.DONE;
+        } catch (Exception ex) {
+            log.warn(String.format("Unable to upload '%1$s' for job '%2$s': %3$s", fileProgress.getName(), job.getId(), ex.getMessage()));
+            log.debug("Exception:", ex);
+            fileProgress.state = UploadState.FAILED;
+            error = ex;
+        } finally {
+            progress.fileFinished(error);
+        }
+    }
+
+    /**
+     * Records job's copy of a file in the index so later jobs can reuse it (even after the job it was copied from is deleted)
+     */
+    private void indexUploadedFile(VEGLJob job, VHIRLCloudStorageService cloudStorageService, FileProgress fileProgress, String md5) {
+        jobManager.saveInputFile(new VGLInputFile(cloudStorageService.getId(), md5, fileProgress.getSize(),
+                cloudStorageService.getJobFileKey(job, fileProgress.getName()), job.getId()));
+    }
+
+    /**
+     * Finds a copy of a file in cloud storage using the index of uploaded files. Index entries whose
+     * stored copy no longer exists (or no longer matches) are removed.
+     * @return The stored copy or null if there isn't one
+     */
+    private VGLInputFile findStoredCopy(VHIRLCloudStorageService cloudStorageService, String md5, long size) throws PortalServiceException {
+        VGLInputFile storedCopy = jobManager.getInputFile(cloudStorageService.getId(), md5, size);
+        if (storedCopy == null) {
+            return null;
+        }
+
+        CloudFileMetadata metadata = cloudStorageService.getFileMetadata(storedCopy.getCloudKey());
+        if (metadata == null || metadata.getSize() != size || !md5.equalsIgnoreCase(metadata.getContentMd5())) {
+            log.debug(String.format("Removing stale index entry %1$s", storedCopy));
+            jobManager.deleteInputFile(storedCopy);
+            return null;
+        }
+
+        return storedCopy;
+    }
+
+    private void uploadAll(VEGLJob job, CloudStorageService cloudStorageService, File[] files, UploadProgress progress) {
+        for (FileProgress fileProgress : progress.files) {
+            fileProgress.state = UploadState.UPLOADING;
+        }
+
+        Exception error = null;
+        try {
+            cloudStorageService.uploadJobFiles(job, files);
+        } catch (Exception ex) {
+            log.warn(String.format("Unable to upload input files for job '%1$s': %2$s", job.getId(), ex.getMessage()));
+            log.debug("Exception:", ex);
+            error = ex;
+        }
+
+        for (FileProgress fileProgress : progress.files) {
+            fileProgress.state = error == null ? UploadState.DONE : UploadState.FAILED;
+            if (error == null) {
+                fileProgress.bytesUploaded.set(fileProgress.getSize());
+            }
+        }
+
+        //Every file finishes at once
+        for (int i = 0; i < progress.files.size(); i++) {
+            progress.fileFinished(error);
+        }
+    }
+
+    private void purgeFinishedProgress() {
+        long cutoff = System.currentTimeMillis() - progressRetention;
+        Iterator<UploadProgress> it = progressByJob.values().iterator();
+        while (it.hasNext()) {
+            UploadProgress progress = it.next();
+            if (progress.isFinished() && progress.finishDate.getTime() < cutoff) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Calculates the hex encoded MD5 of a file's contents
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static String md5Hex(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int read;
+            while ((read = is.read(buf)) >= 0) {
+                digest.update(buf, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns every job that was left Provisioning (ie - its input files were still being uploaded when
+     * the portal stopped) to the saved state so that it can be resubmitted. Does nothing if there is no job manager.
+     */
+    public void recoverInterruptedUploads() {
+        if (jobManager == null) {
+            return;
+        }
+
+        try {
+            List<VEGLJob> jobs = jobManager.getProvisioningJobs();
+            if (jobs != null && !jobs.isEmpty()) {
+                log.info(String.format("Reverting %1$d job(s) whose input file upload was interrupted", jobs.size()));
+                jobManager.updateJobStatuses(jobs, JobBuilderController.STATUS_UNSUBMITTED, INTERRUPTED_MESSAGE, null);
+            }
+        } catch (Exception ex) {
+            log.error("Unable to revert jobs whose input file upload was interrupted", ex);
+        }
+    }
+
+    /**
+     * Stops any uploads that haven't started yet and interrupts any that are running
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The progress of uploading a single file
+     */
+    public static class FileProgress {
+        private File file;
+        private String name;
+        private long size;
+        private AtomicLong bytesUploaded = new AtomicLong();
+        private volatile UploadState state = UploadState.PENDING;
+
+        public FileProgress(File file) {
+            this.file = file;
+            this.name = file.getName();
+            this.size = file.length();
+        }
+
+        /**
+         * The name of the file
+         * @return
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The size of the file in bytes
+         * @return
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * The number of bytes uploaded so far
+         * @return
+         */
+        public long getBytesUploaded() {
+            return bytesUploaded.get();
+        }
+
+        /**
+         * The current state of this file's upload
+         * @return
+         */
+        public UploadState getState() {
+            return state;
+        }
+    }
+
+    /**
+     * The progress of uploading every input file for a job
+     */
+    public class UploadProgress {
+        private VEGLJob job;
+        private List<FileProgress> files;
+        private UploadListener listener;
+        private AtomicInteger remaining;
+        private volatile Exception error;
+        private volatile Date finishDate;
+
+        public UploadProgress(VEGLJob job, File[] files, UploadListener listener) {
+            this.job = job;
+            this.listener = listener;
+            List<FileProgress> fileProgress = new ArrayList<FileProgress>(files.length);
+            for (File file : files) {
+                fileProgress.add(new FileProgress(file));
+            }
+            this.files = Collections.unmodifiableList(fileProgress);
+            this.remaining = new AtomicInteger(files.length);
+            if (files.length == 0) {
+                finish();
+            }
+        }
+
+        private void fileFinished(Exception ex) {
+            if (ex != null && error == null) {
+                error = ex;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        /**
+         * Notifies the listener. The upload isn't considered finished until the listener returns
+         */
+        private void finish() {
+            try {
+                if (listener != null && error == null) {
+                    listener.uploadComplete(job);
+                } else if (listener != null) {
+                    listener.uploadFailed(job, error);
+                }
+            } catch (Exception ex) {
+                log.error(String.format("Error handling the end of the input upload for job '%1$s'", job.getId()), ex);
+            } finally {
+                finishDate = new Date();
+            }
+        }
+
+        /**
+         * The progress of each individual file
+         * @return
+         */
+        public List<FileProgress> getFiles() {
+            return files;
+        }
+
+        /**
+         * The state of the entire upload
+         * @return
+         */
+        public UploadState getState() {
+            if (finishDate != null) {
+                return error == null ? UploadState.DONE : UploadState.FAILED;
+            }
+            return UploadState.UPLOADING;
+        }
+
+        /**
+         * Whether every file has finished (successfully or not)
+         * @return
+         */
+        public boolean isFinished() {
+            return finishDate != null;
+        }
+
+        /**
+         * Whether any file has failed to upload
+         * @return
+         */
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        /**
+         * The first error encountered (or null)
+         * @return
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * The total size (in bytes) of every file
+         * @return
+         */
+        public long getTotalBytes() {
+            long total = 0;
+            for (FileProgress file : files) {
+                total += file.getSize();
+            }
+            return total;
+        }
+
+        /**
+         * The number of bytes uploaded (or skipped) so far
+         * @return
+         */
+        public long getBytesUploaded() {
+            long total = 0;
+            for (FileProgress file : files) {
+                total += file.getBytesUploaded();
+            }
+            return total;
+        }
+
+        /**
+         * The files that weren't uploaded because an identical file stored for another job was copied (in storage) instead
+         * @return
+         */
+        public List<FileProgress> getDeduplicatedFiles() {
+            List<FileProgress> deduplicated = new ArrayList<FileProgress>();
+            for (FileProgress file : files) {
+                if (file.getState() == UploadState.DEDUPLICATED) {
+                    deduplicated.add(file);
+                }
+            }
+            return deduplicated;
+        }
+
+        /**
+         * The number of bytes that didn't need to be uploaded because of deduplication. These bytes are
+         * still stored (as the job's own copy)
+         * @return
+         */
+        public long getBytesDeduplicated() {
+            long total = 0;
+            for (FileProgress file : getDeduplicatedFiles()) {
+                total += file.getSize();
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLJobAuditLogDao;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+
+/**
+ * Summarises how long jobs take to move between statuses (eg queue wait, provisioning latency and
+ * run duration) by streaming the job audit logs of a time range through QuantileSketch instances.
+ *
+ * For every status edge the latency is the time from the job entering the first status to it
+ * entering the second. Latencies are reported over all jobs, per provider (compute service) and
+ * per solution. A job's first transition in the range only marks when it entered its status, so
+ * stays that started before the range aren't counted.
+ */
+public class VHIRLJobLifecycleAnalytics {
+    public static final String GROUP_BY_ALL = "all";
+    public static final String GROUP_BY_PROVIDER = "provider";
+    public static final String GROUP_BY_SOLUTION = "solution";
+
+    /** Used in place of a missing provider or solution*/
+    public static final String UNKNOWN_GROUP = "unknown";
+
+    /** The (from, to) status edges that are measured*/
+    public static final String[][] EDGES = new String[][] {
+        {JobBuilderController.STATUS_INQUEUE, JobBuilderController.STATUS_PENDING},
+        {JobBuilderController.STATUS_PROVISION, JobBuilderController.STATUS_PENDING},
+        {JobBuilderController.STATUS_PENDING, JobBuilderController.STATUS_ACTIVE},
+        {JobBuilderController.STATUS_ACTIVE, JobBuilderController.STATUS_DONE},
+    };
+
+    private VEGLJobManager jobManager;
+    private double relativeAccuracy = 0.01;
+
+    /**
+     * @param jobManager Used for reading the job audit logs
+     */
+    public VHIRLJobLifecycleAnalytics(VEGLJobManager jobManager) {
+        this.jobManager = jobManager;
+    }
+
+    /**
+     * Gets the relative accuracy of the estimated percentiles
+     * @return
+     */
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    /**
+     * Sets the relative accuracy of the estimated percentiles (eg 0.01 for 1%)
+     * @param relativeAccuracy
+     */
+    public void setRelativeAccuracy(double relativeAccuracy) {
+        this.relativeAccuracy = relativeAccuracy;
+    }
+
+    /**
+     * Computes the latency of every status edge for the transitions in the range [from, to). The result
+     * is ordered by edge, then GROUP_BY_ALL, GROUP_BY_PROVIDER and GROUP_BY_SOLUTION, then group name.
+     * Edges/groups without any latencies are omitted.
+     *
+     * @param from inclusive
+     * @param to exclusive
+     * @return
+     */
+    public List<EdgeStatistics> getEdgeStatistics(Date from, Date to) {
+        final EdgeAccumulator accumulator = new EdgeAccumulator();
+        jobManager.processTransitionsBetween(from, to, accumulator);
+
+        List<EdgeStatistics> result = new ArrayList<EdgeStatistics>();
+        for (int i = 0; i < EDGES.length; i++) {
+            if (accumulator.all[i].getCount() == 0) {
+                continue;
+            }
+
+            result.add(new EdgeStatistics(EDGES[i][0], EDGES[i][1], GROUP_BY_ALL, GROUP_BY_ALL, accumulator.all[i]));
+            for (Map.Entry<String, QuantileSketch> entry : accumulator.byProvider.get(i).entrySet()) {
+                result.add(new EdgeStatistics(EDGES[i][0], EDGES[i][1], GROUP_BY_PROVIDER, entry.getKey(), entry.getValue()));
+            }
+            for (Map.Entry<String, QuantileSketch> entry : accumulator.bySolution.get(i).entrySet()) {
+                result.add(new EdgeStatistics(EDGES[i][0], EDGES[i][1], GROUP_BY_SOLUTION, entry.getKey(), entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tracks the current status of the job being streamed and adds a latency whenever it crosses an edge
+     */
+    private class EdgeAccumulator implements VGLJobAuditLogDao.TransitionHandler {
+        private QuantileSketch[] all = new QuantileSketch[EDGES.length];
+        private List<Map<String, QuantileSketch>> byProvider = new ArrayList<Map<String, QuantileSketch>>();
+        private List<Map<String, QuantileSketch>> bySolution = new ArrayList<Map<String, QuantileSketch>>();
+
+        private Integer currentJobId;
+        private String currentStatus;
+        private Date enteredDate;
+
+        public EdgeAccumulator() {
+            for (int i = 0; i < EDGES.length; i++) {
+                all[i] = new QuantileSketch(relativeAccuracy);
+                byProvider.add(new TreeMap<String, QuantileSketch>());
+                bySolution.add(new TreeMap<String, QuantileSketch>());
+            }
+        }
+
+        @Override
+        public void handle(Integer jobId, String computeServiceId, String solutionId, String toStatus, Date transitionDate) {
+            if (!jobId.equals(currentJobId)) {
+                currentJobId = jobId;
+                currentStatus = toStatus;
+                enteredDate = transitionDate;
+                return;
+            }
+
+            //Repeated transitions into the same status (eg a requeue) don't restart the stay
+            if (toStatus == null || toStatus.equals(currentStatus)) {
+                return;
+            }
+
+            int edge = indexOfEdge(currentStatus, toStatus);
+            if (edge >= 0) {
+                double latency = Math.max(0, transitionDate.getTime() - enteredDate.getTime());
+                all[edge].add(latency);
+                getSketch(byProvider.get(edge), computeServiceId).add(latency);
+                getSketch(bySolution.get(edge), solutionId).add(latency);
+            }
+
+            currentStatus = toStatus;
+            enteredDate = transitionDate;
+        }
+
+        private int indexOfEdge(String fromStatus, String toStatus) {
+            for (int i = 0; i < EDGES.length; i++) {
+                if (EDGES[i][0].equals(fromStatus) && EDGES[i][1].equals(toStatus)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private QuantileSketch getSketch(Map<String, QuantileSketch> sketches, String group) {
+            String key = group == null || group.isEmpty() ? UNKNOWN_GROUP : group;
+            QuantileSketch sketch = sketches.get(key);
+            if (sketch == null) {
+                sketch = new QuantileSketch(relativeAccuracy);
+                sketches.put(key, sketch);
+            }
+            return sketch;
+        }
+    }
+
+    /**
+     * The latencies (in milliseconds) of a single status edge for a group of jobs
+     */
+    public static class EdgeStatistics {
+        private String fromStatus;
+        private String toStatus;
+        private String groupBy;
+        private String group;
+        private QuantileSketch latencies;
+
+        public EdgeStatistics(String fromStatus, String toStatus, String groupBy, String group, QuantileSketch latencies) {
+            this.fromStatus = fromStatus;
+            this.toStatus = toStatus;
+            this.groupBy = groupBy;
+            this.group = group;
+            this.latencies = latencies;
+        }
+
+        /**
+         * The status the jobs moved from
+         * @return
+         */
+        public String getFromStatus() {
+            return fromStatus;
+        }
+
+        /**
+         * The status the jobs moved to
+         * @return
+         */
+        public String getToStatus() {
+            return toStatus;
+        }
+
+        /**
+         * One of GROUP_BY_ALL, GROUP_BY_PROVIDER or GROUP_BY_SOLUTION
+         * @return
+         */
+        public String getGroupBy() {
+            return groupBy;
+        }
+
+        /**
+         * The provider or solution ID (or GROUP_BY_ALL)
+         * @return
+         */
+        public String getGroup() {
+            return group;
+        }
+
+        /**
+         * The latencies (in milliseconds) of the jobs in this group
+         * @return
+         */
+        public QuantileSketch getLatencies() {
+            return latencies;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.cloud.CloudComputeService;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A shared, bounded pool for launching compute instances.
+ *
+ * Every instance launch (whether from a fresh submission or from the job queue)
+ * runs on this pool so that a burst of submissions can't create an unbounded
+ * number of threads or flood the compute providers with launch requests. If
+ * the pool's queue is full, submissions are rejected with a PortalServiceException
+ * whose error correction is ERROR_CORRECTION_BUSY.
+ */
+public class VHIRLJobSubmissionExecutor {
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** The error correction of exceptions thrown when a launch is rejected because the pool is saturated*/
+    public static final String ERROR_CORRECTION_BUSY = "The job submission queue is full. Please try again in a few minutes.";
+
+    private ThreadPoolExecutor executor;
+    private long shutdownTimeout = 30000L;
+
+    private AtomicInteger inFlight = new AtomicInteger();
+    private AtomicLong completed = new AtomicLong();
+    private AtomicLong failed = new AtomicLong();
+    private AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param workerPoolSize The number of launches that can run at the same time
+     * @param queueCapacity The number of launches that can be waiting for a worker
+     */
+    public VHIRLJobSubmissionExecutor(int workerPoolSize, int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(workerPoolSize, workerPoolSize, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity), new CustomizableThreadFactory("vhirl-job-submit-"));
+    }
+
+    /**
+     * Gets the time (in milliseconds) that shutdown will wait for running and queued launches to finish
+     * @return
+     */
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    /**
+     * Sets the time (in milliseconds) that shutdown will wait for running and queued launches to finish
+     * @param shutdownTimeout
+     */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * The number of launches that are currently running
+     * @return
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * The number of launches that are waiting for a worker
+     * @return
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * The number of launches that have finished without throwing
+     * @return
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * The number of launches that have finished by throwing an exception
+     * @return
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * The number of launches that were rejected because the pool was saturated (or shut down)
+     * @return
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Queues launch to be run on the pool and returns immediately.
+     *
+     * @param launch The work that launches (and records) an instance
+     * @throws PortalServiceException If the pool is saturated or shut down
+     */
+    public void submit(Runnable launch) throws PortalServiceException {
+        submitInternal(new MonitoredTask<Object>(Executors.callable(launch), true));
+    }
+
+    /**
+     * Launches curJob on cloudComputeService using the pool and waits for the launch to finish.
+     *
+     * @param cloudComputeService The service that will run curJob
+     * @param curJob The job to launch
+     * @param userDataString The bootstrap for curJob's instance
+     * @return The ID of the launched instance
+     * @throws PortalServiceException If the launch fails or the pool is saturated or shut down
+     */
+    public String launch(final CloudComputeService cloudComputeService, final VEGLJob curJob, final String userDataString) throws PortalServiceException {
+        MonitoredTask<String> task = new MonitoredTask<String>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return cloudComputeService.executeJob(curJob, userDataString);
+            }
+        }, false);
+
+        Future<String> result = submitInternal(task);
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PortalServiceException("Interrupted while launching job", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof PortalServiceException) {
+                throw (PortalServiceException) ex.getCause();
+            }
+            throw new PortalServiceException("Unable to launch job", ex.getCause());
+        }
+    }
+
+    private <T> Future<T> submitInternal(MonitoredTask<T> task) throws PortalServiceException {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException ex) {
+            rejected.incrementAndGet();
+            log.warn(String.format("Job submission rejected. %1$d launches in flight, %2$d queued", getInFlightCount(), getQueuedCount()));
+            throw new PortalServiceException("Unable to submit job for launching", ERROR_CORRECTION_BUSY);
+        }
+    }
+
+    /**
+     * Stops accepting launches and waits up to shutdownTimeout for running and queued launches to finish.
+     * Anything still outstanding after that is interrupted.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                log.warn(String.format("%1$d job launches did not finish before shutdown", getInFlightCount() + getQueuedCount()));
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Tracks the metrics for a single unit of work
+     */
+    private class MonitoredTask<T> implements Callable<T> {
+        private Callable<T> callable;
+        private boolean logFailures;
+
+        /**
+         * @param callable The work to run
+         * @param logFailures Whether exceptions should be logged (ie - nobody is waiting on the result)
+         */
+        public MonitoredTask(Callable<T> callable, boolean logFailures) {
+            this.callable = callable;
+            this.logFailures = logFailures;
+        }
+
+        @Override
+        public T call() throws Exception {
+            inFlight.incrementAndGet();
+            try {
+                T result = callable.call();
+                completed.incrementAndGet();
+                return result;
+            } catch (Exception ex) {
+                failed.incrementAndGet();
+                if (logFailures) {
+                    log.error("Job launch failed", ex);
+                }
+                throw ex;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.cloud.CloudComputeService;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLJobQueueScheduler;
+import org.auscope.portal.server.vegl.VGLQueueJob;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Cancels jobs - this is the only place a job is cancelled, whether it's a single job or every job of a series.
+ *
+ * Only jobs that are In Queue, Provisioning, Pending or Active are cancelled, every other job is skipped.
+ * Queued jobs are removed from the job queue and jobs that haven't been given an instance yet (eg - still
+ * Provisioning) are marked as unsubmitted (with their audit trail entries) in a single transaction. Their
+ * launches reload the job immediately before and after launching an instance and terminate any instance
+ * launched for a job that was cancelled in the meantime.
+ *
+ * Pending and Active jobs have their instances terminated on a fixed size pool so that one slow or failing
+ * compute service doesn't hold up the rest. Each job is only marked as unsubmitted once its instance has been
+ * terminated - if that fails the job is put into an error state instead. Callers wait up to terminationTimeout
+ * for the outcome of every job, terminations still running after that finish (and update their job) in
+ * the background.
+ */
+public class VHIRLJobTerminator {
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** The audit trail message recorded against every cancelled job*/
+    public static final String CANCELLED_MESSAGE = "Job cancelled by user.";
+    /** The start of the audit trail message recorded against every job whose instance couldn't be terminated*/
+    public static final String TERMINATE_FAILED_MESSAGE = "Unable to terminate instance: ";
+
+    /**
+     * The outcome of cancelling a single job
+     */
+    public enum TerminationState {
+        /** The job was already finished or unsubmitted and was left alone*/
+        SKIPPED,
+        /** The job was removed from the job queue before it was launched*/
+        DEQUEUED,
+        /** The job was cancelled before an instance was launched for it*/
+        CANCELLED,
+        /** The job's instance is still being terminated in the background, the job will be updated once that finishes*/
+        TERMINATING,
+        /** The job's instance was terminated and the job was cancelled*/
+        TERMINATED,
+        /** The job couldn't be cancelled (or its instance couldn't be terminated)*/
+        FAILED
+    }
+
+    private VEGLJobManager jobManager;
+    private CloudComputeService[] cloudComputeServices;
+    private VGLJobQueueScheduler jobQueueScheduler;
+    private ExecutorService executor;
+    private long terminationTimeout = 20000L;
+
+    /**
+     * @param jobManager Used for saving the status of cancelled jobs
+     * @param cloudComputeServices Used for terminating instances
+     * @param workerPoolSize The number of instances that can be terminated at the same time
+     */
+    public VHIRLJobTerminator(VEGLJobManager jobManager, CloudComputeService[] cloudComputeServices, int workerPoolSize) {
+        this(jobManager, cloudComputeServices, Executors.newFixedThreadPool(workerPoolSize, new CustomizableThreadFactory("vhirl-job-terminator-")));
+    }
+
+    /**
+     * @param jobManager Used for saving the status of cancelled jobs
+     * @param cloudComputeServices Used for terminating instances
+     * @param executor Used for terminating instances
+     */
+    public VHIRLJobTerminator(VEGLJobManager jobManager, CloudComputeService[] cloudComputeServices, ExecutorService executor) {
+        this.jobManager = jobManager;
+        this.cloudComputeServices = cloudComputeServices;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the queue that queued jobs will be removed from (and notified of freed capacity)
+     * @return
+     */
+    public VGLJobQueueScheduler getJobQueueScheduler() {
+        return jobQueueScheduler;
+    }
+
+    /**
+     * Sets the queue that queued jobs will be removed from (and notified of freed capacity)
+     * @param jobQueueScheduler
+     */
+    public void setJobQueueScheduler(VGLJobQueueScheduler jobQueueScheduler) {
+        this.jobQueueScheduler = jobQueueScheduler;
+    }
+
+    /**
+     * Gets how long (in milliseconds) terminate waits for instances to be terminated before returning
+     * @return
+     */
+    public long getTerminationTimeout() {
+        return terminationTimeout;
+    }
+
+    /**
+     * Sets how long (in milliseconds) terminate waits for instances to be terminated before returning
+     * @param terminationTimeout
+     */
+    public void setTerminationTimeout(long terminationTimeout) {
+        this.terminationTimeout = terminationTimeout;
+    }
+
+    /**
+     * Stops all workers. Any instances still being terminated will be interrupted.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private CloudComputeService getComputeService(VEGLJob job) {
+        for (CloudComputeService cloudComputeService : cloudComputeServices) {
+            if (cloudComputeService.getId().equals(job.getComputeServiceId())) {
+                return cloudComputeService;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cancels every job in jobs. Returns once every job has been cancelled or terminationTimeout has
+     * elapsed - any instances that are still being terminated are reported as TERMINATING. A failure to
+     * terminate one instance doesn't affect any other job.
+     *
+     * @param jobs The jobs to cancel
+     * @return The outcome of each job, in the same order as jobs
+     */
+    public List<TerminationResult> terminate(List<VEGLJob> jobs) {
+        List<TerminationResult> results = new ArrayList<TerminationResult>(jobs.size());
+        List<VEGLJob> cancelledJobs = new ArrayList<VEGLJob>();
+        List<TerminateTask> terminateTasks = new ArrayList<TerminateTask>();
+
+        for (VEGLJob job : jobs) {
+            TerminationResult result = new TerminationResult(job.getId());
+            results.add(result);
+
+            String status = job.getStatus();
+            if (JobBuilderController.STATUS_INQUEUE.equals(status)) {
+                if (jobQueueScheduler != null) {
+                    jobQueueScheduler.remove(new VGLQueueJob(null, null, job, "", null));
+                }
+                result.state = TerminationState.DEQUEUED;
+                cancelledJobs.add(job);
+            } else if (JobBuilderController.STATUS_PROVISION.equals(status) ||
+                    (isRunning(status) && StringUtils.isEmpty(job.getComputeInstanceId()))) {
+                //Nothing has been launched yet - the launch terminates any instance launched for a cancelled job
+                log.debug("Cancelling job without an instance " + job.getId());
+                result.state = TerminationState.CANCELLED;
+                cancelledJobs.add(job);
+            } else if (isRunning(status)) {
+                result.state = TerminationState.TERMINATING;
+                terminateTasks.add(new TerminateTask(job, result));
+            } else {
+                log.debug(String.format("Skipping job %1$s with status '%2$s'", job.getId(), status));
+                result.state = TerminationState.SKIPPED;
+            }
+        }
+
+        //Cancel everything without an instance in one transaction - if that fails none of them have changed
+        if (!cancelledJobs.isEmpty()) {
+            try {
+                jobManager.updateJobStatuses(cancelledJobs, JobBuilderController.STATUS_UNSUBMITTED, CANCELLED_MESSAGE, null);
+            } catch (Exception ex) {
+                log.error("Unable to save the status of cancelled jobs: " + ex.getMessage());
+                log.debug("Exception:", ex);
+                for (TerminationResult result : results) {
+                    if (result.state == TerminationState.DEQUEUED || result.state == TerminationState.CANCELLED) {
+                        result.state = TerminationState.FAILED;
+                        result.error = "Unable to save job status.";
+                    }
+                }
+            }
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(terminateTasks.size());
+        for (TerminateTask task : terminateTasks) {
+            try {
+                futures.add(executor.submit(task));
+            } catch (Exception ex) {
+                log.error(String.format("Unable to start terminating the instance of job %1$s: %2$s", task.job.getId(), ex.getMessage()));
+                task.result.state = TerminationState.FAILED;
+                task.result.error = "Unable to start terminating the job's instance.";
+            }
+        }
+
+        awaitTerminations(futures);
+        return results;
+    }
+
+    private boolean isRunning(String status) {
+        return JobBuilderController.STATUS_PENDING.equals(status) || JobBuilderController.STATUS_ACTIVE.equals(status);
+    }
+
+    /**
+     * Waits (up to terminationTimeout in total) for every future to complete
+     */
+    private void awaitTerminations(List<Future<?>> futures) {
+        long deadline = System.currentTimeMillis() + terminationTimeout;
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                log.info("Instances are still being terminated, they will finish in the background");
+                return;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                //TerminateTask records its own failures
+                log.debug("Exception:", ex);
+            }
+        }
+    }
+
+    /**
+     * Terminates the instance of a single job then marks the job as unsubmitted (or as an error if the
+     * instance couldn't be terminated)
+     */
+    private class TerminateTask implements Runnable {
+        private VEGLJob job;
+        private TerminationResult result;
+
+        public TerminateTask(VEGLJob job, TerminationResult result) {
+            this.job = job;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            try {
+                CloudComputeService cloudComputeService = getComputeService(job);
+                if (cloudComputeService == null) {
+                    throw new IllegalStateException(String.format("No cloud compute service with id '%1$s'", job.getComputeServiceId()));
+                }
+
+                cloudComputeService.terminateJob(job);
+            } catch (Exception ex) {
+                log.warn("Failed to terminate instance with id: " + job.getComputeInstanceId(), ex);
+                result.error = TERMINATE_FAILED_MESSAGE + ex.getMessage();
+                try {
+                    jobManager.updateJobStatuses(Arrays.asList(job), JobBuilderController.STATUS_ERROR, result.error, null);
+                } catch (Exception saveEx) {
+                    log.error(String.format("Unable to save the status of job %1$s: %2$s", job.getId(), saveEx.getMessage()));
+                    log.debug("Exception:", saveEx);
+                }
+                result.state = TerminationState.FAILED;
+                return;
+            }
+
+            try {
+                jobManager.updateJobStatuses(Arrays.asList(job), JobBuilderController.STATUS_UNSUBMITTED, CANCELLED_MESSAGE, null);
+                result.state = TerminationState.TERMINATED;
+            } catch (Exception ex) {
+                log.error(String.format("Terminated the instance of job %1$s but couldn't save its status: %2$s", job.getId(), ex.getMessage()));
+                log.debug("Exception:", ex);
+                result.error = "Unable to save job status.";
+                result.state = TerminationState.FAILED;
+            }
+
+            //Let any jobs waiting on this compute service make use of the freed capacity
+            if (jobQueueScheduler != null) {
+                jobQueueScheduler.capacityFreed(job.getComputeServiceId());
+            }
+        }
+    }
+
+    /**
+     * The outcome of cancelling a single job
+     */
+    public static class TerminationResult {
+        private Integer jobId;
+        private volatile TerminationState state;
+        private volatile String error;
+
+        public TerminationResult(Integer jobId) {
+            this.jobId = jobId;
+        }
+
+        /**
+         * The ID of the job that was cancelled
+         * @return
+         */
+        public Integer getJobId() {
+            return jobId;
+        }
+
+        /**
+         * The outcome of cancelling the job. A TERMINATING job's final outcome is only reflected in its status
+         * @return
+         */
+        public TerminationState getState() {
+            return state;
+        }
+
+        /**
+         * Why the job couldn't be cancelled (or null if it was)
+         * @return
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Returns true if the job was cancelled (or didn't need to be)
+         * @return
+         */
+        public boolean isSuccess() {
+            return state != TerminationState.FAILED;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLPendingTask;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Runs a unit of background work for jobs, where the work for each job is recorded as a
+ * VGLPendingTask of a single type so that it isn't lost if the portal restarts (see
+ * recoverPendingTasks).
+ *
+ * Work is run on a fixed size pool with a bounded queue - if the queue is full the job is
+ * retried later rather than blocking the caller. Failed attempts are recorded against the
+ * task and retried with an exponentially increasing delay up to maxAttempts times. Attempts
+ * are also counted in memory so that a job whose task couldn't be loaded or saved still
+ * gives up after maxAttempts.
+ */
+public abstract class VHIRLPendingTaskQueue {
+    protected final Log log = LogFactory.getLog(getClass());
+
+    /** Longest message that will be recorded against a failed task*/
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    protected VEGLJobManager jobManager;
+    private String taskType;
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService retryScheduler;
+    /** IDs of jobs that are currently queued, running or waiting for a retry*/
+    private Set<Integer> inFlightJobIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    /** Failed attempts of each in flight job*/
+    private Map<Integer, Integer> failedAttempts = new ConcurrentHashMap<Integer, Integer>();
+
+    private int maxAttempts = 5;
+    private long retryDelay = 60000L;
+
+    /**
+     * @param jobManager Used for loading jobs and their pending tasks
+     * @param taskType The type of VGLPendingTask processed by this queue
+     * @param threadNamePrefix The prefix of the names of the worker threads
+     * @param workerPoolSize The number of jobs that can be processed at the same time
+     * @param queueCapacity The number of jobs that can be waiting for a worker
+     */
+    protected VHIRLPendingTaskQueue(VEGLJobManager jobManager, String taskType, String threadNamePrefix, int workerPoolSize, int queueCapacity) {
+        this.jobManager = jobManager;
+        this.taskType = taskType;
+        this.executor = new ThreadPoolExecutor(workerPoolSize, workerPoolSize, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity), new CustomizableThreadFactory(threadNamePrefix));
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory(threadNamePrefix + "retry-"));
+    }
+
+    /**
+     * Gets the number of times a job will be attempted before it is abandoned
+     * @return
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets the number of times a job will be attempted before it is abandoned
+     * @param maxAttempts
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Gets the delay (in milliseconds) before the first retry. Each subsequent retry doubles this delay.
+     * @return
+     */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * Sets the delay (in milliseconds) before the first retry. Each subsequent retry doubles this delay.
+     * @param retryDelay
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Gets the number of jobs currently queued, running or waiting for a retry
+     * @return
+     */
+    public int getInFlightCount() {
+        return inFlightJobIds.size();
+    }
+
+    /**
+     * Gets the delay (in milliseconds) before a newly enqueued (or recovered) job is first attempted
+     * @return
+     */
+    protected long getStartDelay() {
+        return 0L;
+    }
+
+    /**
+     * Does the work for job. Any exception is recorded against task and the job is retried.
+     * @param job The job to process
+     * @param task The pending task of job (can be null if it couldn't be loaded)
+     * @throws Exception
+     */
+    protected abstract void process(VEGLJob job, VGLPendingTask task) throws Exception;
+
+    /**
+     * Marks jobId as in flight.
+     * @param jobId
+     * @return false if jobId is already in flight
+     */
+    protected boolean track(Integer jobId) {
+        return inFlightJobIds.add(jobId);
+    }
+
+    /**
+     * Marks jobId as no longer in flight
+     * @param jobId
+     */
+    protected void untrack(Integer jobId) {
+        failedAttempts.remove(jobId);
+        inFlightJobIds.remove(jobId);
+    }
+
+    /**
+     * Re-enqueues every persisted task that hasn't exhausted its attempts. Intended
+     * to be called once on startup.
+     */
+    public void recoverPendingTasks() {
+        List<VGLPendingTask> tasks;
+        try {
+            tasks = jobManager.getPendingTasks(taskType, maxAttempts);
+        } catch (Exception ex) {
+            log.error(String.format("Unable to load pending %1$s tasks: %2$s", taskType, ex.getMessage()));
+            log.debug("Exception:", ex);
+            return;
+        }
+
+        for (VGLPendingTask task : tasks) {
+            if (track(task.getJobId())) {
+                schedule(task.getJobId(), getStartDelay());
+            }
+        }
+
+        if (!tasks.isEmpty()) {
+            log.info(String.format("Recovered %1$d pending %2$s task(s)", tasks.size(), taskType));
+        }
+    }
+
+    /**
+     * Stops all workers. Any unfinished tasks will remain persisted for recoverPendingTasks.
+     */
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Submits jobId (which must be in flight) to the worker pool after delay milliseconds
+     * @param jobId
+     * @param delay
+     */
+    protected void schedule(final Integer jobId, long delay) {
+        try {
+            retryScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    submit(jobId);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            //We are shutting down - the persisted task will be recovered on startup
+            untrack(jobId);
+        }
+    }
+
+    private void submit(Integer jobId) {
+        try {
+            executor.execute(new PendingTaskRunner(jobId));
+        } catch (RejectedExecutionException ex) {
+            if (executor.isShutdown()) {
+                untrack(jobId);
+                return;
+            }
+            log.debug(String.format("The %1$s queue is full, job '%2$s' will be retried later", taskType, jobId));
+            schedule(jobId, retryDelay);
+        }
+    }
+
+    /**
+     * Processes a single job and updates its pending task accordingly
+     */
+    private class PendingTaskRunner implements Runnable {
+        private Integer jobId;
+
+        public PendingTaskRunner(Integer jobId) {
+            this.jobId = jobId;
+        }
+
+        @Override
+        public void run() {
+            VGLPendingTask task = null;
+            try {
+                task = jobManager.getPendingTask(jobId, taskType);
+            } catch (Exception ex) {
+                log.warn(String.format("Unable to load pending %1$s task for job '%2$s': %3$s", taskType, jobId, ex.getMessage()));
+            }
+            //Without a (saved) task the attempts would never increase and the job would be retried forever
+            Integer failed = failedAttempts.get(jobId);
+            int attempts = Math.max(task == null ? 0 : task.getAttempts(), failed == null ? 0 : failed) + 1;
+
+            try {
+                VEGLJob job = jobManager.getJobById(jobId);
+                if (job != null) {
+                    process(job, task);
+                } else {
+                    log.warn(String.format("Job '%1$s' no longer exists. Its %2$s task will be removed.", jobId, taskType));
+                }
+
+                if (task != null) {
+                    jobManager.deletePendingTask(task);
+                }
+                untrack(jobId);
+            } catch (Exception ex) {
+                log.warn(String.format("Attempt %1$d of %2$d of the %3$s task for job '%4$s' failed: %5$s", attempts, maxAttempts, taskType, jobId, ex.getMessage()));
+                log.debug("Exception:", ex);
+                recordFailure(task, attempts, ex);
+
+                if (attempts < maxAttempts) {
+                    failedAttempts.put(jobId, attempts);
+                    schedule(jobId, retryDelay << Math.min(attempts - 1, 16));
+                } else {
+                    log.error(String.format("Giving up on the %1$s task for job '%2$s'", taskType, jobId));
+                    untrack(jobId);
+                }
+            }
+        }
+
+        private void recordFailure(VGLPendingTask task, int attempts, Exception ex) {
+            if (task == null) {
+                return;
+            }
+
+            String message = ex.toString();
+            if (message.length() > MAX_ERROR_LENGTH) {
+                message = message.substring(0, MAX_ERROR_LENGTH);
+            }
+
+            try {
+                task.setAttempts(attempts);
+                task.setLastAttemptDate(new Date());
+                task.setLastError(message);
+                jobManager.savePendingTask(task);
+            } catch (Exception saveEx) {
+                log.warn(String.format("Unable to update pending %1$s task for job '%2$s': %3$s", taskType, jobId, saveEx.getMessage()));
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.auscope.portal.server.web.service;
+
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLPendingTask;
+
+/**
+ * Generates output provenance for completed jobs in the background.
+ *
+ * Every enqueued job is recorded as a VGLPendingTask of type TYPE_PROVENANCE (see
+ * VHIRLPendingTaskQueue for how the work is run and retried).
+ *
+ * The URL of the portal is recorded with each task as provenance is reported
+ * against it and it isn't known until the portal has served a request.
+ */
+public class VHIRLProvenanceQueue extends VHIRLPendingTaskQueue {
+    private VHIRLProvenanceService provenanceService;
+
+    private long initialDelay = 30000L;
+
+    /**
+     * @param provenanceService Used for generating the provenance
+     * @param jobManager Used for loading jobs and recording pending tasks
+     * @param workerPoolSize The number of jobs that can have provenance generated at the same time
+     * @param queueCapacity The number of jobs that can be waiting for a worker
+     */
+    public VHIRLProvenanceQueue(VHIRLProvenanceService provenanceService, VEGLJobManager jobManager, int workerPoolSize, int queueCapacity) {
+        super(jobManager, VGLPendingTask.TYPE_PROVENANCE, "vhirl-provenance-", workerPoolSize, queueCapacity);
+        this.provenanceService = provenanceService;
+    }
+
+    /**
+     * Gets the delay (in milliseconds) before a newly enqueued job is first attempted
+     * @return
+     */
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * Sets the delay (in milliseconds) before a newly enqueued job is first attempted. This gives
+     * the status change handlers a chance to record the job's completion details first.
+     * @param initialDelay
+     */
+    public void setInitialDelay(long initialDelay) {
+        this.initialDelay = initialDelay;
+    }
+
+    @Override
+    protected long getStartDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * Records that job requires output provenance and schedules it for generation. Returns
+     * immediately. Does nothing if job is already in flight.
+     * @param job
+     */
+    public void enqueue(VEGLJob job) {
+        if (!track(job.getId())) {
+            return;
+        }
+
+        try {
+            VGLPendingTask task = jobManager.getPendingTask(job.getId(), VGLPendingTask.TYPE_PROVENANCE);
+            if (task == null) {
+                task = new VGLPendingTask(job.getId(), VGLPendingTask.TYPE_PROVENANCE);
+                task.setServerUrl(provenanceService.serverURL());
+                jobManager.savePendingTask(task);
+            } else if (task.getAttempts() >= getMaxAttempts()) {
+                log.warn(String.format("Provenance for job '%1$s' has already failed %2$d times. It will not be retried.", job.getId(), task.getAttempts()));
+                untrack(job.getId());
+                return;
+            }
+        } catch (Exception ex) {
+            //The task can still be run - it just won't survive a restart
+            log.warn(String.format("Unable to record pending provenance for job '%1$s': %2$s", job.getId(), ex.getMessage()));
+            log.debug("Exception:", ex);
+        }
+
+        schedule(job.getId(), initialDelay);
+    }
+
+    /**
+     * Generates the provenance of job's outputs, reported against the server URL recorded with task (if any)
+     */
+    @Override
+    protected void process(VEGLJob job, VGLPendingTask task) throws Exception {
+        String serverUrl = task == null || task.getServerUrl() == null ? provenanceService.serverURL() : task.getServerUrl();
+        provenanceService.createEntitiesForOutputs(job, serverUrl);
+    }
+}
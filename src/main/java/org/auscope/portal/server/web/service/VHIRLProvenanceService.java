@@ -307,8 +307,16 @@ public class VHIRLProvenanceService {
         return inputs;
     }
 
-    public void generateAndSaveReport(Activity activity, URI PROMSURI, VEGLJob job) {
-        String server = VHIRLServerURL.INSTANCE.get();
+    public void generateAndSaveReport(Activity activity, URI PROMSURI, VEGLJob job) throws PortalServiceException {
+        generateAndSaveReport(activity, PROMSURI, job, serverURL());
+    }
+
+    /**
+     * Posts a report of activity to PROMSURI and uploads it alongside the job's files.
+     * @param server The URL of the portal that is reporting
+     * @throws PortalServiceException If PROMS doesn't accept the report (any non 2xx response)
+     */
+    public void generateAndSaveReport(Activity activity, URI PROMSURI, VEGLJob job, String server) throws PortalServiceException {
         URI serverURL = null;
         try {
             serverURL = new URI(server);
@@ -322,8 +330,12 @@ public class VHIRLProvenanceService {
                 .setTitle(job.getName())
                 .setNativeId(Integer.toString(job.getId()))
                 .setReportingSystemUri(serverURL);
-        ProvenanceReporter reporter = new ProvenanceReporter();
-        int resp = reporter.postReport(PROMSURI, report);
+        int resp = postReport(PROMSURI, report);
+        if (resp < 200 || resp >= 300) {
+            throw new PortalServiceException(String.format(
+                    "Provenance report for job %s was rejected by %s with response %d",
+                    job.getId(), PROMSURI, resp));
+        }
         this.uploadModel(report.getGraph(), job);
 
         StringWriter stringWriter = new StringWriter();
@@ -333,6 +345,14 @@ public class VHIRLProvenanceService {
         LOGGER.info(resp);
     }
 
+    /**
+     * Posts report to PROMSURI, returning the HTTP response code.
+     */
+    protected int postReport(URI PROMSURI, Report report) {
+        ProvenanceReporter reporter = new ProvenanceReporter();
+        return reporter.postReport(PROMSURI, report);
+    }
+
     /**
      * Takes a completed job and finishes creating the provenance record, and
      * uploads it to the cloud. The job *must* have had
@@ -341,8 +361,27 @@ public class VHIRLProvenanceService {
      * information, and won't do anything.
      * @param job Completed virtual labs job, about which we will finish our
      *            provenance gathering.
+     * @throws PortalServiceException If the job's files can't be read or the
+     *            report can't be posted.
+     */
+    public final String createEntitiesForOutputs(final VEGLJob job) throws PortalServiceException {
+        return createEntitiesForOutputs(job, serverURL());
+    }
+
+    /**
+     * As createEntitiesForOutputs(job) but reports against serverURL rather than
+     * the URL of the current webserver (eg for work recovered after a restart).
+     * @param job Completed virtual labs job
+     * @param serverURL The URL of the portal that ran the job
+     * @throws PortalServiceException If serverURL is null, the job's files can't be
+     *            read or the report can't be posted.
      */
-    public final String createEntitiesForOutputs(final VEGLJob job) {
+    public String createEntitiesForOutputs(final VEGLJob job, final String serverURL) throws PortalServiceException {
+        if (serverURL == null) {
+            throw new PortalServiceException(String.format(
+                    "No server URL is known for reporting the provenance of job %s", job.getId()));
+        }
+
         Set<Entity> outputs = new HashSet<>();
         Set<Entity> potentialOutputs = new HashSet<>();
         CloudStorageService cloudStorageService = getStorageService(job);
@@ -362,25 +401,24 @@ public class VHIRLProvenanceService {
                             cloudStorageService.getJobFile(job,
                                     ACTIVITY_FILE_NAME);
                     Model model = ModelFactory.createDefaultModel();
-                    LOGGER.debug("Current server URL: " + serverURL());
+                    LOGGER.debug("Current server URL: " + serverURL);
                     model = model.read(activityStream,
-                            serverURL(),
+                            serverURL,
                             TURTLE_FORMAT);
                     activity = new Activity().setActivityUri(new URI(
-                            jobURL(job, serverURL()))).setFromModel(model);
+                            jobURL(job, serverURL))).setFromModel(model);
                 } else if (!names.contains(information.getName())) {
                     // Ah ha! This must be an output.
                     URI outputURI = new URI(outputURL(
-                            job, information, serverURL()));
+                            job, information, serverURL));
                     LOGGER.debug("New input/output: " + outputURI.toString());
                     potentialOutputs.add(new Entity()
                             .setDataUri(outputURI)
                             .setTitle(information.getName()));
                 }
             }
-        } catch (PortalServiceException |
-                URISyntaxException | URIException ex) {
-            LOGGER.error(String.format(
+        } catch (URISyntaxException | URIException ex) {
+            throw new PortalServiceException(String.format(
                     "Error parsing data results urls %s into URIs.",
                     job.getJobDownloads().toString()), ex);
         }
@@ -406,9 +444,9 @@ public class VHIRLProvenanceService {
                 }
             }
             LOGGER.info("Reporting to: " + PROMSService.toString());
-            generateAndSaveReport(activity, PROMSService, job);
+            generateAndSaveReport(activity, PROMSService, job, serverURL);
             StringWriter out = new StringWriter();
-            activity.getGraph().write(out, TURTLE_FORMAT, serverURL());
+            activity.getGraph().write(out, TURTLE_FORMAT, serverURL);
             return out.toString();
         } else {
             return "";
@@ -0,0 +1,154 @@
+package org.auscope.portal.server.web.service.monitor;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.auscope.portal.server.vegl.VEGLJob;
+
+/**
+ * Tracks when each pending/active job is next due to have its status polled.
+ *
+ * Jobs are polled every minPollInterval after submission (or after any change
+ * in status/marker files). Every poll that observes no change multiplies the
+ * interval by backoffMultiplier up to maxPollInterval so long running jobs
+ * cost progressively fewer storage requests.
+ */
+public class VGLJobPollScheduler {
+    private long minPollInterval = 60000L;
+    private long maxPollInterval = 1800000L;
+    private double backoffMultiplier = 2.0;
+    private ConcurrentHashMap<Integer, PollState> pollStates = new ConcurrentHashMap<Integer, PollState>();
+
+    /**
+     * Gets the interval (in milliseconds) between polls for a job that has just changed
+     * @return
+     */
+    public long getMinPollInterval() {
+        return minPollInterval;
+    }
+
+    /**
+     * Sets the interval (in milliseconds) between polls for a job that has just changed
+     * @param minPollInterval
+     */
+    public void setMinPollInterval(long minPollInterval) {
+        this.minPollInterval = minPollInterval;
+    }
+
+    /**
+     * Gets the largest interval (in milliseconds) that will ever be used between polls
+     * @return
+     */
+    public long getMaxPollInterval() {
+        return maxPollInterval;
+    }
+
+    /**
+     * Sets the largest interval (in milliseconds) that will ever be used between polls
+     * @param maxPollInterval
+     */
+    public void setMaxPollInterval(long maxPollInterval) {
+        this.maxPollInterval = maxPollInterval;
+    }
+
+    /**
+     * Gets the amount the poll interval grows by for every poll that observes no change
+     * @return
+     */
+    public double getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    /**
+     * Sets the amount the poll interval grows by for every poll that observes no change
+     * @param backoffMultiplier
+     */
+    public void setBackoffMultiplier(double backoffMultiplier) {
+        this.backoffMultiplier = backoffMultiplier;
+    }
+
+    /**
+     * Filters jobs down to those that are due to be polled. Any previously scheduled
+     * job that is no longer in jobs will be forgotten.
+     *
+     * @param jobs All pending/active jobs
+     * @return The subset of jobs that should be polled now
+     */
+    public List<VEGLJob> getJobsDue(List<VEGLJob> jobs) {
+        long now = System.currentTimeMillis();
+        Set<Integer> currentIds = new HashSet<Integer>();
+        List<VEGLJob> dueJobs = new ArrayList<VEGLJob>();
+        for (VEGLJob job : jobs) {
+            currentIds.add(job.getId());
+            PollState state = pollStates.get(job.getId());
+            if (state == null || state.nextPollTime <= now) {
+                dueJobs.add(job);
+            }
+        }
+
+        pollStates.keySet().retainAll(currentIds);
+        return dueJobs;
+    }
+
+    /**
+     * Records the outcome of polling a job and schedules its next poll.
+     *
+     * @param jobId The job that was polled
+     * @param status The status the job was found to be in
+     * @param markerSignature Describes the job's marker files (null if they couldn't be read - treated as unchanged)
+     */
+    public void recordPoll(Integer jobId, String status, String markerSignature) {
+        long now = System.currentTimeMillis();
+        PollState state = pollStates.get(jobId);
+        if (state == null) {
+            state = new PollState();
+            state.interval = minPollInterval;
+        } else {
+            boolean statusChanged = status != null && !status.equals(state.status);
+            boolean markersChanged = markerSignature != null && !markerSignature.equals(state.markerSignature);
+            if (statusChanged || markersChanged) {
+                state.interval = minPollInterval;
+            } else {
+                state.interval = Math.min(maxPollInterval, (long) (state.interval * backoffMultiplier));
+            }
+        }
+
+        if (status != null) {
+            state.status = status;
+        }
+        if (markerSignature != null) {
+            state.markerSignature = markerSignature;
+        }
+        state.nextPollTime = now + state.interval;
+        pollStates.put(jobId, state);
+    }
+
+    /**
+     * Forces the specified job to be polled on the next tick
+     * @param jobId
+     */
+    public void reset(Integer jobId) {
+        pollStates.remove(jobId);
+    }
+
+    /**
+     * Gets the time (in milliseconds since epoch) that jobId is next due to be polled. Returns null if
+     * the job isn't scheduled (it will be polled on the next tick).
+     * @param jobId
+     * @return
+     */
+    public Long getNextPollTime(Integer jobId) {
+        PollState state = pollStates.get(jobId);
+        return state == null ? null : state.nextPollTime;
+    }
+
+    private static class PollState {
+        private volatile String status;
+        private volatile String markerSignature;
+        private volatile long interval;
+        private volatile long nextPollTime;
+    }
+}
@@ -8,6 +8,7 @@ import org.auscope.portal.core.cloud.CloudJob;
 import org.auscope.portal.core.services.cloud.monitor.JobStatusChangeListener;
 import org.auscope.portal.server.vegl.VEGLJob;
 import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLJobQueueScheduler;
 import org.auscope.portal.server.vegl.VGLJobStatusAndLogReader;
 import org.auscope.portal.server.vegl.mail.JobMailSender;
 import org.auscope.portal.server.web.controllers.JobBuilderController;
@@ -29,6 +30,7 @@ public class VGLJobStatusChangeHandler implements JobStatusChangeListener {
     private VEGLJobManager jobManager;
     private JobMailSender jobMailSender;
     private VGLJobStatusAndLogReader jobStatusLogReader;
+    private VGLJobQueueScheduler jobQueueScheduler;
 
 
     public VGLJobStatusChangeHandler(VEGLJobManager jobManager,
@@ -38,6 +40,14 @@ public class VGLJobStatusChangeHandler implements JobStatusChangeListener {
         this.jobStatusLogReader=jobStatusLogReader;
     }
 
+    /**
+     * Sets the queue that will be notified whenever a job releases its compute instance (can be null)
+     * @param jobQueueScheduler
+     */
+    public void setJobQueueScheduler(VGLJobQueueScheduler jobQueueScheduler) {
+        this.jobQueueScheduler = jobQueueScheduler;
+    }
+
     @Override
     public void handleStatusChange(CloudJob job, String newStatus, String oldStatus) {
         if (!newStatus.equals(JobBuilderController.STATUS_UNSUBMITTED)) {
@@ -53,6 +63,12 @@ public class VGLJobStatusChangeHandler implements JobStatusChangeListener {
                 jobMailSender.sendMail(vglJob);
                 LOG.trace("Job completion email notification sent. Job id: " + vglJob.getId());
             }
+
+            //A finished job has freed up an instance, let any jobs waiting on quota have it
+            if (jobQueueScheduler != null && !JobBuilderController.STATUS_INQUEUE.equals(oldStatus) &&
+                    (newStatus.equals(JobBuilderController.STATUS_DONE) || newStatus.equals(JobBuilderController.STATUS_ERROR))) {
+                jobQueueScheduler.capacityFreed(vglJob.getComputeServiceId());
+            }
         }
     }
 
@@ -8,6 +8,7 @@ import org.auscope.portal.core.cloud.CloudJob;
 import org.auscope.portal.core.services.cloud.monitor.JobStatusMonitor;
 import org.auscope.portal.server.vegl.VEGLJob;
 import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLJobStatusAndLogReader;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 import org.springframework.scheduling.quartz.QuartzJobBean;
@@ -31,6 +32,9 @@ public class VGLJobStatusMonitor extends QuartzJobBean {
     
     private VEGLJobManager jobManager;
     private JobStatusMonitor jobStatusMonitor;
+    private VGLParallelJobStatusUpdater jobStatusUpdater;
+    private VGLJobPollScheduler pollScheduler;
+    private VGLJobStatusAndLogReader jobStatusReader;
     
     /**
      * Sets the job manager to be used for querying 
@@ -48,11 +52,51 @@ public class VGLJobStatusMonitor extends QuartzJobBean {
     public void setJobStatusMonitor(JobStatusMonitor jobStatusMonitor) {
         this.jobStatusMonitor = jobStatusMonitor;
     }
+    
+    /**
+     * Sets the (optional) parallel updater to be used by this class. If
+     * set, jobs will be polled in parallel rather than one at a time
+     * through the JobStatusMonitor.
+     * @param jobStatusUpdater
+     */
+    public void setJobStatusUpdater(VGLParallelJobStatusUpdater jobStatusUpdater) {
+        this.jobStatusUpdater = jobStatusUpdater;
+    }
+
+    /**
+     * Sets the (optional) poll scheduler to be used by this class. If
+     * set, only jobs that are due to be polled will be updated.
+     * @param pollScheduler
+     */
+    public void setPollScheduler(VGLJobPollScheduler pollScheduler) {
+        this.pollScheduler = pollScheduler;
+    }
+
+    /**
+     * Sets the (optional) status reader used by the JobStatusMonitor. If
+     * set, the status of every polled job will be refreshed with a single
+     * query before polling begins.
+     * @param jobStatusReader
+     */
+    public void setJobStatusReader(VGLJobStatusAndLogReader jobStatusReader) {
+        this.jobStatusReader = jobStatusReader;
+    }
 
     @Override
     protected void executeInternal(JobExecutionContext ctx)
             throws JobExecutionException {
         List<VEGLJob> jobs = jobManager.getPendingOrActiveJobs();
+        if (pollScheduler != null) {
+            jobs = pollScheduler.getJobsDue(jobs);
+        }
+        if (jobStatusReader != null) {
+            jobStatusReader.refreshJobStatuses(jobs);
+        }
+        
+        if (jobStatusUpdater != null) {
+            jobStatusUpdater.statusUpdate(jobs);
+            return;
+        }
         
         try {
             jobStatusMonitor.statusUpdate(jobs);
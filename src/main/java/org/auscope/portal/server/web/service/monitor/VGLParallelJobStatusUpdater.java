@@ -0,0 +1,230 @@
+package org.auscope.portal.server.web.service.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.cloud.monitor.JobStatusMonitor;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Runs JobStatusMonitor status updates for a batch of jobs in parallel.
+ *
+ * Jobs are polled on a fixed size worker pool. Each cloud storage service
+ * has its own queue and is limited to a configurable number of concurrent
+ * polls. A job is only handed to a worker once its storage service has a
+ * free slot, so jobs waiting on a slow provider sit in that provider's queue
+ * rather than occupying workers that other providers could use. Any job that
+ * hasn't finished polling by the end of the tick deadline is abandoned and
+ * will be picked up again on the next tick.
+ */
+public class VGLParallelJobStatusUpdater {
+    private final Log LOG = LogFactory.getLog(getClass());
+
+    /** Key used for limiting jobs that don't have a storage service*/
+    private static final String NO_STORAGE_SERVICE = "";
+
+    private JobStatusMonitor jobStatusMonitor;
+    private ExecutorService executor;
+    private int maxConcurrentPerStorageService = 4;
+    private long tickDeadline = 240000L;
+    private ConcurrentHashMap<String, StorageServiceQueue> storageServiceQueues = new ConcurrentHashMap<String, StorageServiceQueue>();
+
+    /**
+     * @param jobStatusMonitor Used for updating the status of each individual job
+     * @param workerPoolSize The maximum number of jobs that will be polled at the same time
+     */
+    public VGLParallelJobStatusUpdater(JobStatusMonitor jobStatusMonitor, int workerPoolSize) {
+        this.jobStatusMonitor = jobStatusMonitor;
+        this.executor = Executors.newFixedThreadPool(workerPoolSize, new CustomizableThreadFactory("vgl-status-poll-"));
+    }
+
+    /**
+     * Gets the maximum number of jobs for a single storage service that will be polled at the same time
+     * @return
+     */
+    public int getMaxConcurrentPerStorageService() {
+        return maxConcurrentPerStorageService;
+    }
+
+    /**
+     * Sets the maximum number of jobs for a single storage service that will be polled at the same time
+     * @param maxConcurrentPerStorageService
+     */
+    public void setMaxConcurrentPerStorageService(int maxConcurrentPerStorageService) {
+        this.maxConcurrentPerStorageService = maxConcurrentPerStorageService;
+    }
+
+    /**
+     * Gets the time (in milliseconds) that a single call to statusUpdate is allowed to run for
+     * @return
+     */
+    public long getTickDeadline() {
+        return tickDeadline;
+    }
+
+    /**
+     * Sets the time (in milliseconds) that a single call to statusUpdate is allowed to run for. This
+     * should be less than the repeat interval of the trigger driving the status updates.
+     * @param tickDeadline
+     */
+    public void setTickDeadline(long tickDeadline) {
+        this.tickDeadline = tickDeadline;
+    }
+
+    /**
+     * Updates the status of every job in jobs, returning once all jobs have been polled
+     * or the tick deadline has passed (whichever comes first).
+     *
+     * Failures are logged and do not prevent the remaining jobs from being polled.
+     *
+     * @param jobs The jobs to poll
+     * @return The jobs that failed to update or weren't polled before the deadline
+     */
+    public List<VEGLJob> statusUpdate(List<VEGLJob> jobs) {
+        long deadline = System.currentTimeMillis() + tickDeadline;
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(jobs.size());
+        for (VEGLJob job : jobs) {
+            FutureTask<Void> task = new FutureTask<Void>(new StatusUpdateTask(job, deadline));
+            StorageServiceQueue queue = getStorageServiceQueue(job);
+            queue.pending.add(task);
+            futures.add(task);
+            dispatch(queue);
+        }
+
+        List<VEGLJob> incompleteJobs = new ArrayList<VEGLJob>();
+        for (int i = 0; i < futures.size(); i++) {
+            Future<?> future = futures.get(i);
+            VEGLJob job = jobs.get(i);
+            long remaining = Math.max(0L, deadline - System.currentTimeMillis());
+            try {
+                future.get(remaining, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                future.cancel(true);
+                incompleteJobs.add(job);
+            } catch (CancellationException ex) {
+                //The updater was shut down before the job could be polled
+                incompleteJobs.add(job);
+            } catch (ExecutionException ex) {
+                LOG.info(String.format("Error updating status of job '%1$s': %2$s", job.getId(), ex.getCause()));
+                LOG.debug("Exception:", ex.getCause());
+                incompleteJobs.add(job);
+            } catch (InterruptedException ex) {
+                LOG.warn("Interrupted whilst waiting for job status updates");
+                Thread.currentThread().interrupt();
+                return incompleteJobs;
+            }
+        }
+
+        if (!incompleteJobs.isEmpty()) {
+            LOG.info(String.format("%1$d of %2$d job(s) were not updated this tick", incompleteJobs.size(), jobs.size()));
+        }
+
+        return incompleteJobs;
+    }
+
+    /**
+     * Stops the worker pool. Any in progress polls will be interrupted.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private StorageServiceQueue getStorageServiceQueue(VEGLJob job) {
+        String storageServiceId = job.getStorageServiceId() == null ? NO_STORAGE_SERVICE : job.getStorageServiceId();
+        StorageServiceQueue queue = storageServiceQueues.get(storageServiceId);
+        if (queue == null) {
+            StorageServiceQueue newQueue = new StorageServiceQueue(maxConcurrentPerStorageService);
+            queue = storageServiceQueues.putIfAbsent(storageServiceId, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Hands queued tasks to the worker pool for as long as queue has free slots. Never blocks.
+     */
+    private void dispatch(final StorageServiceQueue queue) {
+        while (!queue.pending.isEmpty() && queue.slots.tryAcquire()) {
+            final FutureTask<Void> task = queue.pending.poll();
+            if (task == null) {
+                queue.slots.release();
+                continue;
+            }
+
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            queue.slots.release();
+                            dispatch(queue);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                //We are shutting down
+                queue.slots.release();
+                task.cancel(false);
+                return;
+            }
+        }
+    }
+
+    /**
+     * The jobs of a single storage service waiting for a worker along with the number of free slots
+     */
+    private static class StorageServiceQueue {
+        private Queue<FutureTask<Void>> pending = new ConcurrentLinkedQueue<FutureTask<Void>>();
+        private Semaphore slots;
+
+        public StorageServiceQueue(int maxConcurrent) {
+            this.slots = new Semaphore(maxConcurrent);
+        }
+    }
+
+    /**
+     * Polls a single job. Only run once a slot for the job's storage service has been taken.
+     */
+    private class StatusUpdateTask implements Callable<Void> {
+        private VEGLJob job;
+        private long deadline;
+
+        public StatusUpdateTask(VEGLJob job, long deadline) {
+            this.job = job;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            if (deadline - System.currentTimeMillis() <= 0) {
+                throw new TimeoutException("Deadline passed before job could be polled");
+            }
+
+            jobStatusMonitor.statusUpdate(Arrays.asList(job));
+            return null;
+        }
+    }
+}
@@ -148,9 +148,8 @@ Ext.define('vegl.jobwizard.forms.DuplicateJobForm', {
                 if (success) {
                     var responseObj = Ext.JSON.decode(response.responseText);
                     if (responseObj.success && Ext.isNumber(responseObj.data[0].id)) {
-                        this.wizardState.jobId = responseObj.data[0].id;
-                        this.wizardState.seriesId = responseObj.data[0].seriesId;
-                        callback(true);
+                        //The files are copied in the background, the new job can't be used until they're done
+                        this.waitForCopy(responseObj.data[0], callback);
                         return;
                     }
                 }
@@ -161,6 +160,48 @@ Ext.define('vegl.jobwizard.forms.DuplicateJobForm', {
         });
     },
 
+    //Polls the backend until every file of the duplicated job has been copied
+    waitForCopy : function(newJob, callback) {
+        var loadMask = new Ext.LoadMask(Ext.getBody(), {
+            msg : 'Copying job files...',
+            removeMask : true
+        });
+        loadMask.show();
+
+        var pollTask = new Ext.util.DelayedTask(function() {
+            Ext.Ajax.request({
+                url : 'secure/getDuplicateJobProgress.do',
+                params : {
+                    jobId : newJob.id
+                },
+                scope : this,
+                callback : function(options, success, response) {
+                    var responseObj = success ? Ext.JSON.decode(response.responseText, true) : null;
+                    var error = 'Unable to check the progress of the copy';
+                    if (responseObj && responseObj.success) {
+                        if (responseObj.data.state === 'DONE') {
+                            loadMask.hide();
+                            this.performedDuplication = true;
+                            this.wizardState.jobId = newJob.id;
+                            this.wizardState.seriesId = newJob.seriesId;
+                            callback(true);
+                            return;
+                        } else if (responseObj.data.state !== 'FAILED') {
+                            pollTask.delay(2000);
+                            return;
+                        }
+                        error = responseObj.data.error;
+                    }
+
+                    loadMask.hide();
+                    Ext.Msg.alert('Create new series', 'The files of your new job couldn\'t be copied (' + error + '). The new job has been marked as failed, please delete it and try again.');
+                    callback(false);
+                }
+            });
+        }, this);
+        pollTask.delay(0);
+    },
+
     getTitle : function() {
         return "Select files to copy into the new job...";
     }
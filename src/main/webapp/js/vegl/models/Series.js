@@ -8,6 +8,8 @@ Ext.define('vegl.models.Series', {
         { name: 'id', type: 'int' }, //Unique identifier for the series
         { name: 'name', type: 'string' }, //Descriptive name of the series
         { name: 'description', type: 'string' }, //Long description of the series
-        { name: 'user', type: 'string'} //Username who created this series
+        { name: 'user', type: 'string'}, //Username who created this series
+        { name: 'jobCount', type: 'int' }, //Number of (non deleted) jobs in the series (only set when listing every series of the user)
+        { name: 'statusCounts', type: 'auto' } //Object mapping each job status to the number of jobs with that status
     ]
 });
\ No newline at end of file
@@ -137,6 +137,32 @@ Ext.define('vegl.widgets.JobsPanel', {
             });
         }
         
+        //Jobs are paged, sorted and filtered server side - a series can hold thousands of jobs
+        var jobStore = Ext.create('Ext.data.Store', {
+            model : 'vegl.models.Job',
+            pageSize : 100,
+            remoteSort : true,
+            proxy : {
+                type : 'ajax',
+                url : 'secure/listJobs.do',
+                extraParams : {seriesId : null},
+                simpleSortMode : true,
+                reader : {
+                    type : 'json',
+                    root : 'data',
+                    totalProperty : 'totalCount'
+                },
+                listeners : {
+                    exception : function(proxy, response, operation) {
+                        responseObj = Ext.JSON.decode(response.responseText);
+                        errorMsg = responseObj.msg;
+                        errorInfo = responseObj.debugInfo;
+                        portal.widgets.window.ErrorWindow.showText('Error', errorMsg, errorInfo);
+                    }
+                }
+            }
+        });
+
         Ext.apply(config, {
             plugins : [{
                 ptype : 'rowcontextmenu',
@@ -144,27 +170,13 @@ Ext.define('vegl.widgets.JobsPanel', {
                     items: [this.cancelJobAction, this.deleteJobAction, this.duplicateJobAction, this.editJobAction, this.submitJobAction]
                 })
             }],
-            store : Ext.create('Ext.data.Store', {
-                model : 'vegl.models.Job',
-                proxy : {
-                    type : 'ajax',
-                    url : 'secure/listJobs.do',
-                    extraParams : {seriesId : null},
-                    reader : {
-                        type : 'json',
-                        root : 'data'
-                    },
-                    listeners : {
-                        exception : function(proxy, response, operation) {
-                            responseObj = Ext.JSON.decode(response.responseText);
-                            errorMsg = responseObj.msg;
-                            errorInfo = responseObj.debugInfo;
-                            portal.widgets.window.ErrorWindow.showText('Error', errorMsg, errorInfo);
-                        }
-                    }
-                }
-            }),
+            store : jobStore,
             columns: columns,
+            bbar : {
+                xtype : 'pagingtoolbar',
+                store : jobStore,
+                displayInfo : true
+            },
             buttons: [{
                 text: 'Register to GeoNetwork',
                 itemId : 'btnRegister',
@@ -326,7 +338,7 @@ Ext.define('vegl.widgets.JobsPanel', {
         if (forceStatusRefresh) {
             ajaxProxy.extraParams.forceStatusRefresh = true;
         }
-        store.load();
+        store.loadPage(1);
     },
 
     /**
@@ -71,7 +71,8 @@ Ext.define('vegl.widgets.SeriesPanel', {
                 autoLoad : true
             }),
             columns: [{ header: 'User', width: 150, sortable: true, dataIndex: 'user'},
-                      { header: 'Series Name', flex : 1, sortable: true, dataIndex: 'name'}],
+                      { header: 'Series Name', flex : 1, sortable: true, dataIndex: 'name'},
+                      { header: 'Jobs', width: 60, sortable: true, dataIndex: 'jobCount', renderer: this._jobCountRenderer}],
             buttons: [{
                 text: 'Query...',
                 tooltip: 'Displays the query dialog to search for job series',
@@ -109,6 +110,18 @@ Ext.define('vegl.widgets.SeriesPanel', {
         }
     },
 
+    _jobCountRenderer : function(value, metaData, record) {
+        var statusCounts = record.get('statusCounts');
+        if (statusCounts) {
+            var tip = [];
+            for (var status in statusCounts) {
+                tip.push(status + ': ' + statusCounts[status]);
+            }
+            metaData.tdAttr = 'data-qtip="' + Ext.util.Format.htmlEncode(tip.join('<br>')) + '"';
+        }
+        return value;
+    },
+
     onSeriesSelection : function(sm, series) {
         this.fireEvent('selectseries', this, series);
     },
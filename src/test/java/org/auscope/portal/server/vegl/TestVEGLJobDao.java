@@ -6,6 +6,7 @@ import static org.powermock.api.support.membermodification.MemberModifier.stub;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
 
@@ -120,6 +121,52 @@ public class TestVEGLJobDao extends VGLPortalTestClass {
         Assert.assertTrue(jobs.size() > 0);
     }
     
+    /**
+     * Tests that jobs are looked up by ID and status in a single query
+     */
+    @Test
+    public void testGetJobsWithStatusById() {
+        final List<Integer> ids = Arrays.asList(1, 2);
+        final List<String> statuses = Arrays.asList(JobBuilderController.STATUS_PENDING, JobBuilderController.STATUS_ACTIVE);
+        final List<VEGLJob> mockVGLJobList = Arrays.asList(context.mock(VEGLJob.class, "mockVGLJob1"));
+
+        context.checking(new Expectations() {{
+            oneOf(mockTemplate).findByNamedParam(with(any(String.class)),
+                    with(equal(new String[] {"ids", "statuses"})),
+                    with(equal(new Object[] {ids, statuses})));
+            will(returnValue(mockVGLJobList));
+        }});
+
+        List<VEGLJob> jobs = testDao.getJobsWithStatus(ids, statuses);
+        Assert.assertEquals(mockVGLJobList, jobs);
+    }
+
+    /**
+     * Tests that job status counts are grouped by series
+     */
+    @Test
+    public void testCountJobStatusesOfSeries() {
+        final List<Integer> seriesIds = Arrays.asList(1, 2, 3);
+        final List<Object[]> rows = Arrays.asList(
+                new Object[] {1, JobBuilderController.STATUS_DONE, 3L},
+                new Object[] {1, JobBuilderController.STATUS_ACTIVE, 1L},
+                new Object[] {2, JobBuilderController.STATUS_DONE, 2L});
+
+        context.checking(new Expectations() {{
+            oneOf(mockTemplate).findByNamedParam(with(any(String.class)),
+                    with(equal(new String[] {"seriesIDs", "deleted"})),
+                    with(equal(new Object[] {seriesIds, JobBuilderController.STATUS_DELETED})));
+            will(returnValue(rows));
+        }});
+
+        Map<Integer, Map<String, Integer>> counts = testDao.countJobStatusesOfSeries(seriesIds);
+        Assert.assertEquals(2, counts.size());
+        Assert.assertEquals(Integer.valueOf(3), counts.get(1).get(JobBuilderController.STATUS_DONE));
+        Assert.assertEquals(Integer.valueOf(1), counts.get(1).get(JobBuilderController.STATUS_ACTIVE));
+        Assert.assertEquals(Integer.valueOf(2), counts.get(2).get(JobBuilderController.STATUS_DONE));
+        Assert.assertNull(counts.get(3));
+    }
+
     /**
      * Tests that the retrieving of a VL job succeeds.
      */
@@ -1,7 +1,9 @@
 package org.auscope.portal.server.vegl;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
 
@@ -10,6 +12,8 @@ import org.auscope.portal.server.web.controllers.JobBuilderController;
 import org.junit.Before;
 import org.junit.Test;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.springframework.dao.DataRetrievalFailureException;
 
 /**
@@ -77,6 +81,26 @@ public class TestVEGLJobManager extends PortalTestClass {
         Assert.assertNotNull(jobManager.getSeriesJobs(seriesId));
     }
     
+    /**
+     * Tests that retrieving a page of job summaries of a given series succeeds.
+     */
+    @Test
+    public void testGetSeriesJobSummaries() {
+        final int seriesId = 1;
+        final List<String> statuses = Arrays.asList("Done");
+        final List<VEGLJobSummary> summaries = Arrays.asList(new VEGLJobSummary());
+        
+        context.checking(new Expectations() {{
+            oneOf(mockJobDao).getJobSummariesOfSeries(seriesId, statuses, "name", false, 20, 10);
+            will(returnValue(summaries));
+            oneOf(mockJobDao).countJobsOfSeries(seriesId, statuses);
+            will(returnValue(21));
+        }});
+        
+        Assert.assertSame(summaries, jobManager.getSeriesJobSummaries(seriesId, statuses, "name", false, 20, 10));
+        Assert.assertEquals(21, jobManager.countSeriesJobs(seriesId, statuses));
+    }
+    
     /**
      * Tests that retrieving job of a given id succeeds.
      * null is return when a job cannot be found.
@@ -88,8 +112,8 @@ public class TestVEGLJobManager extends PortalTestClass {
         final VEGLJob mockJob = context.mock(VEGLJob.class);
 
         context.checking(new Expectations() {{
-            oneOf(mockJobDao).get(jobId1);will(returnValue(mockJob));
-            oneOf(mockJobDao).get(jobId2);will(returnValue(null));
+            oneOf(mockJobDao).getWithCollections(jobId1);will(returnValue(mockJob));
+            oneOf(mockJobDao).getWithCollections(jobId2);will(returnValue(null));
         }});
         
         Assert.assertNotNull(jobManager.getJobById(jobId1));
@@ -169,6 +193,55 @@ public class TestVEGLJobManager extends PortalTestClass {
         
         jobManager.saveJob(mockJob);
     }
+
+    /**
+     * Tests that series summaries are served from the summary cache until a job of the user is saved
+     */
+    @Test
+    public void testGetSeriesSummaries_Cache() {
+        final String user = "user@email.com";
+        final VEGLJob mockJob = context.mock(VEGLJob.class);
+        final List<VEGLSeries> seriesList = Arrays.asList(new VEGLSeries());
+        jobManager.setJobSummaryCache(new VGLJobSummaryCache(mockSeriesDao, mockJobDao, 10));
+
+        context.checking(new Expectations() {{
+            exactly(2).of(mockSeriesDao).query(user, null, null);will(returnValue(seriesList));
+            exactly(2).of(mockJobDao).countJobStatusesOfSeries(with(any(List.class)));will(returnValue(new HashMap<Integer, Map<String, Integer>>()));
+            oneOf(mockJobDao).save(mockJob);
+            allowing(mockJob).getUser();will(returnValue(user));
+        }});
+
+        jobManager.getSeriesSummaries(user);
+        jobManager.getSeriesSummaries(user);
+        jobManager.saveJob(mockJob);
+        Assert.assertEquals(1, jobManager.getSeriesSummaries(user).size());
+    }
+
+    /**
+     * Tests that the summaries of a subset of series use the job counts of every series of the user
+     */
+    @Test
+    public void testGetSeriesSummaries_Subset() {
+        final String user = "user@email.com";
+        final VEGLSeries series1 = new VEGLSeries();
+        series1.setId(1);
+        final VEGLSeries series2 = new VEGLSeries();
+        series2.setId(2);
+        final Map<String, Integer> series2Counts = new HashMap<String, Integer>();
+        series2Counts.put(JobBuilderController.STATUS_DONE, 5);
+        final Map<Integer, Map<String, Integer>> counts = new HashMap<Integer, Map<String, Integer>>();
+        counts.put(2, series2Counts);
+
+        context.checking(new Expectations() {{
+            oneOf(mockSeriesDao).query(user, null, null);will(returnValue(Arrays.asList(series1, series2)));
+            oneOf(mockJobDao).countJobStatusesOfSeries(Arrays.asList(1, 2));will(returnValue(counts));
+        }});
+
+        List<VGLJobSummaryCache.SeriesSummary> summaries = jobManager.getSeriesSummaries(user, Arrays.asList(series2));
+        Assert.assertEquals(1, summaries.size());
+        Assert.assertEquals(Integer.valueOf(2), summaries.get(0).getId());
+        Assert.assertEquals(5, summaries.get(0).getJobCount());
+    }
     
     /**
      * Tests that creating job audit trail succeeds.
@@ -211,6 +284,26 @@ public class TestVEGLJobManager extends PortalTestClass {
         jobManager.createJobAuditTrail(oldJobStatus, mockCurJob, message);
     }
     
+    /**
+     * Tests that the job audit trail is handed to the background writer (if configured)
+     */
+    @Test
+    public void testCreateJobAuditTrail_Writer() {
+        final VGLJobAuditLogWriter mockJobAuditLogWriter = context.mock(VGLJobAuditLogWriter.class);
+        final VEGLJob mockCurJob = context.mock(VEGLJob.class);
+        jobManager.setVglJobAuditLogWriter(mockJobAuditLogWriter);
+        
+        context.checking(new Expectations() {{
+            oneOf(mockCurJob).getId();
+            will(returnValue(1));
+            oneOf(mockCurJob).getStatus();
+            will(returnValue(JobBuilderController.STATUS_PENDING));
+            oneOf(mockJobAuditLogWriter).write(with(any(VGLJobAuditLog.class)));
+        }});
+        
+        jobManager.createJobAuditTrail(JobBuilderController.STATUS_UNSUBMITTED, mockCurJob, "Job submitted");
+    }
+    
     /**
      * Tests that deleting a given series succeeds.
      */
@@ -252,4 +345,63 @@ public class TestVEGLJobManager extends PortalTestClass {
         
         jobManager.saveSignature(mockSignature);
     }
+
+    /**
+     * Tests that updating the status of many jobs saves every job, audit log and pending task in a single batch
+     */
+    @Test
+    public void testUpdateJobStatuses() {
+        final VEGLJob job1 = new VEGLJob(1);
+        final VEGLJob job2 = new VEGLJob(2);
+        job1.setStatus(JobBuilderController.STATUS_DONE);
+        job2.setStatus(JobBuilderController.STATUS_ERROR);
+        final List<?>[] saved = new List<?>[1];
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobDao).saveAll(with(any(List.class)));
+            will(new CustomAction("capture entities") {
+                @Override
+                public Object invoke(Invocation invocation) {
+                    saved[0] = (List<?>) invocation.getParameter(0);
+                    return null;
+                }
+            });
+        }});
+
+        jobManager.updateJobStatuses(Arrays.asList(job1, job2), JobBuilderController.STATUS_DELETED, "Job deleted.", VGLPendingTask.TYPE_CLEANUP);
+
+        Assert.assertEquals(JobBuilderController.STATUS_DELETED, job1.getStatus());
+        Assert.assertEquals(JobBuilderController.STATUS_DELETED, job2.getStatus());
+        Assert.assertEquals(6, saved[0].size());
+        VGLJobAuditLog auditLog = (VGLJobAuditLog) saved[0].get(1);
+        Assert.assertEquals(JobBuilderController.STATUS_DONE, auditLog.getFromStatus());
+        Assert.assertEquals(JobBuilderController.STATUS_DELETED, auditLog.getToStatus());
+        Assert.assertEquals(VGLPendingTask.TYPE_CLEANUP, ((VGLPendingTask) saved[0].get(2)).getTaskType());
+    }
+
+    /**
+     * Tests that a failed batch update leaves every job with its original status
+     */
+    @Test
+    public void testUpdateJobStatuses_SaveFailure() {
+        final VEGLJob job1 = new VEGLJob(1);
+        final VEGLJob job2 = new VEGLJob(2);
+        final RuntimeException ex = new RuntimeException("Database unavailable");
+        job1.setStatus(JobBuilderController.STATUS_DONE);
+        job2.setStatus(JobBuilderController.STATUS_ERROR);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobDao).saveAll(with(any(List.class)));will(throwException(ex));
+        }});
+
+        try {
+            jobManager.updateJobStatuses(Arrays.asList(job1, job2), JobBuilderController.STATUS_DELETED, "Job deleted.", VGLPendingTask.TYPE_CLEANUP);
+            Assert.fail("Exception should have been thrown");
+        } catch (RuntimeException e) {
+            Assert.assertSame(ex, e);
+        }
+
+        Assert.assertEquals(JobBuilderController.STATUS_DONE, job1.getStatus());
+        Assert.assertEquals(JobBuilderController.STATUS_ERROR, job2.getStatus());
+    }
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 @PrepareForTest({HibernateDaoSupport.class})
 public class TestVEGLSeriesDao extends VGLPortalTestClass {
     private final String baseQuery = "from VEGLSeries s where";
+    private final String orderBy = " order by s.id";
     private HibernateTemplate mockTemplate;
     private VEGLSeries mockVEGLSeries;
     private VEGLSeriesDao testDao;
@@ -45,17 +46,17 @@ public class TestVEGLSeriesDao extends VGLPortalTestClass {
         final String user = "test_user";
         final String name = "test_series_name";
         final String desc = "test_series_desc";
-        final String query = baseQuery + " s.user = '" 
-                + user + "' and s.name like '%" 
-                + name + "%' and s.description like '%"
-                + desc + "%'";
+        final String query = baseQuery + " s.user=:user and s.name like :name escape '!'"
+                + " and s.description like :desc escape '!'" + orderBy;
+        final String[] paramNames = new String[] {"user", "name", "desc"};
+        final Object[] paramValues = new Object[] {user, "%test!_series!_name%", "%test!_series!_desc%"};
         
         final List<VEGLSeries> mockUserSeriesList = Arrays.asList(
                 context.mock(VEGLSeries.class, "mockUserSeries1"),
                 context.mock(VEGLSeries.class, "mockUserSeries2"));
         
         context.checking(new Expectations() {{
-            oneOf(mockTemplate).find(query);
+            oneOf(mockTemplate).findByNamedParam(query, paramNames, paramValues);
             will(returnValue(mockUserSeriesList));
         }});
         
@@ -78,16 +79,16 @@ public class TestVEGLSeriesDao extends VGLPortalTestClass {
         final String user = "test_user";
         final String name = "test_series_name";
         final String desc = null;
-        final String query = baseQuery + " s.user = '" 
-                + user + "' and s.name like '%" 
-                + name + "%'";
+        final String query = baseQuery + " s.user=:user and s.name like :name escape '!'" + orderBy;
+        final String[] paramNames = new String[] {"user", "name"};
+        final Object[] paramValues = new Object[] {user, "%test!_series!_name%"};
         
         final List<VEGLSeries> mockUserSeriesList = Arrays.asList(
                 context.mock(VEGLSeries.class, "mockUserSeries1"),
                 context.mock(VEGLSeries.class, "mockUserSeries2"));
         
         context.checking(new Expectations() {{
-            oneOf(mockTemplate).find(query);
+            oneOf(mockTemplate).findByNamedParam(query, paramNames, paramValues);
             will(returnValue(mockUserSeriesList));
         }});
         
@@ -110,16 +111,16 @@ public class TestVEGLSeriesDao extends VGLPortalTestClass {
         final String user = "test_user";
         final String name = null;
         final String desc = "test_series_desc";
-        final String query = baseQuery + " s.user = '" 
-                + user + "' and s.description like '%"
-                + desc + "%'";
+        final String query = baseQuery + " s.user=:user and s.description like :desc escape '!'" + orderBy;
+        final String[] paramNames = new String[] {"user", "desc"};
+        final Object[] paramValues = new Object[] {user, "%test!_series!_desc%"};
         
         final List<VEGLSeries> mockUserSeriesList = Arrays.asList(
                 context.mock(VEGLSeries.class, "mockUserSeries1"),
                 context.mock(VEGLSeries.class, "mockUserSeries2"));
         
         context.checking(new Expectations() {{
-            oneOf(mockTemplate).find(query);
+            oneOf(mockTemplate).findByNamedParam(query, paramNames, paramValues);
             will(returnValue(mockUserSeriesList));
         }});
         
@@ -142,13 +143,15 @@ public class TestVEGLSeriesDao extends VGLPortalTestClass {
         final String user = "testuser1";
         final String name = null;
         final String desc = null;
-        final String query = baseQuery + " s.user = '" + user +"'";
+        final String query = baseQuery + " s.user=:user" + orderBy;
+        final String[] paramNames = new String[] {"user"};
+        final Object[] paramValues = new Object[] {user};
         final List<VEGLSeries> mockUserSeriesList = Arrays.asList(
                 context.mock(VEGLSeries.class, "mockUserSeries1"),
                 context.mock(VEGLSeries.class, "mockUserSeries2"));        
 
         context.checking(new Expectations() {{
-            oneOf(mockTemplate).find(query);
+            oneOf(mockTemplate).findByNamedParam(query, paramNames, paramValues);
             will(returnValue(mockUserSeriesList));
         }});
         
@@ -175,13 +178,15 @@ public class TestVEGLSeriesDao extends VGLPortalTestClass {
         final String user = null;
         final String name = "test_name";
         final String desc = null;
-        final String query = baseQuery + " s.name like '%" + name +"%'";
+        final String query = baseQuery + " s.name like :name escape '!'" + orderBy;
+        final String[] paramNames = new String[] {"name"};
+        final Object[] paramValues = new Object[] {"%test!_name%"};
         final List<VEGLSeries> mockUserSeriesList = Arrays.asList(
                 context.mock(VEGLSeries.class, "mockUserSeries1"),
                 context.mock(VEGLSeries.class, "mockUserSeries2"));        
 
         context.checking(new Expectations() {{
-            oneOf(mockTemplate).find(query);
+            oneOf(mockTemplate).findByNamedParam(query, paramNames, paramValues);
             will(returnValue(mockUserSeriesList));
         }});
         
@@ -208,13 +213,15 @@ public class TestVEGLSeriesDao extends VGLPortalTestClass {
         final String user = "";
         final String name = "";
         final String desc = "test_desc";
-        final String query = baseQuery + " s.description like '%" + desc +"%'";
+        final String query = baseQuery + " s.description like :desc escape '!'" + orderBy;
+        final String[] paramNames = new String[] {"desc"};
+        final Object[] paramValues = new Object[] {"%test!_desc%"};
         final List<VEGLSeries> mockUserSeriesList = Arrays.asList(
                 context.mock(VEGLSeries.class, "mockUserSeries1"),
                 context.mock(VEGLSeries.class, "mockUserSeries2"));        
 
         context.checking(new Expectations() {{
-            oneOf(mockTemplate).find(query);
+            oneOf(mockTemplate).findByNamedParam(query, paramNames, paramValues);
             will(returnValue(mockUserSeriesList));
         }});
         
@@ -253,6 +260,50 @@ public class TestVEGLSeriesDao extends VGLPortalTestClass {
         Assert.assertNull(seriesList);   
     }
     
+    /**
+     * Tests that query criteria are bound as parameters rather than being
+     * concatenated into the query and that LIKE wildcards are escaped.
+     */
+    @Test
+    public void testQuery_BoundParameters() {
+        final String user = "x' or '1'='1";
+        final String name = "100%";
+        final String query = baseQuery + " s.user=:user and s.name like :name escape '!'" + orderBy;
+        final String[] paramNames = new String[] {"user", "name"};
+        final Object[] paramValues = new Object[] {user, "%100!%%"};
+        final List<VEGLSeries> mockUserSeriesList = Arrays.asList(mockVEGLSeries);
+
+        context.checking(new Expectations() {{
+            oneOf(mockTemplate).findByNamedParam(query, paramNames, paramValues);
+            will(returnValue(mockUserSeriesList));
+        }});
+
+        // Stub the protected method
+        stub(method(HibernateDaoSupport.class, "getHibernateTemplate"))
+                .toReturn(mockTemplate);
+
+        Assert.assertSame(mockUserSeriesList, testDao.query(user, name, null));
+    }
+
+    /**
+     * Tests that keywords are converted to a boolean mode full text query
+     */
+    @Test
+    public void testToBooleanModeQuery() {
+        Assert.assertEquals("+magnetic* +survey*", VEGLSeriesDao.toBooleanModeQuery("magnetic survey"));
+        Assert.assertEquals("+a* +b*", VEGLSeriesDao.toBooleanModeQuery(" +a -b\"* "));
+        Assert.assertEquals("", VEGLSeriesDao.toBooleanModeQuery("  ()<>~ "));
+        Assert.assertEquals("", VEGLSeriesDao.toBooleanModeQuery(null));
+    }
+
+    /**
+     * Tests that searching with no usable keywords doesn't query the database
+     */
+    @Test
+    public void testSearch_NoKeywords() {
+        Assert.assertTrue(testDao.search("user", " * ", 10).isEmpty());
+    }
+
     /**
      * Tests that the retrieving of a job series succeeds.
      */
@@ -5,6 +5,7 @@ import static org.powermock.api.support.membermodification.MemberModifier.stub;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import junit.framework.Assert;
@@ -111,4 +112,52 @@ public class TestVGLJobAuditLogDao extends VGLPortalTestClass {
 
         testDao.save(fakeLog);
     }
+
+    /**
+     * Tests that retrieving the job audit logs of a time range succeeds.
+     */
+    @Test
+    public void testGetAuditLogsBetween() {
+        final Date from = new Date(1000L);
+        final Date to = new Date(2000L);
+        final List<VGLJobAuditLog> mockLogs = Arrays.asList(mockVGLJobAuditLog);
+
+        context.checking(new Expectations() {{
+            oneOf(mockTemplate).findByNamedParam(
+                    "from VGLJobAuditLog j where j.transitionDate>=:from and j.transitionDate<:to order by j.transitionDate, j.id",
+                    new String[] {"from", "to"}, new Object[] {from, to});
+            will(returnValue(mockLogs));
+        }});
+
+        // Stub the protected method
+        stub(method(HibernateDaoSupport.class, "getHibernateTemplate"))
+                .toReturn(mockTemplate);
+
+        Assert.assertSame(mockLogs, testDao.getAuditLogsBetween(from, to));
+    }
+
+    /**
+     * Tests that stays in a status are paired up from consecutive transitions of each job
+     */
+    @Test
+    public void testCollectStatusDurations() {
+        final String inQueue = "In Queue";
+        List<Object[]> transitions = Arrays.asList(
+                new Object[] {1, "user1", inQueue, new Date(1000L)},
+                new Object[] {1, "user1", inQueue, new Date(1500L)}, //requeued - still the same stay
+                new Object[] {1, "user1", "Pending", new Date(4000L)},
+                new Object[] {2, "user2", "Pending", new Date(1000L)},
+                new Object[] {2, "user2", inQueue, new Date(2000L)},
+                new Object[] {2, "user2", "Active", new Date(2500L)},
+                new Object[] {3, "user2", inQueue, new Date(3000L)}); //never left the queue
+
+        List<VGLJobStatusDuration> durations = VGLJobAuditLogDao.collectStatusDurations(inQueue, transitions);
+
+        Assert.assertEquals(2, durations.size());
+        Assert.assertEquals(1, durations.get(0).getJobId().intValue());
+        Assert.assertEquals(3000L, durations.get(0).getDuration());
+        Assert.assertEquals(2, durations.get(1).getJobId().intValue());
+        Assert.assertEquals("user2", durations.get(1).getUser());
+        Assert.assertEquals(500L, durations.get(1).getDuration());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package org.auscope.portal.server.vegl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.jmock.Expectations;
+import org.jmock.States;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+/**
+ * Unit tests for VGLJobAuditLogWriter
+ */
+public class TestVGLJobAuditLogWriter extends PortalTestClass {
+    /** Long enough that the timed flush never runs during a test*/
+    private static final long FLUSH_INTERVAL = 600000L;
+
+    private Synchroniser synchroniser = new Synchroniser();
+    private VGLJobAuditLogDao mockJobAuditLogDao;
+
+    @Before
+    public void init() {
+        //The writer calls our mocks from its flush thread
+        context.setThreadingPolicy(synchroniser);
+        mockJobAuditLogDao = context.mock(VGLJobAuditLogDao.class);
+    }
+
+    private VGLJobAuditLog createAuditLog(int jobId, Date transitionDate) {
+        VGLJobAuditLog auditLog = new VGLJobAuditLog();
+        auditLog.setJobId(jobId);
+        auditLog.setToStatus("Pending");
+        auditLog.setTransitionDate(transitionDate);
+        return auditLog;
+    }
+
+    /**
+     * Captures a copy of the batch passed to saveAll
+     */
+    private CustomAction captureBatch(final List<VGLJobAuditLog> captured) {
+        return new CustomAction("capture batch") {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                captured.addAll((List<VGLJobAuditLog>) invocation.getParameter(0));
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Tests that reaching the batch size triggers a background flush of a single batch
+     * @throws Exception
+     */
+    @Test
+    public void testFlushOnBatchSize() throws Exception {
+        final States flushed = context.states("flushed").startsAs("no");
+        final List<VGLJobAuditLog> captured = new ArrayList<VGLJobAuditLog>();
+        VGLJobAuditLogWriter writer = new VGLJobAuditLogWriter(mockJobAuditLogDao, 10, 2, FLUSH_INTERVAL);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobAuditLogDao).saveAll(with(any(List.class)));will(captureBatch(captured));then(flushed.is("yes"));
+        }});
+
+        writer.write(createAuditLog(1, new Date()));
+        writer.write(createAuditLog(2, new Date()));
+        synchroniser.waitUntil(flushed.is("yes"), 5000L);
+
+        Assert.assertEquals(2, captured.size());
+        Assert.assertEquals(1, captured.get(0).getJobId().intValue());
+        Assert.assertEquals(2, captured.get(1).getJobId().intValue());
+        Assert.assertEquals(2L, writer.getWrittenCount());
+        writer.shutdown();
+    }
+
+    /**
+     * Tests that the oldest audit log is dropped (and counted) when the ring is full
+     */
+    @Test
+    public void testDropOldestWhenFull() {
+        final List<VGLJobAuditLog> captured = new ArrayList<VGLJobAuditLog>();
+        VGLJobAuditLogWriter writer = new VGLJobAuditLogWriter(mockJobAuditLogDao, 2, 10, FLUSH_INTERVAL);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobAuditLogDao).saveAll(with(any(List.class)));will(captureBatch(captured));
+        }});
+
+        writer.write(createAuditLog(1, new Date()));
+        writer.write(createAuditLog(2, new Date()));
+        writer.write(createAuditLog(3, new Date()));
+        Assert.assertEquals(1L, writer.getDroppedCount());
+
+        writer.shutdown();
+
+        Assert.assertEquals(2, captured.size());
+        Assert.assertEquals(2, captured.get(0).getJobId().intValue());
+        Assert.assertEquals(3, captured.get(1).getJobId().intValue());
+    }
+
+    /**
+     * Tests that a failed batch is kept and retried by the next flush
+     */
+    @Test
+    public void testFlushFailureRetried() {
+        VGLJobAuditLogWriter writer = new VGLJobAuditLogWriter(mockJobAuditLogDao, 10, 10, FLUSH_INTERVAL);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobAuditLogDao).saveAll(with(any(List.class)));will(throwException(new DataAccessResourceFailureException("Database unavailable")));
+            oneOf(mockJobAuditLogDao).saveAll(with(any(List.class)));
+        }});
+
+        writer.write(createAuditLog(1, new Date()));
+        writer.flush();
+        Assert.assertEquals(1, writer.getPendingCount());
+        Assert.assertEquals(0L, writer.getWrittenCount());
+
+        writer.flush();
+        Assert.assertEquals(0, writer.getPendingCount());
+        Assert.assertEquals(1L, writer.getWrittenCount());
+        writer.shutdown();
+    }
+
+    /**
+     * Tests that audit logs written long after their transition are counted as late
+     */
+    @Test
+    public void testLateAuditLogs() {
+        VGLJobAuditLogWriter writer = new VGLJobAuditLogWriter(mockJobAuditLogDao, 10, 10, FLUSH_INTERVAL);
+        writer.setLateThreshold(1000L);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobAuditLogDao).saveAll(with(any(List.class)));
+        }});
+
+        writer.write(createAuditLog(1, new Date(System.currentTimeMillis() - 60000L)));
+        writer.write(createAuditLog(2, new Date()));
+        writer.shutdown();
+
+        Assert.assertEquals(1L, writer.getLateCount());
+        Assert.assertEquals(2L, writer.getWrittenCount());
+    }
+
+    /**
+     * Tests that audit logs written after shutdown are saved synchronously
+     */
+    @Test
+    public void testWriteAfterShutdown() {
+        VGLJobAuditLogWriter writer = new VGLJobAuditLogWriter(mockJobAuditLogDao, 10, 10, FLUSH_INTERVAL);
+        writer.shutdown();
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobAuditLogDao).saveAll(with(any(List.class)));
+        }});
+
+        writer.write(createAuditLog(1, new Date()));
+        Assert.assertEquals(1L, writer.getWrittenCount());
+    }
+}
@@ -0,0 +1,294 @@
+package org.auscope.portal.server.vegl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.cloud.CloudComputeService;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.auscope.portal.server.web.service.monitor.VGLJobStatusChangeHandler;
+import org.jmock.Expectations;
+import org.jmock.Sequence;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VGLJobQueueScheduler
+ */
+public class TestVGLJobQueueScheduler extends PortalTestClass {
+    private VEGLJobManager mockJobManager;
+    private CloudComputeService mockComputeService;
+    private VGLJobStatusChangeHandler mockHandler;
+    private VGLJobQueueScheduler scheduler;
+
+    @Before
+    public void init() {
+        mockJobManager = context.mock(VEGLJobManager.class);
+        mockComputeService = context.mock(CloudComputeService.class);
+        mockHandler = context.mock(VGLJobStatusChangeHandler.class);
+        scheduler = new VGLJobQueueScheduler();
+    }
+
+    private VEGLJob createJob(int id, String computeServiceId, String user) {
+        VEGLJob job = new VEGLJob(id);
+        job.setComputeServiceId(computeServiceId);
+        job.setUser(user);
+        job.setStatus(JobBuilderController.STATUS_INQUEUE);
+        return job;
+    }
+
+    private VGLQueueJob createQueueJob(VEGLJob job) {
+        return new VGLQueueJob(mockJobManager, mockComputeService, job, "", mockHandler);
+    }
+
+    /**
+     * Queued jobs are reloaded before (and after) they are launched - this returns each job unchanged
+     */
+    private void allowReload(final VEGLJob... jobs) {
+        context.checking(new Expectations() {{
+            for (VEGLJob job : jobs) {
+                allowing(mockJobManager).getJobById(job.getId());will(returnValue(job));
+            }
+        }});
+    }
+
+    /**
+     * Tests that each user's jobs are launched in turn rather than in submission order
+     */
+    @Test
+    public void testRun_RoundRobinPerUser() throws Exception {
+        final VEGLJob job1 = createJob(1, "compute", "user1");
+        final VEGLJob job2 = createJob(2, "compute", "user1");
+        final VEGLJob job3 = createJob(3, "compute", "user2");
+        final Sequence launchSequence = context.sequence("launchSequence");
+
+        allowReload(job1, job2, job3);
+        context.checking(new Expectations() {{
+            oneOf(mockComputeService).executeJob(job1, "");inSequence(launchSequence);will(returnValue("i-1"));
+            oneOf(mockComputeService).executeJob(job3, "");inSequence(launchSequence);will(returnValue("i-3"));
+            oneOf(mockComputeService).executeJob(job2, "");inSequence(launchSequence);will(returnValue("i-2"));
+
+            allowing(mockJobManager).createJobAuditTrail(with(equal(JobBuilderController.STATUS_INQUEUE)), with(any(VEGLJob.class)), with(any(String.class)));
+            allowing(mockJobManager).saveJob(with(any(VEGLJob.class)));
+        }});
+
+        scheduler.addJob(createQueueJob(job1));
+        scheduler.addJob(createQueueJob(job2));
+        scheduler.addJob(createQueueJob(job3));
+        Assert.assertEquals(3, scheduler.size());
+
+        scheduler.run();
+
+        Assert.assertFalse(scheduler.hasJob());
+        Assert.assertEquals(JobBuilderController.STATUS_PENDING, job2.getStatus());
+    }
+
+    /**
+     * Tests that a compute service reporting an exceeded quota backs off without affecting other compute services
+     */
+    @Test
+    public void testRun_QuotaBackoffPerProvider() throws Exception {
+        final VEGLJob job1 = createJob(1, "compute-full", "user1");
+        final VEGLJob job2 = createJob(2, "compute-full", "user1");
+        final VEGLJob job3 = createJob(3, "compute-free", "user1");
+
+        allowReload(job1, job2, job3);
+        context.checking(new Expectations() {{
+            //Only the first job for the full compute service should be attempted, and only once
+            oneOf(mockComputeService).executeJob(job1, "");will(throwException(new PortalServiceException("Launch failed", "Quota exceeded")));
+            oneOf(mockComputeService).executeJob(job3, "");will(returnValue("i-3"));
+
+            allowing(mockJobManager).createJobAuditTrail(with(equal(JobBuilderController.STATUS_INQUEUE)), with(any(VEGLJob.class)), with(any(String.class)));
+            allowing(mockJobManager).saveJob(with(any(VEGLJob.class)));
+        }});
+
+        scheduler.setInitialBackoff(60000L);
+        scheduler.addJob(createQueueJob(job1));
+        scheduler.addJob(createQueueJob(job2));
+        scheduler.addJob(createQueueJob(job3));
+
+        scheduler.run();
+        Assert.assertEquals(2, scheduler.size("compute-full"));
+        Assert.assertEquals(0, scheduler.size("compute-free"));
+
+        //The full compute service is still backing off
+        scheduler.run();
+        Assert.assertEquals(2, scheduler.size("compute-full"));
+        Assert.assertEquals(JobBuilderController.STATUS_INQUEUE, job1.getStatus());
+    }
+
+    /**
+     * Tests that freeing capacity on a compute service retries its queue immediately, even while backing off
+     */
+    @Test
+    public void testCapacityFreed_IgnoresBackoff() throws Exception {
+        final VEGLJob job1 = createJob(1, "compute", "user1");
+        final VEGLJob job2 = createJob(2, "compute-other", "user1");
+        final Sequence launchSequence = context.sequence("launchSequence");
+
+        allowReload(job1, job2);
+        context.checking(new Expectations() {{
+            oneOf(mockComputeService).executeJob(job1, "");inSequence(launchSequence);will(throwException(new PortalServiceException("Launch failed", "Quota exceeded")));
+            oneOf(mockComputeService).executeJob(job2, "");inSequence(launchSequence);will(throwException(new PortalServiceException("Launch failed", "Quota exceeded")));
+            oneOf(mockComputeService).executeJob(job1, "");inSequence(launchSequence);will(returnValue("i-1"));
+
+            allowing(mockJobManager).createJobAuditTrail(with(equal(JobBuilderController.STATUS_INQUEUE)), with(any(VEGLJob.class)), with(any(String.class)));
+            allowing(mockJobManager).saveJob(with(any(VEGLJob.class)));
+        }});
+
+        scheduler.setInitialBackoff(60000L);
+        scheduler.addJob(createQueueJob(job1));
+        scheduler.addJob(createQueueJob(job2));
+        scheduler.run();
+        Assert.assertEquals(2, scheduler.size());
+
+        //No executor so the queue is drained on this thread. Only "compute" should be retried
+        scheduler.capacityFreed("compute");
+        Assert.assertEquals(0, scheduler.size("compute"));
+        Assert.assertEquals(1, scheduler.size("compute-other"));
+
+        //Nothing queued - nothing to do
+        scheduler.capacityFreed("compute");
+        scheduler.capacityFreed("compute-unknown");
+    }
+
+    /**
+     * Tests that a job failing for any reason other than quota is removed and put into an error state
+     */
+    @Test
+    public void testRun_ErrorRemovesJob() throws Exception {
+        final VEGLJob job1 = createJob(1, "compute", "user1");
+        final VEGLJob job2 = createJob(2, "compute", "user1");
+        final PortalServiceException ex = new PortalServiceException("Launch failed", "Bad image");
+
+        allowReload(job1, job2);
+        context.checking(new Expectations() {{
+            oneOf(mockComputeService).executeJob(job1, "");will(throwException(ex));
+            oneOf(mockJobManager).createJobAuditTrail(JobBuilderController.STATUS_INQUEUE, job1, ex);
+            oneOf(mockHandler).handleStatusChange(job1, JobBuilderController.STATUS_ERROR, JobBuilderController.STATUS_INQUEUE);
+
+            oneOf(mockComputeService).executeJob(job2, "");will(returnValue("i-2"));
+            oneOf(mockJobManager).createJobAuditTrail(with(equal(JobBuilderController.STATUS_INQUEUE)), with(equal(job2)), with(any(String.class)));
+
+            allowing(mockJobManager).saveJob(with(any(VEGLJob.class)));
+        }});
+
+        scheduler.addJob(createQueueJob(job1));
+        scheduler.addJob(createQueueJob(job2));
+        scheduler.run();
+
+        Assert.assertFalse(scheduler.hasJob());
+        Assert.assertEquals(JobBuilderController.STATUS_ERROR, job1.getStatus());
+        Assert.assertEquals(JobBuilderController.STATUS_PENDING, job2.getStatus());
+    }
+
+    /**
+     * Tests that a job cancelled while it was queued isn't launched or put into an error state
+     */
+    @Test
+    public void testRun_CancelledJob() throws Exception {
+        final VEGLJob job1 = createJob(1, "compute", "user1");
+        final VEGLJob cancelledJob1 = createJob(1, "compute", "user1");
+        cancelledJob1.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
+
+        context.checking(new Expectations() {{
+            allowing(mockJobManager).getJobById(1);will(returnValue(cancelledJob1));
+
+            never(mockComputeService).executeJob(with(any(VEGLJob.class)), with(any(String.class)));
+            never(mockJobManager).saveJob(with(any(VEGLJob.class)));
+        }});
+
+        VGLQueueJob queueJob = createQueueJob(job1);
+        scheduler.addJob(queueJob);
+        scheduler.run();
+        queueJob.updateErrorStatus(new Exception());
+
+        Assert.assertFalse(scheduler.hasJob());
+        Assert.assertEquals(JobBuilderController.STATUS_UNSUBMITTED, cancelledJob1.getStatus());
+    }
+
+    /**
+     * Tests that the instance of a job cancelled while it was launching is terminated rather
+     * than the job being set to Pending
+     */
+    @Test
+    public void testRun_CancelledDuringLaunch() throws Exception {
+        final VEGLJob job1 = createJob(1, "compute", "user1");
+        final VEGLJob cancelledJob1 = createJob(1, "compute", "user1");
+        cancelledJob1.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
+        final Sequence reloadSequence = context.sequence("reloadSequence");
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getJobById(1);inSequence(reloadSequence);will(returnValue(job1));
+            oneOf(mockComputeService).executeJob(job1, "");inSequence(reloadSequence);will(returnValue("i-1"));
+            oneOf(mockJobManager).getJobById(1);inSequence(reloadSequence);will(returnValue(cancelledJob1));
+            oneOf(mockComputeService).terminateJob(job1);inSequence(reloadSequence);
+
+            never(mockJobManager).saveJob(with(any(VEGLJob.class)));
+        }});
+
+        scheduler.addJob(createQueueJob(job1));
+        scheduler.run();
+
+        Assert.assertFalse(scheduler.hasJob());
+        Assert.assertEquals("i-1", job1.getComputeInstanceId());
+        Assert.assertEquals(JobBuilderController.STATUS_UNSUBMITTED, cancelledJob1.getStatus());
+        Assert.assertNull(cancelledJob1.getSubmitDate());
+    }
+
+    /**
+     * Tests that queued jobs are persisted as pending tasks and that the task is removed once the job launches
+     */
+    @Test
+    public void testPersistence() throws Exception {
+        final VEGLJob job1 = createJob(1, "compute", "user1");
+        final VGLPendingTask task = new VGLPendingTask(1, VGLPendingTask.TYPE_QUEUED_SUBMISSION);
+        scheduler = new VGLJobQueueScheduler(mockJobManager);
+
+        allowReload(job1);
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getPendingTask(1, VGLPendingTask.TYPE_QUEUED_SUBMISSION);will(returnValue(null));
+            oneOf(mockJobManager).savePendingTask(with(any(VGLPendingTask.class)));
+
+            oneOf(mockComputeService).executeJob(job1, "");will(returnValue("i-1"));
+            allowing(mockJobManager).createJobAuditTrail(with(equal(JobBuilderController.STATUS_INQUEUE)), with(any(VEGLJob.class)), with(any(String.class)));
+            allowing(mockJobManager).saveJob(with(any(VEGLJob.class)));
+
+            oneOf(mockJobManager).getPendingTask(1, VGLPendingTask.TYPE_QUEUED_SUBMISSION);will(returnValue(task));
+            oneOf(mockJobManager).deletePendingTask(task);
+        }});
+
+        scheduler.addJob(createQueueJob(job1));
+        scheduler.addJob(createQueueJob(job1)); //duplicates are ignored
+        Assert.assertEquals(1, scheduler.size());
+
+        scheduler.run();
+        Assert.assertFalse(scheduler.hasJob());
+    }
+
+    /**
+     * Tests that In Queue jobs are restored in the order they were persisted and stale records are removed
+     */
+    @Test
+    public void testRestoreOrder() throws Exception {
+        final VEGLJob job1 = createJob(1, "compute", "user1");
+        final VEGLJob job2 = createJob(2, "compute", "user1");
+        final VEGLJob job3 = createJob(3, "compute", "user1");
+        final VGLPendingTask task2 = new VGLPendingTask(2, VGLPendingTask.TYPE_QUEUED_SUBMISSION);
+        final VGLPendingTask staleTask = new VGLPendingTask(4, VGLPendingTask.TYPE_QUEUED_SUBMISSION);
+        final VGLPendingTask task1 = new VGLPendingTask(1, VGLPendingTask.TYPE_QUEUED_SUBMISSION);
+        scheduler = new VGLJobQueueScheduler(mockJobManager);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getPendingTasks(VGLPendingTask.TYPE_QUEUED_SUBMISSION, Integer.MAX_VALUE);
+            will(returnValue(Arrays.asList(task2, staleTask, task1)));
+            oneOf(mockJobManager).deletePendingTask(staleTask);
+        }});
+
+        List<VEGLJob> ordered = scheduler.restoreOrder(Arrays.asList(job1, job2, job3));
+        Assert.assertEquals(Arrays.asList(job2, job1, job3), ordered);
+    }
+}
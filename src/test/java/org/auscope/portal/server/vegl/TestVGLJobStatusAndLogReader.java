@@ -1,7 +1,9 @@
 package org.auscope.portal.server.vegl;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -17,8 +19,11 @@ import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.test.ResourceUtil;
 import org.auscope.portal.server.web.controllers.JobBuilderController;
 import org.auscope.portal.server.web.controllers.JobListController;
+import org.auscope.portal.server.web.service.CloudFileMetadata;
+import org.auscope.portal.server.web.service.VHIRLCloudStorageService;
 import org.auscope.portal.server.web.service.VHIRLFileStagingService;
 import org.jmock.Expectations;
+import org.springframework.ui.ModelMap;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -340,6 +345,240 @@ public class TestVGLJobStatusAndLogReader extends PortalTestClass {
 		Assert.assertNull(result);
 	}
 
+	/**
+	 * Tests that a storage service supporting metadata probes is never asked to list job files
+	 * @throws Exception
+	 */
+	@Test
+	public final void testGetJobStatus_ProbePendingToActive() throws Exception {
+		final int mockJobId = 123;
+		final VEGLJob mockJob = context.mock(VEGLJob.class);
+		final VHIRLCloudStorageService mockProbeService = context.mock(VHIRLCloudStorageService.class);
+		final VGLJobStatusAndLogReader probeReader = new VGLJobStatusAndLogReader(mockJobManager, mockFileStagingService,
+				new CloudStorageService[] {mockProbeService}, mockCloudComputeServices);
+
+		context.checking(new Expectations() {{
+			oneOf(mockJobManager).getJobById(mockJobId);will(returnValue(mockJob));
+			allowing(mockJob).getId();will(returnValue(mockJobId));
+			allowing(mockJob).getStatus();will(returnValue(JobBuilderController.STATUS_PENDING));
+			allowing(mockJob).getStorageServiceId();will(returnValue(storageServiceId));
+			allowing(mockProbeService).getId();will(returnValue(storageServiceId));
+			oneOf(mockProbeService).getJobFileMetadata(mockJob, JobListController.VGL_LOG_FILE);will(returnValue(null));
+			oneOf(mockProbeService).getJobFileMetadata(mockJob, VGLJobStatusAndLogReader.JOB_STARTED_FILE);will(returnValue(new CloudFileMetadata("key/workflow-version.txt", 10L, "etag")));
+			never(mockProbeService).listJobFiles(mockJob);
+		}});
+
+		String status = probeReader.getJobStatus(mockJob);
+		Assert.assertEquals(JobBuilderController.STATUS_ACTIVE, status);
+		Assert.assertEquals(1L, probeReader.getListingCallsAvoided());
+		Assert.assertEquals(0L, probeReader.getListingCalls());
+	}
+
+	/**
+	 * Tests that a failing metadata probe falls back to listing the job files
+	 * @throws Exception
+	 */
+	@Test
+	public final void testGetJobStatus_ProbeFailureFallback() throws Exception {
+		final int mockJobId = 123;
+		final VEGLJob mockJob = context.mock(VEGLJob.class);
+		final VHIRLCloudStorageService mockProbeService = context.mock(VHIRLCloudStorageService.class);
+		final VGLJobStatusAndLogReader probeReader = new VGLJobStatusAndLogReader(mockJobManager, mockFileStagingService,
+				new CloudStorageService[] {mockProbeService}, mockCloudComputeServices);
+		final CloudFileInformation[] jobActiveFiles = new CloudFileInformation[] {
+				new CloudFileInformation("key/workflow-version.txt", 10L, "http://public.url/workflow-version.txt"),
+		};
+
+		context.checking(new Expectations() {{
+			oneOf(mockJobManager).getJobById(mockJobId);will(returnValue(mockJob));
+			allowing(mockJob).getId();will(returnValue(mockJobId));
+			allowing(mockJob).getStatus();will(returnValue(JobBuilderController.STATUS_PENDING));
+			allowing(mockJob).getStorageServiceId();will(returnValue(storageServiceId));
+			allowing(mockProbeService).getId();will(returnValue(storageServiceId));
+			oneOf(mockProbeService).getJobFileMetadata(mockJob, JobListController.VGL_LOG_FILE);will(throwException(new PortalServiceException("error")));
+			oneOf(mockProbeService).listJobFiles(mockJob);will(returnValue(jobActiveFiles));
+		}});
+
+		String status = probeReader.getJobStatus(mockJob);
+		Assert.assertEquals(JobBuilderController.STATUS_ACTIVE, status);
+		Assert.assertEquals(0L, probeReader.getListingCallsAvoided());
+		Assert.assertEquals(1L, probeReader.getListingCalls());
+	}
+
+	/**
+	 * Tests that refreshing job statuses avoids reloading jobs whose status hasn't changed
+	 * @throws Exception
+	 */
+	@Test
+	public final void testRefreshJobStatuses() throws Exception {
+		final VEGLJob unchangedJob = new VEGLJob(1);
+		unchangedJob.setStatus(JobBuilderController.STATUS_ACTIVE);
+		unchangedJob.setStorageServiceId(storageServiceId);
+		final VEGLJob changedJob = new VEGLJob(2);
+		changedJob.setStatus(JobBuilderController.STATUS_ACTIVE);
+		final VEGLJob reloadedJob = new VEGLJob(2);
+		reloadedJob.setStatus(JobBuilderController.STATUS_DONE);
+		final HashMap<Integer, String> statuses = new HashMap<Integer, String>();
+		statuses.put(1, JobBuilderController.STATUS_ACTIVE);
+		statuses.put(2, JobBuilderController.STATUS_DONE);
+		final CloudFileInformation[] jobActiveFiles = new CloudFileInformation[] {
+				new CloudFileInformation("key/workflow-version.txt", 10L, "http://public.url/workflow-version.txt"),
+		};
+
+		context.checking(new Expectations() {{
+			oneOf(mockJobManager).getJobStatuses(Arrays.asList(1, 2));will(returnValue(statuses));
+			never(mockJobManager).getJobById(1);
+			oneOf(mockJobManager).getJobById(2);will(returnValue(reloadedJob));
+			oneOf(mockCloudStorageServices[0]).listJobFiles(unchangedJob);will(returnValue(jobActiveFiles));
+		}});
+
+		jobStatLogReader.refreshJobStatuses(Arrays.asList(unchangedJob, changedJob));
+		Assert.assertEquals(JobBuilderController.STATUS_ACTIVE, jobStatLogReader.getJobStatus(unchangedJob));
+		Assert.assertEquals(JobBuilderController.STATUS_DONE, jobStatLogReader.getJobStatus(changedJob));
+	}
+
+	/**
+	 * Tests that inline provenance of a refreshed job (whose collections aren't loaded) uses the job loaded from the DB
+	 * @throws Exception
+	 */
+	@Test
+	public final void testGetJobStatus_RefreshedToDone() throws Exception {
+		final int jobId = 123;
+		final VEGLJob listedJob = context.mock(VEGLJob.class, "listedJob");
+		final VEGLJob loadedJob = context.mock(VEGLJob.class, "loadedJob");
+		final HashMap<Integer, String> statuses = new HashMap<Integer, String>();
+		statuses.put(jobId, JobBuilderController.STATUS_PENDING);
+		final CloudFileInformation[] jobDoneFiles = new CloudFileInformation[] {
+				new CloudFileInformation("key3/workflow-version.txt", 100L, "http://public.url3/filename"),
+				new CloudFileInformation("key3/vl.sh.log", 102L, "http://public.url3/filename3"),
+		};
+
+		context.checking(new Expectations() {{
+			oneOf(mockJobManager).getJobStatuses(Arrays.asList(jobId));will(returnValue(statuses));
+			allowing(listedJob).getId();will(returnValue(jobId));
+			allowing(listedJob).getStatus();will(returnValue(JobBuilderController.STATUS_PENDING));
+			allowing(listedJob).getStorageServiceId();will(returnValue(storageServiceId));
+			allowing(mockCloudStorageServices[0]).listJobFiles(with(any(VEGLJob.class)));will(returnValue(jobDoneFiles));
+			never(listedJob).getJobDownloads();
+
+			oneOf(mockJobManager).getJobById(jobId);will(returnValue(loadedJob));
+			allowing(loadedJob).getId();will(returnValue(jobId));
+			allowing(loadedJob).getStorageServiceId();will(returnValue(storageServiceId));
+			allowing(loadedJob).getRegisteredUrl();will(returnValue("http://server.csiro.au/job123"));
+			allowing(loadedJob).getName();will(returnValue("Job Name"));
+			allowing(loadedJob).getDescription();will(returnValue("Job Description"));
+			allowing(loadedJob).getSubmitDate();will(returnValue(new Date()));
+			allowing(loadedJob).getUser();will(returnValue("Jane Ng"));
+			allowing(loadedJob).getProcessDate();will(returnValue(new Date()));
+			allowing(loadedJob).getJobDownloads();will(returnValue(new ArrayList<VglDownload>()));
+		}});
+
+		jobStatLogReader.refreshJobStatuses(Arrays.asList(listedJob));
+		Assert.assertEquals(JobBuilderController.STATUS_DONE, jobStatLogReader.getJobStatus(listedJob));
+	}
+
+	/**
+	 * Tests that a log is only downloaded once whilst its ETag is unchanged
+	 * @throws Exception
+	 */
+	@Test
+	public final void testGetSectionedLog_Cached() throws Exception {
+		final InputStream logContents = ResourceUtil.loadResourceAsStream("sectionedVglLog.txt");
+		final VEGLJob mockJob = context.mock(VEGLJob.class);
+		final VHIRLCloudStorageService mockProbeService = context.mock(VHIRLCloudStorageService.class);
+		final VGLJobStatusAndLogReader cachingReader = new VGLJobStatusAndLogReader(mockJobManager, mockFileStagingService,
+				new CloudStorageService[] {mockProbeService}, mockCloudComputeServices);
+		final VGLSectionedLogCache logCache = new VGLSectionedLogCache();
+		cachingReader.setLogCache(logCache);
+
+		context.checking(new Expectations() {{
+			allowing(mockJob).getId();will(returnValue(123));
+			allowing(mockJob).getStorageServiceId();will(returnValue(storageServiceId));
+			allowing(mockProbeService).getId();will(returnValue(storageServiceId));
+			exactly(2).of(mockProbeService).getJobFileMetadata(mockJob, JobListController.VGL_LOG_FILE);will(returnValue(new CloudFileMetadata("key/vl.sh.log", 100L, "etag")));
+			oneOf(mockProbeService).getJobFile(mockJob, JobListController.VGL_LOG_FILE);will(returnValue(logContents));
+		}});
+
+		Assert.assertEquals("contents of env\n", stripCarriageReturns(cachingReader.getSectionedLog(mockJob, "environment")));
+		Assert.assertEquals("text\n", stripCarriageReturns(cachingReader.getSectionedLog(mockJob, "spaced header")));
+		Assert.assertEquals(1, logCache.getHitCount());
+		Assert.assertEquals(1, logCache.getMissCount());
+	}
+
+	/**
+	 * Tests that log tails use ranged reads where supported
+	 * @throws Exception
+	 */
+	@Test
+	public final void testGetLogTail_Ranged() throws Exception {
+		final VEGLJob mockJob = context.mock(VEGLJob.class);
+		final VHIRLCloudStorageService mockRangedService = context.mock(VHIRLCloudStorageService.class);
+		final VGLJobStatusAndLogReader rangedReader = new VGLJobStatusAndLogReader(mockJobManager, mockFileStagingService,
+				new CloudStorageService[] {mockRangedService}, mockCloudComputeServices);
+
+		context.checking(new Expectations() {{
+			allowing(mockJob).getStorageServiceId();will(returnValue(storageServiceId));
+			allowing(mockRangedService).getId();will(returnValue(storageServiceId));
+			oneOf(mockRangedService).getJobFileMetadata(mockJob, JobListController.VGL_LOG_FILE);will(returnValue(new CloudFileMetadata("key/vl.sh.log", 15L, "etag")));
+			oneOf(mockRangedService).getJobFileRange(mockJob, JobListController.VGL_LOG_FILE, 10L, 14L);will(returnValue(new ByteArrayInputStream("world".getBytes())));
+			never(mockRangedService).getJobFile(mockJob, JobListController.VGL_LOG_FILE);
+		}});
+
+		ModelMap tail = rangedReader.getLogTail(mockJob, 10L, 1024);
+		Assert.assertEquals("world", tail.get("content"));
+		Assert.assertEquals(10L, tail.get("offset"));
+		Assert.assertEquals(15L, tail.get("nextOffset"));
+	}
+
+	/**
+	 * Tests that log tails fall back to skipping through the full log
+	 * @throws Exception
+	 */
+	@Test
+	public final void testGetLogTail_Fallback() throws Exception {
+		final VEGLJob mockJob = context.mock(VEGLJob.class);
+
+		context.checking(new Expectations() {{
+			allowing(mockJob).getStorageServiceId();will(returnValue(storageServiceId));
+			oneOf(mockCloudStorageServices[0]).getJobFile(mockJob, JobListController.VGL_LOG_FILE);will(returnValue(new ByteArrayInputStream("hello log world".getBytes())));
+		}});
+
+		ModelMap tail = jobStatLogReader.getLogTail(mockJob, 6L, 3);
+		Assert.assertEquals("log", tail.get("content"));
+		Assert.assertEquals(6L, tail.get("offset"));
+		Assert.assertEquals(9L, tail.get("nextOffset"));
+	}
+
+	/**
+	 * Tests that log tails are decoded as UTF-8 and that characters cut off at either end are
+	 * left for the neighbouring requests
+	 * @throws Exception
+	 */
+	@Test
+	public final void testGetLogTail_PartialCharacters() throws Exception {
+		final VEGLJob mockJob = context.mock(VEGLJob.class);
+		//"a\u00e9b\u20acc" - a 2 byte character at offset 1 and a 3 byte character at offset 4
+		final byte[] log = "a\u00e9b\u20acc".getBytes("UTF-8");
+
+		context.checking(new Expectations() {{
+			allowing(mockJob).getStorageServiceId();will(returnValue(storageServiceId));
+			exactly(2).of(mockCloudStorageServices[0]).getJobFile(mockJob, JobListController.VGL_LOG_FILE);
+			will(onConsecutiveCalls(returnValue(new ByteArrayInputStream(log)), returnValue(new ByteArrayInputStream(log))));
+		}});
+
+		//Starts half way through the first character and ends half way through the second
+		ModelMap tail = jobStatLogReader.getLogTail(mockJob, 2L, 4);
+		Assert.assertEquals("b", tail.get("content"));
+		Assert.assertEquals(3L, tail.get("offset"));
+		Assert.assertEquals(4L, tail.get("nextOffset"));
+
+		//The next request picks up the whole character
+		tail = jobStatLogReader.getLogTail(mockJob, 4L, 4);
+		Assert.assertEquals("\u20acc", tail.get("content"));
+		Assert.assertEquals(4L, tail.get("offset"));
+		Assert.assertEquals(8L, tail.get("nextOffset"));
+	}
+
 	private String stripCarriageReturns(final String s) {
 		return s.replaceAll("\r", "");
 	}
@@ -0,0 +1,141 @@
+package org.auscope.portal.server.vegl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.jmock.Expectations;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VGLJobSummaryCache
+ */
+public class TestVGLJobSummaryCache extends PortalTestClass {
+    private static final String USER = "user@email.com";
+
+    private VEGLSeriesDao mockSeriesDao;
+    private VEGLJobDao mockJobDao;
+    private VGLJobSummaryCache cache;
+
+    private List<VEGLSeries> seriesList;
+    private Map<Integer, Map<String, Integer>> counts;
+
+    @Before
+    public void init() {
+        mockSeriesDao = context.mock(VEGLSeriesDao.class);
+        mockJobDao = context.mock(VEGLJobDao.class);
+        cache = new VGLJobSummaryCache(mockSeriesDao, mockJobDao, 10);
+
+        VEGLSeries series1 = new VEGLSeries();
+        series1.setId(1);
+        series1.setUser(USER);
+        series1.setName("series1");
+        VEGLSeries series2 = new VEGLSeries();
+        series2.setId(2);
+        series2.setUser(USER);
+        series2.setName("series2");
+        seriesList = Arrays.asList(series1, series2);
+
+        Map<String, Integer> series1Counts = new HashMap<String, Integer>();
+        series1Counts.put(JobBuilderController.STATUS_DONE, 3);
+        series1Counts.put(JobBuilderController.STATUS_ACTIVE, 1);
+        counts = new HashMap<Integer, Map<String, Integer>>();
+        counts.put(1, series1Counts);
+    }
+
+    /**
+     * Tests that summaries are loaded once and then served from memory
+     */
+    @Test
+    public void testGetSeriesSummaries() {
+        context.checking(new Expectations() {{
+            oneOf(mockSeriesDao).query(USER, null, null);will(returnValue(seriesList));
+            oneOf(mockJobDao).countJobStatusesOfSeries(Arrays.asList(1, 2));will(returnValue(counts));
+        }});
+
+        List<VGLJobSummaryCache.SeriesSummary> summaries = cache.getSeriesSummaries(USER);
+        Assert.assertSame(summaries, cache.getSeriesSummaries(USER));
+
+        Assert.assertEquals(2, summaries.size());
+        Assert.assertEquals(Integer.valueOf(1), summaries.get(0).getId());
+        Assert.assertEquals("series1", summaries.get(0).getName());
+        Assert.assertEquals(4, summaries.get(0).getJobCount());
+        Assert.assertEquals(Integer.valueOf(3), summaries.get(0).getStatusCounts().get(JobBuilderController.STATUS_DONE));
+        Assert.assertEquals(0, summaries.get(1).getJobCount());
+        Assert.assertTrue(summaries.get(1).getStatusCounts().isEmpty());
+
+        Assert.assertEquals(1L, cache.getHitCount());
+        Assert.assertEquals(1L, cache.getMissCount());
+    }
+
+    /**
+     * Tests that summaries are reloaded after being invalidated
+     */
+    @Test
+    public void testInvalidate() {
+        context.checking(new Expectations() {{
+            exactly(3).of(mockSeriesDao).query(USER, null, null);will(returnValue(seriesList));
+            exactly(3).of(mockJobDao).countJobStatusesOfSeries(Arrays.asList(1, 2));will(returnValue(counts));
+        }});
+
+        cache.getSeriesSummaries(USER);
+        cache.invalidate("other@email.com");
+        cache.getSeriesSummaries(USER);
+        cache.invalidate(USER);
+        cache.getSeriesSummaries(USER);
+        cache.invalidateAll();
+        Assert.assertEquals(0, cache.size());
+        cache.getSeriesSummaries(USER);
+
+        Assert.assertEquals(1L, cache.getHitCount());
+    }
+
+    /**
+     * Tests that summaries older than timeToLive are reloaded
+     */
+    @Test
+    public void testTimeToLive() {
+        cache.setTimeToLive(0);
+
+        context.checking(new Expectations() {{
+            exactly(2).of(mockSeriesDao).query(USER, null, null);will(returnValue(seriesList));
+            exactly(2).of(mockJobDao).countJobStatusesOfSeries(Arrays.asList(1, 2));will(returnValue(counts));
+        }});
+
+        cache.getSeriesSummaries(USER);
+        cache.getSeriesSummaries(USER);
+
+        Assert.assertEquals(0L, cache.getHitCount());
+    }
+
+    /**
+     * Tests that the least recently used users are discarded once there are more than maxUsers
+     */
+    @Test
+    public void testMaxUsers() {
+        cache = new VGLJobSummaryCache(mockSeriesDao, mockJobDao, 2);
+
+        context.checking(new Expectations() {{
+            allowing(mockSeriesDao).query(with(any(String.class)), with(aNull(String.class)), with(aNull(String.class)));
+            will(returnValue(new ArrayList<VEGLSeries>()));
+        }});
+
+        cache.getSeriesSummaries("user1");
+        cache.getSeriesSummaries("user2");
+        cache.getSeriesSummaries("user1");
+        cache.getSeriesSummaries("user3");
+        Assert.assertEquals(2, cache.size());
+
+        cache.getSeriesSummaries("user1");
+        Assert.assertEquals(2L, cache.getHitCount());
+        cache.getSeriesSummaries("user2");
+        Assert.assertEquals(2L, cache.getHitCount());
+    }
+}
@@ -0,0 +1,79 @@
+package org.auscope.portal.server.vegl;
+
+import java.io.ByteArrayInputStream;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VGLSectionedLogCache
+ */
+public class TestVGLSectionedLogCache extends PortalTestClass {
+    private VGLSectionedLogCache cache;
+
+    @Before
+    public void init() {
+        cache = new VGLSectionedLogCache();
+    }
+
+    private VGLSectionedLogParser.SectionedLog parse(String log) throws Exception {
+        VGLSectionedLogParser parser = new VGLSectionedLogParser();
+        parser.setCaptureFullLog(true);
+        return parser.parse(new ByteArrayInputStream(log.getBytes()));
+    }
+
+    /**
+     * Tests that lookups only hit when the version matches
+     * @throws Exception
+     */
+    @Test
+    public void testGetPut() throws Exception {
+        VGLSectionedLogParser.SectionedLog log = parse("#### Time start ####\n12\n#### Time end ####\n");
+
+        Assert.assertNull(cache.get(1, "etag-1"));
+        cache.put(1, "etag-1", log);
+        Assert.assertSame(log, cache.get(1, "etag-1"));
+        Assert.assertNull(cache.get(1, "etag-2"));
+
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * Tests that the least recently used entries are evicted when the cache is over weight
+     * @throws Exception
+     */
+    @Test
+    public void testEviction() throws Exception {
+        VGLSectionedLogParser.SectionedLog log = parse("0123456789\n"); //22 bytes of weight
+        cache.setMaxWeight(50);
+
+        cache.put(1, "v", log);
+        cache.put(2, "v", log);
+        Assert.assertNotNull(cache.get(1, "v")); //1 is now more recently used than 2
+        cache.put(3, "v", log);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertNull(cache.get(2, "v"));
+        Assert.assertNotNull(cache.get(1, "v"));
+        Assert.assertNotNull(cache.get(3, "v"));
+    }
+
+    /**
+     * Tests that logs heavier than maxEntryWeight aren't cached
+     * @throws Exception
+     */
+    @Test
+    public void testPutTooLarge() throws Exception {
+        cache.setMaxEntryWeight(10);
+        cache.put(1, "v", parse("0123456789\n"));
+
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getCurrentWeight());
+        Assert.assertFalse(cache.isCacheable(11));
+    }
+}
@@ -0,0 +1,73 @@
+package org.auscope.portal.server.vegl;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.IOUtils;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.test.ResourceUtil;
+import org.junit.Test;
+
+/**
+ * Unit tests for VGLSectionedLogParser
+ */
+public class TestVGLSectionedLogParser extends PortalTestClass {
+
+    private String stripCarriageReturns(final String s) {
+        return s.replaceAll("\r", "");
+    }
+
+    /**
+     * Tests that every section is parsed along with the full log
+     * @throws Exception
+     */
+    @Test
+    public void testParseAll() throws Exception {
+        final String logContents = IOUtils.toString(ResourceUtil.loadResourceAsStream("sectionedVglLog.txt"));
+        VGLSectionedLogParser parser = new VGLSectionedLogParser();
+        parser.setCaptureFullLog(true);
+
+        VGLSectionedLogParser.SectionedLog result = parser.parse(ResourceUtil.loadResourceAsStream("sectionedVglLog.txt"));
+
+        Assert.assertEquals(3, result.getSections().size());
+        Assert.assertEquals("contents of env\n", stripCarriageReturns(result.getSection("environment").getText()));
+        Assert.assertEquals("multiple\nlines\n", stripCarriageReturns(result.getSection("test").getText()));
+        Assert.assertEquals("text\n", stripCarriageReturns(result.getSection("spaced header").getText()));
+        Assert.assertEquals(logContents, result.getFullText());
+        Assert.assertEquals(logContents.getBytes().length, result.getLength());
+    }
+
+    /**
+     * Tests that only requested sections are captured but all sections are indexed
+     * @throws Exception
+     */
+    @Test
+    public void testParseSingleSection() throws Exception {
+        final String log = "#### Python start ####\n\n\nprint 1\n#### Python end ####\n#### Time start ####\n12.5\n#### Time end ####\n";
+        VGLSectionedLogParser parser = new VGLSectionedLogParser(Arrays.asList("Time"));
+
+        VGLSectionedLogParser.SectionedLog result = parser.parse(new ByteArrayInputStream(log.getBytes()));
+
+        Assert.assertNull(result.getFullText());
+        Assert.assertNull(result.getSection("Python").getText());
+        Assert.assertEquals("print 1\n", log.substring((int) result.getSection("Python").getStartOffset(), (int) result.getSection("Python").getEndOffset()));
+        Assert.assertEquals("12.5\n", result.getSection("Time").getText());
+    }
+
+    /**
+     * Tests that unclosed and mismatched sections are handled the same way as the original regex parser
+     * @throws Exception
+     */
+    @Test
+    public void testParseMismatchedSections() throws Exception {
+        final String log = "#### a start ####\nfoo\n#### b end ####\nbar\n#### a end ####\n#### c start ####\nunclosed\n";
+        VGLSectionedLogParser parser = new VGLSectionedLogParser();
+
+        VGLSectionedLogParser.SectionedLog result = parser.parse(new ByteArrayInputStream(log.getBytes()));
+
+        Assert.assertEquals(1, result.getSections().size());
+        Assert.assertEquals("foo\n#### b end ####\nbar\n", result.getSection("a").getText());
+    }
+}
@@ -5,6 +5,8 @@ import java.io.File;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,6 +29,7 @@ import org.auscope.portal.core.test.ResourceUtil;
 import org.auscope.portal.server.vegl.VEGLJob;
 import org.auscope.portal.server.vegl.VEGLJobManager;
 import org.auscope.portal.server.vegl.VGLJobStatusAndLogReader;
+import org.auscope.portal.server.vegl.VGLPendingTask;
 import org.auscope.portal.server.vegl.VGLPollingJobQueueManager;
 import org.auscope.portal.server.vegl.VglDownload;
 import org.auscope.portal.server.vegl.VglMachineImage;
@@ -35,12 +38,18 @@ import org.auscope.portal.server.vegl.mail.JobMailSender;
 import org.auscope.portal.server.web.security.VHIRLUser;
 import org.auscope.portal.server.web.service.ScmEntryService;
 import org.auscope.portal.server.web.service.VHIRLFileStagingService;
+import org.auscope.portal.server.web.service.VHIRLJobFileCopier;
+import org.auscope.portal.server.web.service.VHIRLJobInputUploader;
+import org.auscope.portal.server.web.service.VHIRLJobSubmissionExecutor;
 import org.auscope.portal.server.web.service.VHIRLProvenanceService;
 import org.auscope.portal.server.web.service.monitor.VGLJobStatusChangeHandler;
 import org.auscope.portal.server.web.service.scm.Solution;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.Sequence;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.After;
 import org.junit.Before;
@@ -74,6 +83,9 @@ public class TestJobBuilderController {
     private VGLPollingJobQueueManager vglPollingJobQueueManager;
     private VGLJobStatusChangeHandler vglJobStatusChangeHandler;
     private VHIRLProvenanceService vhirlProvenanceService;
+    private VHIRLJobSubmissionExecutor submissionExecutor;
+    private VHIRLJobInputUploader inputUploader;
+    private VHIRLJobFileCopier jobFileCopier;
 
 
 
@@ -104,15 +116,34 @@ public class TestJobBuilderController {
 
         vglJobStatusChangeHandler = new VGLJobStatusChangeHandler(mockJobManager, mockJobMailSender, mockVGLJobStatusAndLogReader);
         vglPollingJobQueueManager = new VGLPollingJobQueueManager();
+        submissionExecutor = new VHIRLJobSubmissionExecutor(1, 10);
+        inputUploader = new VHIRLJobInputUploader(2);
+        jobFileCopier = new VHIRLJobFileCopier(1);
         //Object Under Test
-        controller = new JobBuilderController(mockJobManager, mockFileStagingService, mockHostConfigurer, mockCloudStorageServices, mockCloudComputeServices, vglJobStatusChangeHandler, vglPollingJobQueueManager, mockScmEntryService, vhirlProvenanceService);
+        controller = new JobBuilderController(mockJobManager, mockFileStagingService, mockHostConfigurer, mockCloudStorageServices, mockCloudComputeServices, vglJobStatusChangeHandler, vglPollingJobQueueManager, mockScmEntryService, vhirlProvenanceService, submissionExecutor, inputUploader, jobFileCopier);
     }
 
     @After
     public void destroy(){
+        inputUploader.shutdown();
+        jobFileCopier.shutdown();
+        submissionExecutor.shutdown();
         vglPollingJobQueueManager.getQueue().clear();
     }
 
+    /**
+     * Counts down latch when invoked - used for waiting on the background upload and launch of a job
+     */
+    private static Action countDown(final CountDownLatch latch) {
+        return new CustomAction("count down") {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                latch.countDown();
+                return null;
+            }
+        };
+    }
+
 
 
     /**
@@ -590,6 +621,7 @@ public class TestJobBuilderController {
         final String storageProvider = "provider";
         final String storageAuthVersion = "1.2.3";
         final String regionName = null;
+        final CountDownLatch launched = new CountDownLatch(1);
         final String mockUser = "jo@me.com";
         final URI mockProfileUrl = new URI("https://plus.google.com/1");
 
@@ -609,6 +641,12 @@ public class TestJobBuilderController {
         jobObj.setStorageServiceId(storageServiceId);
 
         context.checking(new Expectations() {{
+            //The uploader records the name and size of every file
+            allowing(mockFile1).getName();will(returnValue("mockFile1"));
+            allowing(mockFile1).length();will(returnValue(0L));
+            allowing(mockFile2).getName();will(returnValue("mockFile2"));
+            allowing(mockFile2).length();will(returnValue(0L));
+
             oneOf(mockScmEntryService).getJobSolution(jobObj);will(returnValue(mockSolution));
             oneOf(mockSolution).getUri();will(returnValue("http://sssc.vhirl.org/solution1"));
             oneOf(mockSolution).getDescription();will(returnValue("A Fake Solution"));
@@ -622,8 +660,9 @@ public class TestJobBuilderController {
             allowing(mockRequest).isUserInRole("testRole2");will(returnValue(true));
             oneOf(mockRequest).getRequestURL();will(returnValue(new StringBuffer("http://mock.fake/secure/something")));
 
-            //We should have 1 call to our job manager to get our job object and 1 call to save it
-            oneOf(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
+            //We should have 1 call to our job manager to get our job object (and 3 more to check it's still
+            //provisioning once its files are uploaded, before its launch and after its launch) and 1 call to save it
+            exactly(4).of(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
             oneOf(mockJobManager).saveJob(jobObj);
 
             oneOf(mockFileStagingService).writeFile(jobObj, JobBuilderController.DOWNLOAD_SCRIPT);
@@ -664,7 +703,7 @@ public class TestJobBuilderController {
             //And finally 1 call to execute the job
             oneOf(mockCloudComputeServices[0]).executeJob(with(any(VEGLJob.class)), with(any(String.class)));will(returnValue(instanceId));
 
-            oneOf(mockJobManager).saveJob(jobObj);
+            oneOf(mockJobManager).saveJob(jobObj);will(countDown(launched));
 
             //We should have 1 call to our job manager to create a job audit trail record
             oneOf(mockJobManager).createJobAuditTrail(jobInSavedState, jobObj, "Set job to provisioning");
@@ -682,12 +721,279 @@ public class TestJobBuilderController {
         ModelAndView mav = controller.submitJob(mockRequest, mockResponse, jobObj.getId().toString(), mockPortalUser);
 
         Assert.assertTrue((Boolean)mav.getModel().get("success"));
-        Thread.sleep(1000);
+        Assert.assertTrue(launched.await(10, TimeUnit.SECONDS));
         Assert.assertEquals(instanceId, jobObj.getComputeInstanceId());
         Assert.assertEquals(JobBuilderController.STATUS_PENDING, jobObj.getStatus());
         Assert.assertNotNull(jobObj.getSubmitDate());
     }
 
+    /**
+     * Tests that an instance launched for a job that was cancelled during the launch is terminated
+     * and that the job isn't set to Pending
+     * @throws Exception
+     */
+    @Test
+    public void testJobSubmission_CancelledDuringLaunch() throws Exception {
+        //Instantiate our job object
+        final VEGLJob jobObj = new VEGLJob(new Integer(13));
+        final VEGLJob cancelledJob = new VEGLJob(new Integer(13));
+        final File mockFile1 = context.mock(File.class, "MockFile1");
+        final File mockFile2 = context.mock(File.class, "MockFile2");
+        final StagedFile[] stageInFiles = new StagedFile[] {new StagedFile(jobObj, "mockFile1", mockFile1), new StagedFile(jobObj, "mockFile2", mockFile2)};
+        final String computeVmId = "compute-vmi-id";
+        final String computeServiceId = "compute-service-id";
+        final String instanceId = "new-instance-id";
+        final Sequence jobFileSequence = context.sequence("jobFileSequence"); //this makes sure we aren't deleting directories before uploading (and other nonsense)
+        final OutputStream mockOutputStream = context.mock(OutputStream.class);
+        final String jobInSavedState = JobBuilderController.STATUS_UNSUBMITTED;
+        final VglMachineImage[] mockImages = new VglMachineImage[] {context.mock(VglMachineImage.class)};
+        final String storageBucket = "storage-bucket";
+        final String storageAccess = "213-asd-54";
+        final String storageSecret = "tops3cret";
+        final String storageServiceId = "storageid";
+        final String storageEndpoint = "http://example.org";
+        final String storageProvider = "provider";
+        final String storageAuthVersion = "1.2.3";
+        final String regionName = null;
+        final CountDownLatch terminated = new CountDownLatch(1);
+        final String mockUser = "jo@me.com";
+        final URI mockProfileUrl = new URI("https://plus.google.com/1");
+
+        final Solution mockSolution = context.mock(Solution.class);
+
+
+        final File activityFile = File.createTempFile("activity", ".ttl");
+        final String activityFileName = "activity.ttl";
+        final CloudFileInformation cloudFileInformation = new CloudFileInformation("one", 0, "");
+        CloudFileInformation cloudFileModel = new CloudFileInformation("two", 0, "");
+        final CloudFileInformation[] cloudList = {cloudFileInformation, cloudFileModel};
+
+        jobObj.setComputeVmId(computeVmId);
+        jobObj.setStatus(jobInSavedState); // by default, the job is in SAVED state
+        jobObj.setStorageBaseKey("base/key");
+        jobObj.setComputeServiceId(computeServiceId);
+        jobObj.setStorageServiceId(storageServiceId);
+        cancelledJob.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
+
+        context.checking(new Expectations() {{
+            //The uploader records the name and size of every file
+            allowing(mockFile1).getName();will(returnValue("mockFile1"));
+            allowing(mockFile1).length();will(returnValue(0L));
+            allowing(mockFile2).getName();will(returnValue("mockFile2"));
+            allowing(mockFile2).length();will(returnValue(0L));
+
+            oneOf(mockScmEntryService).getJobSolution(jobObj);will(returnValue(mockSolution));
+            oneOf(mockSolution).getUri();will(returnValue("http://sssc.vhirl.org/solution1"));
+            oneOf(mockSolution).getDescription();will(returnValue("A Fake Solution"));
+            oneOf(mockSolution).getName();will(returnValue("FakeSol"));
+            oneOf(mockSolution).getCreatedAt();will(returnValue(new Date()));
+
+            //We should have access control check to ensure user has permission to run the job
+            oneOf(mockCloudComputeServices[0]).getAvailableImages();will(returnValue(mockImages));
+            oneOf(mockImages[0]).getImageId();will(returnValue("compute-vmi-id"));
+            oneOf(mockImages[0]).getPermissions();will(returnValue(new String[] {"testRole2"}));
+            allowing(mockRequest).isUserInRole("testRole2");will(returnValue(true));
+            oneOf(mockRequest).getRequestURL();will(returnValue(new StringBuffer("http://mock.fake/secure/something")));
+
+            //The job is still provisioning when its files are uploaded and when its launch starts but
+            //it's cancelled by the time its instance has launched
+            exactly(3).of(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
+            oneOf(mockJobManager).getJobById(jobObj.getId());will(returnValue(cancelledJob));
+            oneOf(mockJobManager).saveJob(jobObj);
+
+            oneOf(mockFileStagingService).writeFile(jobObj, JobBuilderController.DOWNLOAD_SCRIPT);
+            will(returnValue(mockOutputStream));
+            allowing(mockOutputStream).close();
+
+            //We should have 1 call to get our stage in files
+            oneOf(mockFileStagingService).listStageInDirectoryFiles(jobObj);will(returnValue(stageInFiles));
+            inSequence(jobFileSequence);
+
+
+            oneOf(mockCloudStorageServices[0]).listJobFiles(with(equal(jobObj)));will(returnValue(cloudList));
+            allowing(mockFileStagingService).createLocalFile(activityFileName, jobObj);
+            will(returnValue(activityFile));
+            allowing(mockCloudStorageServices[0]).uploadJobFiles(with(any(VEGLJob.class)), with(any(File[].class)));
+
+            //We allow calls to the Configurer which simply extract values from our property file
+            allowing(mockHostConfigurer).resolvePlaceholder(with(any(String.class)));
+
+            allowing(mockCloudStorageServices[0]).getId();will(returnValue(storageServiceId));
+            allowing(mockCloudStorageServices[0]).getBucket();will(returnValue(storageBucket));
+            allowing(mockCloudStorageServices[0]).getAccessKey();will(returnValue(storageAccess));
+            allowing(mockCloudStorageServices[0]).getSecretKey();will(returnValue(storageSecret));
+            allowing(mockCloudStorageServices[0]).getProvider();will(returnValue(storageProvider));
+            allowing(mockCloudStorageServices[0]).getProvider();will(returnValue(storageProvider));
+            allowing(mockCloudStorageServices[0]).getAuthVersion();will(returnValue(storageAuthVersion));
+            allowing(mockCloudStorageServices[0]).getEndpoint();will(returnValue(storageEndpoint));
+            allowing(mockCloudStorageServices[0]).getProvider();will(returnValue(storageProvider));
+            allowing(mockCloudStorageServices[0]).getAuthVersion();will(returnValue(storageAuthVersion));
+            allowing(mockCloudStorageServices[0]).getRegionName();will(returnValue(regionName));
+
+            allowing(mockCloudComputeServices[0]).getId();will(returnValue(computeServiceId));
+
+            //We should have 1 call to upload them
+            oneOf(mockCloudStorageServices[0]).uploadJobFiles(with(equal(jobObj)), with(equal(new File[] {mockFile1, mockFile2})));
+            inSequence(jobFileSequence);
+
+            //The instance is launched and then terminated - the cancelled job isn't set to Pending
+            oneOf(mockCloudComputeServices[0]).executeJob(with(any(VEGLJob.class)), with(any(String.class)));will(returnValue(instanceId));
+            oneOf(mockCloudComputeServices[0]).terminateJob(jobObj);will(countDown(terminated));
+            never(mockJobManager).saveJob(cancelledJob);
+
+            oneOf(mockJobManager).createJobAuditTrail(jobInSavedState, jobObj, "Set job to provisioning");
+
+
+            oneOf(mockRequest).getRequestURL();will(returnValue(new StringBuffer("http://mock.fake/secure/something")));
+
+            oneOf(mockPortalUser).getUsername();will(returnValue(mockUser));
+            allowing(mockPortalUser).getLink();will(returnValue(mockProfileUrl));
+
+        }});
+
+
+        ModelAndView mav = controller.submitJob(mockRequest, mockResponse, jobObj.getId().toString(), mockPortalUser);
+
+        Assert.assertTrue((Boolean)mav.getModel().get("success"));
+        Assert.assertTrue(terminated.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(instanceId, jobObj.getComputeInstanceId());
+        Assert.assertEquals(JobBuilderController.STATUS_UNSUBMITTED, cancelledJob.getStatus());
+        Assert.assertNull(cancelledJob.getSubmitDate());
+    }
+
+    /**
+     * Tests that a job cancelled after its files were uploaded but before its instance is launched
+     * isn't launched (or set to Pending)
+     * @throws Exception
+     */
+    @Test
+    public void testJobSubmission_CancelledBeforeLaunch() throws Exception {
+        //Instantiate our job object
+        final VEGLJob jobObj = new VEGLJob(new Integer(13));
+        final VEGLJob cancelledJob = new VEGLJob(new Integer(13));
+        final File mockFile1 = context.mock(File.class, "MockFile1");
+        final File mockFile2 = context.mock(File.class, "MockFile2");
+        final StagedFile[] stageInFiles = new StagedFile[] {new StagedFile(jobObj, "mockFile1", mockFile1), new StagedFile(jobObj, "mockFile2", mockFile2)};
+        final String computeVmId = "compute-vmi-id";
+        final String computeServiceId = "compute-service-id";
+        final Sequence jobFileSequence = context.sequence("jobFileSequence"); //this makes sure we aren't deleting directories before uploading (and other nonsense)
+        final OutputStream mockOutputStream = context.mock(OutputStream.class);
+        final String jobInSavedState = JobBuilderController.STATUS_UNSUBMITTED;
+        final VglMachineImage[] mockImages = new VglMachineImage[] {context.mock(VglMachineImage.class)};
+        final String storageBucket = "storage-bucket";
+        final String storageAccess = "213-asd-54";
+        final String storageSecret = "tops3cret";
+        final String storageServiceId = "storageid";
+        final String storageEndpoint = "http://example.org";
+        final String storageProvider = "provider";
+        final String storageAuthVersion = "1.2.3";
+        final String regionName = null;
+        final CountDownLatch reloaded = new CountDownLatch(1);
+        final String mockUser = "jo@me.com";
+        final URI mockProfileUrl = new URI("https://plus.google.com/1");
+
+        final Solution mockSolution = context.mock(Solution.class);
+
+
+        final File activityFile = File.createTempFile("activity", ".ttl");
+        final String activityFileName = "activity.ttl";
+        final CloudFileInformation cloudFileInformation = new CloudFileInformation("one", 0, "");
+        CloudFileInformation cloudFileModel = new CloudFileInformation("two", 0, "");
+        final CloudFileInformation[] cloudList = {cloudFileInformation, cloudFileModel};
+
+        jobObj.setComputeVmId(computeVmId);
+        jobObj.setStatus(jobInSavedState); // by default, the job is in SAVED state
+        jobObj.setStorageBaseKey("base/key");
+        jobObj.setComputeServiceId(computeServiceId);
+        jobObj.setStorageServiceId(storageServiceId);
+        cancelledJob.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
+
+        context.checking(new Expectations() {{
+            //The uploader records the name and size of every file
+            allowing(mockFile1).getName();will(returnValue("mockFile1"));
+            allowing(mockFile1).length();will(returnValue(0L));
+            allowing(mockFile2).getName();will(returnValue("mockFile2"));
+            allowing(mockFile2).length();will(returnValue(0L));
+
+            oneOf(mockScmEntryService).getJobSolution(jobObj);will(returnValue(mockSolution));
+            oneOf(mockSolution).getUri();will(returnValue("http://sssc.vhirl.org/solution1"));
+            oneOf(mockSolution).getDescription();will(returnValue("A Fake Solution"));
+            oneOf(mockSolution).getName();will(returnValue("FakeSol"));
+            oneOf(mockSolution).getCreatedAt();will(returnValue(new Date()));
+
+            //We should have access control check to ensure user has permission to run the job
+            oneOf(mockCloudComputeServices[0]).getAvailableImages();will(returnValue(mockImages));
+            oneOf(mockImages[0]).getImageId();will(returnValue("compute-vmi-id"));
+            oneOf(mockImages[0]).getPermissions();will(returnValue(new String[] {"testRole2"}));
+            allowing(mockRequest).isUserInRole("testRole2");will(returnValue(true));
+            oneOf(mockRequest).getRequestURL();will(returnValue(new StringBuffer("http://mock.fake/secure/something")));
+
+            //The job is still provisioning when its files are uploaded but it's cancelled by the
+            //time its launch starts
+            exactly(2).of(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
+            oneOf(mockJobManager).getJobById(jobObj.getId());will(doAll(countDown(reloaded), returnValue(cancelledJob)));
+            oneOf(mockJobManager).saveJob(jobObj);
+
+            oneOf(mockFileStagingService).writeFile(jobObj, JobBuilderController.DOWNLOAD_SCRIPT);
+            will(returnValue(mockOutputStream));
+            allowing(mockOutputStream).close();
+
+            //We should have 1 call to get our stage in files
+            oneOf(mockFileStagingService).listStageInDirectoryFiles(jobObj);will(returnValue(stageInFiles));
+            inSequence(jobFileSequence);
+
+
+            oneOf(mockCloudStorageServices[0]).listJobFiles(with(equal(jobObj)));will(returnValue(cloudList));
+            allowing(mockFileStagingService).createLocalFile(activityFileName, jobObj);
+            will(returnValue(activityFile));
+            allowing(mockCloudStorageServices[0]).uploadJobFiles(with(any(VEGLJob.class)), with(any(File[].class)));
+
+            //We allow calls to the Configurer which simply extract values from our property file
+            allowing(mockHostConfigurer).resolvePlaceholder(with(any(String.class)));
+
+            allowing(mockCloudStorageServices[0]).getId();will(returnValue(storageServiceId));
+            allowing(mockCloudStorageServices[0]).getBucket();will(returnValue(storageBucket));
+            allowing(mockCloudStorageServices[0]).getAccessKey();will(returnValue(storageAccess));
+            allowing(mockCloudStorageServices[0]).getSecretKey();will(returnValue(storageSecret));
+            allowing(mockCloudStorageServices[0]).getProvider();will(returnValue(storageProvider));
+            allowing(mockCloudStorageServices[0]).getProvider();will(returnValue(storageProvider));
+            allowing(mockCloudStorageServices[0]).getAuthVersion();will(returnValue(storageAuthVersion));
+            allowing(mockCloudStorageServices[0]).getEndpoint();will(returnValue(storageEndpoint));
+            allowing(mockCloudStorageServices[0]).getProvider();will(returnValue(storageProvider));
+            allowing(mockCloudStorageServices[0]).getAuthVersion();will(returnValue(storageAuthVersion));
+            allowing(mockCloudStorageServices[0]).getRegionName();will(returnValue(regionName));
+
+            allowing(mockCloudComputeServices[0]).getId();will(returnValue(computeServiceId));
+
+            //We should have 1 call to upload them
+            oneOf(mockCloudStorageServices[0]).uploadJobFiles(with(equal(jobObj)), with(equal(new File[] {mockFile1, mockFile2})));
+            inSequence(jobFileSequence);
+
+            //Nothing is launched and the cancelled job isn't set to Pending
+            never(mockCloudComputeServices[0]).executeJob(with(any(VEGLJob.class)), with(any(String.class)));
+            never(mockJobManager).saveJob(cancelledJob);
+
+            oneOf(mockJobManager).createJobAuditTrail(jobInSavedState, jobObj, "Set job to provisioning");
+
+
+            oneOf(mockRequest).getRequestURL();will(returnValue(new StringBuffer("http://mock.fake/secure/something")));
+
+            oneOf(mockPortalUser).getUsername();will(returnValue(mockUser));
+            allowing(mockPortalUser).getLink();will(returnValue(mockProfileUrl));
+
+        }});
+
+
+        ModelAndView mav = controller.submitJob(mockRequest, mockResponse, jobObj.getId().toString(), mockPortalUser);
+
+        Assert.assertTrue((Boolean)mav.getModel().get("success"));
+        Assert.assertTrue(reloaded.await(10, TimeUnit.SECONDS));
+        submissionExecutor.shutdown();
+        Assert.assertNull(jobObj.getComputeInstanceId());
+        Assert.assertEquals(JobBuilderController.STATUS_UNSUBMITTED, cancelledJob.getStatus());
+        Assert.assertNull(cancelledJob.getSubmitDate());
+    }
+
     /**
      * Tests that job submission fails correctly when user doesn't have permission to use
      * the VMI.
@@ -735,6 +1041,72 @@ public class TestJobBuilderController {
         Assert.assertEquals(JobBuilderController.STATUS_UNSUBMITTED, jobObj.getStatus());
     }
 
+    /**
+     * Tests that a duplicated job can't be submitted whilst its files are still being copied into it
+     * @throws Exception
+     */
+    @Test
+    public void testJobSubmission_CopyInProgress() throws Exception {
+        final VEGLJob jobObj = new VEGLJob(13);
+        final String computeServiceId = "id-1";
+        final String storageServiceId = "id-2";
+        jobObj.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
+        jobObj.setComputeServiceId(computeServiceId);
+        jobObj.setStorageServiceId(storageServiceId);
+
+        //A running copy is recorded as a task without any attempts
+        final VGLPendingTask copyTask = new VGLPendingTask(jobObj.getId(), VGLPendingTask.TYPE_FILE_COPY);
+        jobFileCopier.setJobManager(mockJobManager);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
+            oneOf(mockJobManager).getPendingTask(jobObj.getId(), VGLPendingTask.TYPE_FILE_COPY);will(returnValue(copyTask));
+            allowing(mockCloudComputeServices[0]).getId();will(returnValue(computeServiceId));
+            allowing(mockCloudStorageServices[0]).getId();will(returnValue(storageServiceId));
+
+            never(mockJobManager).saveJob(jobObj);
+        }});
+
+        ModelAndView mav = controller.submitJob(mockRequest, mockResponse, jobObj.getId().toString(), mockPortalUser);
+
+        Assert.assertFalse((Boolean)mav.getModel().get("success"));
+        Assert.assertEquals(JobBuilderController.STATUS_UNSUBMITTED, jobObj.getStatus());
+    }
+
+    /**
+     * Tests that a duplicated job can't be submitted if its files couldn't be copied into it (even after a restart)
+     * @throws Exception
+     */
+    @Test
+    public void testJobSubmission_CopyFailed() throws Exception {
+        final VEGLJob jobObj = new VEGLJob(13);
+        final String computeServiceId = "id-1";
+        final String storageServiceId = "id-2";
+        jobObj.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
+        jobObj.setComputeServiceId(computeServiceId);
+        jobObj.setStorageServiceId(storageServiceId);
+
+        //A failed copy keeps its task with the failed attempt recorded
+        final VGLPendingTask copyTask = new VGLPendingTask(jobObj.getId(), VGLPendingTask.TYPE_FILE_COPY);
+        copyTask.setAttempts(1);
+        copyTask.setLastError(VHIRLJobFileCopier.INTERRUPTED_MESSAGE);
+        jobFileCopier.setJobManager(mockJobManager);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
+            oneOf(mockJobManager).getPendingTask(jobObj.getId(), VGLPendingTask.TYPE_FILE_COPY);will(returnValue(copyTask));
+            allowing(mockCloudComputeServices[0]).getId();will(returnValue(computeServiceId));
+            allowing(mockCloudStorageServices[0]).getId();will(returnValue(storageServiceId));
+
+            never(mockJobManager).saveJob(jobObj);
+        }});
+
+        ModelAndView mav = controller.submitJob(mockRequest, mockResponse, jobObj.getId().toString(), mockPortalUser);
+
+        Assert.assertFalse((Boolean)mav.getModel().get("success"));
+        Assert.assertEquals(JobBuilderController.STATUS_UNSUBMITTED, jobObj.getStatus());
+    }
+
     /**
      * Tests that job submission fails correctly when the job doesn't exist
      * @throws Exception
@@ -769,6 +1141,7 @@ public class TestJobBuilderController {
         final VglMachineImage[] mockImages = new VglMachineImage[] {context.mock(VglMachineImage.class)};
         final String computeServiceId = "id-1";
         final String storageServiceId = "id-2";
+        final CountDownLatch reverted = new CountDownLatch(1);
         jobObj.setComputeVmId(computeVmId);
         jobObj.setStatus(jobInSavedState); // by default, the job is in SAVED state
         jobObj.setComputeServiceId(computeServiceId);
@@ -776,8 +1149,14 @@ public class TestJobBuilderController {
 
 
         context.checking(new Expectations() {{
-            //We should have 1 call to our job manager to get our job object
-            oneOf(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
+            //The uploader records the name and size of every file
+            allowing(mockFile1).getName();will(returnValue("mockFile1"));
+            allowing(mockFile1).length();will(returnValue(0L));
+            allowing(mockFile2).getName();will(returnValue("mockFile2"));
+            allowing(mockFile2).length();will(returnValue(0L));
+
+            //We should have 1 call to our job manager to get our job object (and 1 more to check it's still provisioning)
+            exactly(2).of(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
 
             //We should have access control check to ensure user has permission to run the job
             oneOf(mockCloudComputeServices[0]).getAvailableImages();will(returnValue(mockImages));
@@ -798,16 +1177,81 @@ public class TestJobBuilderController {
             //And one call to upload them (which we will mock as failing)
             oneOf(mockCloudStorageServices[0]).uploadJobFiles(with(equal(jobObj)), with(any(File[].class)));will(throwException(new PortalServiceException("")));
 
-            //We should have 1 call to our job manager to create a job audit trail record
-            oneOf(mockJobManager).createJobAuditTrail(jobInSavedState, jobObj, "");
+            allowing(mockRequest).getRequestURL();will(returnValue(new StringBuffer("http://mock.fake/secure/something")));
+            allowing(mockJobManager).saveJob(jobObj);
+
+            //The upload happens in the background so the job is provisioning until it fails
+            oneOf(mockJobManager).createJobAuditTrail(jobInSavedState, jobObj, "Set job to provisioning");
+            oneOf(mockJobManager).createJobAuditTrail(with(equal(JobBuilderController.STATUS_PROVISION)), with(equal(jobObj)), with(any(String.class)));will(countDown(reverted));
         }});
 
         ModelAndView mav = controller.submitJob(mockRequest, mockResponse, jobObj.getId().toString(), mockPortalUser);
 
-        Assert.assertFalse((Boolean)mav.getModel().get("success"));
+        Assert.assertTrue((Boolean)mav.getModel().get("success"));
+        Assert.assertTrue(reverted.await(10, TimeUnit.SECONDS));
         Assert.assertEquals(JobBuilderController.STATUS_UNSUBMITTED, jobObj.getStatus());
     }
 
+    /**
+     * Tests that a job cancelled whilst its files are uploading isn't launched once the upload finishes
+     * @throws Exception
+     */
+    @Test
+    public void testJobSubmission_CancelledDuringUpload() throws Exception {
+        //Instantiate our job object
+        final VEGLJob jobObj = new VEGLJob(13);
+        final VEGLJob cancelledJob = new VEGLJob(13);
+        final String computeVmId = "compute-vmi-id";
+        final File mockFile1 = context.mock(File.class, "MockFile1");
+        final File mockFile2 = context.mock(File.class, "MockFile2");
+        final StagedFile[] stageInFiles = new StagedFile[] {new StagedFile(jobObj, "mockFile1", mockFile1), new StagedFile(jobObj, "mockFile2", mockFile2)};
+        final String jobInSavedState = JobBuilderController.STATUS_UNSUBMITTED;
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(4096);
+        final String computeServiceId = "id-1";
+        final String storageServiceId = "id-2";
+        final CountDownLatch reloaded = new CountDownLatch(1);
+        jobObj.setComputeVmId(computeVmId);
+        jobObj.setStatus(jobInSavedState); // by default, the job is in SAVED state
+        jobObj.setComputeServiceId(computeServiceId);
+        jobObj.setStorageServiceId(storageServiceId);
+        cancelledJob.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
+
+        context.checking(new Expectations() {{
+            //The uploader records the name and size of every file
+            allowing(mockFile1).getName();will(returnValue("mockFile1"));
+            allowing(mockFile1).length();will(returnValue(0L));
+            allowing(mockFile2).getName();will(returnValue("mockFile2"));
+            allowing(mockFile2).length();will(returnValue(0L));
+
+            //The job is cancelled by the time its files are uploaded
+            oneOf(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
+            oneOf(mockJobManager).getJobById(jobObj.getId());will(doAll(countDown(reloaded), returnValue(cancelledJob)));
+
+            oneOf(mockFileStagingService).writeFile(jobObj, JobBuilderController.DOWNLOAD_SCRIPT);
+            will(returnValue(bos));
+
+            allowing(mockCloudComputeServices[0]).getId();will(returnValue(computeServiceId));
+            allowing(mockCloudStorageServices[0]).getId();will(returnValue(storageServiceId));
+
+            oneOf(mockFileStagingService).listStageInDirectoryFiles(jobObj);will(returnValue(stageInFiles));
+            oneOf(mockCloudStorageServices[0]).uploadJobFiles(with(equal(jobObj)), with(any(File[].class)));
+
+            allowing(mockRequest).getRequestURL();will(returnValue(new StringBuffer("http://mock.fake/secure/something")));
+            oneOf(mockJobManager).saveJob(jobObj);
+            oneOf(mockJobManager).createJobAuditTrail(jobInSavedState, jobObj, "Set job to provisioning");
+
+            //Nothing is launched
+            never(mockCloudComputeServices[0]).executeJob(with(any(VEGLJob.class)), with(any(String.class)));
+        }});
+
+        ModelAndView mav = controller.submitJob(mockRequest, mockResponse, jobObj.getId().toString(), mockPortalUser);
+
+        Assert.assertTrue((Boolean)mav.getModel().get("success"));
+        Assert.assertTrue(reloaded.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(JobBuilderController.STATUS_UNSUBMITTED, cancelledJob.getStatus());
+        Assert.assertFalse(vglPollingJobQueueManager.getQueue().hasJob());
+    }
+
     /**
      * Tests that job submission fails correctly when files cannot be uploaded to S3
      * @throws Exception
@@ -835,6 +1279,7 @@ public class TestJobBuilderController {
         final String storageServiceId = "storage-service-id";
         final String regionName = "region-name";
         final PortalServiceException exception = new PortalServiceException("Some random error","Some error correction");
+        final CountDownLatch failed = new CountDownLatch(1);
 
         final Solution mockSolution = context.mock(Solution.class);
         final String mockUser = "jo@me.com";
@@ -856,8 +1301,15 @@ public class TestJobBuilderController {
         jobObj.setStorageServiceId(storageServiceId);
 
         context.checking(new Expectations() {{
-            //We should have 1 call to our job manager to get our job object and 1 call to save it
-            oneOf(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
+            //The uploader records the name and size of every file
+            allowing(mockFile1).getName();will(returnValue("mockFile1"));
+            allowing(mockFile1).length();will(returnValue(0L));
+            allowing(mockFile2).getName();will(returnValue("mockFile2"));
+            allowing(mockFile2).length();will(returnValue(0L));
+
+            //We should have 1 call to our job manager to get our job object (and 3 more to check it's still
+            //provisioning during its submission) and 1 call to save it
+            exactly(4).of(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
 
 
             oneOf(mockScmEntryService).getJobSolution(jobObj);will(returnValue(mockSolution));
@@ -916,7 +1368,7 @@ public class TestJobBuilderController {
 
             oneOf(mockRequest).getRequestURL();will(returnValue(new StringBuffer("http://mock.fake/secure/something")));
 
-            oneOf(mockJobMailSender).sendMail(jobObj);
+            oneOf(mockJobMailSender).sendMail(jobObj);will(countDown(failed));
             oneOf(mockVGLJobStatusAndLogReader).getSectionedLog(jobObj, "Time");
 
 
@@ -927,8 +1379,8 @@ public class TestJobBuilderController {
         ModelAndView mav = controller.submitJob(mockRequest, mockResponse, jobObj.getId().toString(), mockPortalUser);
 
         Assert.assertTrue((Boolean)mav.getModel().get("success"));
-        //VT:wait a while for the thread to finish before getting the status.
-        Thread.sleep(1000);
+        //VT:wait for the thread to finish before getting the status.
+        Assert.assertTrue(failed.await(10, TimeUnit.SECONDS));
 
         Assert.assertEquals(JobBuilderController.STATUS_ERROR, jobObj.getStatus());
         Assert.assertTrue(jobObj.getProcessDate()!=null);
@@ -965,6 +1417,7 @@ public class TestJobBuilderController {
         final String storageEndpoint = "http://example.org";
         final String storageServiceId = "storage-service-id";
         final String regionName = "region-name";
+        final CountDownLatch queued = new CountDownLatch(1);
         final String mockUser = "jo@me.com";
         final URI mockProfileUrl = new URI("https://plus.google.com/1");
 
@@ -986,8 +1439,15 @@ public class TestJobBuilderController {
         jobObj.setStorageServiceId(storageServiceId);
 
         context.checking(new Expectations() {{
-            //We should have 1 call to our job manager to get our job object and 1 call to save it
-            oneOf(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
+            //The uploader records the name and size of every file
+            allowing(mockFile1).getName();will(returnValue("mockFile1"));
+            allowing(mockFile1).length();will(returnValue(0L));
+            allowing(mockFile2).getName();will(returnValue("mockFile2"));
+            allowing(mockFile2).length();will(returnValue(0L));
+
+            //We should have 1 call to our job manager to get our job object (and 3 more to check it's still
+            //provisioning during its submission) and 1 call to save it
+            exactly(4).of(mockJobManager).getJobById(jobObj.getId());will(returnValue(jobObj));
 
             oneOf(mockFileStagingService).writeFile(jobObj, JobBuilderController.DOWNLOAD_SCRIPT);
             will(returnValue(mockOutputStream));
@@ -1042,7 +1502,7 @@ public class TestJobBuilderController {
 
             oneOf(mockRequest).getRequestURL();will(returnValue(new StringBuffer("http://mock.fake/secure/something")));
 
-            oneOf(mockJobManager).createJobAuditTrail(JobBuilderController.STATUS_PROVISION, jobObj, "Job Placed in Queue");
+            oneOf(mockJobManager).createJobAuditTrail(JobBuilderController.STATUS_PROVISION, jobObj, "Job Placed in Queue");will(countDown(queued));
 
 
             oneOf(mockPortalUser).getUsername();will(returnValue(mockUser));
@@ -1051,7 +1511,7 @@ public class TestJobBuilderController {
         }});
 
         ModelAndView mav = controller.submitJob(mockRequest, mockResponse, jobObj.getId().toString(), mockPortalUser);
-        Thread.sleep(2000);
+        Assert.assertTrue(queued.await(10, TimeUnit.SECONDS));
         Assert.assertTrue(vglPollingJobQueueManager.getQueue().hasJob());
         Assert.assertTrue((Boolean)mav.getModel().get("success"));
         Assert.assertEquals(JobBuilderController.STATUS_INQUEUE, jobObj.getStatus());
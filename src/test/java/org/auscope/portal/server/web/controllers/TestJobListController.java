@@ -7,6 +7,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -29,15 +32,26 @@ import org.auscope.portal.jmock.VEGLJobMatcher;
 import org.auscope.portal.jmock.VEGLSeriesMatcher;
 import org.auscope.portal.server.vegl.VEGLJob;
 import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VEGLJobSummary;
 import org.auscope.portal.server.vegl.VEGLSeries;
 import org.auscope.portal.server.vegl.VGLJobStatusAndLogReader;
+import org.auscope.portal.server.vegl.VGLJobSummaryCache;
+import org.auscope.portal.server.vegl.VGLPendingTask;
 import org.auscope.portal.server.vegl.VGLPollingJobQueueManager;
+import org.auscope.portal.server.web.service.VHIRLJobCleanupQueue;
+import org.auscope.portal.server.web.service.VHIRLJobFileCopier;
+import org.auscope.portal.server.web.service.VHIRLJobTerminator;
 import org.jmock.Expectations;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.dao.DataAccessException;
+import org.springframework.ui.ModelMap;
 import org.springframework.web.servlet.ModelAndView;
 
 /**
@@ -61,6 +75,10 @@ public class TestJobListController extends PortalTestClass {
     private HttpSession mockSession;
     private JobListController controller;
     private VGLPollingJobQueueManager vglPollingJobQueueManager;
+    private VHIRLJobFileCopier jobFileCopier;
+    private VHIRLJobCleanupQueue mockJobCleanupQueue;
+    private ExecutorService terminatorExecutor;
+    private VHIRLJobTerminator jobTerminator;
 
 
     /**
@@ -68,6 +86,9 @@ public class TestJobListController extends PortalTestClass {
      */
     @Before
     public void init() {
+        //The job file copier calls our mocks from its worker threads
+        context.setThreadingPolicy(new Synchroniser());
+
         mockJobManager = context.mock(VEGLJobManager.class);
         mockCloudStorageServices = new CloudStorageService[] {context.mock(CloudStorageService.class)};
         mockFileStagingService = context.mock(FileStagingService.class);
@@ -81,6 +102,11 @@ public class TestJobListController extends PortalTestClass {
         mockPortalUser = context.mock(PortalUser.class);
         final List<VEGLJob> mockJobs=new ArrayList<VEGLJob>();
         vglPollingJobQueueManager = new VGLPollingJobQueueManager();
+        jobFileCopier = new VHIRLJobFileCopier(2);
+        mockJobCleanupQueue = context.mock(VHIRLJobCleanupQueue.class);
+        terminatorExecutor = Executors.newFixedThreadPool(2);
+        jobTerminator = new VHIRLJobTerminator(mockJobManager, mockCloudComputeServices, terminatorExecutor);
+        jobTerminator.setJobQueueScheduler(vglPollingJobQueueManager.getQueue());
 
         context.checking(new Expectations() {{
             allowing(mockCloudStorageServices[0]).getId();will(returnValue(storageServiceId));
@@ -90,16 +116,26 @@ public class TestJobListController extends PortalTestClass {
 
         controller = new JobListController(mockJobManager,
                 mockCloudStorageServices, mockFileStagingService,
-                mockCloudComputeServices, mockVGLJobStatusAndLogReader, mockJobStatusMonitor,null,mockHostConfigurer,vglPollingJobQueueManager);
+                mockCloudComputeServices, mockVGLJobStatusAndLogReader, mockJobStatusMonitor,null,mockHostConfigurer,vglPollingJobQueueManager,jobFileCopier,mockJobCleanupQueue,jobTerminator);
     }
 
     @After
     public void destroy(){
         vglPollingJobQueueManager.getQueue().clear();
+        jobFileCopier.shutdown();
+        jobTerminator.shutdown();
     }
 
 
 
+    /**
+     * Waits for the instances of cancelled jobs to be terminated
+     */
+    private void awaitTerminations() throws InterruptedException {
+        terminatorExecutor.shutdown();
+        Assert.assertTrue(terminatorExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
     public static VEGLJobMatcher aVeglJob(Integer id) {
         return new VEGLJobMatcher(id);
     }
@@ -108,6 +144,35 @@ public class TestJobListController extends PortalTestClass {
         return new VEGLJobMatcher(id, true);
     }
 
+    /**
+     * Gives the saved job newJobId (like the database would) if it doesn't have an ID and records it in savedJobs
+     */
+    private static Action saveNewJob(final Integer newJobId, final List<VEGLJob> savedJobs) {
+        return new CustomAction("save new job") {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                VEGLJob job = (VEGLJob) invocation.getParameter(0);
+                if (job.getId() == null) {
+                    job.setId(newJobId);
+                    savedJobs.add(job);
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns the first job recorded by saveNewJob
+     */
+    private static Action returnSavedJob(final List<VEGLJob> savedJobs) {
+        return new CustomAction("return saved job") {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                return savedJobs.get(0);
+            }
+        };
+    }
+
     @Test
     public void testInitizeQueueNDelete() throws InterruptedException{
 
@@ -158,7 +223,7 @@ public class TestJobListController extends PortalTestClass {
             allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
 
             allowing(queueMockJobs.get(1)).getUser();will(returnValue(userEmail));
-            //allowing(queueMockJobs.get(0)).getUser();will(returnValue(userEmail));
+            allowing(queueMockJobs.get(0)).getUser();will(returnValue(userEmail));
 
             oneOf(queueMockJobManager).getJobById(jobId);will(returnValue(queueMockJobs.get(1)));
 
@@ -167,14 +232,14 @@ public class TestJobListController extends PortalTestClass {
             allowing(queueMockJobs.get(1)).getStatus();will(returnValue(JobBuilderController.STATUS_INQUEUE));
             allowing(queueMockJobs.get(0)).getId();will(returnValue(5555));
             allowing(queueMockJobs.get(1)).getId();will(returnValue(jobId));
-            oneOf(queueMockJobs.get(1)).setStatus(JobBuilderController.STATUS_UNSUBMITTED);
-            oneOf(queueMockJobManager).saveJob(queueMockJobs.get(1));
-            oneOf(queueMockJobManager).createJobAuditTrail(JobBuilderController.STATUS_INQUEUE, queueMockJobs.get(1), "Job cancelled by user.");
+            oneOf(queueMockJobManager).updateJobStatuses(Arrays.asList(queueMockJobs.get(1)), JobBuilderController.STATUS_UNSUBMITTED, "Job cancelled by user.", null);
         }});
 
+        VHIRLJobTerminator queueJobTerminator = new VHIRLJobTerminator(queueMockJobManager, mockCloudComputeServices, terminatorExecutor);
+        queueJobTerminator.setJobQueueScheduler(vglPollingJobQueueManager.getQueue());
         JobListController myController = new JobListController(queueMockJobManager,
                 mockCloudStorageServices, mockFileStagingService,
-                mockCloudComputeServices, mockVGLJobStatusAndLogReader, mockJobStatusMonitor,null,mockHostConfigurer,vglPollingJobQueueManager);
+                mockCloudComputeServices, mockVGLJobStatusAndLogReader, mockJobStatusMonitor,null,mockHostConfigurer,vglPollingJobQueueManager,jobFileCopier,mockJobCleanupQueue,queueJobTerminator);
 
 
 
@@ -189,22 +254,24 @@ public class TestJobListController extends PortalTestClass {
     }
 
     /**
-     * Tests getting a series from the job manager
+     * Tests getting a series (and its job counts) from the job manager
      */
     @Test
     public void testMySeries() {
         final String userEmail = "exampleuser@email.com";
-        final VEGLSeries series = context.mock(VEGLSeries.class);
-        final List<VEGLSeries> seriesList = Arrays.asList(series);
+        final VEGLSeries series = new VEGLSeries();
+        series.setUser(userEmail);
+        final List<VGLJobSummaryCache.SeriesSummary> seriesList = Arrays.asList(new VGLJobSummaryCache.SeriesSummary(series, null));
 
         context.checking(new Expectations() {{
             allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
 
-            oneOf(mockJobManager).querySeries(userEmail, null, null);will(returnValue(seriesList));
+            oneOf(mockJobManager).getSeriesSummaries(userEmail);will(returnValue(seriesList));
         }});
 
         ModelAndView mav = controller.mySeries(mockRequest, mockResponse, mockPortalUser);
         Assert.assertTrue((Boolean)mav.getModel().get("success"));
+        Assert.assertSame(seriesList, mav.getModel().get("data"));
     }
 
     /**
@@ -290,6 +357,8 @@ public class TestJobListController extends PortalTestClass {
 
             oneOf(mockFileStagingService).deleteStageInDirectory(mockJob);
             oneOf(mockJob).getRegisteredUrl();will(returnValue(null)); //the job isn't registered
+            allowing(mockJob).getId();will(returnValue(jobId));
+            oneOf(mockJobManager).deleteInputFilesOfJob(jobId); //other jobs must stop reusing its input files
             oneOf(mockCloudStorageServices[0]).deleteJobFiles(mockJob); //this must occur if the job isnt registered
         }});
 
@@ -356,21 +425,13 @@ public class TestJobListController extends PortalTestClass {
             oneOf(mockJobManager).getSeriesById(seriesId);will(returnValue(mockSeries));
             oneOf(mockJobManager).getSeriesJobs(seriesId);will(returnValue(mockJobs));
 
-            //Make sure each job marked as deleted, its transition audit trial record
-            //is created and all its files in staging directory are deleted.
-            oneOf(mockJobs.get(0)).getStatus();will(returnValue(JobBuilderController.STATUS_PENDING));
-            oneOf(mockJobs.get(0)).setStatus(JobBuilderController.STATUS_DELETED);
-            oneOf(mockJobManager).saveJob(mockJobs.get(0));
-            oneOf(mockJobManager).createJobAuditTrail(JobBuilderController.STATUS_PENDING, mockJobs.get(0), "Job deleted.");
-            oneOf(mockFileStagingService).deleteStageInDirectory(mockJobs.get(0));
-            oneOf(mockJobs.get(0)).getRegisteredUrl();will(returnValue("geonetwork url"));
-
-            oneOf(mockJobs.get(1)).getStatus();will(returnValue(JobBuilderController.STATUS_DONE));
-            oneOf(mockJobs.get(1)).setStatus(JobBuilderController.STATUS_DELETED);
-            oneOf(mockJobManager).saveJob(mockJobs.get(1));
-            oneOf(mockJobManager).createJobAuditTrail(JobBuilderController.STATUS_DONE, mockJobs.get(1), "Job deleted.");
-            oneOf(mockFileStagingService).deleteStageInDirectory(mockJobs.get(1));
-            oneOf(mockJobs.get(1)).getRegisteredUrl();will(returnValue("geonetwork url"));
+            allowing(mockJobs.get(0)).getId();will(returnValue(1));
+            allowing(mockJobs.get(1)).getId();will(returnValue(2));
+
+            //Make sure every job is marked as deleted (with its audit trail and cleanup task) in a
+            //single batch and their files are cleaned up in the background
+            oneOf(mockJobManager).updateJobStatuses(mockJobs, JobBuilderController.STATUS_DELETED, "Job deleted.", VGLPendingTask.TYPE_CLEANUP);
+            oneOf(mockJobCleanupQueue).enqueue(Arrays.asList(1, 2));
 
             oneOf(mockJobManager).deleteSeries(mockSeries);
         }});
@@ -457,15 +518,44 @@ public class TestJobListController extends PortalTestClass {
             allowing(mockJob).getStorageServiceId();will(returnValue(storageServiceId));
             allowing(mockJob).getComputeServiceId();will(returnValue(computeServiceId));
 
+            allowing(mockJob).getId();will(returnValue(jobId));
+            allowing(mockJob).getComputeInstanceId();will(returnValue("instance-id"));
+
             allowing(mockJob).getStatus();will(returnValue(JobBuilderController.STATUS_PENDING));
 
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(mockJob), JobBuilderController.STATUS_UNSUBMITTED, "Job cancelled by user.", null);
             oneOf(mockCloudComputeServices[0]).terminateJob(mockJob);
-            oneOf(mockJob).setStatus(JobBuilderController.STATUS_UNSUBMITTED);
-            oneOf(mockJobManager).saveJob(mockJob);
-            oneOf(mockJobManager).createJobAuditTrail(JobBuilderController.STATUS_PENDING, mockJob, "Job cancelled by user.");
         }});
 
         ModelAndView mav = controller.killJob(mockRequest, mockResponse, jobId, mockPortalUser);
+        awaitTerminations();
+        Assert.assertTrue((Boolean)mav.getModel().get("success"));
+    }
+
+    /**
+     * Tests that cancelling a job that is still Provisioning doesn't try to terminate an instance
+     */
+    @Test
+    public void testKillJobProvisioning() throws Exception {
+        final String userEmail = "exampleuser@email.com";
+        final int jobId = 1234;
+        final VEGLJob mockJob = context.mock(VEGLJob.class);
+
+        context.checking(new Expectations() {{
+            allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
+            allowing(mockJob).getUser();will(returnValue(userEmail));
+            oneOf(mockJobManager).getJobById(jobId);will(returnValue(mockJob));
+            allowing(mockJob).getId();will(returnValue(jobId));
+            allowing(mockJob).getComputeInstanceId();will(returnValue(null));
+
+            allowing(mockJob).getStatus();will(returnValue(JobBuilderController.STATUS_PROVISION));
+
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(mockJob), JobBuilderController.STATUS_UNSUBMITTED, "Job cancelled by user.", null);
+            never(mockCloudComputeServices[0]).terminateJob(mockJob);
+        }});
+
+        ModelAndView mav = controller.killJob(mockRequest, mockResponse, jobId, mockPortalUser);
+        awaitTerminations();
         Assert.assertTrue((Boolean)mav.getModel().get("success"));
     }
 
@@ -568,19 +658,70 @@ public class TestJobListController extends PortalTestClass {
             allowing(mockJobs.get(3)).getStorageServiceId();will(returnValue(storageServiceId));
             allowing(mockJobs.get(3)).getComputeServiceId();will(returnValue(computeServiceId));
 
-            //Only the pending and active job can be cancelled
+            //Only the pending and active job can be cancelled (each once its instance is terminated)
+            allowing(mockJobs.get(1)).getComputeInstanceId();will(returnValue("instance-1"));
+            allowing(mockJobs.get(3)).getComputeInstanceId();will(returnValue("instance-3"));
             oneOf(mockCloudComputeServices[0]).terminateJob(mockJobs.get(1));
             oneOf(mockCloudComputeServices[0]).terminateJob(mockJobs.get(3));
-            oneOf(mockJobs.get(1)).setStatus(JobBuilderController.STATUS_UNSUBMITTED);
-            oneOf(mockJobs.get(3)).setStatus(JobBuilderController.STATUS_UNSUBMITTED);
-            oneOf(mockJobManager).saveJob(mockJobs.get(1));
-            oneOf(mockJobManager).saveJob(mockJobs.get(3));
-            oneOf(mockJobManager).createJobAuditTrail(JobBuilderController.STATUS_ACTIVE, mockJobs.get(1), "Job cancelled by user.");
-            oneOf(mockJobManager).createJobAuditTrail(JobBuilderController.STATUS_PENDING, mockJobs.get(3), "Job cancelled by user.");
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(mockJobs.get(1)), JobBuilderController.STATUS_UNSUBMITTED, "Job cancelled by user.", null);
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(mockJobs.get(3)), JobBuilderController.STATUS_UNSUBMITTED, "Job cancelled by user.", null);
         }});
 
         ModelAndView mav = controller.killSeriesJobs(mockRequest, mockResponse, seriesId, mockPortalUser);
+        awaitTerminations();
         Assert.assertTrue((Boolean)mav.getModel().get("success"));
+
+        List<?> data = (List<?>) mav.getModel().get("data");
+        Assert.assertEquals(4, data.size());
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.SKIPPED.toString(), ((ModelMap) data.get(0)).get("state"));
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.TERMINATED.toString(), ((ModelMap) data.get(1)).get("state"));
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.SKIPPED.toString(), ((ModelMap) data.get(2)).get("state"));
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.TERMINATED.toString(), ((ModelMap) data.get(3)).get("state"));
+    }
+
+    /**
+     * Tests that a failure to terminate one job of a series doesn't stop the rest from being terminated,
+     * that the failure is reported and that the job whose instance is still running isn't marked as cancelled
+     */
+    @Test
+    public void testKillSeriesJobsPartialFailure() throws Exception {
+        final String userEmail = "exampleuser@email.com";
+        final int seriesId = 1234;
+        final VEGLSeries mockSeries = context.mock(VEGLSeries.class);
+        final List<VEGLJob> mockJobs = Arrays.asList(
+                context.mock(VEGLJob.class, "mockJobActive1"),
+                context.mock(VEGLJob.class, "mockJobActive2"));
+
+        context.checking(new Expectations() {{
+            allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
+            oneOf(mockJobManager).getSeriesById(seriesId);will(returnValue(mockSeries));
+            allowing(mockSeries).getUser();will(returnValue(userEmail));
+
+            oneOf(mockJobManager).getSeriesJobs(seriesId);will(returnValue(mockJobs));
+
+            allowing(mockJobs.get(0)).getStatus();will(returnValue(JobBuilderController.STATUS_ACTIVE));
+            allowing(mockJobs.get(1)).getStatus();will(returnValue(JobBuilderController.STATUS_ACTIVE));
+            allowing(mockJobs.get(0)).getId();will(returnValue(new Integer(0)));
+            allowing(mockJobs.get(1)).getId();will(returnValue(new Integer(1)));
+            allowing(mockJobs.get(0)).getComputeServiceId();will(returnValue(computeServiceId));
+            allowing(mockJobs.get(1)).getComputeServiceId();will(returnValue(computeServiceId));
+            allowing(mockJobs.get(0)).getComputeInstanceId();will(returnValue("instance-0"));
+            allowing(mockJobs.get(1)).getComputeInstanceId();will(returnValue("instance-1"));
+
+            oneOf(mockCloudComputeServices[0]).terminateJob(mockJobs.get(0));will(throwException(new RuntimeException("Compute service unavailable")));
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(mockJobs.get(0)), JobBuilderController.STATUS_ERROR, "Unable to terminate instance: Compute service unavailable", null);
+            oneOf(mockCloudComputeServices[0]).terminateJob(mockJobs.get(1));
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(mockJobs.get(1)), JobBuilderController.STATUS_UNSUBMITTED, "Job cancelled by user.", null);
+        }});
+
+        ModelAndView mav = controller.killSeriesJobs(mockRequest, mockResponse, seriesId, mockPortalUser);
+        awaitTerminations();
+        Assert.assertFalse((Boolean)mav.getModel().get("success"));
+
+        List<?> data = (List<?>) mav.getModel().get("data");
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.FAILED.toString(), ((ModelMap) data.get(0)).get("state"));
+        Assert.assertEquals("Unable to terminate instance: Compute service unavailable", ((ModelMap) data.get(0)).get("error"));
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.TERMINATED.toString(), ((ModelMap) data.get(1)).get("state"));
     }
 
     /**
@@ -936,43 +1077,70 @@ public class TestJobListController extends PortalTestClass {
         final List<VEGLSeries> series = Arrays.asList(
                 context.mock(VEGLSeries.class, "mockSeries1"),
                 context.mock(VEGLSeries.class, "mockSeries2"));
+        final List<VGLJobSummaryCache.SeriesSummary> summaries = Arrays.asList(
+                new VGLJobSummaryCache.SeriesSummary(new VEGLSeries(), null),
+                new VGLJobSummaryCache.SeriesSummary(new VEGLSeries(), null));
 
         context.checking(new Expectations() {{
             allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
 
             oneOf(mockJobManager).querySeries(qUser, qName, qDescription);will(returnValue(series));
+            oneOf(mockJobManager).getSeriesSummaries(userEmail, series);will(returnValue(summaries));
         }});
 
         //Returns null on success
-        ModelAndView mav = controller.querySeries(mockRequest, mockResponse, qName, qDescription, mockPortalUser);
+        ModelAndView mav = controller.querySeries(mockRequest, mockResponse, qName, qDescription, null, mockPortalUser);
         Assert.assertTrue((Boolean) mav.getModel().get("success"));
-        Assert.assertSame(series, mav.getModel().get("data"));
+        Assert.assertSame(summaries, mav.getModel().get("data"));
     }
 
     /**
-     * Tests that querying for a set of series with no params filters via session email
+     * Tests that querying for a set of series with no params returns the (cached) series summaries of the session email
      */
     @Test
     public void testQuerySeriesNoUser() throws Exception {
         final String userEmail = "exampleuser@email.com";
         final String qName = null;
         final String qDescription = null;
-        final List<VEGLSeries> series = Arrays.asList(
-                context.mock(VEGLSeries.class, "mockSeries1"),
-                context.mock(VEGLSeries.class, "mockSeries2"));
+        final List<VGLJobSummaryCache.SeriesSummary> series = Arrays.asList(
+                new VGLJobSummaryCache.SeriesSummary(new VEGLSeries(), null),
+                new VGLJobSummaryCache.SeriesSummary(new VEGLSeries(), null));
 
         context.checking(new Expectations() {{
             allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
 
-            oneOf(mockJobManager).querySeries(userEmail, null, null);will(returnValue(series));
+            oneOf(mockJobManager).getSeriesSummaries(userEmail);will(returnValue(series));
         }});
 
         //Returns null on success
-        ModelAndView mav = controller.querySeries(mockRequest, mockResponse, qName, qDescription, mockPortalUser);
+        ModelAndView mav = controller.querySeries(mockRequest, mockResponse, qName, qDescription, null, mockPortalUser);
         Assert.assertTrue((Boolean) mav.getModel().get("success"));
         Assert.assertSame(series, mav.getModel().get("data"));
     }
 
+    /**
+     * Tests that a keyword query uses the full text search rather than the name/description filters
+     */
+    @Test
+    public void testQuerySeriesKeywords() throws Exception {
+        final String userEmail = "exampleuser@email.com";
+        final String qKeywords = "magnetic survey";
+        final List<VEGLSeries> series = Arrays.asList(context.mock(VEGLSeries.class, "mockSeries1"));
+        final List<VGLJobSummaryCache.SeriesSummary> summaries = Arrays.asList(
+                new VGLJobSummaryCache.SeriesSummary(new VEGLSeries(), null));
+
+        context.checking(new Expectations() {{
+            allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
+
+            oneOf(mockJobManager).searchSeries(userEmail, qKeywords, JobListController.MAX_SERIES_SEARCH_RESULTS);will(returnValue(series));
+            oneOf(mockJobManager).getSeriesSummaries(userEmail, series);will(returnValue(summaries));
+        }});
+
+        ModelAndView mav = controller.querySeries(mockRequest, mockResponse, "ignored", null, qKeywords, mockPortalUser);
+        Assert.assertTrue((Boolean) mav.getModel().get("success"));
+        Assert.assertSame(summaries, mav.getModel().get("data"));
+    }
+
     public static VEGLSeriesMatcher aVEGLSeries(String user, String name, String description) {
         return new VEGLSeriesMatcher(user, name, description);
     }
@@ -1036,6 +1204,13 @@ public class TestJobListController extends PortalTestClass {
         Assert.assertFalse((Boolean) mav.getModel().get("success"));
     }
 
+    private VEGLJobSummary createSummary(int id, String status) {
+        VEGLJobSummary summary = new VEGLJobSummary();
+        summary.setId(id);
+        summary.setStatus(status);
+        return summary;
+    }
+
     /**
      * Tests that listing a job succeeds
      * @throws Exception
@@ -1045,12 +1220,11 @@ public class TestJobListController extends PortalTestClass {
         final String userEmail = "exampleuser@email.com";
         final int seriesId = 1234;
         final VEGLSeries mockSeries = context.mock(VEGLSeries.class);
-        final List<VEGLJob> mockJobs = Arrays.asList(
-                context.mock(VEGLJob.class, "mockJobActive"),
-                context.mock(VEGLJob.class, "mockJobUnsubmitted"),
-                context.mock(VEGLJob.class, "mockJobDone"),
-                context.mock(VEGLJob.class, "mockJobPending")
-                );
+        final List<VEGLJobSummary> summaries = Arrays.asList(
+                createSummary(1, JobBuilderController.STATUS_ACTIVE),
+                createSummary(2, JobBuilderController.STATUS_UNSUBMITTED),
+                createSummary(3, JobBuilderController.STATUS_DONE),
+                createSummary(4, JobBuilderController.STATUS_PENDING));
 
         context.checking(new Expectations() {{
             allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
@@ -1058,29 +1232,29 @@ public class TestJobListController extends PortalTestClass {
             oneOf(mockJobManager).getSeriesById(seriesId);will(returnValue(mockSeries));
             allowing(mockSeries).getUser();will(returnValue(userEmail));
 
-            oneOf(mockJobManager).getSeriesJobs(seriesId);will(returnValue(mockJobs));
+            //The entire series fits in a single page so there is no need to count it
+            oneOf(mockJobManager).getSeriesJobSummaries(seriesId, null, null, true, 0, 0);will(returnValue(summaries));
         }});
 
-        ModelAndView mav = controller.listJobs(mockRequest, mockResponse, seriesId, false, mockPortalUser);
+        ModelAndView mav = controller.listJobs(mockRequest, mockResponse, seriesId, false, 0, 0, null, "ASC", null, mockPortalUser);
         Assert.assertTrue((Boolean) mav.getModel().get("success"));
-        Assert.assertArrayEquals(mockJobs.toArray(), ((List<VEGLJob>) mav.getModel().get("data")).toArray());
+        Assert.assertArrayEquals(summaries.toArray(), ((List<VEGLJobSummary>) mav.getModel().get("data")).toArray());
+        Assert.assertEquals(4, mav.getModel().get("totalCount"));
     }
 
     /**
-     * Tests that listing a job succeeds (as well as correctly updating job statuses)
+     * Tests that listing a sorted and filtered page of jobs succeeds
      * @throws Exception
      */
     @Test
-    public void testListJobsWithStatusUpdate() throws Exception {
+    public void testListJobsPaged() throws Exception {
         final String userEmail = "exampleuser@email.com";
         final int seriesId = 1234;
         final VEGLSeries mockSeries = context.mock(VEGLSeries.class);
-        final List<VEGLJob> mockJobs = Arrays.asList(
-                context.mock(VEGLJob.class, "mockJobActive"),
-                context.mock(VEGLJob.class, "mockJobUnsubmitted"),
-                context.mock(VEGLJob.class, "mockJobDone"),
-                context.mock(VEGLJob.class, "mockJobPending")
-                );
+        final String[] statuses = new String[] {JobBuilderController.STATUS_DONE};
+        final List<VEGLJobSummary> summaries = Arrays.asList(
+                createSummary(8, JobBuilderController.STATUS_DONE),
+                createSummary(9, JobBuilderController.STATUS_DONE));
 
         context.checking(new Expectations() {{
             allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
@@ -1088,14 +1262,80 @@ public class TestJobListController extends PortalTestClass {
             oneOf(mockJobManager).getSeriesById(seriesId);will(returnValue(mockSeries));
             allowing(mockSeries).getUser();will(returnValue(userEmail));
 
-            oneOf(mockJobManager).getSeriesJobs(seriesId);will(returnValue(mockJobs));
+            oneOf(mockJobManager).getSeriesJobSummaries(seriesId, Arrays.asList(statuses), "name", false, 10, 2);will(returnValue(summaries));
+            oneOf(mockJobManager).countSeriesJobs(seriesId, Arrays.asList(statuses));will(returnValue(57));
+        }});
+
+        ModelAndView mav = controller.listJobs(mockRequest, mockResponse, seriesId, false, 10, 2, "name", "DESC", statuses, mockPortalUser);
+        Assert.assertTrue((Boolean) mav.getModel().get("success"));
+        Assert.assertEquals(2, ((List<VEGLJobSummary>) mav.getModel().get("data")).size());
+        Assert.assertEquals(57, mav.getModel().get("totalCount"));
+    }
+
+    /**
+     * Tests that listing jobs fails when sorting by an unknown property
+     * @throws Exception
+     */
+    @Test
+    public void testListJobsBadSort() throws Exception {
+        final String userEmail = "exampleuser@email.com";
+        final int seriesId = 1234;
+        final VEGLSeries mockSeries = context.mock(VEGLSeries.class);
+
+        context.checking(new Expectations() {{
+            allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
+
+            oneOf(mockJobManager).getSeriesById(seriesId);will(returnValue(mockSeries));
+            allowing(mockSeries).getUser();will(returnValue(userEmail));
+        }});
+
+        ModelAndView mav = controller.listJobs(mockRequest, mockResponse, seriesId, false, 0, 0, "jobParameters", "ASC", null, mockPortalUser);
+        Assert.assertFalse((Boolean) mav.getModel().get("success"));
+    }
+
+    /**
+     * Tests that listing a job succeeds (as well as correctly updating the statuses of unfinished jobs)
+     * @throws Exception
+     */
+    @Test
+    public void testListJobsWithStatusUpdate() throws Exception {
+        final String userEmail = "exampleuser@email.com";
+        final int seriesId = 1234;
+        final VEGLSeries mockSeries = context.mock(VEGLSeries.class);
+        final List<VEGLJobSummary> summaries = Arrays.asList(
+                createSummary(1, JobBuilderController.STATUS_ACTIVE),
+                createSummary(2, JobBuilderController.STATUS_UNSUBMITTED),
+                createSummary(3, JobBuilderController.STATUS_DONE),
+                createSummary(4, JobBuilderController.STATUS_PENDING),
+                createSummary(5, JobBuilderController.STATUS_ERROR),
+                createSummary(6, JobBuilderController.STATUS_INQUEUE));
+        final VEGLJob mockJobActive = context.mock(VEGLJob.class, "mockJobActive");
+        final VEGLJob mockJobPending = context.mock(VEGLJob.class, "mockJobPending");
+
+        context.checking(new Expectations() {{
+            allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
 
-            oneOf(mockJobStatusMonitor).statusUpdate(mockJobs);
+            oneOf(mockJobManager).getSeriesById(seriesId);will(returnValue(mockSeries));
+            allowing(mockSeries).getUser();will(returnValue(userEmail));
+
+            oneOf(mockJobManager).getSeriesJobSummaries(seriesId, null, null, true, 0, 0);will(returnValue(summaries));
+
+            //Only the Pending/Active jobs are loaded (in a single query) and refreshed
+            oneOf(mockJobManager).getJobsWithStatus(Arrays.asList(1, 4), Arrays.asList(JobBuilderController.STATUS_PENDING, JobBuilderController.STATUS_ACTIVE));
+            will(returnValue(Arrays.asList(mockJobActive, mockJobPending)));
+            never(mockJobManager).getJobById(with(any(Integer.class)));
+            allowing(mockJobActive).getId();will(returnValue(1));
+            allowing(mockJobPending).getId();will(returnValue(4));
+            oneOf(mockJobStatusMonitor).statusUpdate(Arrays.asList(mockJobActive, mockJobPending));
+            allowing(mockJobActive).getStatus();will(returnValue(JobBuilderController.STATUS_DONE));
+            allowing(mockJobPending).getStatus();will(returnValue(JobBuilderController.STATUS_ACTIVE));
         }});
 
-        ModelAndView mav = controller.listJobs(mockRequest, mockResponse, seriesId, true, mockPortalUser);
+        ModelAndView mav = controller.listJobs(mockRequest, mockResponse, seriesId, true, 0, 0, null, "ASC", null, mockPortalUser);
         Assert.assertTrue((Boolean) mav.getModel().get("success"));
-        Assert.assertArrayEquals(mockJobs.toArray(), ((List<VEGLJob>) mav.getModel().get("data")).toArray());
+        Assert.assertEquals(JobBuilderController.STATUS_DONE, summaries.get(0).getStatus());
+        Assert.assertEquals(JobBuilderController.STATUS_ACTIVE, summaries.get(3).getStatus());
+        Assert.assertEquals(JobBuilderController.STATUS_ERROR, summaries.get(4).getStatus());
     }
 
     /**
@@ -1116,7 +1356,7 @@ public class TestJobListController extends PortalTestClass {
             allowing(mockSeries).getUser();will(returnValue(seriesEmail));
         }});
 
-        ModelAndView mav = controller.listJobs(mockRequest, mockResponse, seriesId, false, mockPortalUser);
+        ModelAndView mav = controller.listJobs(mockRequest, mockResponse, seriesId, false, 0, 0, null, "ASC", null, mockPortalUser);
         Assert.assertFalse((Boolean) mav.getModel().get("success"));
     }
 
@@ -1135,7 +1375,7 @@ public class TestJobListController extends PortalTestClass {
             oneOf(mockJobManager).getSeriesById(seriesId);will(returnValue(null));
         }});
 
-        ModelAndView mav = controller.listJobs(mockRequest, mockResponse, seriesId, false, mockPortalUser);
+        ModelAndView mav = controller.listJobs(mockRequest, mockResponse, seriesId, false, 0, 0, null, "ASC", null, mockPortalUser);
         Assert.assertFalse((Boolean) mav.getModel().get("success"));
     }
 
@@ -1160,6 +1400,8 @@ public class TestJobListController extends PortalTestClass {
         existingJob.setComputeServiceId(computeServiceId);
         existingJob.setStorageServiceId(storageServiceId);
 
+        final Integer newJobId = 5678;
+        final List<VEGLJob> savedJobs = new ArrayList<VEGLJob>();
         final ByteArrayOutputStream bos1 = new ByteArrayOutputStream();
         final ByteArrayOutputStream bos2 = new ByteArrayOutputStream();
 
@@ -1167,7 +1409,10 @@ public class TestJobListController extends PortalTestClass {
             allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
 
             oneOf(mockJobManager).getJobById(jobId);will(returnValue(existingJob));
-            allowing(mockJobManager).saveJob(with(aNonMatchingVeglJob(jobId)));
+            allowing(mockJobManager).saveJob(with(aNonMatchingVeglJob(jobId)));will(saveNewJob(newJobId, savedJobs));
+
+            //The new job is reloaded once the copy finishes
+            oneOf(mockJobManager).getJobById(newJobId);will(returnSavedJob(savedJobs));
 
             oneOf(mockFileStagingService).generateStageInDirectory(with(aNonMatchingVeglJob(jobId)));
             oneOf(mockFileStagingService).writeFile(with(aNonMatchingVeglJob(jobId)), with(cloudFiles[0].getName()));will(returnValue(bos1));
@@ -1185,10 +1430,68 @@ public class TestJobListController extends PortalTestClass {
         ModelAndView mav = controller.duplicateJob(mockRequest, mockResponse, jobId, files, mockPortalUser);
         Assert.assertTrue((Boolean) mav.getModel().get("success"));
 
+        //The files are copied in the background - shutting down waits for them to finish
+        jobFileCopier.shutdown();
+
         byte[] fis1Data = bos1.toByteArray();
         byte[] fis2Data = bos2.toByteArray();
 
         Assert.assertArrayEquals(data1, fis1Data);
         Assert.assertArrayEquals(data2, fis2Data);
+
+        //The copies are listed with the new job's input files
+        VEGLJob newJob = savedJobs.get(0);
+        Assert.assertEquals(JobBuilderController.STATUS_UNSUBMITTED, newJob.getStatus());
+        Assert.assertEquals(2, newJob.getJobFiles().size());
+        Assert.assertEquals(cloudFiles[0].getName(), newJob.getJobFiles().get(0).getName());
+        Assert.assertEquals(cloudFiles[1].getName(), newJob.getJobFiles().get(1).getName());
+    }
+
+    /**
+     * Tests that a duplicated job whose files can't be copied is marked as failed rather than deleted
+     * @throws Exception
+     */
+    @Test
+    public void testDuplicateJob_CopyFailed() throws Exception {
+        final Integer jobId = 1234;
+        final String userEmail = "exampleuser@email.com";
+        final String[] files = new String[] {"file1.txt"};
+        final CloudFileInformation[] cloudFiles = new CloudFileInformation[] {
+                new CloudFileInformation("long/key/file1.txt", 3L, "http://example.org/file1")
+        };
+
+        final VEGLJob existingJob = new VEGLJob(jobId);
+        existingJob.setUser(userEmail);
+        existingJob.setComputeServiceId(computeServiceId);
+        existingJob.setStorageServiceId(storageServiceId);
+
+        final Integer newJobId = 5678;
+        final List<VEGLJob> savedJobs = new ArrayList<VEGLJob>();
+
+        context.checking(new Expectations() {{
+            allowing(mockPortalUser).getEmail();will(returnValue(userEmail));
+
+            oneOf(mockJobManager).getJobById(jobId);will(returnValue(existingJob));
+            allowing(mockJobManager).saveJob(with(aNonMatchingVeglJob(jobId)));will(saveNewJob(newJobId, savedJobs));
+            oneOf(mockJobManager).getJobById(newJobId);will(returnSavedJob(savedJobs));
+
+            oneOf(mockFileStagingService).generateStageInDirectory(with(aNonMatchingVeglJob(jobId)));
+
+            oneOf(mockCloudStorageServices[0]).generateBaseKey(with(aNonMatchingVeglJob(jobId)));will(returnValue("base-key"));
+            oneOf(mockCloudStorageServices[0]).listJobFiles(with(aVeglJob(jobId)));will(returnValue(cloudFiles));
+            oneOf(mockCloudStorageServices[0]).getJobFile(with(aVeglJob(jobId)), with(cloudFiles[0].getName()));will(throwException(new PortalServiceException("error")));
+
+            //The job is kept (the user may already be editing it) and the failure recorded against it
+            never(mockJobManager).deleteJob(with(any(VEGLJob.class)));
+            oneOf(mockJobManager).createJobAuditTrail(with(JobBuilderController.STATUS_UNSUBMITTED), with(aVeglJob(newJobId)), with(any(String.class)));
+        }});
+
+        ModelAndView mav = controller.duplicateJob(mockRequest, mockResponse, jobId, files, mockPortalUser);
+        Assert.assertTrue((Boolean) mav.getModel().get("success"));
+
+        //The files are copied in the background - shutting down waits for them to finish
+        jobFileCopier.shutdown();
+
+        Assert.assertEquals(JobBuilderController.STATUS_ERROR, savedJobs.get(0).getStatus());
     }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package org.auscope.portal.server.web.service;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for QuantileSketch
+ */
+public class TestQuantileSketch extends PortalTestClass {
+
+    /**
+     * Tests that quantiles of a uniform distribution are estimated within the relative accuracy
+     */
+    @Test
+    public void testQuantiles() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        for (int i = 1; i <= 100000; i++) {
+            sketch.add(i);
+        }
+
+        Assert.assertEquals(100000L, sketch.getCount());
+        Assert.assertEquals(1.0, sketch.getMin(), 0.0);
+        Assert.assertEquals(100000.0, sketch.getMax(), 0.0);
+        Assert.assertEquals(50000.5, sketch.getMean(), 0.0001);
+        Assert.assertEquals(1.0, sketch.getQuantile(0), 0.0);
+        Assert.assertEquals(100000.0, sketch.getQuantile(1), 0.0);
+
+        double[] quantiles = new double[] {0.5, 0.9, 0.95, 0.99};
+        for (double q : quantiles) {
+            double expected = Math.floor(q * 99999) + 1;
+            Assert.assertEquals(expected, sketch.getQuantile(q), expected * 0.01);
+        }
+    }
+
+    /**
+     * Tests that values below 1 are reported as 0
+     */
+    @Test
+    public void testZeroValues() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        sketch.add(0);
+        sketch.add(0.5);
+        sketch.add(1000);
+
+        Assert.assertEquals(0.0, sketch.getQuantile(0.5), 0.0);
+        Assert.assertEquals(1000.0, sketch.getQuantile(1), 0.0);
+    }
+
+    /**
+     * Tests that an empty sketch returns NaN
+     */
+    @Test
+    public void testEmpty() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+
+        Assert.assertEquals(0L, sketch.getCount());
+        Assert.assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        Assert.assertTrue(Double.isNaN(sketch.getMean()));
+    }
+
+    /**
+     * Tests that merging two sketches is equivalent to adding every value to one sketch
+     */
+    @Test
+    public void testMerge() {
+        QuantileSketch sketch1 = new QuantileSketch(0.01);
+        QuantileSketch sketch2 = new QuantileSketch(0.01);
+        QuantileSketch combined = new QuantileSketch(0.01);
+        for (int i = 1; i <= 1000; i++) {
+            (i % 2 == 0 ? sketch1 : sketch2).add(i * 7);
+            combined.add(i * 7);
+        }
+
+        sketch1.merge(sketch2);
+
+        Assert.assertEquals(combined.getCount(), sketch1.getCount());
+        Assert.assertEquals(combined.getMin(), sketch1.getMin(), 0.0);
+        Assert.assertEquals(combined.getMax(), sketch1.getMax(), 0.0);
+        Assert.assertEquals(combined.getQuantile(0.9), sketch1.getQuantile(0.9), 0.0);
+    }
+
+    /**
+     * Tests that negative values are rejected
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeValue() {
+        new QuantileSketch(0.01).add(-1);
+    }
+}
@@ -0,0 +1,171 @@
+package org.auscope.portal.server.web.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.vegl.VGLJobAuditLog;
+import org.auscope.portal.server.vegl.VGLJobAuditLogDao;
+import org.jmock.Expectations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+/**
+ * Unit tests for VHIRLAuditLogArchiver
+ */
+public class TestVHIRLAuditLogArchiver extends PortalTestClass {
+    private VGLJobAuditLogDao mockJobAuditLogDao;
+    private File archiveDirectory;
+    private VHIRLAuditLogArchiver archiver;
+
+    /** 13 months before this month - older than the retention period*/
+    private Date oldMonth;
+    private Date oldMonthEnd;
+
+    @Before
+    public void init() throws Exception {
+        mockJobAuditLogDao = context.mock(VGLJobAuditLogDao.class);
+        archiveDirectory = File.createTempFile("audit-archive", "");
+        archiveDirectory.delete();
+
+        archiver = new VHIRLAuditLogArchiver(mockJobAuditLogDao, archiveDirectory.getPath());
+        archiver.setRetentionMonths(12);
+
+        oldMonth = getMonthStart(-13);
+        oldMonthEnd = getMonthStart(-12);
+    }
+
+    @After
+    public void destroy() throws Exception {
+        FileUtils.deleteDirectory(archiveDirectory);
+    }
+
+    private Date getMonthStart(int monthOffset) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.MONTH, monthOffset);
+        return calendar.getTime();
+    }
+
+    private VGLJobAuditLog createAuditLog(int id, String message) {
+        VGLJobAuditLog auditLog = new VGLJobAuditLog();
+        auditLog.setId(id);
+        auditLog.setJobId(100 + id);
+        auditLog.setFromStatus("Pending");
+        auditLog.setToStatus("Active");
+        auditLog.setTransitionDate(oldMonth);
+        auditLog.setMessage(message);
+        return auditLog;
+    }
+
+    private List<String> readArchiveFile(Date month) throws Exception {
+        File file = new File(archiveDirectory, VHIRLAuditLogArchiver.ARCHIVE_FILE_PREFIX
+                + VGLJobAuditLogDao.getMonthlyPartitionName(month).substring(1) + VHIRLAuditLogArchiver.ARCHIVE_FILE_SUFFIX);
+        Assert.assertTrue(file.exists());
+
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    /**
+     * Tests that an old month is written to a gzipped CSV file and its partition dropped
+     * @throws Exception
+     */
+    @Test
+    public void testArchivePartitioned() throws Exception {
+        final List<String> partitionNames = new ArrayList<String>(Arrays.asList(
+                VGLJobAuditLogDao.getMonthlyPartitionName(oldMonth),
+                VGLJobAuditLogDao.getMonthlyPartitionName(getMonthStart(0)),
+                VGLJobAuditLogDao.getMonthlyPartitionName(getMonthStart(1)),
+                VGLJobAuditLogDao.OVERFLOW_PARTITION));
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobAuditLogDao).getPartitionNames();will(returnValue(partitionNames));
+            oneOf(mockJobAuditLogDao).getOldestTransitionDate();will(returnValue(oldMonth));
+            oneOf(mockJobAuditLogDao).getAuditLogsBetween(oldMonth, oldMonthEnd, 0, 5000);
+            will(returnValue(Arrays.asList(createAuditLog(1, "Job submitted"), createAuditLog(2, "Said \"hello\""))));
+            oneOf(mockJobAuditLogDao).dropMonthlyPartition(VGLJobAuditLogDao.getMonthlyPartitionName(oldMonth));
+        }});
+
+        Assert.assertEquals(2, archiver.archive());
+
+        List<String> lines = readArchiveFile(oldMonth);
+        Assert.assertEquals(3, lines.size());
+        Assert.assertTrue(lines.get(1).startsWith("1,101,\"Pending\",\"Active\","));
+        Assert.assertTrue(lines.get(2).endsWith(",\"Said \"\"hello\"\"\""));
+    }
+
+    /**
+     * Tests that an old month is deleted if the table isn't partitioned
+     * @throws Exception
+     */
+    @Test
+    public void testArchiveUnpartitioned() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(mockJobAuditLogDao).getPartitionNames();will(returnValue(new ArrayList<String>()));
+            oneOf(mockJobAuditLogDao).getOldestTransitionDate();will(returnValue(oldMonth));
+            oneOf(mockJobAuditLogDao).getAuditLogsBetween(oldMonth, oldMonthEnd, 0, 5000);
+            will(returnValue(Arrays.asList(createAuditLog(1, null))));
+            oneOf(mockJobAuditLogDao).deleteAuditLogsBetween(oldMonth, oldMonthEnd);will(returnValue(1));
+        }});
+
+        Assert.assertEquals(1, archiver.archive());
+        Assert.assertEquals(2, readArchiveFile(oldMonth).size());
+    }
+
+    /**
+     * Tests that the partitions for this month and next month are split out of the overflow partition
+     */
+    @Test
+    public void testAddMonthlyPartitions() {
+        context.checking(new Expectations() {{
+            oneOf(mockJobAuditLogDao).getPartitionNames();will(returnValue(new ArrayList<String>(Arrays.asList(VGLJobAuditLogDao.OVERFLOW_PARTITION))));
+            oneOf(mockJobAuditLogDao).getOldestTransitionDate();will(returnValue(null));
+            oneOf(mockJobAuditLogDao).addMonthlyPartition(getMonthStart(0), getMonthStart(1));
+            oneOf(mockJobAuditLogDao).addMonthlyPartition(getMonthStart(1), getMonthStart(2));
+        }});
+
+        Assert.assertEquals(0, archiver.archive());
+    }
+
+    /**
+     * Tests that a month isn't removed if it can't be read
+     */
+    @Test
+    public void testArchiveReadFailure() {
+        context.checking(new Expectations() {{
+            oneOf(mockJobAuditLogDao).getPartitionNames();will(returnValue(new ArrayList<String>()));
+            oneOf(mockJobAuditLogDao).getOldestTransitionDate();will(returnValue(oldMonth));
+            oneOf(mockJobAuditLogDao).getAuditLogsBetween(oldMonth, oldMonthEnd, 0, 5000);
+            will(throwException(new DataAccessResourceFailureException("Database unavailable")));
+        }});
+
+        Assert.assertEquals(0, archiver.archive());
+    }
+}
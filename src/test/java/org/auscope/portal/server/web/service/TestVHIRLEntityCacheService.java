@@ -0,0 +1,83 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.jmock.Expectations;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VHIRLEntityCacheService
+ */
+public class TestVHIRLEntityCacheService extends PortalTestClass {
+    private SessionFactory mockSessionFactory;
+    private Statistics mockStatistics;
+    private VHIRLEntityCacheService service;
+
+    @Before
+    public void init() {
+        mockSessionFactory = context.mock(SessionFactory.class);
+        mockStatistics = context.mock(Statistics.class);
+        service = new VHIRLEntityCacheService(mockSessionFactory);
+
+        context.checking(new Expectations() {{
+            allowing(mockSessionFactory).getStatistics();will(returnValue(mockStatistics));
+        }});
+    }
+
+    /**
+     * Tests that each region is reported (in name order) along with its hit ratio
+     */
+    @Test
+    public void testGetRegionStatistics() {
+        final SecondLevelCacheStatistics mockSeriesStatistics = context.mock(SecondLevelCacheStatistics.class, "seriesStatistics");
+        final SecondLevelCacheStatistics mockSignatureStatistics = context.mock(SecondLevelCacheStatistics.class, "signatureStatistics");
+
+        context.checking(new Expectations() {{
+            oneOf(mockStatistics).getSecondLevelCacheRegionNames();will(returnValue(new String[] {"vhirl.signature", "vhirl.series"}));
+            oneOf(mockStatistics).getSecondLevelCacheStatistics("vhirl.series");will(returnValue(mockSeriesStatistics));
+            oneOf(mockStatistics).getSecondLevelCacheStatistics("vhirl.signature");will(returnValue(mockSignatureStatistics));
+
+            allowing(mockSeriesStatistics).getHitCount();will(returnValue(3L));
+            allowing(mockSeriesStatistics).getMissCount();will(returnValue(1L));
+            allowing(mockSeriesStatistics).getPutCount();will(returnValue(1L));
+            allowing(mockSeriesStatistics).getElementCountInMemory();will(returnValue(1L));
+
+            allowing(mockSignatureStatistics).getHitCount();will(returnValue(0L));
+            allowing(mockSignatureStatistics).getMissCount();will(returnValue(0L));
+            allowing(mockSignatureStatistics).getPutCount();will(returnValue(0L));
+            allowing(mockSignatureStatistics).getElementCountInMemory();will(returnValue(0L));
+        }});
+
+        List<VHIRLEntityCacheService.CacheStatistics> regions = service.getRegionStatistics();
+
+        Assert.assertEquals(2, regions.size());
+        Assert.assertEquals("vhirl.series", regions.get(0).getName());
+        Assert.assertEquals(0.75, regions.get(0).getHitRatio(), 0.0001);
+        Assert.assertEquals("vhirl.signature", regions.get(1).getName());
+        Assert.assertEquals(0.0, regions.get(1).getHitRatio(), 0.0001);
+    }
+
+    /**
+     * Tests that the query cache is reported
+     */
+    @Test
+    public void testGetQueryCacheStatistics() {
+        context.checking(new Expectations() {{
+            oneOf(mockStatistics).getQueryCacheHitCount();will(returnValue(9L));
+            oneOf(mockStatistics).getQueryCacheMissCount();will(returnValue(1L));
+            oneOf(mockStatistics).getQueryCachePutCount();will(returnValue(1L));
+        }});
+
+        VHIRLEntityCacheService.CacheStatistics statistics = service.getQueryCacheStatistics();
+
+        Assert.assertEquals(9L, statistics.getHitCount());
+        Assert.assertEquals(0.9, statistics.getHitRatio(), 0.0001);
+    }
+}
@@ -0,0 +1,147 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.cloud.CloudStorageService;
+import org.auscope.portal.core.services.cloud.FileStagingService;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLPendingTask;
+import org.jmock.Expectations;
+import org.jmock.lib.action.VoidAction;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VHIRLJobCleanupQueue
+ */
+public class TestVHIRLJobCleanupQueue extends PortalTestClass {
+    private VEGLJobManager mockJobManager;
+    private FileStagingService mockFileStagingService;
+    private CloudStorageService mockStorageService;
+    private VHIRLJobCleanupQueue queue;
+
+    @Before
+    public void init() {
+        //The queue calls our mocks from its worker threads
+        context.setThreadingPolicy(new Synchroniser());
+
+        mockJobManager = context.mock(VEGLJobManager.class);
+        mockFileStagingService = context.mock(FileStagingService.class);
+        mockStorageService = context.mock(CloudStorageService.class);
+
+        context.checking(new Expectations() {{
+            allowing(mockStorageService).getId();will(returnValue("storage-id"));
+        }});
+
+        queue = new VHIRLJobCleanupQueue(mockJobManager, mockFileStagingService, new CloudStorageService[] {mockStorageService}, 2, 10);
+        queue.setRetryDelay(0L);
+    }
+
+    @After
+    public void destroy() {
+        queue.shutdown();
+    }
+
+    private void waitForQueue() throws InterruptedException {
+        for (int i = 0; i < 100 && queue.getInFlightCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(0, queue.getInFlightCount());
+    }
+
+    private VEGLJob createJob(int id) {
+        VEGLJob job = new VEGLJob(id);
+        job.setStorageServiceId("storage-id");
+        return job;
+    }
+
+    /**
+     * Tests that each job has its staging and cloud files removed and its pending task deleted
+     * @throws Exception
+     */
+    @Test
+    public void testEnqueue_CleansUpJobs() throws Exception {
+        final VEGLJob job1 = createJob(1);
+        final VEGLJob job2 = createJob(2);
+        job2.setRegisteredUrl("http://registered"); //registered jobs keep their cloud files
+        final VGLPendingTask task1 = new VGLPendingTask(1, VGLPendingTask.TYPE_CLEANUP);
+        final VGLPendingTask task2 = new VGLPendingTask(2, VGLPendingTask.TYPE_CLEANUP);
+        final VGLPendingTask copyTask1 = new VGLPendingTask(1, VGLPendingTask.TYPE_FILE_COPY); //job1 was a failed duplicate
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getPendingTask(1, VGLPendingTask.TYPE_CLEANUP);will(returnValue(task1));
+            oneOf(mockJobManager).getJobById(1);will(returnValue(job1));
+            oneOf(mockJobManager).getPendingTask(1, VGLPendingTask.TYPE_FILE_COPY);will(returnValue(copyTask1));
+            oneOf(mockJobManager).deletePendingTask(copyTask1);
+            oneOf(mockFileStagingService).deleteStageInDirectory(job1);will(returnValue(true));
+            oneOf(mockJobManager).deleteInputFilesOfJob(1);
+            oneOf(mockStorageService).deleteJobFiles(job1);
+            oneOf(mockJobManager).deletePendingTask(task1);
+
+            oneOf(mockJobManager).getPendingTask(2, VGLPendingTask.TYPE_CLEANUP);will(returnValue(task2));
+            oneOf(mockJobManager).getJobById(2);will(returnValue(job2));
+            oneOf(mockJobManager).getPendingTask(2, VGLPendingTask.TYPE_FILE_COPY);will(returnValue(null));
+            oneOf(mockFileStagingService).deleteStageInDirectory(job2);will(returnValue(true));
+            oneOf(mockJobManager).deletePendingTask(task2);
+        }});
+
+        queue.enqueue(Arrays.asList(1, 2));
+        waitForQueue();
+    }
+
+    /**
+     * Tests that a failed cleanup is recorded against its task and retried
+     * @throws Exception
+     */
+    @Test
+    public void testEnqueue_RetriesFailure() throws Exception {
+        final VEGLJob job = createJob(1);
+        final VGLPendingTask task = new VGLPendingTask(1, VGLPendingTask.TYPE_CLEANUP);
+
+        context.checking(new Expectations() {{
+            allowing(mockJobManager).getPendingTask(1, VGLPendingTask.TYPE_CLEANUP);will(returnValue(task));
+            allowing(mockJobManager).getJobById(1);will(returnValue(job));
+            allowing(mockJobManager).getPendingTask(1, VGLPendingTask.TYPE_FILE_COPY);will(returnValue(null));
+            allowing(mockFileStagingService).deleteStageInDirectory(job);will(returnValue(true));
+            allowing(mockJobManager).deleteInputFilesOfJob(1);
+
+            exactly(2).of(mockStorageService).deleteJobFiles(job);will(onConsecutiveCalls(
+                    throwException(new PortalServiceException("Storage unavailable")),
+                    new VoidAction()));
+            oneOf(mockJobManager).savePendingTask(task);
+            oneOf(mockJobManager).deletePendingTask(task);
+        }});
+
+        queue.enqueue(Arrays.asList(1));
+        waitForQueue();
+
+        Assert.assertEquals(1, task.getAttempts().intValue());
+        Assert.assertNotNull(task.getLastError());
+    }
+
+    /**
+     * Tests that persisted tasks are recovered on startup
+     * @throws Exception
+     */
+    @Test
+    public void testRecoverPendingTasks() throws Exception {
+        final VGLPendingTask task = new VGLPendingTask(1, VGLPendingTask.TYPE_CLEANUP);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getPendingTasks(VGLPendingTask.TYPE_CLEANUP, queue.getMaxAttempts());will(returnValue(Arrays.asList(task)));
+            oneOf(mockJobManager).getPendingTask(1, VGLPendingTask.TYPE_CLEANUP);will(returnValue(task));
+            oneOf(mockJobManager).getJobById(1);will(returnValue(null)); //the job has since been removed
+            oneOf(mockJobManager).deletePendingTask(task);
+        }});
+
+        queue.recoverPendingTasks();
+        waitForQueue();
+    }
+}
@@ -0,0 +1,226 @@
+package org.auscope.portal.server.web.service;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.auscope.portal.core.cloud.CloudFileInformation;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.cloud.FileStagingService;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLPendingTask;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.jmock.Expectations;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VHIRLJobFileCopier
+ */
+public class TestVHIRLJobFileCopier extends PortalTestClass {
+    private VHIRLCloudStorageService mockStorageService;
+    private FileStagingService mockFileStagingService;
+    private VHIRLJobFileCopier.CopyListener mockListener;
+    private VHIRLJobFileCopier copier;
+    private VEGLJob source;
+    private VEGLJob destination;
+
+    @Before
+    public void init() {
+        //The copier calls our mocks from its worker threads
+        context.setThreadingPolicy(new Synchroniser());
+
+        mockStorageService = context.mock(VHIRLCloudStorageService.class);
+        mockFileStagingService = context.mock(FileStagingService.class);
+        mockListener = context.mock(VHIRLJobFileCopier.CopyListener.class);
+        copier = new VHIRLJobFileCopier(2);
+
+        source = new VEGLJob(1);
+        source.setStorageBaseKey("job-1");
+        destination = new VEGLJob(2);
+        destination.setStorageBaseKey("job-2");
+    }
+
+    @After
+    public void destroy() {
+        copier.shutdown();
+    }
+
+    /**
+     * Tests that files on the same storage service are copied by the provider and never staged
+     * @throws Exception
+     */
+    @Test
+    public void testCopy_ProviderCopy() throws Exception {
+        final CloudFileInformation[] files = new CloudFileInformation[] {
+                new CloudFileInformation("job-1/input.txt", 10L, "http://example.org/input.txt")
+        };
+
+        context.checking(new Expectations() {{
+            allowing(mockStorageService).isProviderCopySupported();will(returnValue(true));
+            oneOf(mockStorageService).copyJobFile("job-1/input.txt", destination, "input.txt");
+
+            oneOf(mockListener).copyComplete(with(equal(destination)), with(any(VHIRLJobFileCopier.CopyProgress.class)));
+        }});
+
+        VHIRLJobFileCopier.CopyProgress progress = copier.copy(source, mockStorageService, destination, mockStorageService, mockFileStagingService, files, mockListener);
+        copier.shutdown();
+
+        Assert.assertSame(progress, copier.getProgress(2));
+        Assert.assertEquals(VHIRLJobFileCopier.CopyState.DONE, progress.getState());
+        Assert.assertEquals(VHIRLJobFileCopier.CopyMethod.PROVIDER, progress.getFiles().get(0).getMethod());
+        Assert.assertEquals("input.txt", progress.getFiles().get(0).getDestinationName());
+        Assert.assertEquals(10L, progress.getBytesCopied(VHIRLJobFileCopier.CopyMethod.PROVIDER));
+    }
+
+    /**
+     * Tests that a failed provider copy falls back to streaming the file into staging
+     * @throws Exception
+     */
+    @Test
+    public void testCopy_ProviderCopyFallback() throws Exception {
+        final byte[] data = new byte[] {1, 2, 3};
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final CloudFileInformation[] files = new CloudFileInformation[] {
+                new CloudFileInformation("job-1/input.txt", data.length, "http://example.org/input.txt")
+        };
+
+        context.checking(new Expectations() {{
+            allowing(mockStorageService).isProviderCopySupported();will(returnValue(true));
+            oneOf(mockStorageService).copyJobFile("job-1/input.txt", destination, "input.txt");will(throwException(new PortalServiceException("Copy failed")));
+            oneOf(mockStorageService).getJobFile(source, "job-1/input.txt");will(returnValue(new ByteArrayInputStream(data)));
+            oneOf(mockFileStagingService).writeFile(destination, "job-1/input.txt");will(returnValue(bos));
+
+            oneOf(mockListener).copyComplete(with(equal(destination)), with(any(VHIRLJobFileCopier.CopyProgress.class)));
+        }});
+
+        VHIRLJobFileCopier.CopyProgress progress = copier.copy(source, mockStorageService, destination, mockStorageService, mockFileStagingService, files, mockListener);
+        copier.shutdown();
+
+        Assert.assertEquals(VHIRLJobFileCopier.CopyMethod.STAGED, progress.getFiles().get(0).getMethod());
+        Assert.assertEquals("job-1/input.txt", progress.getFiles().get(0).getDestinationName());
+        Assert.assertEquals((long) data.length, progress.getBytesCopied());
+        Assert.assertEquals(data.length, bos.toByteArray().length);
+    }
+
+    /**
+     * Tests that a failed copy is reported to the listener
+     * @throws Exception
+     */
+    @Test
+    public void testCopy_Failure() throws Exception {
+        final PortalServiceException ex = new PortalServiceException("Download failed");
+        final CloudFileInformation[] files = new CloudFileInformation[] {
+                new CloudFileInformation("job-1/input.txt", 10L, "http://example.org/input.txt")
+        };
+
+        context.checking(new Expectations() {{
+            allowing(mockStorageService).isProviderCopySupported();will(returnValue(false));
+            oneOf(mockStorageService).getJobFile(source, "job-1/input.txt");will(throwException(ex));
+
+            oneOf(mockListener).copyFailed(destination, ex);
+        }});
+
+        VHIRLJobFileCopier.CopyProgress progress = copier.copy(source, mockStorageService, destination, mockStorageService, mockFileStagingService, files, mockListener);
+        copier.shutdown();
+
+        Assert.assertEquals(VHIRLJobFileCopier.CopyState.FAILED, progress.getState());
+        Assert.assertSame(ex, progress.getError());
+    }
+
+    /**
+     * Tests that a copy is recorded as a pending task that is removed once the copy succeeds
+     * @throws Exception
+     */
+    @Test
+    public void testCopy_RecordsTask() throws Exception {
+        final VEGLJobManager mockJobManager = context.mock(VEGLJobManager.class);
+        final CloudFileInformation[] files = new CloudFileInformation[] {
+                new CloudFileInformation("job-1/input.txt", 10L, "http://example.org/input.txt")
+        };
+        copier.setJobManager(mockJobManager);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).savePendingTask(with(any(VGLPendingTask.class)));
+            allowing(mockStorageService).isProviderCopySupported();will(returnValue(true));
+            oneOf(mockStorageService).copyJobFile("job-1/input.txt", destination, "input.txt");
+            oneOf(mockListener).copyComplete(with(equal(destination)), with(any(VHIRLJobFileCopier.CopyProgress.class)));
+            oneOf(mockJobManager).deletePendingTask(with(any(VGLPendingTask.class)));
+        }});
+
+        copier.copy(source, mockStorageService, destination, mockStorageService, mockFileStagingService, files, mockListener);
+        copier.shutdown();
+    }
+
+    /**
+     * Tests that a failed copy keeps its pending task (with the error recorded) so it's reported as failed
+     * @throws Exception
+     */
+    @Test
+    public void testCopy_FailureKeepsTask() throws Exception {
+        final VEGLJobManager mockJobManager = context.mock(VEGLJobManager.class);
+        final PortalServiceException ex = new PortalServiceException("Download failed");
+        final CloudFileInformation[] files = new CloudFileInformation[] {
+                new CloudFileInformation("job-1/input.txt", 10L, "http://example.org/input.txt")
+        };
+        final VGLPendingTask failedTask = new VGLPendingTask(2, VGLPendingTask.TYPE_FILE_COPY);
+        failedTask.setAttempts(1);
+        copier.setJobManager(mockJobManager);
+
+        context.checking(new Expectations() {{
+            exactly(2).of(mockJobManager).savePendingTask(with(any(VGLPendingTask.class)));
+            allowing(mockStorageService).isProviderCopySupported();will(returnValue(false));
+            oneOf(mockStorageService).getJobFile(source, "job-1/input.txt");will(throwException(ex));
+            oneOf(mockListener).copyFailed(destination, ex);
+            never(mockJobManager).deletePendingTask(with(any(VGLPendingTask.class)));
+        }});
+
+        VHIRLJobFileCopier.CopyProgress progress = copier.copy(source, mockStorageService, destination, mockStorageService, mockFileStagingService, files, mockListener);
+        copier.shutdown();
+        Assert.assertEquals(VHIRLJobFileCopier.CopyState.FAILED, progress.getState());
+
+        //The failure is reported from the task rather than the in memory progress
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getPendingTask(2, VGLPendingTask.TYPE_FILE_COPY);will(returnValue(failedTask));
+        }});
+        Assert.assertEquals(VHIRLJobFileCopier.CopyState.FAILED, copier.getCopyState(2));
+    }
+
+    /**
+     * Tests that copies interrupted by a restart are failed along with their jobs
+     * @throws Exception
+     */
+    @Test
+    public void testRecoverInterruptedCopies() throws Exception {
+        final VEGLJobManager mockJobManager = context.mock(VEGLJobManager.class);
+        final VGLPendingTask task = new VGLPendingTask(2, VGLPendingTask.TYPE_FILE_COPY);
+        final VGLPendingTask deletedTask = new VGLPendingTask(3, VGLPendingTask.TYPE_FILE_COPY);
+        final VEGLJob deletedJob = new VEGLJob(3);
+        destination.setStatus(JobBuilderController.STATUS_UNSUBMITTED);
+        deletedJob.setStatus(JobBuilderController.STATUS_DELETED);
+        copier.setJobManager(mockJobManager);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getPendingTasks(VGLPendingTask.TYPE_FILE_COPY, 1);will(returnValue(Arrays.asList(task, deletedTask)));
+            oneOf(mockJobManager).savePendingTask(task);
+            oneOf(mockJobManager).savePendingTask(deletedTask);
+            oneOf(mockJobManager).getJobById(2);will(returnValue(destination));
+            oneOf(mockJobManager).getJobById(3);will(returnValue(deletedJob));
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(destination), JobBuilderController.STATUS_ERROR, VHIRLJobFileCopier.INTERRUPTED_MESSAGE, null);
+
+            oneOf(mockJobManager).getPendingTask(2, VGLPendingTask.TYPE_FILE_COPY);will(returnValue(task));
+        }});
+
+        copier.recoverInterruptedCopies();
+
+        Assert.assertEquals(1, task.getAttempts().intValue());
+        Assert.assertNotNull(task.getLastError());
+        Assert.assertEquals(VHIRLJobFileCopier.CopyState.FAILED, copier.getCopyState(2));
+    }
+}
@@ -0,0 +1,240 @@
+package org.auscope.portal.server.web.service;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLInputFile;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.jmock.Expectations;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VHIRLJobInputUploader
+ */
+public class TestVHIRLJobInputUploader extends PortalTestClass {
+    private VHIRLCloudStorageService mockStorageService;
+    private VHIRLJobInputUploader.UploadListener mockListener;
+    private VEGLJobManager mockJobManager;
+    private VHIRLJobInputUploader uploader;
+    private File file1;
+    private File file2;
+
+    @Before
+    public void init() throws Exception {
+        //The uploader calls our mocks from its worker threads
+        context.setThreadingPolicy(new Synchroniser());
+
+        mockStorageService = context.mock(VHIRLCloudStorageService.class);
+        mockListener = context.mock(VHIRLJobInputUploader.UploadListener.class);
+        mockJobManager = context.mock(VEGLJobManager.class);
+        uploader = new VHIRLJobInputUploader(2);
+
+        file1 = File.createTempFile("input1", ".txt");
+        FileUtils.writeStringToFile(file1, "first input file");
+        file2 = File.createTempFile("input2", ".txt");
+        FileUtils.writeStringToFile(file2, "second input file");
+    }
+
+    @After
+    public void destroy() {
+        uploader.shutdown();
+        file1.delete();
+        file2.delete();
+    }
+
+    private void waitForUpload(VHIRLJobInputUploader.UploadProgress progress) throws InterruptedException {
+        for (int i = 0; i < 100 && !progress.isFinished(); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(progress.isFinished());
+    }
+
+    /**
+     * Tests that files already in cloud storage (with the same size and MD5) aren't uploaded again
+     * @throws Exception
+     */
+    @Test
+    public void testUpload_SkipsExistingFiles() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+        final CloudFileMetadata existing = new CloudFileMetadata("key/" + file1.getName(), file1.length(), null);
+        existing.setContentMd5(VHIRLJobInputUploader.md5Hex(file1));
+
+        context.checking(new Expectations() {{
+            oneOf(mockStorageService).getJobFileMetadata(job, file1.getName());will(returnValue(existing));
+            oneOf(mockStorageService).getJobFileMetadata(job, file2.getName());will(returnValue(null));
+            oneOf(mockStorageService).uploadJobFile(with(equal(job)), with(equal(file2)), with(equal(VHIRLJobInputUploader.md5Hex(file2))), with(any(AtomicLong.class)));
+
+            oneOf(mockListener).uploadComplete(job);
+        }});
+
+        VHIRLJobInputUploader.UploadProgress progress = uploader.upload(job, mockStorageService, new File[] {file1, file2}, mockListener);
+        waitForUpload(progress);
+
+        Assert.assertSame(progress, uploader.getProgress(123));
+        Assert.assertEquals(VHIRLJobInputUploader.UploadState.DONE, progress.getState());
+        Assert.assertEquals(VHIRLJobInputUploader.UploadState.SKIPPED, progress.getFiles().get(0).getState());
+        Assert.assertEquals(VHIRLJobInputUploader.UploadState.DONE, progress.getFiles().get(1).getState());
+        Assert.assertEquals(file1.length() + file2.length(), progress.getTotalBytes());
+    }
+
+    /**
+     * Tests that a failed upload is reported to the listener
+     * @throws Exception
+     */
+    @Test
+    public void testUpload_Failure() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+        final PortalServiceException ex = new PortalServiceException("Upload failed");
+
+        context.checking(new Expectations() {{
+            oneOf(mockStorageService).getJobFileMetadata(job, file1.getName());will(returnValue(null));
+            oneOf(mockStorageService).uploadJobFile(with(equal(job)), with(equal(file1)), with(any(String.class)), with(any(AtomicLong.class)));will(throwException(ex));
+
+            oneOf(mockListener).uploadFailed(job, ex);
+        }});
+
+        VHIRLJobInputUploader.UploadProgress progress = uploader.upload(job, mockStorageService, new File[] {file1}, mockListener);
+        waitForUpload(progress);
+
+        Assert.assertEquals(VHIRLJobInputUploader.UploadState.FAILED, progress.getState());
+        Assert.assertSame(ex, progress.getError());
+    }
+
+    /**
+     * Tests that a file already stored for another job is copied into the job's storage area by the provider rather than uploaded again
+     * @throws Exception
+     */
+    @Test
+    public void testUpload_Deduplicated() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+        final String md5 = VHIRLJobInputUploader.md5Hex(file1);
+        final VGLInputFile storedCopy = new VGLInputFile("storage-id", md5, file1.length(), "job-456/" + file1.getName(), 456);
+        final CloudFileMetadata storedMetadata = new CloudFileMetadata(storedCopy.getCloudKey(), file1.length(), null);
+        storedMetadata.setContentMd5(md5);
+        uploader.setJobManager(mockJobManager);
+        uploader.setDedupThreshold(0L);
+
+        context.checking(new Expectations() {{
+            allowing(mockStorageService).getId();will(returnValue("storage-id"));
+            oneOf(mockStorageService).getJobFileMetadata(job, file1.getName());will(returnValue(null));
+            oneOf(mockJobManager).getInputFile("storage-id", md5, file1.length());will(returnValue(storedCopy));
+            oneOf(mockStorageService).getFileMetadata(storedCopy.getCloudKey());will(returnValue(storedMetadata));
+            allowing(mockStorageService).isProviderCopySupported();will(returnValue(true));
+            oneOf(mockStorageService).copyJobFile(storedCopy.getCloudKey(), job, file1.getName());
+
+            //The job's own copy is indexed so it can still be reused after job 456 is deleted
+            allowing(mockStorageService).getJobFileKey(job, file1.getName());will(returnValue("job-123/" + file1.getName()));
+            oneOf(mockJobManager).saveInputFile(with(any(VGLInputFile.class)));
+
+            never(mockStorageService).uploadJobFile(with(any(VEGLJob.class)), with(any(File.class)), with(any(String.class)), with(any(AtomicLong.class)));
+            oneOf(mockListener).uploadComplete(job);
+        }});
+
+        VHIRLJobInputUploader.UploadProgress progress = uploader.upload(job, mockStorageService, new File[] {file1}, mockListener);
+        waitForUpload(progress);
+
+        Assert.assertEquals(VHIRLJobInputUploader.UploadState.DEDUPLICATED, progress.getFiles().get(0).getState());
+        Assert.assertEquals(file1.length(), progress.getBytesDeduplicated());
+        Assert.assertEquals(1, progress.getDeduplicatedFiles().size());
+    }
+
+    /**
+     * Tests that a file is uploaded as normal if the stored copy can't be copied by the provider
+     * @throws Exception
+     */
+    @Test
+    public void testUpload_DeduplicatedCopyFailure() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+        final String md5 = VHIRLJobInputUploader.md5Hex(file1);
+        final VGLInputFile storedCopy = new VGLInputFile("storage-id", md5, file1.length(), "job-456/" + file1.getName(), 456);
+        final CloudFileMetadata storedMetadata = new CloudFileMetadata(storedCopy.getCloudKey(), file1.length(), null);
+        storedMetadata.setContentMd5(md5);
+        uploader.setJobManager(mockJobManager);
+        uploader.setDedupThreshold(0L);
+
+        context.checking(new Expectations() {{
+            allowing(mockStorageService).getId();will(returnValue("storage-id"));
+            allowing(mockStorageService).getJobFileKey(job, file1.getName());will(returnValue("job-123/" + file1.getName()));
+            oneOf(mockStorageService).getJobFileMetadata(job, file1.getName());will(returnValue(null));
+            oneOf(mockJobManager).getInputFile("storage-id", md5, file1.length());will(returnValue(storedCopy));
+            oneOf(mockStorageService).getFileMetadata(storedCopy.getCloudKey());will(returnValue(storedMetadata));
+            allowing(mockStorageService).isProviderCopySupported();will(returnValue(true));
+            oneOf(mockStorageService).copyJobFile(storedCopy.getCloudKey(), job, file1.getName());will(throwException(new PortalServiceException("Copy failed")));
+
+            oneOf(mockStorageService).uploadJobFile(with(equal(job)), with(equal(file1)), with(equal(md5)), with(any(AtomicLong.class)));
+            oneOf(mockJobManager).saveInputFile(with(any(VGLInputFile.class)));
+
+            oneOf(mockListener).uploadComplete(job);
+        }});
+
+        VHIRLJobInputUploader.UploadProgress progress = uploader.upload(job, mockStorageService, new File[] {file1}, mockListener);
+        waitForUpload(progress);
+
+        Assert.assertEquals(VHIRLJobInputUploader.UploadState.DONE, progress.getFiles().get(0).getState());
+        Assert.assertEquals(0L, progress.getBytesDeduplicated());
+    }
+
+    /**
+     * Tests that uploaded files are indexed and that index entries whose stored copy has gone are removed
+     * @throws Exception
+     */
+    @Test
+    public void testUpload_IndexesUploadedFiles() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+        final String md5 = VHIRLJobInputUploader.md5Hex(file1);
+        final VGLInputFile staleCopy = new VGLInputFile("storage-id", md5, file1.length(), "job-456/" + file1.getName(), 456);
+        uploader.setJobManager(mockJobManager);
+        uploader.setDedupThreshold(0L);
+
+        context.checking(new Expectations() {{
+            allowing(mockStorageService).getId();will(returnValue("storage-id"));
+            allowing(mockStorageService).getJobFileKey(job, file1.getName());will(returnValue("job-123/" + file1.getName()));
+            oneOf(mockStorageService).getJobFileMetadata(job, file1.getName());will(returnValue(null));
+            oneOf(mockJobManager).getInputFile("storage-id", md5, file1.length());will(returnValue(staleCopy));
+            oneOf(mockStorageService).getFileMetadata(staleCopy.getCloudKey());will(returnValue(null));
+            oneOf(mockJobManager).deleteInputFile(staleCopy);
+
+            oneOf(mockStorageService).uploadJobFile(with(equal(job)), with(equal(file1)), with(equal(md5)), with(any(AtomicLong.class)));
+            oneOf(mockJobManager).saveInputFile(with(any(VGLInputFile.class)));
+
+            oneOf(mockListener).uploadComplete(job);
+        }});
+
+        VHIRLJobInputUploader.UploadProgress progress = uploader.upload(job, mockStorageService, new File[] {file1}, mockListener);
+        waitForUpload(progress);
+
+        Assert.assertEquals(VHIRLJobInputUploader.UploadState.DONE, progress.getFiles().get(0).getState());
+        Assert.assertEquals(0L, progress.getBytesDeduplicated());
+    }
+
+    /**
+     * Tests that jobs left provisioning by a restart are returned to the saved state
+     * @throws Exception
+     */
+    @Test
+    public void testRecoverInterruptedUploads() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+        job.setStatus(JobBuilderController.STATUS_PROVISION);
+        final List<VEGLJob> jobs = Arrays.asList(job);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getProvisioningJobs();will(returnValue(jobs));
+            oneOf(mockJobManager).updateJobStatuses(jobs, JobBuilderController.STATUS_UNSUBMITTED, VHIRLJobInputUploader.INTERRUPTED_MESSAGE, null);
+        }});
+
+        uploader.setJobManager(mockJobManager);
+        uploader.recoverInterruptedUploads();
+    }
+}
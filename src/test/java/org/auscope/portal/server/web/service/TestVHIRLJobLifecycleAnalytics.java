@@ -0,0 +1,101 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLJobAuditLogDao;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VHIRLJobLifecycleAnalytics
+ */
+public class TestVHIRLJobLifecycleAnalytics extends PortalTestClass {
+    private VEGLJobManager mockJobManager;
+    private VHIRLJobLifecycleAnalytics analytics;
+
+    @Before
+    public void init() {
+        mockJobManager = context.mock(VEGLJobManager.class);
+        analytics = new VHIRLJobLifecycleAnalytics(mockJobManager);
+    }
+
+    /**
+     * Streams the specified (jobId, computeServiceId, solutionId, toStatus, transitionDate) transitions to the handler
+     */
+    private CustomAction streamTransitions(final Object[][] transitions) {
+        return new CustomAction("stream transitions") {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                VGLJobAuditLogDao.TransitionHandler handler = (VGLJobAuditLogDao.TransitionHandler) invocation.getParameter(2);
+                for (Object[] transition : transitions) {
+                    handler.handle((Integer) transition[0], (String) transition[1], (String) transition[2],
+                            (String) transition[3], new Date((Long) transition[4]));
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Tests that the latency of each edge is reported over all jobs, per provider and per solution
+     */
+    @Test
+    public void testGetEdgeStatistics() {
+        final Date from = new Date(0L);
+        final Date to = new Date(1000000L);
+        final Object[][] transitions = new Object[][] {
+            {1, "nci", "solution-a", JobBuilderController.STATUS_PROVISION, 1000L},
+            {1, "nci", "solution-a", JobBuilderController.STATUS_PENDING, 3000L},
+            {1, "nci", "solution-a", JobBuilderController.STATUS_ACTIVE, 13000L},
+            {1, "nci", "solution-a", JobBuilderController.STATUS_DONE, 113000L},
+            {2, "nectar", null, JobBuilderController.STATUS_PENDING, 1000L},
+            {2, "nectar", null, JobBuilderController.STATUS_PENDING, 2000L}, //repeated status doesn't restart the stay
+            {2, "nectar", null, JobBuilderController.STATUS_ACTIVE, 31000L},
+        };
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).processTransitionsBetween(with(equal(from)), with(equal(to)), with(any(VGLJobAuditLogDao.TransitionHandler.class)));
+            will(streamTransitions(transitions));
+        }});
+
+        List<VHIRLJobLifecycleAnalytics.EdgeStatistics> statistics = analytics.getEdgeStatistics(from, to);
+
+        //Provisioning->Pending (all, nci, solution-a), Pending->Active (all, nci, nectar, solution-a, unknown), Active->Done (all, nci, solution-a)
+        Assert.assertEquals(11, statistics.size());
+
+        VHIRLJobLifecycleAnalytics.EdgeStatistics provisioning = statistics.get(0);
+        Assert.assertEquals(JobBuilderController.STATUS_PROVISION, provisioning.getFromStatus());
+        Assert.assertEquals(JobBuilderController.STATUS_PENDING, provisioning.getToStatus());
+        Assert.assertEquals(VHIRLJobLifecycleAnalytics.GROUP_BY_ALL, provisioning.getGroupBy());
+        Assert.assertEquals(2000.0, provisioning.getLatencies().getQuantile(0.5), 0.0);
+
+        VHIRLJobLifecycleAnalytics.EdgeStatistics pendingAll = statistics.get(3);
+        Assert.assertEquals(JobBuilderController.STATUS_PENDING, pendingAll.getFromStatus());
+        Assert.assertEquals(VHIRLJobLifecycleAnalytics.GROUP_BY_ALL, pendingAll.getGroupBy());
+        Assert.assertEquals(2L, pendingAll.getLatencies().getCount());
+        Assert.assertEquals(10000.0, pendingAll.getLatencies().getMin(), 0.0);
+        Assert.assertEquals(30000.0, pendingAll.getLatencies().getMax(), 0.0);
+
+        VHIRLJobLifecycleAnalytics.EdgeStatistics pendingNectar = statistics.get(5);
+        Assert.assertEquals(VHIRLJobLifecycleAnalytics.GROUP_BY_PROVIDER, pendingNectar.getGroupBy());
+        Assert.assertEquals("nectar", pendingNectar.getGroup());
+        Assert.assertEquals(30000.0, pendingNectar.getLatencies().getQuantile(0.5), 0.0);
+
+        VHIRLJobLifecycleAnalytics.EdgeStatistics pendingUnknown = statistics.get(7);
+        Assert.assertEquals(VHIRLJobLifecycleAnalytics.GROUP_BY_SOLUTION, pendingUnknown.getGroupBy());
+        Assert.assertEquals(VHIRLJobLifecycleAnalytics.UNKNOWN_GROUP, pendingUnknown.getGroup());
+
+        VHIRLJobLifecycleAnalytics.EdgeStatistics done = statistics.get(8);
+        Assert.assertEquals(JobBuilderController.STATUS_DONE, done.getToStatus());
+        Assert.assertEquals(100000.0, done.getLatencies().getQuantile(0.99), 0.0);
+    }
+}
@@ -0,0 +1,116 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.cloud.CloudComputeService;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.jmock.Expectations;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VHIRLJobSubmissionExecutor
+ */
+public class TestVHIRLJobSubmissionExecutor extends PortalTestClass {
+    private CloudComputeService mockComputeService;
+    private VHIRLJobSubmissionExecutor executor;
+
+    @Before
+    public void init() {
+        //The executor calls our mocks from its worker threads
+        context.setThreadingPolicy(new Synchroniser());
+
+        mockComputeService = context.mock(CloudComputeService.class);
+        executor = new VHIRLJobSubmissionExecutor(1, 1);
+    }
+
+    @After
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * Tests that launching returns the instance ID and records the launch
+     * @throws Exception
+     */
+    @Test
+    public void testLaunch() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+
+        context.checking(new Expectations() {{
+            oneOf(mockComputeService).executeJob(job, "userdata");will(returnValue("i-123"));
+        }});
+
+        Assert.assertEquals("i-123", executor.launch(mockComputeService, job, "userdata"));
+        Assert.assertEquals(1, executor.getCompletedCount());
+        Assert.assertEquals(0, executor.getInFlightCount());
+    }
+
+    /**
+     * Tests that a failed launch rethrows the original PortalServiceException
+     * @throws Exception
+     */
+    @Test
+    public void testLaunch_Error() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+        final PortalServiceException ex = new PortalServiceException("Launch failed", "Quota exceeded");
+
+        context.checking(new Expectations() {{
+            oneOf(mockComputeService).executeJob(job, "userdata");will(throwException(ex));
+        }});
+
+        try {
+            executor.launch(mockComputeService, job, "userdata");
+            Assert.fail("Exception should've been thrown");
+        } catch (PortalServiceException e) {
+            Assert.assertSame(ex, e);
+        }
+        Assert.assertEquals(1, executor.getFailedCount());
+    }
+
+    /**
+     * Tests that submissions are rejected once the pool and its queue are full
+     * @throws Exception
+     */
+    @Test
+    public void testSubmit_QueueFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        executor.submit(blocker);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.submit(blocker); //fills the queue
+        Assert.assertEquals(1, executor.getInFlightCount());
+        Assert.assertEquals(1, executor.getQueuedCount());
+
+        try {
+            executor.submit(blocker);
+            Assert.fail("Exception should've been thrown");
+        } catch (PortalServiceException e) {
+            Assert.assertEquals(VHIRLJobSubmissionExecutor.ERROR_CORRECTION_BUSY, e.getErrorCorrection());
+        }
+        Assert.assertEquals(1, executor.getRejectedCount());
+
+        release.countDown();
+        executor.shutdown();
+        Assert.assertEquals(2, executor.getCompletedCount());
+    }
+}
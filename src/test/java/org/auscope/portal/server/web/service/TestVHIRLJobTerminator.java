@@ -0,0 +1,209 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.services.cloud.CloudComputeService;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLJobQueueScheduler;
+import org.auscope.portal.server.vegl.VGLQueueJob;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+/**
+ * Unit tests for VHIRLJobTerminator
+ */
+public class TestVHIRLJobTerminator extends PortalTestClass {
+    private VEGLJobManager mockJobManager;
+    private CloudComputeService mockComputeService;
+    private VGLJobQueueScheduler mockJobQueueScheduler;
+    private ExecutorService executor;
+    private VHIRLJobTerminator terminator;
+
+    @Before
+    public void init() {
+        //The terminator calls our mocks from its worker threads
+        context.setThreadingPolicy(new Synchroniser());
+
+        mockJobManager = context.mock(VEGLJobManager.class);
+        mockComputeService = context.mock(CloudComputeService.class);
+        mockJobQueueScheduler = context.mock(VGLJobQueueScheduler.class);
+
+        context.checking(new Expectations() {{
+            allowing(mockComputeService).getId();will(returnValue("compute-id"));
+        }});
+
+        executor = Executors.newFixedThreadPool(2);
+        terminator = new VHIRLJobTerminator(mockJobManager, new CloudComputeService[] {mockComputeService}, executor);
+        terminator.setJobQueueScheduler(mockJobQueueScheduler);
+        terminator.setTerminationTimeout(10000L);
+    }
+
+    @After
+    public void destroy() {
+        terminator.shutdown();
+    }
+
+    /**
+     * Waits for every background termination to finish
+     */
+    private void awaitTerminations() throws InterruptedException {
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private VEGLJob createJob(int id, String status) {
+        VEGLJob job = new VEGLJob(id);
+        job.setStatus(status);
+        job.setComputeServiceId("compute-id");
+        job.setComputeInstanceId("instance-" + id);
+        return job;
+    }
+
+    /**
+     * Tests that finished and errored jobs are skipped, queued jobs are dequeued and running jobs are terminated
+     * @throws Exception
+     */
+    @Test
+    public void testTerminate() throws Exception {
+        final VEGLJob doneJob = createJob(1, JobBuilderController.STATUS_DONE);
+        final VEGLJob queuedJob = createJob(2, JobBuilderController.STATUS_INQUEUE);
+        final VEGLJob activeJob = createJob(3, JobBuilderController.STATUS_ACTIVE);
+        final VEGLJob erroredJob = createJob(4, JobBuilderController.STATUS_ERROR);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobQueueScheduler).remove(with(any(VGLQueueJob.class)));will(returnValue(true));
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(queuedJob), JobBuilderController.STATUS_UNSUBMITTED, VHIRLJobTerminator.CANCELLED_MESSAGE, null);
+
+            //The running job is only cancelled once its instance has been terminated
+            oneOf(mockComputeService).terminateJob(activeJob);
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(activeJob), JobBuilderController.STATUS_UNSUBMITTED, VHIRLJobTerminator.CANCELLED_MESSAGE, null);
+            oneOf(mockJobQueueScheduler).capacityFreed("compute-id");
+
+            never(mockComputeService).terminateJob(erroredJob);
+        }});
+
+        List<VHIRLJobTerminator.TerminationResult> results = terminator.terminate(Arrays.asList(doneJob, queuedJob, activeJob, erroredJob));
+
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.SKIPPED, results.get(0).getState());
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.DEQUEUED, results.get(1).getState());
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.TERMINATED, results.get(2).getState());
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.SKIPPED, results.get(3).getState());
+    }
+
+    /**
+     * Tests that jobs without an instance (eg - still Provisioning) are cancelled without terminating anything
+     * @throws Exception
+     */
+    @Test
+    public void testTerminate_NoInstance() throws Exception {
+        final VEGLJob provisioningJob = createJob(1, JobBuilderController.STATUS_PROVISION);
+        final VEGLJob pendingJob = createJob(2, JobBuilderController.STATUS_PENDING);
+        pendingJob.setComputeInstanceId(null);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(provisioningJob, pendingJob), JobBuilderController.STATUS_UNSUBMITTED, VHIRLJobTerminator.CANCELLED_MESSAGE, null);
+            never(mockComputeService).terminateJob(with(any(VEGLJob.class)));
+        }});
+
+        List<VHIRLJobTerminator.TerminationResult> results = terminator.terminate(Arrays.asList(provisioningJob, pendingJob));
+
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.CANCELLED, results.get(0).getState());
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.CANCELLED, results.get(1).getState());
+    }
+
+    /**
+     * Tests that a job whose instance can't be terminated is put into an error state (rather than cancelled),
+     * is reported as failed and doesn't stop the others
+     * @throws Exception
+     */
+    @Test
+    public void testTerminate_PartialFailure() throws Exception {
+        final VEGLJob job1 = createJob(1, JobBuilderController.STATUS_ACTIVE);
+        final VEGLJob job2 = createJob(2, JobBuilderController.STATUS_PENDING);
+        final String errorMessage = VHIRLJobTerminator.TERMINATE_FAILED_MESSAGE + "Compute service unavailable";
+
+        context.checking(new Expectations() {{
+            oneOf(mockComputeService).terminateJob(job1);will(throwException(new RuntimeException("Compute service unavailable")));
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(job1), JobBuilderController.STATUS_ERROR, errorMessage, null);
+            never(mockJobManager).updateJobStatuses(Arrays.asList(job1), JobBuilderController.STATUS_UNSUBMITTED, VHIRLJobTerminator.CANCELLED_MESSAGE, null);
+
+            oneOf(mockComputeService).terminateJob(job2);
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(job2), JobBuilderController.STATUS_UNSUBMITTED, VHIRLJobTerminator.CANCELLED_MESSAGE, null);
+            oneOf(mockJobQueueScheduler).capacityFreed("compute-id");
+        }});
+
+        List<VHIRLJobTerminator.TerminationResult> results = terminator.terminate(Arrays.asList(job1, job2));
+
+        Assert.assertFalse(results.get(0).isSuccess());
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.FAILED, results.get(0).getState());
+        Assert.assertEquals(errorMessage, results.get(0).getError());
+        Assert.assertTrue(results.get(1).isSuccess());
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.TERMINATED, results.get(1).getState());
+    }
+
+    /**
+     * Tests that a termination that doesn't finish within the timeout is reported as TERMINATING and
+     * still updates the job once it finishes
+     * @throws Exception
+     */
+    @Test
+    public void testTerminate_Timeout() throws Exception {
+        final VEGLJob job = createJob(1, JobBuilderController.STATUS_ACTIVE);
+        final CountDownLatch release = new CountDownLatch(1);
+        terminator.setTerminationTimeout(50L);
+
+        context.checking(new Expectations() {{
+            oneOf(mockComputeService).terminateJob(job);will(new CustomAction("wait for release") {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable {
+                    release.await(10, TimeUnit.SECONDS);
+                    return null;
+                }
+            });
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(job), JobBuilderController.STATUS_UNSUBMITTED, VHIRLJobTerminator.CANCELLED_MESSAGE, null);
+            oneOf(mockJobQueueScheduler).capacityFreed("compute-id");
+        }});
+
+        List<VHIRLJobTerminator.TerminationResult> results = terminator.terminate(Arrays.asList(job));
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.TERMINATING, results.get(0).getState());
+
+        release.countDown();
+        awaitTerminations();
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.TERMINATED, results.get(0).getState());
+    }
+
+    /**
+     * Tests that jobs are reported as failed if their cancelled statuses can't be saved
+     * @throws Exception
+     */
+    @Test
+    public void testTerminate_SaveFailure() throws Exception {
+        final VEGLJob job = createJob(1, JobBuilderController.STATUS_PROVISION);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).updateJobStatuses(Arrays.asList(job), JobBuilderController.STATUS_UNSUBMITTED, VHIRLJobTerminator.CANCELLED_MESSAGE, null);
+            will(throwException(new DataAccessResourceFailureException("Database unavailable")));
+        }});
+
+        List<VHIRLJobTerminator.TerminationResult> results = terminator.terminate(Arrays.asList(job));
+
+        Assert.assertEquals(VHIRLJobTerminator.TerminationState.FAILED, results.get(0).getState());
+    }
+}
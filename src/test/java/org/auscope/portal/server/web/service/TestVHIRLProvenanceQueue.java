@@ -0,0 +1,146 @@
+package org.auscope.portal.server.web.service;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLPendingTask;
+import org.jmock.Expectations;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VHIRLProvenanceQueue
+ */
+public class TestVHIRLProvenanceQueue extends PortalTestClass {
+    private VEGLJobManager mockJobManager;
+    private VHIRLProvenanceService mockProvenanceService;
+    private VHIRLProvenanceQueue queue;
+
+    @Before
+    public void init() {
+        //The queue calls our mocks from its worker threads
+        context.setThreadingPolicy(new Synchroniser());
+
+        mockJobManager = context.mock(VEGLJobManager.class);
+        mockProvenanceService = context.mock(VHIRLProvenanceService.class);
+
+        queue = new VHIRLProvenanceQueue(mockProvenanceService, mockJobManager, 1, 10);
+        queue.setInitialDelay(0L);
+        queue.setRetryDelay(0L);
+    }
+
+    @After
+    public void destroy() {
+        queue.shutdown();
+    }
+
+    private void waitForQueue() throws InterruptedException {
+        for (int i = 0; i < 100 && queue.getInFlightCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(0, queue.getInFlightCount());
+    }
+
+    /**
+     * Tests that enqueuing a job records a pending task which is removed once the job is processed
+     * @throws Exception
+     */
+    @Test
+    public void testEnqueue_RemovesPendingTask() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+
+        context.checking(new Expectations() {{
+            allowing(mockProvenanceService).serverURL();will(returnValue("http://portal.example.org"));
+            oneOf(mockJobManager).getPendingTask(123, VGLPendingTask.TYPE_PROVENANCE);will(returnValue(null));
+            oneOf(mockJobManager).savePendingTask(with(any(VGLPendingTask.class)));
+            oneOf(mockJobManager).getPendingTask(123, VGLPendingTask.TYPE_PROVENANCE);will(returnValue(new VGLPendingTask(123, VGLPendingTask.TYPE_PROVENANCE)));
+            oneOf(mockJobManager).getJobById(123);will(returnValue(null)); //The job has since been deleted
+            oneOf(mockJobManager).deletePendingTask(with(any(VGLPendingTask.class)));
+        }});
+
+        queue.enqueue(job);
+        waitForQueue();
+    }
+
+    /**
+     * Tests that tasks that have exhausted their attempts aren't rerun
+     * @throws Exception
+     */
+    @Test
+    public void testEnqueue_ExhaustedTask() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+        final VGLPendingTask task = new VGLPendingTask(123, VGLPendingTask.TYPE_PROVENANCE);
+        task.setAttempts(queue.getMaxAttempts());
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getPendingTask(123, VGLPendingTask.TYPE_PROVENANCE);will(returnValue(task));
+            never(mockJobManager).getJobById(123);
+        }});
+
+        queue.enqueue(job);
+        waitForQueue();
+    }
+
+    /**
+     * Tests that a recovered task is reported against its recorded server URL and that a failure
+     * is recorded and retried rather than the task being removed
+     * @throws Exception
+     */
+    @Test
+    public void testRecoverPendingTasks_FailureIsRetried() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+        final String serverUrl = "http://portal.example.org";
+        final VGLPendingTask task = new VGLPendingTask(123, VGLPendingTask.TYPE_PROVENANCE);
+        task.setServerUrl(serverUrl);
+
+        context.checking(new Expectations() {{
+            //No request has been served since the restart
+            allowing(mockProvenanceService).serverURL();will(returnValue(null));
+            oneOf(mockJobManager).getPendingTasks(VGLPendingTask.TYPE_PROVENANCE, queue.getMaxAttempts());will(returnValue(Arrays.asList(task)));
+            exactly(2).of(mockJobManager).getPendingTask(123, VGLPendingTask.TYPE_PROVENANCE);will(returnValue(task));
+            exactly(2).of(mockJobManager).getJobById(123);will(returnValue(job));
+
+            oneOf(mockProvenanceService).createEntitiesForOutputs(job, serverUrl);will(throwException(new PortalServiceException("rejected")));
+            oneOf(mockJobManager).savePendingTask(task);
+            oneOf(mockProvenanceService).createEntitiesForOutputs(job, serverUrl);will(returnValue(""));
+            oneOf(mockJobManager).deletePendingTask(task);
+        }});
+
+        queue.recoverPendingTasks();
+        waitForQueue();
+
+        Assert.assertEquals(Integer.valueOf(1), task.getAttempts());
+        Assert.assertNotNull(task.getLastError());
+    }
+
+    /**
+     * Tests that a job whose task can't be loaded still gives up after maxAttempts
+     * @throws Exception
+     */
+    @Test
+    public void testRun_MissingTaskIsNotRetriedForever() throws Exception {
+        final VEGLJob job = new VEGLJob(123);
+        queue.setMaxAttempts(3);
+
+        context.checking(new Expectations() {{
+            allowing(mockProvenanceService).serverURL();will(returnValue("http://portal.example.org"));
+            oneOf(mockJobManager).getPendingTask(123, VGLPendingTask.TYPE_PROVENANCE);will(returnValue(null));
+            oneOf(mockJobManager).savePendingTask(with(any(VGLPendingTask.class)));will(throwException(new RuntimeException("DB unavailable")));
+
+            //The task was never saved so nothing is recorded against it
+            exactly(3).of(mockJobManager).getPendingTask(123, VGLPendingTask.TYPE_PROVENANCE);will(returnValue(null));
+            exactly(3).of(mockJobManager).getJobById(123);will(returnValue(job));
+            exactly(3).of(mockProvenanceService).createEntitiesForOutputs(job, "http://portal.example.org");will(throwException(new PortalServiceException("rejected")));
+        }});
+
+        queue.enqueue(job);
+        waitForQueue();
+    }
+}
@@ -5,6 +5,7 @@ import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import junit.framework.Assert;
 import org.auscope.portal.core.cloud.CloudFileInformation;
+import org.auscope.portal.core.services.PortalServiceException;
 import org.auscope.portal.core.services.cloud.CloudStorageService;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.server.gridjob.FileInformation;
@@ -63,6 +64,8 @@ public class VHIRLProvenanceServiceTest extends PortalTestClass {
             "              <https://plus.google.com/1> .";
 
     VHIRLProvenanceService vhirlProvenanceService;
+    /** The response code that PROMS will return to vhirlProvenanceService*/
+    int promsResponse = 201;
 
     @Before
     public void setUp() throws Exception {
@@ -77,7 +80,12 @@ public class VHIRLProvenanceServiceTest extends PortalTestClass {
         solution = context.mock(Solution.class);
         mockProfileUrl = new URI("https://plus.google.com/1");
 
-        vhirlProvenanceService = new VHIRLProvenanceService(fileServer, storageServices);
+        vhirlProvenanceService = new VHIRLProvenanceService(fileServer, storageServices) {
+            @Override
+            protected int postReport(URI PROMSURI, Report report) {
+                return promsResponse;
+            }
+        };
         vhirlProvenanceService.setServerURL(serverURL);
         VglDownload download = new VglDownload(1);
         download.setUrl("http://portal-uploads.vhirl.org/file1?download=true");
@@ -186,6 +194,23 @@ public class VHIRLProvenanceServiceTest extends PortalTestClass {
         Assert.assertTrue(graph.contains(endedTurtle));
     }
 
+    /**
+     * Tests that a report rejected by PROMS is reported as a failure
+     */
+    @Test(expected=PortalServiceException.class)
+    public void testCreateEntitiesForOutputs_Rejected() throws Exception {
+        promsResponse = 500;
+        vhirlProvenanceService.createEntitiesForOutputs(preparedJob);
+    }
+
+    /**
+     * Tests that provenance can't be reported without a server URL
+     */
+    @Test(expected=PortalServiceException.class)
+    public void testCreateEntitiesForOutputs_NoServerURL() throws Exception {
+        vhirlProvenanceService.createEntitiesForOutputs(preparedJob, null);
+    }
+
     @Test
     public void testPost() throws Exception {
         Set<Entity> outputs = new HashSet<>();
@@ -0,0 +1,83 @@
+package org.auscope.portal.server.web.service.monitor;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VGLJobPollScheduler
+ */
+public class TestVGLJobPollScheduler extends PortalTestClass {
+    private VGLJobPollScheduler scheduler;
+
+    @Before
+    public void init() {
+        scheduler = new VGLJobPollScheduler();
+        scheduler.setMinPollInterval(1000L);
+        scheduler.setMaxPollInterval(5000L);
+        scheduler.setBackoffMultiplier(2.0);
+    }
+
+    private long getInterval(Integer jobId) {
+        return scheduler.getNextPollTime(jobId) - System.currentTimeMillis();
+    }
+
+    /**
+     * Tests that unscheduled jobs are due and scheduled jobs aren't
+     */
+    @Test
+    public void testGetJobsDue() {
+        VEGLJob job1 = new VEGLJob(1);
+        VEGLJob job2 = new VEGLJob(2);
+
+        scheduler.recordPoll(1, JobBuilderController.STATUS_PENDING, "-;-;");
+
+        List<VEGLJob> due = scheduler.getJobsDue(Arrays.asList(job1, job2));
+        Assert.assertEquals(1, due.size());
+        Assert.assertSame(job2, due.get(0));
+    }
+
+    /**
+     * Tests that unchanging jobs back off up to the max interval and that
+     * a marker change resets them to the min interval
+     */
+    @Test
+    public void testRecordPoll_BackoffAndReset() {
+        scheduler.recordPoll(1, JobBuilderController.STATUS_ACTIVE, "10;-;");
+        Assert.assertTrue(getInterval(1) <= 1000L);
+
+        scheduler.recordPoll(1, JobBuilderController.STATUS_ACTIVE, "10;-;");
+        Assert.assertTrue(getInterval(1) > 1000L);
+        Assert.assertTrue(getInterval(1) <= 2000L);
+
+        for (int i = 0; i < 5; i++) {
+            scheduler.recordPoll(1, JobBuilderController.STATUS_ACTIVE, null);
+        }
+        Assert.assertTrue(getInterval(1) > 4000L);
+        Assert.assertTrue(getInterval(1) <= 5000L);
+
+        scheduler.recordPoll(1, JobBuilderController.STATUS_ACTIVE, "20;-;");
+        Assert.assertTrue(getInterval(1) <= 1000L);
+    }
+
+    /**
+     * Tests that jobs no longer pending/active are forgotten
+     */
+    @Test
+    public void testGetJobsDue_ForgetsFinishedJobs() {
+        scheduler.recordPoll(1, JobBuilderController.STATUS_ACTIVE, "10;-;");
+        scheduler.recordPoll(2, JobBuilderController.STATUS_ACTIVE, "10;-;");
+
+        scheduler.getJobsDue(Arrays.asList(new VEGLJob(2)));
+
+        Assert.assertNull(scheduler.getNextPollTime(1));
+        Assert.assertNotNull(scheduler.getNextPollTime(2));
+    }
+}
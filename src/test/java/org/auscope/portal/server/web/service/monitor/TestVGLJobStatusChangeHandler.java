@@ -5,6 +5,7 @@ import java.util.Date;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.server.vegl.VEGLJob;
 import org.auscope.portal.server.vegl.VEGLJobManager;
+import org.auscope.portal.server.vegl.VGLJobQueueScheduler;
 import org.auscope.portal.server.vegl.VGLJobStatusAndLogReader;
 import org.auscope.portal.server.vegl.mail.JobMailSender;
 import org.auscope.portal.server.web.controllers.JobBuilderController;
@@ -98,4 +99,33 @@ public class TestVGLJobStatusChangeHandler extends PortalTestClass {
 
         handler.handleStatusChange(mockJob, newStatus, oldStatus);
     }
+
+    /**
+     * Tests that a job finishing notifies the job queue that its compute service has capacity
+     */
+    @Test
+    public void testHandleStatusChange_JobDoneFreesCapacity() {
+        final int jobId = 123;
+        final String oldStatus = JobBuilderController.STATUS_ACTIVE;
+        final String newStatus = JobBuilderController.STATUS_DONE;
+        final String computeServiceId = "compute-id";
+        final VGLJobQueueScheduler mockScheduler = context.mock(VGLJobQueueScheduler.class);
+
+        handler.setJobQueueScheduler(mockScheduler);
+
+        context.checking(new Expectations() {{
+            allowing(mockJob).getId();will(returnValue(jobId));
+            allowing(mockJob).getComputeServiceId();will(returnValue(computeServiceId));
+            oneOf(mockJob).getEmailNotification();will(returnValue(false));
+            oneOf(mockJob).setProcessDate(with(any(Date.class)));
+            oneOf(mockVGLJobStatusAndLogReader).getSectionedLog(mockJob, "Time");will(returnValue(null));
+            oneOf(mockJob).setProcessTimeLog(null);
+            oneOf(mockJob).setStatus(newStatus);
+            oneOf(mockJobManager).saveJob(mockJob);
+            oneOf(mockJobManager).createJobAuditTrail(oldStatus, mockJob, "Job status updated.");
+            oneOf(mockScheduler).capacityFreed(computeServiceId);
+        }});
+
+        handler.handleStatusChange(mockJob, newStatus, oldStatus);
+    }
 }
\ No newline at end of file
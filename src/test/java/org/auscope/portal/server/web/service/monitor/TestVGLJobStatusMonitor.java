@@ -1,5 +1,6 @@
 package org.auscope.portal.server.web.service.monitor;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -25,6 +26,7 @@ public class TestVGLJobStatusMonitor extends PortalTestClass {
     private JobExecutionContext mockJobExecCtx;
     private VEGLJobManager mockJobManager;
     private JobStatusMonitor mockJobStatusMonitor;
+    private VGLParallelJobStatusUpdater mockJobStatusUpdater;
     
     @Before
     public void init() {
@@ -32,6 +34,7 @@ public class TestVGLJobStatusMonitor extends PortalTestClass {
         mockJobExecCtx = context.mock(JobExecutionContext.class);
         mockJobManager = context.mock(VEGLJobManager.class);
         mockJobStatusMonitor = context.mock(JobStatusMonitor.class);
+        mockJobStatusUpdater = context.mock(VGLParallelJobStatusUpdater.class);
         
         //Component under test
         monitor = new VGLJobStatusMonitor();
@@ -63,6 +66,31 @@ public class TestVGLJobStatusMonitor extends PortalTestClass {
         monitor.executeInternal(mockJobExecCtx);
     }
     
+    /**
+     * Tests that a configured parallel updater is used in place
+     * of the JobStatusMonitor.
+     * @throws Exception
+     */
+    @Test
+    public void testExecuteInternal_ParallelUpdater() throws Exception {
+        final VEGLJob job1 = new VEGLJob(1);
+        job1.setStatus(JobBuilderController.STATUS_PENDING);
+        
+        final VEGLJob job2 = new VEGLJob(2);
+        job2.setStatus(JobBuilderController.STATUS_ACTIVE);
+        
+        final List<VEGLJob> pendingActiveJobs = Arrays.asList(job1, job2);
+        
+        context.checking(new Expectations() {{
+            oneOf(mockJobManager).getPendingOrActiveJobs();will(returnValue(pendingActiveJobs));
+            
+            oneOf(mockJobStatusUpdater).statusUpdate(pendingActiveJobs);will(returnValue(new ArrayList<VEGLJob>()));
+        }});
+        
+        monitor.setJobStatusUpdater(mockJobStatusUpdater);
+        monitor.executeInternal(mockJobExecCtx);
+    }
+    
     /**
      * Tests that exception caused by job status change handler
      * will correctly wrap exceptions
@@ -0,0 +1,138 @@
+package org.auscope.portal.server.web.service.monitor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.auscope.portal.core.cloud.CloudJob;
+import org.auscope.portal.core.services.cloud.monitor.JobStatusChangeListener;
+import org.auscope.portal.core.services.cloud.monitor.JobStatusException;
+import org.auscope.portal.core.services.cloud.monitor.JobStatusMonitor;
+import org.auscope.portal.core.services.cloud.monitor.JobStatusReader;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.server.vegl.VEGLJob;
+import org.auscope.portal.server.web.controllers.JobBuilderController;
+import org.jmock.Expectations;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VGLParallelJobStatusUpdater
+ */
+public class TestVGLParallelJobStatusUpdater extends PortalTestClass {
+    private VGLParallelJobStatusUpdater updater;
+    private JobStatusMonitor mockJobStatusMonitor;
+
+    @Before
+    public void init() {
+        //The updater calls our mocks from its worker threads
+        context.setThreadingPolicy(new Synchroniser());
+
+        mockJobStatusMonitor = context.mock(JobStatusMonitor.class);
+
+        updater = new VGLParallelJobStatusUpdater(mockJobStatusMonitor, 4);
+        updater.setMaxConcurrentPerStorageService(2);
+        updater.setTickDeadline(10000L);
+    }
+
+    @After
+    public void destroy() {
+        updater.shutdown();
+    }
+
+    private VEGLJob createJob(int id, String storageServiceId) {
+        VEGLJob job = new VEGLJob(id);
+        job.setStatus(JobBuilderController.STATUS_PENDING);
+        job.setStorageServiceId(storageServiceId);
+        return job;
+    }
+
+    /**
+     * Tests that every job is individually polled
+     * @throws Exception
+     */
+    @Test
+    public void testStatusUpdate() throws Exception {
+        final VEGLJob job1 = createJob(1, "storage-a");
+        final VEGLJob job2 = createJob(2, "storage-a");
+        final VEGLJob job3 = createJob(3, "storage-b");
+        final VEGLJob job4 = createJob(4, null);
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobStatusMonitor).statusUpdate(Arrays.asList(job1));
+            oneOf(mockJobStatusMonitor).statusUpdate(Arrays.asList(job2));
+            oneOf(mockJobStatusMonitor).statusUpdate(Arrays.asList(job3));
+            oneOf(mockJobStatusMonitor).statusUpdate(Arrays.asList(job4));
+        }});
+
+        List<VEGLJob> incomplete = updater.statusUpdate(Arrays.asList(job1, job2, job3, job4));
+        Assert.assertTrue(incomplete.isEmpty());
+    }
+
+    /**
+     * Tests that a failure updating one job doesn't stop the others from being polled
+     * @throws Exception
+     */
+    @Test
+    public void testStatusUpdate_SingleFailure() throws Exception {
+        final VEGLJob job1 = createJob(1, "storage-a");
+        final VEGLJob job2 = createJob(2, "storage-a");
+        final VEGLJob job3 = createJob(3, "storage-a");
+
+        context.checking(new Expectations() {{
+            oneOf(mockJobStatusMonitor).statusUpdate(Arrays.asList(job1));
+            oneOf(mockJobStatusMonitor).statusUpdate(Arrays.asList(job2));will(throwException(new JobStatusException(new Exception(), job2)));
+            oneOf(mockJobStatusMonitor).statusUpdate(Arrays.asList(job3));
+        }});
+
+        List<VEGLJob> incomplete = updater.statusUpdate(Arrays.asList(job1, job2, job3));
+        Assert.assertEquals(1, incomplete.size());
+        Assert.assertSame(job2, incomplete.get(0));
+    }
+
+    /**
+     * Tests that jobs waiting on a storage service that is at its limit don't hold workers that
+     * other storage services could use
+     * @throws Exception
+     */
+    @Test
+    public void testStatusUpdate_SlowStorageService() throws Exception {
+        final VEGLJob slowJob1 = createJob(1, "storage-slow");
+        final VEGLJob slowJob2 = createJob(2, "storage-slow");
+        final VEGLJob fastJob = createJob(3, "storage-fast");
+        final CountDownLatch fastJobPolled = new CountDownLatch(1);
+
+        //storage-slow can't finish polling until storage-fast has been polled. If slowJob2 were
+        //waiting on a worker for storage-slow's slot, fastJob would never get a worker. A real monitor
+        //is used as the mock Synchroniser would serialise the polls.
+        JobStatusReader reader = new JobStatusReader() {
+            @Override
+            public String getJobStatus(CloudJob job) {
+                try {
+                    if (job == slowJob1 && !fastJobPolled.await(5, TimeUnit.SECONDS)) {
+                        throw new RuntimeException("storage-fast was never polled");
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                if (job == fastJob) {
+                    fastJobPolled.countDown();
+                }
+                return ((VEGLJob) job).getStatus();
+            }
+        };
+
+        updater.shutdown();
+        updater = new VGLParallelJobStatusUpdater(new JobStatusMonitor(reader, new JobStatusChangeListener[0]), 2);
+        updater.setMaxConcurrentPerStorageService(1);
+        updater.setTickDeadline(10000L);
+
+        List<VEGLJob> incomplete = updater.statusUpdate(Arrays.asList(slowJob1, slowJob2, fastJob));
+        Assert.assertTrue(incomplete.isEmpty());
+    }
+}